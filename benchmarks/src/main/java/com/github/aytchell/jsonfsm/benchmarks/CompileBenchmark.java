@@ -0,0 +1,42 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling an already parsed state machine (including its device commands).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark extends GeneratedMachine {
+    private final Map<Integer, DeviceCommandCompiler> commandCompilers = MachineGenerator.commandCompilers();
+    private StateMachineCompiler compiler;
+
+    @Setup(Level.Trial)
+    public void parse() throws Exception {
+        compiler = StateMachineParser.parse(json());
+    }
+
+    @Benchmark
+    public StateMachine compileStateMachine() throws CompilationException {
+        return compiler.compileStateMachine(commandCompilers);
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Several threads injecting events into the same state machine: a concurrent instance (with its
+ * single-writer mailbox) versus a plain instance guarded by a lock.
+ * <p>
+ * The number of threads can be changed via JMH's {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentInjectBenchmark extends GeneratedMachine {
+    private final ReentrantLock lock = new ReentrantLock();
+    private StateMachine mailboxMachine;
+    private StateMachine lockedMachine;
+    private int[] eventSourceIds;
+    private String[] eventPayloads;
+
+    @Setup(Level.Trial)
+    public void compile() throws Exception {
+        final StateMachineDefinition definition =
+                StateMachineParser.parse(json()).compileDefinition(MachineGenerator.commandCompilers());
+        mailboxMachine = definition.newConcurrentInstance();
+        lockedMachine = definition.newInstance();
+        eventSourceIds = new int[triggers];
+        eventPayloads = new String[triggers];
+        for (int t = 0; t < triggers; ++t) {
+            eventSourceIds[t] = MachineGenerator.eventSourceId(t);
+            eventPayloads[t] = MachineGenerator.eventPayload(t);
+        }
+    }
+
+    /**
+     * The events injected by one thread; they cycle through all triggers.
+     */
+    @State(Scope.Thread)
+    public static class Events {
+        private int next = 0;
+
+        int next(int triggers) {
+            final int event = next;
+            next = event + 1 == triggers ? 0 : event + 1;
+            return event;
+        }
+    }
+
+    @Benchmark
+    public boolean mailbox(Events events) {
+        final int event = events.next(triggers);
+        return mailboxMachine.injectEvent(eventSourceIds[event], eventPayloads[event]);
+    }
+
+    @Benchmark
+    public boolean lock(Events events) {
+        final int event = events.next(triggers);
+        lock.lock();
+        try {
+            return lockedMachine.injectEvent(eventSourceIds[event], eventPayloads[event]);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
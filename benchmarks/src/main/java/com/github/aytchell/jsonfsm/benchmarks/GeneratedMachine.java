@@ -0,0 +1,38 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding a generated state machine; the size is selected via JMH parameters
+ * (e.g. {@code -p states=10,1000}).
+ */
+@State(Scope.Benchmark)
+public abstract class GeneratedMachine {
+    @Param({"10", "100", "1000"})
+    public int states;
+
+    @Param({"4", "32"})
+    public int triggers;
+
+    @Param({"0", "3"})
+    public int behaviorsPerState;
+
+    private String json;
+
+    /**
+     * Returns the json of the generated state machine.
+     * <p>
+     * JMH doesn't guarantee that setup methods of a base class run before those of a subclass.
+     * So the machine is generated on first use which is during the subclasses' setups.
+     *
+     * @return the json-encoded state machine
+     */
+    protected String json() {
+        if (json == null) {
+            json = new MachineGenerator(states, triggers, behaviorsPerState).generate();
+        }
+        return json;
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injecting events into a compiled state machine.
+ * <p>
+ * The events cycle through all triggers; since every state handles every trigger each event
+ * leads to a transition.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectEventBenchmark extends GeneratedMachine {
+    private StateMachine machine;
+    private int[] eventSourceIds;
+    private String[] eventPayloads;
+    private int[] triggerHandles;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void compile() throws Exception {
+        machine = StateMachineParser.parse(json()).compileStateMachine(MachineGenerator.commandCompilers());
+        eventSourceIds = new int[triggers];
+        eventPayloads = new String[triggers];
+        triggerHandles = new int[triggers];
+        for (int t = 0; t < triggers; ++t) {
+            eventSourceIds[t] = MachineGenerator.eventSourceId(t);
+            // copies so the lookup can't take the identity shortcut of String.equals
+            eventPayloads[t] = new String(MachineGenerator.eventPayload(t).toCharArray());
+            triggerHandles[t] = machine.resolveTrigger(eventSourceIds[t], eventPayloads[t]);
+        }
+    }
+
+    @Benchmark
+    public boolean injectEvent() {
+        final int event = nextEvent();
+        return machine.injectEvent(eventSourceIds[event], eventPayloads[event]);
+    }
+
+    @Benchmark
+    public boolean injectTrigger() {
+        return machine.injectTrigger(triggerHandles[nextEvent()]);
+    }
+
+    private int nextEvent() {
+        final int event = next;
+        next = event + 1 == triggers ? 0 : event + 1;
+        return event;
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing (json and validation) of large state machines from a string, a stream, a reader and a file.
+ * <p>
+ * Every variant starts at the same file: the string variant reads the whole document into memory
+ * before parsing starts; the others parse while reading. The GC profiler (always added by
+ * {@link BenchmarkRunner}) only shows the allocation rate; for the memory a variant needs at once
+ * add {@link PeakHeapProfiler}:
+ * <pre>
+ * java -jar target/benchmarks.jar LargeFileParse -prof com.github.aytchell.jsonfsm.benchmarks.PeakHeapProfiler
+ * </pre>
+ * The machines are far beyond the sizes of {@link ParseBenchmark} which is why this benchmark has
+ * parameters of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LargeFileParseBenchmark {
+    @Param({"10000", "50000"})
+    public int states;
+
+    @Param({"4"})
+    public int triggers;
+
+    @Param({"3"})
+    public int behaviorsPerState;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void write() throws IOException {
+        // only the file is kept; holding the document in memory would distort the heap usage
+        file = Files.createTempFile("jsonfsm-benchmark", ".json");
+        Files.write(file, new MachineGenerator(states, triggers, behaviorsPerState).generate()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public StateMachineCompiler string() throws ValidationException, IOException {
+        return StateMachineParser.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public StateMachineCompiler stream() throws ValidationException, IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return StateMachineParser.parseStream(input);
+        }
+    }
+
+    @Benchmark
+    public StateMachineCompiler reader() throws ValidationException, IOException {
+        try (Reader input = Files.newBufferedReader(file)) {
+            return StateMachineParser.parseReader(input);
+        }
+    }
+
+    @Benchmark
+    public StateMachineCompiler file() throws ValidationException, IOException {
+        return StateMachineParser.parseFile(file);
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates json-encoded state machines of a given size.
+ * <p>
+ * Every state has a transition for every trigger; trigger {@code t} leads from state {@code s}
+ * to state {@code (s + t + 1) % states}. Each state has {@code behaviorsPerState} behaviors which
+ * are split among onEntry, onExit and the effects of the state's first transition. The triggers
+ * are spread over {@link #EVENT_SOURCES} event sources and the behaviors over {@link #DEVICES} devices.
+ */
+public class MachineGenerator {
+    public static final int EVENT_SOURCES = 8;
+    public static final int DEVICES = 4;
+
+    private final int states;
+    private final int triggers;
+    private final int behaviorsPerState;
+
+    public MachineGenerator(int states, int triggers, int behaviorsPerState) {
+        this.states = states;
+        this.triggers = triggers;
+        this.behaviorsPerState = behaviorsPerState;
+    }
+
+    public static int eventSourceId(int trigger) {
+        return 1 + trigger % EVENT_SOURCES;
+    }
+
+    public static String eventPayload(int trigger) {
+        return "event-" + trigger;
+    }
+
+    /**
+     * Command compilers for all devices used by the generated machines; the commands do nothing.
+     *
+     * @return a compiler for each device ID
+     */
+    public static Map<Integer, DeviceCommandCompiler> commandCompilers() {
+        final Map<Integer, DeviceCommandCompiler> compilers = new HashMap<>();
+        for (int device = 1; device <= DEVICES; ++device) {
+            compilers.put(device, commandString -> () -> {
+            });
+        }
+        return compilers;
+    }
+
+    public String generate() {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n  \"initialState\" : \"S0\",\n  \"triggers\" : [");
+        for (int t = 0; t < triggers; ++t) {
+            json.append(t == 0 ? "\n" : ",\n")
+                    .append("    { \"name\" : \"T").append(t)
+                    .append("\", \"eventSourceId\" : ").append(eventSourceId(t))
+                    .append(", \"eventPayload\" : \"").append(eventPayload(t)).append("\" }");
+        }
+        json.append("\n  ],\n  \"states\" : [");
+        for (int s = 0; s < states; ++s) {
+            json.append(s == 0 ? "\n" : ",\n").append("    {\n      \"name\" : \"S").append(s).append('"');
+            appendBehaviors(json, "onEntry", s, 0);
+            appendBehaviors(json, "onExit", s, 1);
+            json.append(",\n      \"transitions\" : [");
+            for (int t = 0; t < triggers; ++t) {
+                json.append(t == 0 ? "\n" : ",\n")
+                        .append("        { \"triggerName\" : \"T").append(t)
+                        .append("\", \"targetState\" : \"S").append((s + t + 1) % states).append('"');
+                if (t == 0) {
+                    appendBehaviors(json, "effects", s, 2);
+                }
+                json.append(" }");
+            }
+            json.append("\n      ]\n    }");
+        }
+        json.append("\n  ],\n  \"finalStates\" : [ \"S").append(states - 1).append("\" ]\n}\n");
+        return json.toString();
+    }
+
+    private void appendBehaviors(StringBuilder json, String name, int state, int part) {
+        // behaviors are dealt round robin to onEntry, onExit and the first transition's effects
+        boolean first = true;
+        for (int b = part; b < behaviorsPerState; b += 3) {
+            json.append(first ? ", \"" + name + "\" : [" : ",")
+                    .append(" { \"deviceId\" : ").append(1 + (state + b) % DEVICES)
+                    .append(", \"commandString\" : \"cmd ").append(state).append('-').append(b).append("\" }");
+            first = false;
+        }
+        if (!first) {
+            json.append(" ]");
+        }
+    }
+}
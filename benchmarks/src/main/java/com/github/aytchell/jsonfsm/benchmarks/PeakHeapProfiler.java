@@ -0,0 +1,69 @@
+package com.github.aytchell.jsonfsm.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reports the peak usage of the heap's memory pools during each iteration (in MB).
+ * <p>
+ * The young generation fills up with garbage no matter how much memory a benchmark keeps alive;
+ * the peak of the old generation ({@code peak.heap.<name of its pool>}) shows what survived at
+ * least one collection. {@code peak.heap} adds up the peaks of all pools which may be reached at
+ * different times, so it is an upper bound. The heap is collected before each iteration so the
+ * peaks don't include garbage of earlier iterations.
+ * <p>
+ * Add it with {@code -prof com.github.aytchell.jsonfsm.benchmarks.PeakHeapProfiler}.
+ */
+public class PeakHeapProfiler implements InternalProfiler {
+    private static final double MB = 1024.0 * 1024.0;
+
+    @Override
+    public String getDescription() {
+        return "Peak usage of the heap's memory pools";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams, IterationResult result) {
+        final List<Result> results = new ArrayList<>();
+        long total = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            final long peak = pool.getPeakUsage().getUsed();
+            total += peak;
+            results.add(new ScalarResult("peak.heap." + pool.getName().replace(' ', '_'), peak / MB, "MB",
+                    AggregationPolicy.MAX));
+        }
+        results.add(new ScalarResult("peak.heap", total / MB, "MB", AggregationPolicy.MAX));
+        return results;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        final List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+}
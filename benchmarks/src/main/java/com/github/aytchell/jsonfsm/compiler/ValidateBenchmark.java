@@ -0,0 +1,42 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.benchmarks.GeneratedMachine;
+import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of an already parsed state machine.
+ * <p>
+ * {@link StateMachinePojoValidator} isn't part of the public API; that's why this benchmark lives
+ * in the library's package.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateBenchmark extends GeneratedMachine {
+    private StateMachinePojo pojo;
+
+    @Setup(Level.Trial)
+    public void read() throws Exception {
+        pojo = new StateMachineParserImpl().read(json());
+    }
+
+    @Benchmark
+    public StateMachinePojo validate() throws ValidationException {
+        StateMachinePojoValidator.validate(pojo);
+        return pojo;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.benchmarks.MachineGenerator;
+import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
+import com.github.aytchell.jsonfsm.input.pojos.StatePojo;
+import com.github.aytchell.jsonfsm.input.pojos.TriggerPojo;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of very large state machines (up to 50k states with 200k transitions).
+ * <p>
+ * With {@code patterns} the machine gets a payload pattern trigger for every tenth state; they
+ * share a source with a catch-all pattern which overlaps all of them. With a {@code nesting} above
+ * one the states are nested into chains of that many states.
+ * <p>
+ * Validation is expected to scale linearly: the reported time divided by {@code states} should
+ * stay about the same for all sizes. The machines are far beyond the sizes of
+ * {@link ValidateBenchmark} which is why this benchmark has parameters of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ValidateScalingBenchmark {
+    @Param({"1000", "10000", "50000"})
+    public int states;
+
+    @Param({"4"})
+    public int triggers;
+
+    @Param({"false", "true"})
+    public boolean patterns;
+
+    @Param({"1", "50"})
+    public int nesting;
+
+    private StateMachinePojo pojo;
+
+    @Setup(Level.Trial)
+    public void read() throws Exception {
+        pojo = new StateMachineParserImpl().read(new MachineGenerator(states, triggers, 0).generate());
+        if (patterns) {
+            addPatterns();
+        }
+        nestStates();
+    }
+
+    private void addPatterns() {
+        pojo.getTriggers().add(patternTrigger("P", "cmd/*"));
+        for (int p = 0; p < states / 10; ++p) {
+            pojo.getTriggers().add(patternTrigger("P" + p, "cmd/" + p + "/*"));
+        }
+    }
+
+    private static TriggerPojo patternTrigger(String name, String pattern) {
+        final TriggerPojo trigger = new TriggerPojo();
+        trigger.setName(name);
+        trigger.setEventSourceId(MachineGenerator.EVENT_SOURCES + 1);
+        trigger.setEventPayloadPattern(pattern);
+        return trigger;
+    }
+
+    private void nestStates() {
+        // each state but the last one of a chain is the parent of the next state and enters it initially
+        final List<StatePojo> all = pojo.getStates();
+        for (int s = 0; s < all.size(); ++s) {
+            if (s % nesting != 0) {
+                all.get(s).setParent(all.get(s - 1).getName());
+                all.get(s - 1).setInitialSubstate(all.get(s).getName());
+            }
+        }
+    }
+
+    @Benchmark
+    public StateMachinePojo validate() throws ValidationException {
+        StateMachinePojoValidator.validate(pojo);
+        return pojo;
+    }
+}
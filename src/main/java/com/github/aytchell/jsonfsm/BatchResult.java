@@ -0,0 +1,64 @@
+package com.github.aytchell.jsonfsm;
+
+import lombok.Getter;
+
+/**
+ * Outcome of injecting a batch of events via {@link StateMachine#injectEvents}.
+ */
+@Getter
+public class BatchResult {
+    /**
+     * Index (within the given arrays) of the first event whose transition ended in a final state.
+     * <p>
+     * This is {@code -1} if no transition of the batch ended in a final state.
+     */
+    private final int firstFinalIndex;
+
+    /**
+     * Number of events which caused a transition to be traversed.
+     */
+    private final int acceptedCount;
+
+    /**
+     * Number of events whose trigger is marked to be ignored in the state where it arrived.
+     */
+    private final int ignoredCount;
+
+    /**
+     * Number of events whose trigger has neither a transition nor is marked to be ignored in the
+     * state where it arrived.
+     */
+    private final int unhandledCount;
+
+    /**
+     * Number of events which didn't match any trigger.
+     */
+    private final int unknownCount;
+
+    /**
+     * Constructor (used internally by the lib).
+     *
+     * @param firstFinalIndex index of the first event whose transition ended in a final state (or {@code -1})
+     * @param acceptedCount   number of events which caused a transition to be traversed
+     * @param ignoredCount    number of events whose trigger is marked to be ignored
+     * @param unhandledCount  number of events whose trigger has no transition in the current state
+     * @param unknownCount    number of events which didn't match any trigger
+     */
+    public BatchResult(int firstFinalIndex, int acceptedCount, int ignoredCount, int unhandledCount,
+                       int unknownCount) {
+        this.firstFinalIndex = firstFinalIndex;
+        this.acceptedCount = acceptedCount;
+        this.ignoredCount = ignoredCount;
+        this.unhandledCount = unhandledCount;
+        this.unknownCount = unknownCount;
+    }
+
+    /**
+     * Says whether some transition of the batch ended in a final state.
+     *
+     * @return {@code true} if a final state has been reached; {@code false} otherwise
+     */
+    public boolean isFinalStateReached() {
+        return firstFinalIndex >= 0;
+    }
+}
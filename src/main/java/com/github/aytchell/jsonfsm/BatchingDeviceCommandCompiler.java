@@ -0,0 +1,36 @@
+package com.github.aytchell.jsonfsm;
+
+import java.util.List;
+
+/**
+ * Optional extension of {@link DeviceCommandCompiler} for devices which can execute several
+ * commands at once (e.g. remote devices charging per round trip).
+ * <p>
+ * If the compiler given for a device implements this interface, the commands for this device
+ * which are executed as part of the same transition are compiled together into a single
+ * {@link DeviceCommand}. For the default {@link ExecutionEngine#TABLE} engine there is one batch
+ * for the commands executed before the state changes (the onExit behaviors of the exited states
+ * and the effects) and one for those executed afterwards (the onEntry behaviors of the entered
+ * states); so onEntry commands still see the target state. The {@link ExecutionEngine#STATELESS4J}
+ * engine can only group the commands within each of these lists.
+ * <p>
+ * The batched command is executed at the position of the group's first command. Thus the later
+ * commands of the group run before the commands of other devices which are listed in between
+ * (e.g. onExit {@code a1, b1} and effect {@code a2} of batched device {@code a} are executed as
+ * {@code [a1 a2], b1}); the commands of other devices keep their relative order.
+ */
+public interface BatchingDeviceCommandCompiler extends DeviceCommandCompiler {
+    /**
+     * Compiles several command strings for this device into a single closure.
+     * <p>
+     * This is only called for two or more command strings; single commands are still given
+     * to {@link #compile(String)}.
+     *
+     * @param commandStrings the strings as given in the json-encoded state machine (in the
+     *                       order of execution)
+     * @return An instance executing all the command strings
+     * @throws Exception Whatever goes wrong: the {@link StateMachineCompiler} will catch
+     *                   this exception, extract the message forward it as {@link CompilationException}.
+     */
+    DeviceCommand compileBatch(List<String> commandStrings) throws Exception;
+}
@@ -0,0 +1,83 @@
+package com.github.aytchell.jsonfsm;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Optional settings for {@link StateMachineCompiler#compileDefinition(java.util.Map, CompileOptions)}.
+ * <p>
+ * Instances are created via {@code builder()}; every setting which is not given keeps its default.
+ */
+@Getter
+@Builder
+@EqualsAndHashCode
+public class CompileOptions {
+    /**
+     * The engine which will execute the state machine (defaults to {@link ExecutionEngine#TABLE}).
+     */
+    @Builder.Default
+    private final ExecutionEngine engine = ExecutionEngine.TABLE;
+
+    /**
+     * Whether behaviors are executed asynchronously (defaults to {@code false}).
+     * <p>
+     * If enabled, injecting an event only changes the state; the behaviors of the transition are
+     * handed over to the {@code behaviorExecutor}. Behaviors of the same device are still executed
+     * one after the other in the order of the transitions; behaviors of different devices may run
+     * concurrently. This order covers all instances of one compiled definition; definitions compiled
+     * separately (even from the same json) order the behaviors of a device independently. Use
+     * {@link StateMachine#getBehaviorCompletion()} to wait for the behaviors; it completes
+     * exceptionally if a behavior throws an {@link Error}.
+     * <p>
+     * This is only supported by {@link ExecutionEngine#TABLE}.
+     */
+    @Builder.Default
+    private final boolean asyncBehaviors = false;
+
+    /**
+     * The executor running asynchronous behaviors (defaults to virtual threads if the JVM supports
+     * them and to a shared pool of daemon threads otherwise).
+     */
+    private final Executor behaviorExecutor;
+
+    /**
+     * Listener receiving metrics of the state machines and their behaviors (defaults to none).
+     * <p>
+     * If no listener is given, the state machines don't pay anything for metrics. This is only
+     * supported by {@link ExecutionEngine#TABLE}.
+     */
+    private final MetricsListener metricsListener;
+
+    /**
+     * What happens if a trigger arrives in a state which doesn't handle it (defaults to logging
+     * each of them via {@link UnhandledTriggerPolicy#logEveryTime()}).
+     */
+    private final UnhandledTriggerPolicy unhandledTriggerPolicy;
+
+    /**
+     * What happens to events which don't match any trigger (defaults to logging each of them via
+     * {@link UnknownEventPolicy#logEveryTime()}).
+     */
+    private final UnknownEventPolicy unknownEventPolicy;
+
+    /**
+     * Journal recording the events accepted by the instances (defaults to none).
+     * <p>
+     * Only instances created via {@link StateMachineDefinition#newInstance(long)} and
+     * {@link InstanceStore}s append to the journal. The journal has to be opened for the fingerprint
+     * of the compiled state machine. This is only supported by {@link ExecutionEngine#TABLE}.
+     */
+    private final EventJournal eventJournal;
+
+    /**
+     * Returns options where every setting has its default value.
+     *
+     * @return the default options
+     */
+    public static CompileOptions defaults() {
+        return builder().build();
+    }
+}
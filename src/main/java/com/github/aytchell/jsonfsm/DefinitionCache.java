@@ -0,0 +1,242 @@
+package com.github.aytchell.jsonfsm;
+
+import com.github.aytchell.jsonfsm.compiler.StateMachineParserImpl;
+import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed and compiled state machines keyed by their {@link Fingerprint}.
+ * <p>
+ * Json-encoded state machines which are structurally identical (see {@link Fingerprint}) are
+ * validated and compiled only once. The json still has to be parsed to compute the fingerprint;
+ * validation and compilation are skipped for cached entries.
+ * <p>
+ * The cache holds at most {@code maximumSize} entries (compilers and definitions together); if
+ * it's full the least recently used entry is evicted. Entries which haven't been used for
+ * {@code maximumIdleTime} are evicted as well.
+ * <p>
+ * The cache is thread-safe. Parsing and compiling is done outside of the cache's lock, so
+ * threads missing the same entry concurrently might both compile it (only one result is kept).
+ */
+public class DefinitionCache {
+    private final StateMachineParserImpl parser = new StateMachineParserImpl();
+    private final int maximumSize;
+    private final long maximumIdleNanos;
+
+    // in access order: the least recently used entry comes first
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long compilerHits = 0;
+    private long compilerMisses = 0;
+    private long definitionHits = 0;
+    private long definitionMisses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize     maximum number of cached compilers and definitions
+     * @param maximumIdleTime entries which haven't been used for this long are evicted
+     */
+    public DefinitionCache(int maximumSize, Duration maximumIdleTime) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive but is " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.maximumIdleNanos = maximumIdleTime.toNanos();
+    }
+
+    /**
+     * Parses a json-encoded state machine or returns the cached compiler of an identical one.
+     * <p>
+     * This is a cached version of {@link StateMachineParser#parse(String)}.
+     *
+     * @param jsonDescription a json-encoded string describing a state machine
+     * @return a (possibly shared) compiler for the state machine
+     * @throws ValidationException thrown if something with the given state machine description is wrong
+     */
+    public StateMachineCompiler parse(String jsonDescription) throws ValidationException {
+        final StateMachinePojo pojo = parser.read(jsonDescription);
+        final Fingerprint fingerprint = parser.fingerprint(pojo);
+
+        final StateMachineCompiler cached = (StateMachineCompiler) lookup(fingerprint, false);
+        if (cached != null) {
+            return cached;
+        }
+        return (StateMachineCompiler) store(fingerprint, parser.compile(pojo));
+    }
+
+    /**
+     * Compiles a json-encoded state machine or returns the cached definition of an identical one.
+     * <p>
+     * A cached definition is only returned if it was compiled with the same (i.e. equal)
+     * command compilers and options.
+     *
+     * @param jsonDescription  a json-encoded string describing a state machine
+     * @param commandCompilers a map of compiler instances to compile commands for specific devices
+     * @param options          settings to be used for the state machines
+     * @return a (possibly shared) definition of the state machine
+     * @throws ValidationException  thrown if something with the given state machine description is wrong
+     * @throws CompilationException thrown if one of the given {@link DeviceCommandCompiler}s fails
+     *                              to compile a given command string
+     */
+    public StateMachineDefinition compileDefinition(String jsonDescription,
+                                                    Map<Integer, DeviceCommandCompiler> commandCompilers,
+                                                    CompileOptions options)
+            throws ValidationException, CompilationException {
+        final StateMachineCompiler compiler = parse(jsonDescription);
+        final DefinitionKey key = new DefinitionKey(compiler.getFingerprint(), new HashMap<>(commandCompilers), options);
+
+        final StateMachineDefinition cached = (StateMachineDefinition) lookup(key, true);
+        if (cached != null) {
+            return cached;
+        }
+        return (StateMachineDefinition) store(key, compiler.compileDefinition(commandCompilers, options));
+    }
+
+    /**
+     * Returns the statistics of this cache.
+     *
+     * @return a snapshot of the current statistics
+     */
+    public synchronized Stats getStats() {
+        evictIdleEntries(System.nanoTime());
+        return new Stats(compilerHits, compilerMisses, definitionHits, definitionMisses, evictions, entries.size());
+    }
+
+    /**
+     * Removes all entries (the statistics are kept).
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private synchronized Object lookup(Object key, boolean isDefinition) {
+        final long now = System.nanoTime();
+        evictIdleEntries(now);
+
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            if (isDefinition) {
+                ++definitionMisses;
+            } else {
+                ++compilerMisses;
+            }
+            return null;
+        }
+
+        if (isDefinition) {
+            ++definitionHits;
+        } else {
+            ++compilerHits;
+        }
+        entry.lastAccess = now;
+        return entry.value;
+    }
+
+    private synchronized Object store(Object key, Object value) {
+        final Entry existing = entries.get(key);
+        if (existing != null) {
+            // another thread was faster
+            return existing.value;
+        }
+
+        entries.put(key, new Entry(value, System.nanoTime()));
+        final Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (entries.size() > maximumSize) {
+            leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            ++evictions;
+        }
+        return value;
+    }
+
+    private void evictIdleEntries(long now) {
+        // entries are in access order so the idle ones are at the beginning
+        final Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (leastRecentlyUsed.hasNext()) {
+            if (now - leastRecentlyUsed.next().lastAccess <= maximumIdleNanos) {
+                return;
+            }
+            leastRecentlyUsed.remove();
+            ++evictions;
+        }
+    }
+
+    /**
+     * Snapshot of the statistics of a {@link DefinitionCache}.
+     */
+    @Getter
+    public static class Stats {
+        /**
+         * Number of calls to {@link DefinitionCache#parse} which found a cached compiler.
+         */
+        private final long compilerHits;
+
+        /**
+         * Number of calls to {@link DefinitionCache#parse} which had to validate the state machine.
+         */
+        private final long compilerMisses;
+
+        /**
+         * Number of calls to {@link DefinitionCache#compileDefinition} which found a cached definition.
+         */
+        private final long definitionHits;
+
+        /**
+         * Number of calls to {@link DefinitionCache#compileDefinition} which had to compile the state machine.
+         */
+        private final long definitionMisses;
+
+        /**
+         * Number of entries which were evicted (because the cache was full or they were idle).
+         */
+        private final long evictions;
+
+        /**
+         * Number of entries currently in the cache.
+         */
+        private final int size;
+
+        Stats(long compilerHits, long compilerMisses, long definitionHits, long definitionMisses,
+              long evictions, int size) {
+            this.compilerHits = compilerHits;
+            this.compilerMisses = compilerMisses;
+            this.definitionHits = definitionHits;
+            this.definitionMisses = definitionMisses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        long lastAccess;
+
+        Entry(Object value, long lastAccess) {
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    @EqualsAndHashCode
+    private static class DefinitionKey {
+        private final Fingerprint fingerprint;
+        private final Map<Integer, DeviceCommandCompiler> commandCompilers;
+        private final CompileOptions options;
+
+        DefinitionKey(Fingerprint fingerprint, Map<Integer, DeviceCommandCompiler> commandCompilers,
+                      CompileOptions options) {
+            this.fingerprint = fingerprint;
+            this.commandCompilers = commandCompilers;
+            this.options = options;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.aytchell.jsonfsm;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of events to be injected via {@link StateMachine#injectEvents(EventBatch)}.
+ * <p>
+ * The buffer grows as needed and keeps its capacity when being cleared, so a consumer can
+ * fill, inject and clear the same instance over and over without allocating.
+ */
+public class EventBatch {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] eventSourceIds;
+    private String[] eventPayloads;
+    private int size = 0;
+
+    /**
+     * Creates an empty batch with a default capacity.
+     */
+    public EventBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param initialCapacity number of events the batch can hold before it has to grow
+     */
+    public EventBatch(int initialCapacity) {
+        eventSourceIds = new int[Math.max(1, initialCapacity)];
+        eventPayloads = new String[eventSourceIds.length];
+    }
+
+    /**
+     * Appends an event to the batch.
+     *
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  payload of the event
+     * @return this batch
+     */
+    public EventBatch add(int eventSourceId, String eventPayload) {
+        if (size == eventSourceIds.length) {
+            eventSourceIds = Arrays.copyOf(eventSourceIds, size * 2);
+            eventPayloads = Arrays.copyOf(eventPayloads, size * 2);
+        }
+        eventSourceIds[size] = eventSourceId;
+        eventPayloads[size] = eventPayload;
+        ++size;
+        return this;
+    }
+
+    /**
+     * Removes all events from the batch (the capacity is kept).
+     */
+    public void clear() {
+        Arrays.fill(eventPayloads, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the number of events within the batch.
+     *
+     * @return the number of events
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the event source IDs; only the first {@link #size()} entries are valid.
+     *
+     * @return the array backing this batch
+     */
+    public int[] getEventSourceIds() {
+        return eventSourceIds;
+    }
+
+    /**
+     * Returns the event payloads; only the first {@link #size()} entries are valid.
+     *
+     * @return the array backing this batch
+     */
+    public String[] getEventPayloads() {
+        return eventPayloads;
+    }
+}
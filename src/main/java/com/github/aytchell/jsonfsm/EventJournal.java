@@ -0,0 +1,175 @@
+package com.github.aytchell.jsonfsm;
+
+import com.github.aytchell.jsonfsm.compiler.EventJournalImpl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Append-only journal of the events accepted by state machines.
+ * <p>
+ * A journal is given to {@link CompileOptions} ({@code eventJournal}). Afterwards every event which
+ * makes an instance created via {@link StateMachineDefinition#newInstance(long)} or
+ * {@link StateMachineDefinition#newConcurrentInstance(long)} (or an {@link InstanceStore} or a
+ * {@link StateMachineRuntime}) traverse a transition is appended as a record of the instance's ID, the
+ * trigger ordinal and a timestamp. The records are written into memory-mapped segment files
+ * (so appending doesn't need a system call) and group-committed (see {@link JournalOptions}).
+ * <p>
+ * The records can later be replayed to rebuild the states of the instances. Replaying only
+ * applies the transitions; no behaviors are executed. To bound the time needed for replaying,
+ * combine the journal with periodic snapshots (see {@link StateSnapshot#writeAll}): remember the
+ * {@link #getPosition() position} when taking the snapshots, restore them after a restart and
+ * replay the journal from that position. Segments before the position can then be deleted via
+ * {@link #deleteBefore}.
+ * <p>
+ * A journal belongs to a single state machine (identified by its {@link Fingerprint}). Appending
+ * is thread-safe; replaying is meant for recovery and shouldn't run concurrently to appending.
+ */
+public interface EventJournal extends AutoCloseable {
+    /**
+     * Opens (or creates) the journal in the given directory with default options.
+     *
+     * @param directory   the directory containing the segment files; it's created if necessary
+     * @param fingerprint the fingerprint of the state machine whose events are recorded
+     * @return the opened journal
+     * @throws IOException              if the directory or its segment files can't be accessed
+     * @throws IllegalArgumentException if the journal in the directory belongs to a different state machine
+     */
+    static EventJournal open(Path directory, Fingerprint fingerprint) throws IOException {
+        return open(directory, fingerprint, JournalOptions.defaults());
+    }
+
+    /**
+     * Opens (or creates) the journal in the given directory.
+     * <p>
+     * If the directory already contains a journal, new records are appended after the existing ones.
+     *
+     * @param directory   the directory containing the segment files; it's created if necessary
+     * @param fingerprint the fingerprint of the state machine whose events are recorded
+     * @param options     settings of the journal (e.g. the size of the segments)
+     * @return the opened journal
+     * @throws IOException              if the directory or its segment files can't be accessed
+     * @throws IllegalArgumentException if the journal in the directory belongs to a different state
+     *                                  machine or was written with a different segment size
+     */
+    static EventJournal open(Path directory, Fingerprint fingerprint, JournalOptions options) throws IOException {
+        return EventJournalImpl.open(directory, fingerprint, options);
+    }
+
+    /**
+     * Receives the records of a journal (see {@link #read}).
+     */
+    interface RecordConsumer {
+        void accept(long position, long instanceId, int trigger, long timestampMillis);
+    }
+
+    /**
+     * Returns the fingerprint of the state machine whose events are recorded.
+     *
+     * @return the fingerprint of the state machine
+     */
+    Fingerprint getFingerprint();
+
+    /**
+     * Returns the position the next record will be appended at.
+     * <p>
+     * Positions count the records since the journal was created; they're never reused.
+     *
+     * @return the number of records appended so far
+     */
+    long getPosition();
+
+    /**
+     * Returns the number of damaged records which were skipped while reading or replaying.
+     * <p>
+     * A crash might leave damaged records between intact ones (since records are appended
+     * concurrently); these are skipped and logged. A record skipped by several calls is counted
+     * each time.
+     *
+     * @return the number of skipped records since the journal was opened
+     */
+    long getSkippedRecordCount();
+
+    /**
+     * Forces all records appended so far to the storage device.
+     *
+     * @throws IllegalStateException if the journal is already closed
+     */
+    void commit();
+
+    /**
+     * Reads all records starting at the given position (e.g. for auditing).
+     *
+     * @param fromPosition position of the first record to read
+     * @param consumer     receives the records in the order of their positions
+     * @return the number of records read
+     * @throws IllegalArgumentException if the records at the given position were already deleted
+     */
+    long read(long fromPosition, RecordConsumer consumer);
+
+    /**
+     * Rebuilds the states of the given instances from the records starting at the given position.
+     * <p>
+     * The instances have to be created by a definition with the journal's fingerprint and the
+     * {@link ExecutionEngine#TABLE} engine. They should be in the states they had at the given
+     * position (e.g. the initial state if replaying from position {@code 0}). Only the transitions
+     * are applied; no behaviors are executed and nothing is appended to the journal. Records of
+     * instances which are missing in the map are skipped.
+     * <p>
+     * Records of concurrent instances are applied via their mailbox (like events injected by the
+     * calling thread).
+     *
+     * @param machines     the instances keyed by their ID
+     * @param fromPosition position of the first record to replay
+     * @return the number of records applied
+     * @throws IllegalArgumentException if an instance belongs to a different state machine or the
+     *                                  records at the given position were already deleted
+     */
+    long replay(Map<Long, ? extends StateMachine> machines, long fromPosition);
+
+    /**
+     * Rebuilds the states of the instances in the given store from the records starting at the given position.
+     * <p>
+     * This works like {@link #replay(Map, long)}; the slots of the store are the IDs of the instances.
+     *
+     * @param store        the store to update
+     * @param fromPosition position of the first record to replay
+     * @return the number of records applied
+     * @throws IllegalArgumentException if the store belongs to a different state machine or the
+     *                                  records at the given position were already deleted
+     */
+    long replay(InstanceStore store, long fromPosition);
+
+    /**
+     * Rebuilds the states of the instances of the given runtime from the records starting at the given position.
+     * <p>
+     * This works like {@link #replay(Map, long)}; the keys of the runtime are the IDs of the
+     * instances (missing instances are created). The records are posted to the workers like
+     * submitted events, i.e. they are applied asynchronously but before any event submitted by the
+     * calling thread afterwards. The final state listener isn't called for replayed records.
+     *
+     * @param runtime      the runtime to update
+     * @param fromPosition position of the first record to replay
+     * @return the number of records posted
+     * @throws IllegalArgumentException if the runtime belongs to a different state machine or the
+     *                                  records at the given position were already deleted
+     */
+    long replay(StateMachineRuntime runtime, long fromPosition);
+
+    /**
+     * Deletes all segment files which only contain records before the given position.
+     *
+     * @param position the first position which has to be kept
+     * @throws IOException if a segment file can't be deleted
+     */
+    void deleteBefore(long position) throws IOException;
+
+    /**
+     * Commits all records and releases the journal.
+     * <p>
+     * Appending to a closed journal fails with an {@link IllegalStateException}.
+     */
+    @Override
+    void close();
+}
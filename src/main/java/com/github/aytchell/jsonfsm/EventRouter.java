@@ -0,0 +1,63 @@
+package com.github.aytchell.jsonfsm;
+
+import com.github.aytchell.jsonfsm.compiler.EventRouterImpl;
+
+/**
+ * Delivers events only to those of many state machines which have a matching trigger.
+ * <p>
+ * Instead of injecting every event into every state machine, the machines are registered with a
+ * router. The router keeps an index from (event source ID, payload) to the machines with a matching
+ * trigger; an event is only delivered to these machines (just like
+ * {@link StateMachine#injectTrigger}). The index is updated incrementally whenever a machine is
+ * registered or unregistered.
+ * <p>
+ * Routing doesn't take any lock and may be done while machines are registered or unregistered
+ * (a machine which is being unregistered might still receive an event which is routed concurrently).
+ * Note that the registered machines themselves are not made thread-safe: if events are routed by
+ * several threads, register instances created by {@link StateMachineDefinition#newConcurrentInstance()}.
+ */
+public class EventRouter {
+    private final EventRouterImpl impl = new EventRouterImpl();
+
+    /**
+     * Registers a state machine so it receives the matching events.
+     *
+     * @param machine a state machine created by this library
+     * @return {@code true} if the machine was registered; {@code false} if it was already registered
+     * @throws IllegalArgumentException if the machine wasn't created by this library
+     */
+    public boolean register(StateMachine machine) {
+        return impl.register(machine);
+    }
+
+    /**
+     * Unregisters a state machine so it no longer receives any events.
+     *
+     * @param machine a state machine created by this library
+     * @return {@code true} if the machine was unregistered; {@code false} if it wasn't registered
+     * @throws IllegalArgumentException if the machine wasn't created by this library
+     */
+    public boolean unregister(StateMachine machine) {
+        return impl.unregister(machine);
+    }
+
+    /**
+     * Delivers an event to all registered machines with a matching trigger.
+     *
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  payload of the event
+     * @return the number of machines the event was delivered to
+     */
+    public int route(int eventSourceId, String eventPayload) {
+        return impl.route(eventSourceId, eventPayload);
+    }
+
+    /**
+     * Returns the number of registered machines.
+     *
+     * @return number of registered machines
+     */
+    public int getMachineCount() {
+        return impl.getMachineCount();
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.aytchell.jsonfsm;
+
+/**
+ * The engine which executes a compiled {@link StateMachine}.
+ * <p>
+ * Both engines show the same behavior. They only differ in how a transition is looked up
+ * and executed. The engine is selected via {@link CompileOptions} when calling
+ * {@link StateMachineCompiler#compileDefinition(java.util.Map, CompileOptions)}.
+ */
+public enum ExecutionEngine {
+    /**
+     * The built-in engine (default).
+     * <p>
+     * States and triggers are compiled to ordinals and transitions are stored in a dense table.
+     * Traversing a transition costs an array lookup plus the execution of the behaviors. The table
+     * is limited to 2^24 cells (the number of states times the number of triggers); larger state
+     * machines are rejected when compiled.
+     */
+    TABLE,
+
+    /**
+     * An engine based on the library stateless4j.
+     * <p>
+     * This was the only engine up to version 2.0. It is kept for comparison with the
+     * {@link #TABLE} engine.
+     */
+    STATELESS4J
+}
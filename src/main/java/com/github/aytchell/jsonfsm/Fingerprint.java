@@ -0,0 +1,69 @@
+package com.github.aytchell.jsonfsm;
+
+import java.util.Arrays;
+
+/**
+ * Structural fingerprint of a json-encoded state machine.
+ * <p>
+ * Two state machines have the same fingerprint if they describe the same structure: whitespace,
+ * the order of keys within json objects and other details without meaning (e.g. a missing list
+ * of behaviors vs. an empty one) don't matter. The order of the triggers, states and behaviors
+ * does matter.
+ * <p>
+ * The fingerprint is a SHA-256 hash of a canonical encoding of the state machine.
+ */
+public final class Fingerprint {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] hash;
+
+    /**
+     * Constructor (used internally by the lib).
+     *
+     * @param hash the SHA-256 hash of the canonical encoding
+     */
+    public Fingerprint(byte[] hash) {
+        this.hash = hash.clone();
+    }
+
+    /**
+     * Returns the full hash.
+     *
+     * @return a copy of the 32 bytes of the hash
+     */
+    public byte[] getBytes() {
+        return hash.clone();
+    }
+
+    /**
+     * Returns the first 64 bits of the hash (e.g. for compact storage).
+     *
+     * @return the first eight bytes of the hash as (big endian) long
+     */
+    public long asLong() {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; ++i) {
+            value = (value << 8) | (hash[i] & 0xff);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Fingerprint && Arrays.equals(hash, ((Fingerprint) other).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(asLong());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.aytchell.jsonfsm;
+
+/**
+ * Stores the current state of many instances of a definition outside of the Java heap.
+ * <p>
+ * Instead of one object per instance, a store only keeps the ordinal of each instance's current
+ * state (one, two or four bytes depending on the number of states) in a direct or memory-mapped
+ * buffer. Instances are identified by their slot ({@code 0} to {@code getCapacity() - 1}) and
+ * events are applied directly to the stored ordinals using the definition's transition table.
+ * Behaviors are executed just like by the definition's instances.
+ * <p>
+ * A store which is backed by a file (see {@link StateMachineDefinition#openInstanceStore}) keeps
+ * the states across restarts of the process. Since no behaviors are executed when the file is
+ * opened again, each instance continues in the state it had reached.
+ * <p>
+ * A store is not thread-safe; it must not be used by several threads concurrently.
+ */
+public interface InstanceStore {
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of instances in this store
+     */
+    int getCapacity();
+
+    /**
+     * Injects an event into the instance of the given slot.
+     * <p>
+     * This behaves exactly like {@link StateMachine#injectEvent(int, String)}.
+     *
+     * @param slot          the slot of the instance
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  payload of the event
+     * @return {@code true} if the instance is in a final state afterwards; {@code false} otherwise
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    boolean injectEvent(int slot, int eventSourceId, String eventPayload);
+
+    /**
+     * Injects an event which was already resolved via {@link StateMachineDefinition#resolveTrigger}.
+     *
+     * @param slot          the slot of the instance
+     * @param triggerHandle a handle returned by {@link StateMachineDefinition#resolveTrigger}
+     * @return {@code true} if the instance is in a final state afterwards; {@code false} otherwise
+     * @throws IllegalArgumentException  if the handle is {@link StateMachine#UNKNOWN_TRIGGER} or no valid handle
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    boolean injectTrigger(int slot, int triggerHandle);
+
+    /**
+     * Returns the name of the current state of the instance in the given slot.
+     *
+     * @param slot the slot of the instance
+     * @return name of the current state
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    String getCurrentState(int slot);
+
+    /**
+     * Says whether the instance in the given slot is in a final state.
+     *
+     * @param slot the slot of the instance
+     * @return {@code true} if the current state is final; {@code false} otherwise
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    boolean isCurrentStateFinal(int slot);
+
+    /**
+     * Captures the current state of the instance in the given slot (see {@link StateMachine#snapshot()}).
+     *
+     * @param slot the slot of the instance
+     * @return a snapshot of the current state
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    StateSnapshot snapshot(int slot);
+
+    /**
+     * Puts the instance in the given slot directly into the state of the snapshot.
+     * <p>
+     * Just like {@link StateMachine#restore} no behaviors are executed.
+     *
+     * @param slot     the slot of the instance
+     * @param snapshot a snapshot taken from a state machine with the same fingerprint
+     * @throws IllegalArgumentException  if the snapshot was taken from a different state machine
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    void restore(int slot, StateSnapshot snapshot);
+
+    /**
+     * Puts the instance in the given slot back into the initial state (without executing any behavior).
+     *
+     * @param slot the slot of the instance
+     * @throws IndexOutOfBoundsException if there's no such slot
+     */
+    void reset(int slot);
+
+    /**
+     * Writes all changes to the backing file; does nothing if the store isn't backed by a file.
+     * <p>
+     * Without flushing, the changes are written by the operating system at some point in time.
+     * They survive a crash of the process but not necessarily a crash of the operating system.
+     */
+    void flush();
+}
@@ -0,0 +1,41 @@
+package com.github.aytchell.jsonfsm;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Optional settings for {@link EventJournal#open(java.nio.file.Path, Fingerprint, JournalOptions)}.
+ * <p>
+ * Instances are created via {@code builder()}; every setting which is not given keeps its default.
+ */
+@Getter
+@Builder
+public class JournalOptions {
+    /**
+     * Number of records per segment file (defaults to 1,048,576 which makes segments of 24 MiB).
+     */
+    @Builder.Default
+    private final int recordsPerSegment = 1 << 20;
+
+    /**
+     * Interval of the group commits (defaults to 10 milliseconds).
+     * <p>
+     * Appending a record only writes it into the memory-mapped segment. A background thread
+     * forces all records appended since the previous commit to the storage device once per
+     * interval. With {@link Duration#ZERO} there is no background thread; records are only
+     * forced by {@link EventJournal#commit()} and {@link EventJournal#close()}.
+     */
+    @Builder.Default
+    private final Duration commitInterval = Duration.ofMillis(10);
+
+    /**
+     * Returns options where every setting has its default value.
+     *
+     * @return the default options
+     */
+    public static JournalOptions defaults() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.aytchell.jsonfsm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which of many similar diagnostics are actually emitted.
+ * <p>
+ * Lock-free; can be used by several threads concurrently.
+ */
+class LogLimiter {
+    // the same value as PolicyAccess.SUPPRESSED (which can't be referenced from the API package)
+    static final long SUPPRESSED = -1;
+
+    private static final int NEVER = 0;
+    private static final int ALWAYS = 1;
+    private static final int PER_INTERVAL = 2;
+    private static final int ONE_IN = 3;
+
+    private final int mode;
+    // the interval in nanoseconds (PER_INTERVAL) or the sample rate (ONE_IN)
+    private final long parameter;
+    private final AtomicLong next = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder suppressed = new LongAdder();
+
+    private LogLimiter(int mode, long parameter) {
+        this.mode = mode;
+        this.parameter = parameter;
+    }
+
+    static LogLimiter never() {
+        return new LogLimiter(NEVER, 0);
+    }
+
+    static LogLimiter always() {
+        return new LogLimiter(ALWAYS, 0);
+    }
+
+    static LogLimiter perInterval(long intervalNanos) {
+        return new LogLimiter(PER_INTERVAL, intervalNanos);
+    }
+
+    static LogLimiter oneIn(long rate) {
+        return new LogLimiter(ONE_IN, rate);
+    }
+
+    /**
+     * Decides whether the current occurrence is emitted.
+     *
+     * @return {@link #SUPPRESSED} if the occurrence must not be emitted; otherwise the number of
+     * occurrences which have been suppressed since the previously emitted one
+     */
+    long tryAcquire() {
+        switch (mode) {
+            case ALWAYS:
+                return 0;
+            case PER_INTERVAL: {
+                final long now = System.nanoTime();
+                final long due = next.get();
+                if ((due == Long.MIN_VALUE || now - due >= 0) && next.compareAndSet(due, now + parameter)) {
+                    return suppressed.sumThenReset();
+                }
+                suppressed.increment();
+                return SUPPRESSED;
+            }
+            case ONE_IN: {
+                final long occurrence = next.getAndIncrement() - Long.MIN_VALUE;
+                if (occurrence % parameter == 0) {
+                    return occurrence == 0 ? 0 : parameter - 1;
+                }
+                return SUPPRESSED;
+            }
+            default:
+                return SUPPRESSED;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.aytchell.jsonfsm;
+
+/**
+ * Receives metrics of state machines and their behaviors.
+ * <p>
+ * A listener is attached when compiling a definition (see {@link CompileOptions}). It is called by
+ * all instances of that definition - possibly from several threads concurrently - so implementations
+ * have to be thread-safe and should be cheap. {@link StripedMetrics} is a ready-to-use implementation.
+ * <p>
+ * If no listener is given the state machines neither call a listener nor take any timestamps.
+ * All methods have an empty default implementation.
+ */
+public interface MetricsListener {
+    /**
+     * Called after a transition was traversed (including its behaviors).
+     *
+     * @param sourceState the state which was left
+     * @param triggerName the trigger which caused the transition
+     * @param targetState the state which was entered
+     * @param dwellNanos  time spent in the source state (from the start of the transition which entered
+     *                    it - or the creation of the instance - until the start of this transition)
+     */
+    default void onTransition(String sourceState, String triggerName, String targetState, long dwellNanos) {
+    }
+
+    /**
+     * Called if a trigger was ignored since it's marked as {@code ignore} in the current state.
+     *
+     * @param state       the current state
+     * @param triggerName the ignored trigger
+     */
+    default void onIgnored(String state, String triggerName) {
+    }
+
+    /**
+     * Called if a trigger arrived in a state without a matching transition.
+     *
+     * @param state       the current state
+     * @param triggerName the unhandled trigger
+     */
+    default void onUnhandled(String state, String triggerName) {
+    }
+
+    /**
+     * Called if an event doesn't match any trigger of the state machine.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     */
+    default void onUnknownEvent(int eventSourceId) {
+    }
+
+    /**
+     * Called after a {@link DeviceCommand} was executed.
+     * <p>
+     * If the commands of a device are batched (see {@link BatchingDeviceCommandCompiler}) the command
+     * string is the batch's command strings joined by {@code "; "}.
+     *
+     * @param deviceId      ID of the device which executed the command
+     * @param commandString the command string the command was compiled from
+     * @param durationNanos time it took to execute the command
+     * @param failed        {@code true} if the command threw an exception
+     */
+    default void onBehavior(int deviceId, String commandString, long durationNanos, boolean failed) {
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.aytchell.jsonfsm;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Optional settings for {@link StateMachineDefinition#newRuntime(RuntimeOptions)}.
+ * <p>
+ * Instances are created via {@code builder()}; every setting which is not given keeps its default.
+ */
+@Getter
+@Builder
+public class RuntimeOptions {
+    /**
+     * Number of worker threads (defaults to the number of available processors).
+     */
+    @Builder.Default
+    private final int workerCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Called (by the owning worker thread) every time an instance reaches a final state
+     * (defaults to none).
+     */
+    @Builder.Default
+    private final StateMachineRuntime.FinalStateListener finalStateListener = null;
+
+    /**
+     * Returns options where every setting has its default value.
+     *
+     * @return the default options
+     */
+    public static RuntimeOptions defaults() {
+        return builder().build();
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.aytchell.jsonfsm;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A state machine closely related to DFA and UML state chart diagrams.
@@ -13,6 +15,11 @@ import java.util.Set;
  * as well as during traversal of a transition.
  */
 public interface StateMachine {
+    /**
+     * Trigger handle returned by {@link #resolveTrigger} if the event doesn't match any trigger.
+     */
+    int UNKNOWN_TRIGGER = -1;
+
     /**
      * Injects an event into the state machine.
      * <p>
@@ -31,6 +38,98 @@ public interface StateMachine {
      */
     boolean injectEvent(int eventSourceId, String eventPayload);
 
+    /**
+     * Injects an event whose payload is given as a sequence of characters.
+     * <p>
+     * This behaves exactly like {@link #injectEvent(int, String)}. The characters are compared
+     * with the trigger payloads directly so the caller doesn't have to create a {@code String}.
+     *
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  payload of the event
+     * @return {@code true} if a final state has been reached; {@code false} otherwise
+     */
+    boolean injectEvent(int eventSourceId, CharSequence eventPayload);
+
+    /**
+     * Injects an event whose payload is given as UTF-8 encoded bytes.
+     * <p>
+     * This behaves exactly like {@link #injectEvent(int, String)}. The bytes are compared with the
+     * (pre-encoded) trigger payloads so they never have to be decoded.
+     *
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  array containing the UTF-8 encoded payload of the event
+     * @param offset        index of the payload's first byte within {@code eventPayload}
+     * @param length        number of bytes of the payload
+     * @return {@code true} if a final state has been reached; {@code false} otherwise
+     */
+    boolean injectEvent(int eventSourceId, byte[] eventPayload, int offset, int length);
+
+    /**
+     * Injects an event whose payload is given as UTF-8 encoded bytes within a buffer.
+     * <p>
+     * This behaves exactly like {@link #injectEvent(int, byte[], int, int)}. The payload consists of the
+     * bytes between the buffer's position and its limit; the buffer might be a heap or a direct buffer.
+     * Position and limit of the buffer are not changed.
+     *
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  buffer containing the UTF-8 encoded payload of the event
+     * @return {@code true} if a final state has been reached; {@code false} otherwise
+     */
+    boolean injectEvent(int eventSourceId, ByteBuffer eventPayload);
+
+    /**
+     * Resolves an event into a trigger handle which can later be given to {@link #injectTrigger}.
+     * <p>
+     * Handles are stable: they are the same for every state machine compiled from the same
+     * {@link StateMachineCompiler} (see {@link StateMachineCompiler#resolveTrigger}). So callers
+     * which see the same events over and over can resolve them once and cache the handles.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param eventPayload  payload of the event
+     * @return a trigger handle or {@link #UNKNOWN_TRIGGER} if the event doesn't match any trigger
+     */
+    int resolveTrigger(int eventSourceId, String eventPayload);
+
+    /**
+     * Injects an event which was already resolved via {@link #resolveTrigger}.
+     * <p>
+     * This behaves exactly like {@link #injectEvent(int, String)} for the resolved event but skips
+     * matching the payload.
+     *
+     * @param triggerHandle a handle returned by {@link #resolveTrigger}
+     * @return {@code true} if a final state has been reached; {@code false} otherwise
+     * @throws IllegalArgumentException if the handle is {@link #UNKNOWN_TRIGGER} or no valid handle
+     */
+    boolean injectTrigger(int triggerHandle);
+
+    /**
+     * Injects a batch of events given as parallel arrays.
+     * <p>
+     * The events {@code offset} to {@code offset + length - 1} are processed in order, each one
+     * exactly as by {@link #injectEvent(int, String)}. Unknown events are only counted; they are
+     * not logged one by one.
+     *
+     * @param eventSourceIds IDs of the sources where the events come from
+     * @param eventPayloads  payloads of the events
+     * @param offset         index of the first event to inject
+     * @param length         number of events to inject
+     * @return the number of accepted, ignored, unhandled and unknown events as well as the index
+     * of the first event which led into a final state
+     */
+    BatchResult injectEvents(int[] eventSourceIds, String[] eventPayloads, int offset, int length);
+
+    /**
+     * Injects all events of the given batch.
+     * <p>
+     * This works exactly like {@link #injectEvents(int[], String[], int, int)}. The batch is not
+     * cleared afterwards.
+     *
+     * @param batch the events to inject
+     * @return the number of accepted, ignored, unhandled and unknown events as well as the index
+     * of the first event which led into a final state
+     */
+    BatchResult injectEvents(EventBatch batch);
+
     /**
      * Set of device IDs which will be used by this state machine.
      * <p>
@@ -66,4 +165,39 @@ public interface StateMachine {
      * @return {@code true} if the current state is final; {@code false} otherwise
      */
     boolean isCurrentStateFinal();
+
+    /**
+     * Captures the current state (e.g. to checkpoint the state machine).
+     * <p>
+     * The snapshot only consists of the ordinal of the current state and the fingerprint of the
+     * state machine. Taking a snapshot is cheap: the snapshots of all states are created in advance.
+     * See {@link StateSnapshot#writeAll} to store the snapshots of many instances at once.
+     *
+     * @return a snapshot of the current state
+     */
+    StateSnapshot snapshot();
+
+    /**
+     * Puts the state machine directly into the state captured by the snapshot.
+     * <p>
+     * No behaviors are executed (neither onExit behaviors of the current state nor onEntry
+     * behaviors of the restored state). The snapshot may come from any instance with the same
+     * {@link Fingerprint}; the {@link ExecutionEngine} doesn't matter.
+     *
+     * @param snapshot a snapshot previously taken via {@link #snapshot()}
+     * @throws IllegalArgumentException if the snapshot was taken from a state machine with a
+     *                                  different fingerprint
+     */
+    void restore(StateSnapshot snapshot);
+
+    /**
+     * Returns a handle which completes once the behaviors of the most recently traversed
+     * transition have been executed.
+     * <p>
+     * Behaviors are only executed asynchronously if enabled via
+     * {@link CompileOptions} ({@code asyncBehaviors}); otherwise the returned handle is always completed.
+     *
+     * @return a future completing after the behaviors of the last transition
+     */
+    CompletableFuture<Void> getBehaviorCompletion();
 }
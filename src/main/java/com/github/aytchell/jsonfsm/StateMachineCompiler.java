@@ -32,12 +32,84 @@ public interface StateMachineCompiler {
     Set<Integer> getAcceptedEventSources();
 
     /**
-     * Used to actually create the {@link StateMachine} instance.
+     * Returns the structural fingerprint of the parsed state machine.
+     * <p>
+     * State machines which only differ in e.g. whitespace or the order of json keys have the same
+     * fingerprint (see {@link Fingerprint}).
+     *
+     * @return the fingerprint of the state machine
+     */
+    Fingerprint getFingerprint();
+
+    /**
+     * Encodes the parsed (and validated) state machine into a compact binary form.
+     * <p>
+     * The result can be stored (e.g. in a file) and later be loaded via
+     * {@link StateMachineParser#loadBinary} or {@link StateMachineParser#loadBinaryFile}. Loading it
+     * is much cheaper than parsing the json again since neither json parsing nor validation is necessary.
+     * The device commands are not part of the binary form; they're compiled when the loaded state
+     * machine is compiled.
+     *
+     * @return the binary encoded state machine
+     */
+    byte[] toBinary();
+
+    /**
+     * Resolves an event into a trigger handle for {@link StateMachine#injectTrigger}.
+     * <p>
+     * A handle denotes a trigger of the json-encoded state machine. It is valid for every
+     * {@link StateMachine} compiled by this compiler (independent of the {@link ExecutionEngine}).
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param eventPayload  payload of the event
+     * @return a trigger handle or {@link StateMachine#UNKNOWN_TRIGGER} if the event doesn't match any trigger
+     */
+    int resolveTrigger(int eventSourceId, String eventPayload);
+
+    /**
+     * Compiles the state machine into a definition from which instances can be created.
      * <p>
      * After parsing and validating the json-encoded state machine this method will create
-     * the actual instance. For this it requires a set of {@link DeviceCommandCompiler}s.
+     * the definition. For this it requires a set of {@link DeviceCommandCompiler}s.
      * The only thing that might fail now is, if a {@link DeviceCommandCompiler} can't compile
      * a given command string.
+     * <p>
+     * The compiler can be used to create several definitions; this may also be done from several
+     * threads concurrently.
+     *
+     * @param commandCompilers a map of compiler instances to compile commands for specific devices.
+     *                         Each entry of an instance has the appropriate device ID as key.
+     * @return an immutable definition which creates state machine instances
+     * @throws CompilationException thrown if one of the given {@link DeviceCommandCompiler}s fails
+     *                              to compile a given command string
+     */
+    StateMachineDefinition compileDefinition(Map<Integer, DeviceCommandCompiler> commandCompilers)
+            throws CompilationException;
+
+    /**
+     * Compiles the state machine into a definition with non-default options.
+     * <p>
+     * This works exactly like {@link #compileDefinition(Map)} but allows to e.g. select the
+     * {@link ExecutionEngine} of the created state machines.
+     *
+     * @param commandCompilers a map of compiler instances to compile commands for specific devices.
+     *                         Each entry of an instance has the appropriate device ID as key.
+     * @param options          settings to be used for the state machines
+     * @return an immutable definition which creates state machine instances
+     * @throws CompilationException     thrown if one of the given {@link DeviceCommandCompiler}s fails
+     *                                  to compile a given command string
+     * @throws IllegalArgumentException thrown if the options are not supported by the selected engine
+     *                                  or the state machine is too large for it (see {@link ExecutionEngine#TABLE})
+     */
+    StateMachineDefinition compileDefinition(Map<Integer, DeviceCommandCompiler> commandCompilers,
+                                             CompileOptions options) throws CompilationException;
+
+    /**
+     * Used to actually create the {@link StateMachine} instance.
+     * <p>
+     * This is a shortcut for {@code compileDefinition(commandCompilers).newInstance()}. If several
+     * instances of the same state machine are needed use {@link #compileDefinition(Map)} instead so
+     * the device commands are only compiled once.
      *
      * @param commandCompilers a map of compiler instances to compile commands for specific devices.
      *                         Each entry of an instance has the appropriate device ID as key.
@@ -46,4 +118,21 @@ public interface StateMachineCompiler {
      *                              to compile a given command string
      */
     StateMachine compileStateMachine(Map<Integer, DeviceCommandCompiler> commandCompilers) throws CompilationException;
+
+    /**
+     * Used to actually create the {@link StateMachine} instance with non-default options.
+     * <p>
+     * This is a shortcut for {@code compileDefinition(commandCompilers, options).newInstance()}.
+     *
+     * @param commandCompilers a map of compiler instances to compile commands for specific devices.
+     *                         Each entry of an instance has the appropriate device ID as key.
+     * @param options          settings to be used for the state machine
+     * @return a state machine that changes state  and executes commands when events are injected
+     * @throws CompilationException     thrown if one of the given {@link DeviceCommandCompiler}s fails
+     *                                  to compile a given command string
+     * @throws IllegalArgumentException thrown if the options are not supported by the selected engine
+     *                                  or the state machine is too large for it (see {@link ExecutionEngine#TABLE})
+     */
+    StateMachine compileStateMachine(Map<Integer, DeviceCommandCompiler> commandCompilers, CompileOptions options)
+            throws CompilationException;
 }
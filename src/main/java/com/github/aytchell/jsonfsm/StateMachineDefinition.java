@@ -0,0 +1,153 @@
+package com.github.aytchell.jsonfsm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * A compiled state machine from which any number of {@link StateMachine} instances can be created.
+ * <p>
+ * A definition is immutable and thread-safe: it can be shared by many threads and each of them
+ * may create new instances at any time. The instances themselves only carry their current state,
+ * everything else (transitions, compiled commands, ...) is shared with the definition.
+ * <p>
+ * Note that the {@link DeviceCommand}s compiled for this definition are shared by all of its
+ * instances. If instances are used from different threads, these commands have to be thread-safe.
+ */
+public interface StateMachineDefinition {
+    /**
+     * Creates a new state machine which starts in the initial state.
+     * <p>
+     * The instance is not thread-safe; it must not be used by several threads concurrently.
+     *
+     * @return a new state machine instance
+     * @throws IllegalStateException if the definition was compiled with an event journal (its
+     *                               instances need an ID; see {@link #newInstance(long)})
+     */
+    StateMachine newInstance();
+
+    /**
+     * Creates a new state machine whose accepted events are recorded in the event journal.
+     * <p>
+     * The instance behaves exactly like one created via {@link #newInstance()}. Additionally, every
+     * event which makes it traverse a transition is appended to the {@link EventJournal} given to
+     * {@link CompileOptions} (so the instance can later be rebuilt via {@link EventJournal#replay}).
+     *
+     * @param instanceId identifies the instance within the journal
+     * @return a new state machine instance
+     * @throws IllegalStateException if the definition was compiled without an event journal (which
+     *                               requires the {@link ExecutionEngine#TABLE} engine)
+     */
+    StateMachine newInstance(long instanceId);
+
+    /**
+     * Creates a new thread-safe state machine which starts in the initial state.
+     * <p>
+     * Any thread may inject events into this instance concurrently. The events are queued in a
+     * lock-free mailbox and applied one after the other (in the order they were queued) by a
+     * single thread at a time; the behaviors of one transition never overlap with those of another.
+     * The events are applied by the injecting threads themselves: whichever thread finds no other
+     * thread applying events drains the mailbox. So {@code injectEvent} might return before the
+     * event was applied (and report the state which was reached most recently). Events (and batches)
+     * which behaviors inject into their own machine are queued as well; they're applied once the
+     * current transition has run to completion.
+     * <p>
+     * {@link StateMachine#getCurrentState()} and {@link StateMachine#isCurrentStateFinal()} return
+     * the state published after the most recently applied event without any locking.
+     *
+     * @return a new thread-safe state machine instance
+     * @throws IllegalStateException if the definition was compiled with an event journal (its
+     *                               instances need an ID; see {@link #newConcurrentInstance(long)})
+     */
+    StateMachine newConcurrentInstance();
+
+    /**
+     * Creates a new thread-safe state machine whose accepted events are recorded in the event journal.
+     * <p>
+     * The instance behaves exactly like one created via {@link #newConcurrentInstance()} and records
+     * its events like one created via {@link #newInstance(long)}.
+     *
+     * @param instanceId identifies the instance within the journal
+     * @return a new thread-safe state machine instance
+     * @throws IllegalStateException if the definition was compiled without an event journal (which
+     *                               requires the {@link ExecutionEngine#TABLE} engine)
+     */
+    StateMachine newConcurrentInstance(long instanceId);
+
+    /**
+     * Creates a runtime which hosts many (lazily created) instances of this definition.
+     * <p>
+     * The runtime starts its worker threads right away; it has to be closed if it's no longer needed.
+     * If the definition was compiled with an event journal, the events of each instance are recorded
+     * with the instance's key as its ID (see {@link EventJournal#replay(StateMachineRuntime, long)}).
+     *
+     * @param options settings of the runtime (e.g. the number of worker threads)
+     * @return a new runtime without any instances
+     */
+    StateMachineRuntime newRuntime(RuntimeOptions options);
+
+    /**
+     * Creates a store which keeps the states of a fixed number of instances off the Java heap.
+     * <p>
+     * All instances of the store start in the initial state. See {@link InstanceStore} for details.
+     *
+     * @param capacity the number of instances
+     * @return a new store backed by a direct buffer
+     * @throws IllegalArgumentException if the capacity is negative or too large for a single buffer
+     * @throws IllegalStateException    if the definition isn't executed by the {@link ExecutionEngine#TABLE} engine
+     */
+    InstanceStore newInstanceStore(int capacity);
+
+    /**
+     * Opens (or creates) a store which keeps the states of a fixed number of instances in a
+     * memory-mapped file.
+     * <p>
+     * If the file doesn't exist (or is empty) it is created and all instances start in the initial
+     * state. Otherwise the instances continue in the states stored in the file; the file has to be
+     * created by a definition with the same {@link Fingerprint} and the same capacity.
+     *
+     * @param file     the file backing the store
+     * @param capacity the number of instances
+     * @return a store backed by the given file
+     * @throws IOException              if the file can't be opened or mapped
+     * @throws IllegalArgumentException if the capacity is invalid or the existing file belongs to a
+     *                                  different state machine or has a different capacity
+     * @throws IllegalStateException    if the definition isn't executed by the {@link ExecutionEngine#TABLE} engine
+     */
+    InstanceStore openInstanceStore(Path file, int capacity) throws IOException;
+
+    /**
+     * Set of device IDs which will be used by the instances of this definition.
+     *
+     * @return a set of used device IDs
+     */
+    Set<Integer> getControlledDeviceIds();
+
+    /**
+     * Set of IDs of event sources which are accepted by the instances of this definition.
+     *
+     * @return a set of event source IDs which are accepted by the state machines
+     */
+    Set<Integer> getHandledEventSourceIds();
+
+    /**
+     * Returns the fingerprint of the state machine this definition was compiled from.
+     * <p>
+     * Snapshots (see {@link StateMachine#snapshot()}) can be restored into every instance of a
+     * definition with the same fingerprint.
+     *
+     * @return the fingerprint of the state machine
+     */
+    Fingerprint getFingerprint();
+
+    /**
+     * Resolves an event into a trigger handle for {@link StateMachine#injectTrigger}.
+     * <p>
+     * The handles are valid for every instance of this definition.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param eventPayload  payload of the event
+     * @return a trigger handle or {@link StateMachine#UNKNOWN_TRIGGER} if the event doesn't match any trigger
+     */
+    int resolveTrigger(int eventSourceId, String eventPayload);
+}
@@ -3,6 +3,12 @@ package com.github.aytchell.jsonfsm;
 import com.github.aytchell.jsonfsm.compiler.StateMachineParserImpl;
 import com.github.aytchell.validator.exceptions.ValidationException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
 /**
  * Parser for reading json encoded state machines.
  * <p>
@@ -24,4 +30,105 @@ public class StateMachineParser {
         final StateMachineParserImpl impl = new StateMachineParserImpl();
         return impl.parse(jsonDescription);
     }
+
+    /**
+     * Parse (and validate) a json-encoded state machine read from a stream.
+     * <p>
+     * The json is parsed while it's read so there's no need to hold the whole document in memory.
+     * The stream is read until the end of the json document but it is not closed.
+     *
+     * @param jsonDescription a stream of the UTF-8 (or UTF-16/32 with BOM) encoded json
+     * @return a StateMachine compiler which will insert the commands to be executed by the state machine
+     * @throws ValidationException thrown if something with the given state machine description is wrong
+     * @throws IOException         thrown if reading from the stream fails
+     */
+    public static StateMachineCompiler parseStream(InputStream jsonDescription)
+            throws ValidationException, IOException {
+        final StateMachineParserImpl impl = new StateMachineParserImpl();
+        return impl.parse(jsonDescription);
+    }
+
+    /**
+     * Parse (and validate) a json-encoded state machine read from a reader.
+     * <p>
+     * The json is parsed while it's read so there's no need to hold the whole document in memory.
+     * The reader is not closed.
+     *
+     * @param jsonDescription a reader providing the json
+     * @return a StateMachine compiler which will insert the commands to be executed by the state machine
+     * @throws ValidationException thrown if something with the given state machine description is wrong
+     * @throws IOException         thrown if reading fails
+     */
+    public static StateMachineCompiler parseReader(Reader jsonDescription)
+            throws ValidationException, IOException {
+        final StateMachineParserImpl impl = new StateMachineParserImpl();
+        return impl.parse(jsonDescription);
+    }
+
+    /**
+     * Parse (and validate) a json-encoded state machine stored in a file.
+     *
+     * @param jsonFile path of a file containing the UTF-8 encoded json
+     * @return a StateMachine compiler which will insert the commands to be executed by the state machine
+     * @throws ValidationException thrown if something with the given state machine description is wrong
+     * @throws IOException         thrown if reading the file fails
+     */
+    public static StateMachineCompiler parseFile(Path jsonFile)
+            throws ValidationException, IOException {
+        final StateMachineParserImpl impl = new StateMachineParserImpl();
+        return impl.parse(jsonFile);
+    }
+
+    /**
+     * Parse (and validate) a json-encoded state machine stored in a buffer.
+     * <p>
+     * The json consists of the bytes between the buffer's position and its limit; the buffer might
+     * be a heap or a direct (e.g. memory-mapped) buffer. Position and limit are not changed.
+     *
+     * @param jsonDescription a buffer containing the UTF-8 encoded json
+     * @return a StateMachine compiler which will insert the commands to be executed by the state machine
+     * @throws ValidationException thrown if something with the given state machine description is wrong
+     * @throws IOException         thrown if reading from the buffer fails
+     */
+    public static StateMachineCompiler parseBuffer(ByteBuffer jsonDescription)
+            throws ValidationException, IOException {
+        final StateMachineParserImpl impl = new StateMachineParserImpl();
+        return impl.parse(jsonDescription);
+    }
+
+    /**
+     * Load a state machine from its binary form as created by {@link StateMachineCompiler#toBinary}.
+     * <p>
+     * The state machine was already validated before it was encoded so loading it skips json parsing
+     * as well as validation (only the structure of the data is checked). The binary form consists of
+     * the bytes between the buffer's position and its limit; the buffer might be a heap or a direct
+     * (e.g. memory-mapped) buffer. Position and limit are not changed.
+     *
+     * @param binaryDescription a buffer containing the binary encoded state machine
+     * @return a StateMachine compiler which will insert the commands to be executed by the state machine
+     * @throws ValidationException thrown if the buffer doesn't contain a (supported and intact) binary
+     *                             encoded state machine
+     */
+    public static StateMachineCompiler loadBinary(ByteBuffer binaryDescription)
+            throws ValidationException {
+        final StateMachineParserImpl impl = new StateMachineParserImpl();
+        return impl.loadBinary(binaryDescription);
+    }
+
+    /**
+     * Load a state machine from a file containing its binary form.
+     * <p>
+     * The file is memory-mapped and then loaded as by {@link #loadBinary}.
+     *
+     * @param binaryFile path of a file containing the output of {@link StateMachineCompiler#toBinary}
+     * @return a StateMachine compiler which will insert the commands to be executed by the state machine
+     * @throws ValidationException thrown if the file doesn't contain a (supported and intact) binary
+     *                             encoded state machine
+     * @throws IOException         thrown if reading the file fails
+     */
+    public static StateMachineCompiler loadBinaryFile(Path binaryFile)
+            throws ValidationException, IOException {
+        final StateMachineParserImpl impl = new StateMachineParserImpl();
+        return impl.loadBinary(binaryFile);
+    }
 }
@@ -0,0 +1,99 @@
+package com.github.aytchell.jsonfsm;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hosts many instances of the same {@link StateMachineDefinition}, each identified by a key.
+ * <p>
+ * The instances are partitioned by (the hash of) their key across a fixed set of worker threads.
+ * Each instance is only ever touched by its owning worker so the instances need no synchronization;
+ * events of the same key are applied in the order they were submitted (per submitting thread).
+ * Submitting an event translates it into a trigger on the calling thread and hands it over to
+ * the owning worker via a lock-free queue.
+ * <p>
+ * Instances are created lazily (in the initial state) when the first event for their key arrives
+ * and are kept until they're {@link #remove removed}.
+ * <p>
+ * Note that the {@link DeviceCommand}s are shared by all instances and thus executed by all
+ * workers concurrently.
+ */
+public interface StateMachineRuntime extends AutoCloseable {
+    /**
+     * Submits an event for the instance identified by the given key.
+     * <p>
+     * This method does not wait until the event has been applied unless the owning worker has
+     * more than a thousand events waiting already (then it waits for its own event so the queue
+     * can't grow without bound). Workers themselves (e.g. a {@link FinalStateListener}) never wait.
+     *
+     * @param key           identifies the state machine instance
+     * @param eventSourceId ID of the source where this event comes from
+     * @param eventPayload  payload of the event
+     * @return {@code true} if the event was submitted; {@code false} if it didn't match any trigger
+     * @throws IllegalStateException if the runtime is already closed
+     */
+    boolean submit(long key, int eventSourceId, String eventPayload);
+
+    /**
+     * Submits an event which was already resolved via {@link StateMachineDefinition#resolveTrigger}.
+     *
+     * @param key           identifies the state machine instance
+     * @param triggerHandle a handle returned by {@link StateMachineDefinition#resolveTrigger}
+     * @throws IllegalArgumentException if the handle is {@link StateMachine#UNKNOWN_TRIGGER} or no valid handle
+     * @throws IllegalStateException    if the runtime is already closed
+     */
+    void submitTrigger(long key, int triggerHandle);
+
+    /**
+     * Queries the current state of the instance identified by the given key.
+     * <p>
+     * The query is answered by the owning worker after all events submitted before it
+     * (by the calling thread) have been applied.
+     *
+     * @param key identifies the state machine instance
+     * @return the name of the instance's current state; the initial state if there's no instance yet
+     * @throws IllegalStateException if the runtime is already closed
+     */
+    CompletableFuture<String> queryState(long key);
+
+    /**
+     * Removes the instance identified by the given key, e.g. once it has reached a final state.
+     * <p>
+     * Like an event, the removal is applied by the owning worker after all events submitted before
+     * it (by the calling thread). A later event for the key creates a new instance in the initial
+     * state. This method may also be called by a {@link FinalStateListener}; that removal is
+     * applied after everything which was already submitted for the key at that time.
+     *
+     * @param key identifies the state machine instance
+     * @throws IllegalStateException if the runtime is already closed
+     */
+    void remove(long key);
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    int getWorkerCount();
+
+    /**
+     * Stops the workers after all submitted events have been applied and waits for them to finish.
+     * <p>
+     * Events submitted concurrently to closing the runtime might be dropped. If called by a worker
+     * (i.e. by a {@link FinalStateListener}), this method returns without waiting.
+     */
+    @Override
+    void close();
+
+    /**
+     * Receives a notification every time an instance reaches a final state.
+     */
+    interface FinalStateListener {
+        /**
+         * Called by the worker which owns the instance right after the transition.
+         *
+         * @param key   identifies the state machine instance
+         * @param state name of the final state
+         */
+        void onFinalState(long key, String state);
+    }
+}
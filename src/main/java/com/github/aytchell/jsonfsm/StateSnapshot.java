@@ -0,0 +1,184 @@
+package com.github.aytchell.jsonfsm;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The current state of a {@link StateMachine} captured via {@link StateMachine#snapshot()}.
+ * <p>
+ * A snapshot consists of the ordinal of the state (its position within the json list of states)
+ * and the {@link Fingerprint} of the state machine. It can be given to {@link StateMachine#restore}
+ * of any instance with the same fingerprint (independent of the {@link ExecutionEngine}).
+ * <p>
+ * The snapshots of many instances can be written into (and restored from) a compact binary form
+ * via {@link #writeAll} and {@link #restoreAll}: the fingerprint is stored only once and each
+ * ordinal takes one, two or four bytes (depending on the highest ordinal).
+ */
+@Getter
+@EqualsAndHashCode
+public final class StateSnapshot {
+    private static final int MAGIC = 0x4a534e50; // "JSNP"
+    private static final byte VERSION = 1;
+    private static final int FINGERPRINT_BYTES = 32;
+    private static final int HEADER_BYTES = Integer.BYTES + 1 + FINGERPRINT_BYTES + Integer.BYTES + 1;
+
+    /**
+     * Fingerprint of the state machine the snapshot was taken from.
+     */
+    private final Fingerprint fingerprint;
+
+    /**
+     * Position of the captured state within the json list of states.
+     */
+    private final int stateOrdinal;
+
+    /**
+     * Constructor (e.g. to restore a snapshot which was stored by the caller).
+     *
+     * @param fingerprint  fingerprint of the state machine the snapshot was taken from
+     * @param stateOrdinal position of the captured state within the json list of states
+     */
+    public StateSnapshot(Fingerprint fingerprint, int stateOrdinal) {
+        this.fingerprint = fingerprint;
+        this.stateOrdinal = stateOrdinal;
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeAll} needs for the given state machines.
+     *
+     * @param machines state machines with the same fingerprint
+     * @return the size of the binary form in bytes
+     * @throws IllegalArgumentException if the state machines have different fingerprints
+     */
+    public static int sizeOf(List<? extends StateMachine> machines) {
+        return HEADER_BYTES + machines.size() * widthOf(machines);
+    }
+
+    /**
+     * Writes the snapshots of all given state machines into the buffer.
+     * <p>
+     * Writing starts at the buffer's position which is advanced afterwards (like by
+     * {@link ByteBuffer#put}). The buffer needs at least {@link #sizeOf} bytes remaining.
+     *
+     * @param machines state machines with the same fingerprint
+     * @param target   buffer receiving the snapshots
+     * @throws IllegalArgumentException if the state machines have different fingerprints
+     * @throws BufferOverflowException  if the buffer is too small; nothing is written then
+     */
+    public static void writeAll(List<? extends StateMachine> machines, ByteBuffer target) {
+        final int width = widthOf(machines);
+        if (target.remaining() < HEADER_BYTES + machines.size() * width) {
+            throw new BufferOverflowException();
+        }
+
+        target.putInt(MAGIC);
+        target.put(VERSION);
+        target.put(machines.isEmpty() ? new byte[FINGERPRINT_BYTES] :
+                machines.get(0).snapshot().getFingerprint().getBytes());
+        target.putInt(machines.size());
+        target.put((byte) width);
+        for (StateMachine machine : machines) {
+            final int ordinal = machine.snapshot().getStateOrdinal();
+            if (width == Byte.BYTES) {
+                target.put((byte) ordinal);
+            } else if (width == Short.BYTES) {
+                target.putShort((short) ordinal);
+            } else {
+                target.putInt(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Restores the snapshots written by {@link #writeAll} into the given state machines.
+     * <p>
+     * The machines have to be given in the same order as they were written. Just like
+     * {@link StateMachine#restore} no behaviors are executed. Reading starts at the buffer's
+     * position which is advanced afterwards. If a machine refuses its snapshot, the machines
+     * before it are already restored and the buffer's position is unchanged.
+     *
+     * @param source   buffer containing the snapshots
+     * @param machines state machines receiving the snapshots
+     * @throws IllegalArgumentException if the buffer doesn't contain snapshots, the number of snapshots
+     *                                  doesn't match the number of machines or a machine has a
+     *                                  different fingerprint
+     */
+    public static void restoreAll(ByteBuffer source, List<? extends StateMachine> machines) {
+        final ByteBuffer buffer = source.duplicate();
+        final Fingerprint fingerprint;
+        final int count;
+        final int width;
+        try {
+            if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                throw new IllegalArgumentException("Buffer doesn't contain state snapshots");
+            }
+            final byte[] hash = new byte[FINGERPRINT_BYTES];
+            buffer.get(hash);
+            fingerprint = new Fingerprint(hash);
+            count = buffer.getInt();
+            width = buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Buffer doesn't contain state snapshots");
+        }
+        if (count != machines.size()) {
+            throw new IllegalArgumentException("Buffer contains " + count + " snapshot(s) but "
+                    + machines.size() + " state machine(s) are given");
+        }
+        if ((width != Byte.BYTES && width != Short.BYTES && width != Integer.BYTES)
+                || buffer.remaining() < count * width) {
+            throw new IllegalArgumentException("Buffer doesn't contain state snapshots");
+        }
+
+        // snapshots are immutable so one instance per state is enough
+        StateSnapshot[] snapshots = new StateSnapshot[16];
+        for (StateMachine machine : machines) {
+            final int ordinal;
+            if (width == Byte.BYTES) {
+                ordinal = buffer.get() & 0xff;
+            } else if (width == Short.BYTES) {
+                ordinal = buffer.getShort() & 0xffff;
+            } else {
+                ordinal = buffer.getInt();
+            }
+            if (ordinal < 0 || ordinal > 0xffff) {
+                machine.restore(new StateSnapshot(fingerprint, ordinal));
+                continue;
+            }
+            if (ordinal >= snapshots.length) {
+                snapshots = Arrays.copyOf(snapshots, Math.max(ordinal + 1, snapshots.length * 2));
+            }
+            if (snapshots[ordinal] == null) {
+                snapshots[ordinal] = new StateSnapshot(fingerprint, ordinal);
+            }
+            machine.restore(snapshots[ordinal]);
+        }
+        source.position(buffer.position());
+    }
+
+    private static int widthOf(List<? extends StateMachine> machines) {
+        if (machines.isEmpty()) {
+            return Byte.BYTES;
+        }
+
+        final Fingerprint fingerprint = machines.get(0).snapshot().getFingerprint();
+        int highest = 0;
+        for (StateMachine machine : machines) {
+            final StateSnapshot snapshot = machine.snapshot();
+            if (!fingerprint.equals(snapshot.getFingerprint())) {
+                throw new IllegalArgumentException("All state machines need to have the same fingerprint");
+            }
+            highest = Math.max(highest, snapshot.getStateOrdinal());
+        }
+
+        if (highest <= 0xff) {
+            return Byte.BYTES;
+        }
+        return highest <= 0xffff ? Short.BYTES : Integer.BYTES;
+    }
+}
@@ -0,0 +1,221 @@
+package com.github.aytchell.jsonfsm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free {@link MetricsListener} which keeps counters and latency histograms in memory.
+ * <p>
+ * All counters are striped ({@link LongAdder}) so concurrently running instances don't contend
+ * on a single memory location. Durations are recorded into {@link Histogram}s with fixed buckets.
+ * Reading the metrics is possible at any time; the values are not an atomic snapshot though.
+ */
+public class StripedMetrics implements MetricsListener {
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> transitions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> dwellTimes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Histogram>> behaviorLatencies =
+            new ConcurrentHashMap<>();
+    private final LongAdder ignored = new LongAdder();
+    private final LongAdder unhandled = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder failedBehaviors = new LongAdder();
+
+    @Override
+    public void onTransition(String sourceState, String triggerName, String targetState, long dwellNanos) {
+        transitions.computeIfAbsent(sourceState, state -> new ConcurrentHashMap<>())
+                .computeIfAbsent(triggerName, trigger -> new LongAdder())
+                .increment();
+        dwellTimes.computeIfAbsent(sourceState, state -> new Histogram()).record(dwellNanos);
+    }
+
+    @Override
+    public void onIgnored(String state, String triggerName) {
+        ignored.increment();
+    }
+
+    @Override
+    public void onUnhandled(String state, String triggerName) {
+        unhandled.increment();
+    }
+
+    @Override
+    public void onUnknownEvent(int eventSourceId) {
+        unknown.increment();
+    }
+
+    @Override
+    public void onBehavior(int deviceId, String commandString, long durationNanos, boolean failed) {
+        behaviorLatencies.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(commandString, command -> new Histogram())
+                .record(durationNanos);
+        if (failed) {
+            failedBehaviors.increment();
+        }
+    }
+
+    /**
+     * Returns how often the transition of the given state and trigger was traversed.
+     *
+     * @param state       name of the source state
+     * @param triggerName name of the trigger
+     * @return the number of traversals
+     */
+    public long getTransitionCount(String state, String triggerName) {
+        final ConcurrentMap<String, LongAdder> counts = transitions.get(state);
+        final LongAdder count = counts == null ? null : counts.get(triggerName);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Returns the histogram of the time spent in the given state (recorded when the state is left).
+     *
+     * @param state name of the state
+     * @return the histogram; empty if the state was never left
+     */
+    public Histogram getDwellTime(String state) {
+        return dwellTimes.getOrDefault(state, Histogram.EMPTY);
+    }
+
+    /**
+     * Returns the histogram of the execution times of the given command.
+     *
+     * @param deviceId      ID of the device executing the command
+     * @param commandString the command string
+     * @return the histogram; empty if the command was never executed
+     */
+    public Histogram getBehaviorLatency(int deviceId, String commandString) {
+        final ConcurrentMap<String, Histogram> latencies = behaviorLatencies.get(deviceId);
+        final Histogram histogram = latencies == null ? null : latencies.get(commandString);
+        return histogram == null ? Histogram.EMPTY : histogram;
+    }
+
+    /**
+     * Returns how many triggers were ignored since they are marked as {@code ignore} in the current state.
+     *
+     * @return the number of ignored triggers
+     */
+    public long getIgnoredCount() {
+        return ignored.sum();
+    }
+
+    /**
+     * Returns how many triggers arrived in a state without a matching transition.
+     *
+     * @return the number of unhandled triggers
+     */
+    public long getUnhandledCount() {
+        return unhandled.sum();
+    }
+
+    /**
+     * Returns how many events didn't match any trigger of the state machine.
+     *
+     * @return the number of unknown events
+     */
+    public long getUnknownCount() {
+        return unknown.sum();
+    }
+
+    /**
+     * Returns how many behaviors (device commands) threw an exception.
+     *
+     * @return the number of failed behaviors
+     */
+    public long getFailedBehaviorCount() {
+        return failedBehaviors.sum();
+    }
+
+    /**
+     * Histogram of durations (in nanoseconds) with fixed, exponentially growing buckets.
+     * <p>
+     * Bucket {@code 0} counts the value 0; bucket {@code i > 0} counts the values
+     * {@code 2^(i-1) <= value < 2^i}. Values beyond the last bucket are counted in the last one.
+     */
+    public static class Histogram {
+        public static final int BUCKET_COUNT = 48;
+
+        private static final Histogram EMPTY = new Histogram();
+
+        private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            final int bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)), BUCKET_COUNT - 1);
+            buckets[bucket].increment();
+            sum.add(nanos);
+        }
+
+        /**
+         * Returns the exclusive upper bound of the given bucket.
+         *
+         * @param bucket index of the bucket
+         * @return the smallest value which isn't counted by the bucket (or by any bucket before)
+         */
+        public static long getUpperBound(int bucket) {
+            return 1L << bucket;
+        }
+
+        /**
+         * Returns the number of values counted by the given bucket.
+         *
+         * @param bucket index of the bucket
+         * @return the number of values within the bucket's bounds
+         */
+        public long getBucketCount(int bucket) {
+            return buckets[bucket].sum();
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return the number of values in all buckets
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * Returns the sum of all recorded values.
+         *
+         * @return the sum in nanoseconds
+         */
+        public long getSumNanos() {
+            return sum.sum();
+        }
+
+        /**
+         * Estimates the given percentile by the upper bound of the bucket containing it.
+         *
+         * @param percentile a value between 0 (exclusive) and 100 (inclusive)
+         * @return an upper bound of the percentile in nanoseconds; 0 if the histogram is empty
+         */
+        public long getPercentileUpperBound(double percentile) {
+            final long[] counts = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            final long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return getUpperBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
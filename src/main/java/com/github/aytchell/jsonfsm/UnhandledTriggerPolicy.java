@@ -0,0 +1,122 @@
+package com.github.aytchell.jsonfsm;
+
+import com.github.aytchell.jsonfsm.compiler.PolicyAccess;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Says what happens if a known trigger arrives in a state which neither has a matching transition
+ * nor marks the trigger to be ignored.
+ * <p>
+ * Such triggers never throw (or catch) an exception; they are detected up front and then counted
+ * and reported according to the policy. Instances are given via {@link CompileOptions}; the count
+ * is shared by all state machines compiled with the same instance.
+ */
+@Slf4j
+public class UnhandledTriggerPolicy {
+    static {
+        PolicyAccess.setUnhandledTriggers(UnhandledTriggerPolicy::report);
+    }
+
+    /**
+     * Callback for unhandled triggers (see {@link #callback}).
+     */
+    public interface Handler {
+        /**
+         * Called for each unhandled trigger; might be called from several threads concurrently.
+         *
+         * @param state       name of the current state
+         * @param triggerName name of the unhandled trigger
+         */
+        void onUnhandled(String state, String triggerName);
+    }
+
+    private final LongAdder count = new LongAdder();
+    private final LogLimiter logLimiter;
+    private final Handler handler;
+
+    private UnhandledTriggerPolicy(LogLimiter logLimiter, Handler handler) {
+        this.logLimiter = logLimiter;
+        this.handler = handler;
+    }
+
+    /**
+     * Logs (level error) every unhandled trigger; this is the default.
+     *
+     * @return a new policy
+     */
+    public static UnhandledTriggerPolicy logEveryTime() {
+        return new UnhandledTriggerPolicy(LogLimiter.always(), null);
+    }
+
+    /**
+     * Only counts unhandled triggers (see {@link #getUnhandledCount()}).
+     *
+     * @return a new policy
+     */
+    public static UnhandledTriggerPolicy countOnly() {
+        return new UnhandledTriggerPolicy(LogLimiter.never(), null);
+    }
+
+    /**
+     * Logs at most one unhandled trigger per interval; the log line tells how many were suppressed since
+     * the previous one.
+     *
+     * @param interval minimum time between two log lines
+     * @return a new policy
+     */
+    public static UnhandledTriggerPolicy rateLimitedLog(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Log interval must be positive but is " + interval);
+        }
+        return new UnhandledTriggerPolicy(LogLimiter.perInterval(interval.toNanos()), null);
+    }
+
+    /**
+     * Hands every unhandled trigger to the given handler (and doesn't log).
+     *
+     * @param handler the handler to call
+     * @return a new policy
+     */
+    public static UnhandledTriggerPolicy callback(Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler must not be null");
+        }
+        return new UnhandledTriggerPolicy(LogLimiter.never(), handler);
+    }
+
+    /**
+     * Returns the number of unhandled triggers reported to this policy.
+     *
+     * @return number of unhandled triggers
+     */
+    public long getUnhandledCount() {
+        return count.sum();
+    }
+
+    /**
+     * Reports an unhandled trigger; used internally by the lib (via {@link PolicyAccess}).
+     *
+     * @param state       name of the current state
+     * @param triggerName name of the unhandled trigger
+     */
+    void report(String state, String triggerName) {
+        count.increment();
+        if (handler != null) {
+            handler.onUnhandled(state, triggerName);
+            return;
+        }
+
+        final long suppressed = logLimiter.tryAcquire();
+        if (suppressed > 0) {
+            log.error("Event '{}' arrived in state '{}' but there's no " +
+                    "matching transition and it's not marked to be ignored " +
+                    "({} similar message(s) suppressed)", triggerName, state, suppressed);
+        } else if (suppressed == 0) {
+            log.error("Event '{}' arrived in state '{}' but there's no " +
+                    "matching transition and it's not marked to be ignored", triggerName, state);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.aytchell.jsonfsm;
+
+import com.github.aytchell.jsonfsm.compiler.PolicyAccess;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Says what happens to events which don't match any trigger of a state machine.
+ * <p>
+ * Unknown events are rejected as early as possible: events of sources without any trigger are
+ * rejected by a bitset lookup, all others after looking up their payload. Both kinds of rejections
+ * are counted separately; whether (and how often) they are logged depends on the policy. Instances
+ * are given via {@link CompileOptions}; the counts are shared by all state machines compiled with
+ * the same instance.
+ * <p>
+ * Unknown events of a batch (see {@link StateMachine#injectEvents(EventBatch)}) are counted one by one
+ * but only described by a single summary log line.
+ */
+@Slf4j
+public class UnknownEventPolicy {
+    static {
+        PolicyAccess.setUnknownEvents(new PolicyAccess.UnknownEvents() {
+            @Override
+            public long report(UnknownEventPolicy policy, int eventSourceId, boolean knownSource) {
+                return policy.report(eventSourceId, knownSource);
+            }
+
+            @Override
+            public void describe(UnknownEventPolicy policy, int eventSourceId, String eventPayload, long suppressed) {
+                policy.describe(eventSourceId, eventPayload, suppressed);
+            }
+        });
+    }
+
+    /**
+     * Callback for unknown events (see {@link #callback}).
+     */
+    public interface Handler {
+        /**
+         * Called for each unknown event; might be called from several threads concurrently.
+         *
+         * @param eventSourceId ID of the source where the event comes from
+         * @param eventPayload  payload of the event
+         */
+        void onUnknownEvent(int eventSourceId, String eventPayload);
+    }
+
+    private final LongAdder unknownSources = new LongAdder();
+    private final LongAdder unknownPayloads = new LongAdder();
+    private final LogLimiter logLimiter;
+    private final Handler handler;
+
+    private UnknownEventPolicy(LogLimiter logLimiter, Handler handler) {
+        this.logLimiter = logLimiter;
+        this.handler = handler;
+    }
+
+    /**
+     * Logs (level info) every unknown event; this is the default.
+     *
+     * @return a new policy
+     */
+    public static UnknownEventPolicy logEveryTime() {
+        return new UnknownEventPolicy(LogLimiter.always(), null);
+    }
+
+    /**
+     * Only counts unknown events (see {@link #getUnknownSourceCount()} and {@link #getUnknownPayloadCount()}).
+     *
+     * @return a new policy
+     */
+    public static UnknownEventPolicy countOnly() {
+        return new UnknownEventPolicy(LogLimiter.never(), null);
+    }
+
+    /**
+     * Logs at most one unknown event per interval; the log line tells how many were suppressed since
+     * the previous one.
+     *
+     * @param interval minimum time between two log lines
+     * @return a new policy
+     */
+    public static UnknownEventPolicy rateLimitedLog(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Log interval must be positive but is " + interval);
+        }
+        return new UnknownEventPolicy(LogLimiter.perInterval(interval.toNanos()), null);
+    }
+
+    /**
+     * Logs one out of {@code rate} unknown events.
+     *
+     * @param rate how many unknown events are represented by a single log line
+     * @return a new policy
+     */
+    public static UnknownEventPolicy sampledLog(int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive but is " + rate);
+        }
+        return new UnknownEventPolicy(LogLimiter.oneIn(rate), null);
+    }
+
+    /**
+     * Hands every unknown event to the given handler (and doesn't log).
+     *
+     * @param handler the handler to call
+     * @return a new policy
+     */
+    public static UnknownEventPolicy callback(Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler must not be null");
+        }
+        return new UnknownEventPolicy(LogLimiter.always(), handler);
+    }
+
+    /**
+     * Returns the number of events which were rejected since no trigger has their event source ID.
+     *
+     * @return number of events from unknown sources
+     */
+    public long getUnknownSourceCount() {
+        return unknownSources.sum();
+    }
+
+    /**
+     * Returns the number of events which were rejected since their payload doesn't match any trigger
+     * of their (known) event source.
+     *
+     * @return number of events with unknown payloads
+     */
+    public long getUnknownPayloadCount() {
+        return unknownPayloads.sum();
+    }
+
+    /**
+     * Counts an unknown event; used internally by the lib (via {@link PolicyAccess}).
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param knownSource   whether other events of this source are known
+     * @return {@link LogLimiter#SUPPRESSED} if the event must not be described; otherwise the number
+     * of unknown events suppressed since the previously described one
+     */
+    long report(int eventSourceId, boolean knownSource) {
+        if (knownSource) {
+            unknownPayloads.increment();
+        } else {
+            unknownSources.increment();
+        }
+        return logLimiter.tryAcquire();
+    }
+
+    /**
+     * Describes an unknown event for which {@link #report} didn't return {@link LogLimiter#SUPPRESSED};
+     * used internally by the lib (via {@link PolicyAccess}).
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param eventPayload  payload of the event
+     * @param suppressed    the value returned by {@link #report}
+     */
+    void describe(int eventSourceId, String eventPayload, long suppressed) {
+        if (handler != null) {
+            handler.onUnknownEvent(eventSourceId, eventPayload);
+        } else if (suppressed > 0) {
+            log.info("Ignoring unknown event '{}:{}' ({} similar message(s) suppressed)",
+                    eventSourceId, eventPayload, suppressed);
+        } else {
+            log.info("Ignoring unknown event '{}:{}'", eventSourceId, eventPayload);
+        }
+    }
+}
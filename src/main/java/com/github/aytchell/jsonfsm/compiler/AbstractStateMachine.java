@@ -0,0 +1,241 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.EventBatch;
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+import com.github.aytchell.jsonfsm.compiler.EventTranslator.PayloadKind;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Common part of the state machines of both execution engines: translating events into triggers.
+ * <p>
+ * Subclasses only have to traverse the transitions.
+ */
+@Slf4j
+abstract class AbstractStateMachine implements StateMachine {
+    // outcomes of fire()
+    static final int ACCEPTED = 0;
+    static final int IGNORED = 1;
+    static final int UNHANDLED = 2;
+
+    @Override
+    public boolean injectEvent(int eventSourceId, String eventPayload) {
+        return injectEvent(eventSourceId, PayloadKind.STRING, eventPayload, 0, eventPayload.length());
+    }
+
+    @Override
+    public boolean injectEvent(int eventSourceId, CharSequence eventPayload) {
+        return injectEvent(eventSourceId, PayloadKind.CHARS, eventPayload, 0, eventPayload.length());
+    }
+
+    @Override
+    public boolean injectEvent(int eventSourceId, byte[] eventPayload, int offset, int length) {
+        return injectEvent(eventSourceId, PayloadKind.BYTES, eventPayload, offset, length);
+    }
+
+    @Override
+    public boolean injectEvent(int eventSourceId, ByteBuffer eventPayload) {
+        return injectEvent(eventSourceId, PayloadKind.BUFFER, eventPayload, 0, eventPayload.remaining());
+    }
+
+    private boolean injectEvent(int eventSourceId, PayloadKind kind, Object eventPayload, int offset, int length) {
+        final int trigger = getMapping().getTrigger(eventSourceId, kind, eventPayload, offset, length);
+        if (trigger != EventTranslator.UNKNOWN_TRIGGER) {
+            return inject(trigger);
+        }
+        rejectUnknown(eventSourceId, kind, eventPayload, offset, length);
+        return isCurrentStateFinal();
+    }
+
+    @Override
+    public int resolveTrigger(int eventSourceId, String eventPayload) {
+        return getMapping().getTrigger(eventSourceId, eventPayload);
+    }
+
+    @Override
+    public boolean injectTrigger(int triggerHandle) {
+        if (triggerHandle < 0 || triggerHandle >= getMapping().getTriggerCount()) {
+            throw new IllegalArgumentException("Unknown trigger handle " + triggerHandle);
+        }
+        return inject(triggerHandle);
+    }
+
+    @Override
+    public BatchResult injectEvents(int[] eventSourceIds, String[] eventPayloads, int offset, int length) {
+        final EventTranslator mapping = getMapping();
+        final BatchCounter counter = new BatchCounter();
+        final int end = offset + length;
+        for (int i = offset; i < end; ++i) {
+            final int trigger = mapping.getTrigger(eventSourceIds[i], eventPayloads[i]);
+            if (trigger == EventTranslator.UNKNOWN_TRIGGER) {
+                counter.countUnknown(rejectUnknown(eventSourceIds[i]) != PolicyAccess.SUPPRESSED);
+            } else {
+                counter.count(i, fire(trigger), this);
+            }
+        }
+        return counter.finish(length);
+    }
+
+    @Override
+    public BatchResult injectEvents(EventBatch batch) {
+        return injectEvents(batch.getEventSourceIds(), batch.getEventPayloads(), 0, batch.size());
+    }
+
+    /**
+     * Injects an event which is already translated into a known trigger.
+     *
+     * @param trigger the ordinal of a trigger known to this state machine
+     * @return {@code true} if a final state has been reached; {@code false} otherwise
+     */
+    boolean inject(int trigger) {
+        fire(trigger);
+        return isCurrentStateFinal();
+    }
+
+    /**
+     * Counts an event which doesn't match any trigger.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @return the result of {@link PolicyAccess#reportUnknown}
+     */
+    long rejectUnknown(int eventSourceId) {
+        unknownEvent(eventSourceId);
+        return reportUnknown(getUnknownEventPolicy(), getMapping(), eventSourceId);
+    }
+
+    /**
+     * Counts an event which doesn't match any trigger and describes it if the {@link UnknownEventPolicy} wants that.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param kind          the type of {@code eventPayload}
+     * @param eventPayload  the payload
+     * @param offset        start of the payload within a byte array
+     * @param length        length of the payload
+     */
+    void rejectUnknown(int eventSourceId, PayloadKind kind, Object eventPayload, int offset, int length) {
+        unknownEvent(eventSourceId);
+        rejectUnknown(getUnknownEventPolicy(), getMapping(), eventSourceId, kind, eventPayload, offset, length);
+    }
+
+    /**
+     * Reports an event which doesn't match any trigger to the given policy.
+     *
+     * @param policy        the policy deciding whether the event is logged
+     * @param mapping       the mapping which didn't find a trigger for the event
+     * @param eventSourceId ID of the source where the event comes from
+     * @return the result of {@link PolicyAccess#reportUnknown}
+     */
+    static long reportUnknown(UnknownEventPolicy policy, EventTranslator mapping, int eventSourceId) {
+        return PolicyAccess.reportUnknown(policy, eventSourceId, mapping.isKnownSource(eventSourceId));
+    }
+
+    /**
+     * Reports an event which doesn't match any trigger and describes it if the policy wants that.
+     * <p>
+     * Shared with everything else which translates events on its own (instance stores, runtimes).
+     *
+     * @param policy        the policy deciding whether the event is logged
+     * @param mapping       the mapping which didn't find a trigger for the event
+     * @param eventSourceId ID of the source where the event comes from
+     * @param kind          the type of {@code eventPayload}
+     * @param eventPayload  the payload
+     * @param offset        start of the payload within a byte array
+     * @param length        length of the payload
+     */
+    static void rejectUnknown(UnknownEventPolicy policy, EventTranslator mapping, int eventSourceId,
+                              PayloadKind kind, Object eventPayload, int offset, int length) {
+        final long suppressed = reportUnknown(policy, mapping, eventSourceId);
+        if (suppressed != PolicyAccess.SUPPRESSED) {
+            PolicyAccess.describeUnknown(policy, eventSourceId, kind.decode(eventPayload, offset, length), suppressed);
+        }
+    }
+
+    /**
+     * Called for each event which doesn't match any trigger; does nothing by default.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     */
+    void unknownEvent(int eventSourceId) {
+    }
+
+    abstract EventTranslator getMapping();
+
+    abstract UnknownEventPolicy getUnknownEventPolicy();
+
+    abstract StateSnapshotTable getSnapshots();
+
+    /**
+     * Traverses the transition for the given trigger (if there is one for the current state).
+     *
+     * @param trigger the ordinal of a trigger known to this state machine
+     * @return {@link #ACCEPTED} if a transition was traversed, {@link #IGNORED} if the trigger is
+     * marked to be ignored in the current state and {@link #UNHANDLED} otherwise
+     */
+    abstract int fire(int trigger);
+
+    /**
+     * Returns the fingerprint of the definition if this instance can replay journal records.
+     *
+     * @return the fingerprint or 'null' if {@link #replay} isn't supported
+     */
+    Fingerprint getReplayFingerprint() {
+        return null;
+    }
+
+    /**
+     * Applies a trigger recorded by an {@link EventJournalImpl}: only the state is changed.
+     *
+     * @param trigger the ordinal of a trigger known to this state machine
+     * @throws IllegalStateException if {@link #getReplayFingerprint()} is 'null'
+     */
+    void replay(int trigger) {
+        throw new IllegalStateException("This instance can't replay journal records");
+    }
+
+    /**
+     * Accumulates the outcomes of a batch of events.
+     */
+    static class BatchCounter {
+        private int firstFinalIndex = -1;
+        private int accepted = 0;
+        private int ignored = 0;
+        private int unhandled = 0;
+        private int unknown = 0;
+        private boolean describeUnknown = false;
+
+        /**
+         * Counts an unknown event.
+         *
+         * @param describe whether the {@link UnknownEventPolicy} wants the event to be described; if so
+         *                 the batch's unknown events are summarized in a log line
+         */
+        void countUnknown(boolean describe) {
+            ++unknown;
+            describeUnknown |= describe;
+        }
+
+        void count(int index, int outcome, StateMachine machine) {
+            if (outcome == ACCEPTED) {
+                ++accepted;
+                if (firstFinalIndex < 0 && machine.isCurrentStateFinal()) {
+                    firstFinalIndex = index;
+                }
+            } else if (outcome == IGNORED) {
+                ++ignored;
+            } else {
+                ++unhandled;
+            }
+        }
+
+        BatchResult finish(int length) {
+            if (describeUnknown) {
+                log.info("Ignored {} unknown event(s) out of a batch of {}", unknown, length);
+            }
+            return new BatchResult(firstFinalIndex, accepted, ignored, unhandled, unknown);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.DeviceCommand;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hands the behaviors of a transition over to an executor (one {@link SerialLane} per device).
+ * <p>
+ * For each cell of a {@link TransitionTable} the behaviors (onExit, effects and onEntry of the
+ * target) are grouped by device during compilation; the order within each group is the order
+ * of execution. Traversing a transition then only submits one group per involved device.
+ * <p>
+ * The lanes belong to the dispatcher, i.e. to a single definition: behaviors of the same device
+ * are ordered across all instances of the definition but not across definitions (even if they
+ * share the executor).
+ */
+@Slf4j
+class AsyncDispatcher {
+    static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private static Executor defaultExecutor;
+
+    // per cell: the lanes involved and the commands to execute on each of them
+    private final SerialLane[][] cellLanes;
+    private final DeviceCommand[][][] cellCommands;
+
+    private AsyncDispatcher(SerialLane[][] cellLanes, DeviceCommand[][][] cellCommands) {
+        this.cellLanes = cellLanes;
+        this.cellCommands = cellCommands;
+    }
+
+    static AsyncDispatcher build(TransitionTable table, Executor executor) {
+        final Executor laneExecutor = executor != null ? executor : getDefaultExecutor();
+        final Map<Integer, SerialLane> lanes = new HashMap<>();
+        final int cellCount = TransitionTable.cellCount(table.getStateCount(), table.getTriggerCount());
+        final SerialLane[][] cellLanes = new SerialLane[cellCount][];
+        final DeviceCommand[][][] cellCommands = new DeviceCommand[cellCount][][];
+
+        for (int cell = 0; cell < cellCount; ++cell) {
+            final int target = table.getTarget(cell);
+            if (target < 0) {
+                continue;
+            }
+
+            final Map<Integer, List<DeviceCommand>> byDevice = new LinkedHashMap<>();
+            groupByDevice(byDevice, table.getLeavingCommands(cell));
+            groupByDevice(byDevice, table.getEnteringCommands(cell));
+
+            cellLanes[cell] = new SerialLane[byDevice.size()];
+            cellCommands[cell] = new DeviceCommand[byDevice.size()][];
+            int group = 0;
+            for (Map.Entry<Integer, List<DeviceCommand>> e : byDevice.entrySet()) {
+                cellLanes[cell][group] = lanes.computeIfAbsent(e.getKey(), id -> new SerialLane(laneExecutor));
+                cellCommands[cell][group] = e.getValue().toArray(TransitionTable.NO_COMMANDS);
+                ++group;
+            }
+        }
+        return new AsyncDispatcher(cellLanes, cellCommands);
+    }
+
+    /**
+     * Submits the behaviors of the transition in the given cell.
+     *
+     * @param cell a cell of the transition table which has a transition
+     * @return a future which completes after all behaviors have been executed
+     */
+    CompletableFuture<Void> dispatch(int cell) {
+        final SerialLane[] lanes = cellLanes[cell];
+        if (lanes.length == 0) {
+            return COMPLETED;
+        }
+        if (lanes.length == 1) {
+            return lanes[0].submit(cellCommands[cell][0]);
+        }
+
+        final CompletableFuture<?>[] done = new CompletableFuture<?>[lanes.length];
+        for (int i = 0; i < lanes.length; ++i) {
+            done[i] = lanes[i].submit(cellCommands[cell][i]);
+        }
+        return CompletableFuture.allOf(done);
+    }
+
+    private static void groupByDevice(Map<Integer, List<DeviceCommand>> byDevice, DeviceCommand[] commands) {
+        for (DeviceCommand command : commands) {
+            final int deviceId = ((DeviceCommandWrapper) command).getDeviceId();
+            byDevice.computeIfAbsent(deviceId, id -> new ArrayList<>()).add(command);
+        }
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = createDefaultExecutor();
+        }
+        return defaultExecutor;
+    }
+
+    private static Executor createDefaultExecutor() {
+        try {
+            // virtual threads are only available since Java 21; the library is built for Java 9
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Virtual threads are not available; using platform threads for behaviors");
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "jsonfsm-behaviors");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,452 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.input.pojos.BehaviorPojo;
+import com.github.aytchell.jsonfsm.input.pojos.PayloadRangePojo;
+import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
+import com.github.aytchell.jsonfsm.input.pojos.StatePojo;
+import com.github.aytchell.jsonfsm.input.pojos.TransitionPojo;
+import com.github.aytchell.jsonfsm.input.pojos.TriggerPojo;
+import com.github.aytchell.validator.exceptions.ValidationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a validated state machine.
+ * <p>
+ * Layout (all numbers are big endian ints unless noted otherwise):
+ * <pre>
+ * magic "JFSM", version
+ * fingerprint (32 bytes)
+ * string table:   count, (byte length, UTF-8 bytes)*
+ * behavior table: count, (deviceId, command string index)*
+ * triggers:       count, (name index, eventSourceId, payload index (-1 for patterns and ranges))*
+ * initial state index
+ * final states:   count, (state index)*
+ * states:         count, (name index, onEntry, onExit, transition count, transition*)*
+ *   onEntry/onExit/effects: count, (behavior index)*
+ *   transition:    trigger index, ignore (byte), target state index (-1 if ignored), effects
+ * hierarchy:      (parent state index, initial substate index)* (since version 2; -1 if not given)
+ * patterns:       (pattern index)* per trigger (since version 3; -1 if not given)
+ * ranges:         (from, below as 8 byte doubles)* per trigger (since version 4; NaN if not given)
+ * </pre>
+ * Each state machine is written in the oldest version supporting all features it uses so older
+ * readers can still load it.
+ * Every string and every (deviceId, commandString) pair is stored only once. Reading doesn't
+ * validate the state machine again. It only checks the structure the compiler relies on (all
+ * indices are in range and the hierarchy is free of cycles) and compares the stored fingerprint
+ * so damaged data is detected.
+ */
+class BinaryDefinitionFormat {
+    private static final int MAGIC = 0x4a46534d;
+    // bump whenever the layout changes
+    private static final int VERSION = 1;
+    private static final int HIERARCHICAL_VERSION = 2;
+    private static final int PATTERN_VERSION = 3;
+    private static final int RANGE_VERSION = 4;
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    static byte[] write(StateMachinePojo pojo, Fingerprint fingerprint) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new Writer(pojo).write(new DataOutputStream(bytes), fingerprint);
+        } catch (IOException e) {
+            // can't happen when writing into a byte array
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static StateMachinePojo read(ByteBuffer buffer) throws ValidationException {
+        final ByteBuffer in = buffer.duplicate();
+        try {
+            if (in.getInt() != MAGIC) {
+                throw invalid("unknown format");
+            }
+            final int version = in.getInt();
+            if (version < VERSION || version > RANGE_VERSION) {
+                throw invalid("unsupported version " + version);
+            }
+            final byte[] expectedFingerprint = new byte[FINGERPRINT_LENGTH];
+            in.get(expectedFingerprint);
+
+            final StateMachinePojo pojo = new Reader(in).read(version);
+            if (!PojoFingerprint.of(pojo).equals(new Fingerprint(expectedFingerprint))) {
+                throw invalid("fingerprint doesn't match (data is damaged)");
+            }
+            return pojo;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw invalid("data is truncated or damaged");
+        }
+    }
+
+    private static ValidationException invalid(String reason) {
+        return new ValidationException("Invalid binary state machine: " + reason);
+    }
+
+    private static class Writer {
+        private final StateMachinePojo pojo;
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<BehaviorPojo, Integer> behaviors = new LinkedHashMap<>();
+        private final Map<String, Integer> stateOrdinals = new HashMap<>();
+        private final Map<String, Integer> triggerOrdinals = new HashMap<>();
+        private int version = VERSION;
+
+        Writer(StateMachinePojo pojo) {
+            this.pojo = pojo;
+            for (TriggerPojo trigger : pojo.getTriggers()) {
+                triggerOrdinals.put(trigger.getName(), triggerOrdinals.size());
+                intern(trigger.getName());
+                intern(trigger.getEventPayload());
+                intern(trigger.getEventPayloadPattern());
+                if (trigger.getEventPayloadRange() != null) {
+                    version = RANGE_VERSION;
+                } else if (trigger.getEventPayloadPattern() != null) {
+                    version = Math.max(version, PATTERN_VERSION);
+                }
+            }
+            for (StatePojo state : pojo.getStates()) {
+                stateOrdinals.put(state.getName(), stateOrdinals.size());
+                intern(state.getName());
+                intern(state.getOnEntry());
+                intern(state.getOnExit());
+                for (TransitionPojo transition : nonNull(state.getTransitions())) {
+                    intern(transition.getEffects());
+                }
+                if (state.getParent() != null || state.getInitialSubstate() != null) {
+                    version = Math.max(version, HIERARCHICAL_VERSION);
+                }
+            }
+        }
+
+        void write(DataOutputStream out, Fingerprint fingerprint) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(version);
+            out.write(fingerprint.getBytes());
+
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                final byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+            out.writeInt(behaviors.size());
+            for (BehaviorPojo behavior : behaviors.keySet()) {
+                out.writeInt(behavior.getDeviceId());
+                out.writeInt(strings.get(behavior.getCommandString()));
+            }
+
+            out.writeInt(pojo.getTriggers().size());
+            for (TriggerPojo trigger : pojo.getTriggers()) {
+                out.writeInt(strings.get(trigger.getName()));
+                out.writeInt(trigger.getEventSourceId());
+                out.writeInt(indexOf(trigger.getEventPayload()));
+            }
+
+            out.writeInt(stateOrdinals.get(pojo.getInitialState()));
+            final List<String> finalStates = nonNull(pojo.getFinalStates());
+            out.writeInt(finalStates.size());
+            for (String state : finalStates) {
+                out.writeInt(stateOrdinals.get(state));
+            }
+
+            out.writeInt(pojo.getStates().size());
+            for (StatePojo state : pojo.getStates()) {
+                out.writeInt(strings.get(state.getName()));
+                writeBehaviors(out, state.getOnEntry());
+                writeBehaviors(out, state.getOnExit());
+                final List<TransitionPojo> transitions = nonNull(state.getTransitions());
+                out.writeInt(transitions.size());
+                for (TransitionPojo transition : transitions) {
+                    final boolean ignore = Boolean.TRUE.equals(transition.getIgnore());
+                    out.writeInt(triggerOrdinals.get(transition.getTriggerName()));
+                    out.writeByte(ignore ? 1 : 0);
+                    out.writeInt(ignore ? -1 : stateOrdinals.get(transition.getTargetState()));
+                    writeBehaviors(out, ignore ? null : transition.getEffects());
+                }
+            }
+
+            if (version >= HIERARCHICAL_VERSION) {
+                for (StatePojo state : pojo.getStates()) {
+                    out.writeInt(ordinalOf(state.getParent()));
+                    out.writeInt(ordinalOf(state.getInitialSubstate()));
+                }
+            }
+            if (version >= PATTERN_VERSION) {
+                for (TriggerPojo trigger : pojo.getTriggers()) {
+                    out.writeInt(indexOf(trigger.getEventPayloadPattern()));
+                }
+            }
+            if (version >= RANGE_VERSION) {
+                for (TriggerPojo trigger : pojo.getTriggers()) {
+                    final PayloadRangePojo range = trigger.getEventPayloadRange();
+                    out.writeDouble(range == null ? Double.NaN : orNaN(range.getFrom()));
+                    out.writeDouble(range == null ? Double.NaN : orNaN(range.getBelow()));
+                }
+            }
+        }
+
+        private int indexOf(String string) {
+            return string == null ? -1 : strings.get(string);
+        }
+
+        private static double orNaN(Double bound) {
+            return bound == null ? Double.NaN : bound;
+        }
+
+        private int ordinalOf(String state) {
+            return state == null ? -1 : stateOrdinals.get(state);
+        }
+
+        private void writeBehaviors(DataOutputStream out, List<BehaviorPojo> list) throws IOException {
+            out.writeInt(nonNull(list).size());
+            for (BehaviorPojo behavior : nonNull(list)) {
+                out.writeInt(behaviors.get(behavior));
+            }
+        }
+
+        private void intern(String string) {
+            if (string != null) {
+                strings.putIfAbsent(string, strings.size());
+            }
+        }
+
+        private void intern(List<BehaviorPojo> list) {
+            for (BehaviorPojo behavior : nonNull(list)) {
+                intern(behavior.getCommandString());
+                behaviors.putIfAbsent(behavior, behaviors.size());
+            }
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer in;
+        private String[] strings;
+        private BehaviorPojo[] behaviors;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        StateMachinePojo read(int version) throws ValidationException {
+            strings = new String[readCount(4)];
+            for (int i = 0; i < strings.length; ++i) {
+                final byte[] encoded = new byte[readCount(1)];
+                in.get(encoded);
+                strings[i] = new String(encoded, StandardCharsets.UTF_8);
+            }
+            behaviors = new BehaviorPojo[readCount(8)];
+            for (int i = 0; i < behaviors.length; ++i) {
+                behaviors[i] = new BehaviorPojo();
+                behaviors[i].setDeviceId(in.getInt());
+                behaviors[i].setCommandString(strings[readIndex(strings.length, "string")]);
+            }
+
+            final List<TriggerPojo> triggers = new ArrayList<>();
+            final int triggerCount = readCount(12);
+            for (int i = 0; i < triggerCount; ++i) {
+                final TriggerPojo trigger = new TriggerPojo();
+                trigger.setName(strings[readIndex(strings.length, "string")]);
+                trigger.setEventSourceId(in.getInt());
+                trigger.setEventPayload(readStringOrNull());
+                triggers.add(trigger);
+            }
+
+            // states are only known afterwards; their ordinals are checked below
+            final int initialState = in.getInt();
+            final int[] finalStates = new int[readCount(4)];
+            for (int i = 0; i < finalStates.length; ++i) {
+                finalStates[i] = in.getInt();
+            }
+
+            final List<StatePojo> states = new ArrayList<>();
+            final int stateCount = readCount(16);
+            final int[][] targets = new int[stateCount][];
+            for (int i = 0; i < stateCount; ++i) {
+                final StatePojo state = new StatePojo();
+                state.setName(strings[readIndex(strings.length, "string")]);
+                state.setOnEntry(readBehaviors());
+                state.setOnExit(readBehaviors());
+                final int transitionCount = readCount(13);
+                targets[i] = new int[transitionCount];
+                if (transitionCount > 0) {
+                    state.setTransitions(new ArrayList<>());
+                }
+                for (int t = 0; t < transitionCount; ++t) {
+                    final TransitionPojo transition = new TransitionPojo();
+                    transition.setTriggerName(triggers.get(readIndex(triggerCount, "trigger")).getName());
+                    transition.setIgnore(in.get() != 0 ? Boolean.TRUE : null);
+                    targets[i][t] = in.getInt();
+                    transition.setEffects(readBehaviors());
+                    state.getTransitions().add(transition);
+                }
+                states.add(state);
+            }
+
+            // state names can only be resolved once all states are known
+            if (version >= HIERARCHICAL_VERSION) {
+                final int[] parents = new int[stateCount];
+                final int[] initialSubstates = new int[stateCount];
+                for (int i = 0; i < stateCount; ++i) {
+                    parents[i] = readOptionalIndex(stateCount, "parent state");
+                    initialSubstates[i] = readOptionalIndex(stateCount, "initial substate");
+                    states.get(i).setParent(nameOf(states, parents[i]));
+                    states.get(i).setInitialSubstate(nameOf(states, initialSubstates[i]));
+                }
+                checkHierarchy(parents, initialSubstates);
+            }
+            if (version >= PATTERN_VERSION) {
+                for (TriggerPojo trigger : triggers) {
+                    trigger.setEventPayloadPattern(readStringOrNull());
+                }
+            }
+            if (version >= RANGE_VERSION) {
+                for (TriggerPojo trigger : triggers) {
+                    final Double from = boundOrNull(in.getDouble());
+                    final Double below = boundOrNull(in.getDouble());
+                    // a range has at least one bound
+                    if (from != null || below != null) {
+                        final PayloadRangePojo range = new PayloadRangePojo();
+                        range.setFrom(from);
+                        range.setBelow(below);
+                        trigger.setEventPayloadRange(range);
+                    }
+                }
+            }
+            checkIndex(initialState, stateCount, "initial state");
+            for (int state : finalStates) {
+                checkIndex(state, stateCount, "final state");
+            }
+            for (int i = 0; i < stateCount; ++i) {
+                for (int t = 0; t < targets[i].length; ++t) {
+                    if (targets[i][t] != -1) {
+                        checkIndex(targets[i][t], stateCount, "target state");
+                        states.get(i).getTransitions().get(t).setTargetState(states.get(targets[i][t]).getName());
+                    }
+                }
+            }
+
+            final StateMachinePojo pojo = new StateMachinePojo();
+            pojo.setTriggers(triggers);
+            pojo.setStates(states);
+            pojo.setInitialState(states.get(initialState).getName());
+            if (finalStates.length > 0) {
+                final List<String> finalStateNames = new ArrayList<>();
+                for (int state : finalStates) {
+                    finalStateNames.add(states.get(state).getName());
+                }
+                pojo.setFinalStates(finalStateNames);
+            }
+            return pojo;
+        }
+
+        /**
+         * Reads the number of entries which follow; every entry takes at least the given number
+         * of bytes. Checking this before allocating anything keeps damaged counts from
+         * allocating huge arrays.
+         */
+        private int readCount(int minEntryLength) throws ValidationException {
+            final int count = in.getInt();
+            if (count < 0 || count > in.remaining() / minEntryLength) {
+                throw invalid("data is truncated or damaged (count " + count + " exceeds the remaining "
+                        + in.remaining() + " bytes)");
+            }
+            return count;
+        }
+
+        /**
+         * Makes sure the hierarchy can be walked without running into an endless loop: parents
+         * don't form cycles and the initial substate of a state is one of its children (so
+         * following the initial substates always descends and ends at a leaf).
+         */
+        private static void checkHierarchy(int[] parents, int[] initialSubstates) throws ValidationException {
+            // 0: not visited yet, 1: on the current path, 2: known to reach a root
+            final byte[] marks = new byte[parents.length];
+            for (int start = 0; start < parents.length; ++start) {
+                int state = start;
+                while (state >= 0 && marks[state] == 0) {
+                    marks[state] = 1;
+                    state = parents[state];
+                }
+                if (state >= 0 && marks[state] == 1) {
+                    throw invalid("data is damaged (the parents of state " + state + " form a cycle)");
+                }
+                for (state = start; state >= 0 && marks[state] == 1; state = parents[state]) {
+                    marks[state] = 2;
+                }
+            }
+            for (int state = 0; state < initialSubstates.length; ++state) {
+                if (initialSubstates[state] >= 0 && parents[initialSubstates[state]] != state) {
+                    throw invalid("data is damaged (initial substate " + initialSubstates[state]
+                            + " isn't a child of state " + state + ")");
+                }
+            }
+        }
+
+        /**
+         * Reads an index into a table of the given size.
+         */
+        private int readIndex(int size, String what) throws ValidationException {
+            final int index = in.getInt();
+            checkIndex(index, size, what);
+            return index;
+        }
+
+        /**
+         * Reads an index into a table of the given size or -1 (if the value isn't given).
+         */
+        private int readOptionalIndex(int size, String what) throws ValidationException {
+            final int index = in.getInt();
+            if (index != -1) {
+                checkIndex(index, size, what);
+            }
+            return index;
+        }
+
+        private static void checkIndex(int index, int size, String what) throws ValidationException {
+            if (index < 0 || index >= size) {
+                throw invalid("data is damaged (" + what + " " + index + " is out of range)");
+            }
+        }
+
+        private String readStringOrNull() throws ValidationException {
+            final int index = readOptionalIndex(strings.length, "string");
+            return index < 0 ? null : strings[index];
+        }
+
+        private static Double boundOrNull(double bound) {
+            return Double.isNaN(bound) ? null : bound;
+        }
+
+        private static String nameOf(List<StatePojo> states, int ordinal) {
+            return ordinal < 0 ? null : states.get(ordinal).getName();
+        }
+
+        private List<BehaviorPojo> readBehaviors() throws ValidationException {
+            final int count = readCount(4);
+            if (count == 0) {
+                return null;
+            }
+            final List<BehaviorPojo> list = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                list.add(behaviors[readIndex(behaviors.length, "behavior")]);
+            }
+            return list;
+        }
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+}
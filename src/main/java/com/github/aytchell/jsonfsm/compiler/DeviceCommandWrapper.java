@@ -1,6 +1,7 @@
 package com.github.aytchell.jsonfsm.compiler;
 
 import com.github.aytchell.jsonfsm.DeviceCommand;
+import com.github.aytchell.jsonfsm.MetricsListener;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -17,13 +18,61 @@ public class DeviceCommandWrapper implements DeviceCommand {
         this.commandString = commandString;
     }
 
+    /**
+     * Wraps the given command; the wrapper reports to the listener only if there is one.
+     */
+    static DeviceCommandWrapper wrap(DeviceCommand delegate, String location, int deviceId, String commandString,
+                                     MetricsListener metrics) {
+        if (metrics == null) {
+            return new DeviceCommandWrapper(delegate, location, deviceId, commandString);
+        }
+        return new Metered(delegate, location, deviceId, commandString, metrics);
+    }
+
+    int getDeviceId() {
+        return deviceId;
+    }
+
+    String getCommandString() {
+        return commandString;
+    }
+
     @Override
     public void execute() {
+        tryExecute();
+    }
+
+    boolean tryExecute() {
         try {
             delegate.execute();
+            return true;
         } catch (Exception e) {
             log.warn("Invocation of behavior failed: loc '{}', dev {}, cmd '{}', msg '{}'",
                     location, deviceId, commandString, e.getMessage());
+            return false;
+        }
+    }
+
+    private static class Metered extends DeviceCommandWrapper {
+        private final MetricsListener metrics;
+
+        Metered(DeviceCommand delegate, String location, int deviceId, String commandString,
+                MetricsListener metrics) {
+            super(delegate, location, deviceId, commandString);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void execute() {
+            final long start = System.nanoTime();
+            final boolean succeeded = tryExecute();
+            try {
+                metrics.onBehavior(getDeviceId(), getCommandString(), System.nanoTime() - start, !succeeded);
+            } catch (RuntimeException e) {
+                // a failing listener mustn't break the remaining behaviors of the transition
+                log.warn("Metrics listener failed: dev {}, cmd '{}', msg '{}'", getDeviceId(), getCommandString(),
+                        e.getMessage());
+            }
         }
     }
 }
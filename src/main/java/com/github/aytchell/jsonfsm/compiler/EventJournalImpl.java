@@ -0,0 +1,479 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.EventJournal;
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.InstanceStore;
+import com.github.aytchell.jsonfsm.JournalOptions;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link EventJournal} consisting of memory-mapped segment files with fixed-size records.
+ * <p>
+ * Each segment starts with a header (magic, version, records per segment, segment index and the
+ * fingerprint of the state machine) followed by the records. A record consists of the instance ID,
+ * the timestamp, the trigger and a checksum; the checksum is never zero so a record which
+ * wasn't (completely) written is detected.
+ * <p>
+ * Records are written concurrently, so a crash might leave holes: damaged records followed by
+ * intact ones. Opening continues behind the last intact record of the last segment and clears
+ * everything after it (so no stale records can show up behind records appended later). Reading
+ * skips holes and counts them (see {@link #getSkippedRecordCount()}); only damaged records which
+ * aren't followed by intact ones end the records to read (they might still be written).
+ * <p>
+ * Appending reserves a position via a single atomic increment and writes the record into the
+ * mapped segment at an offset computed from the position; threads never wait for each other
+ * unless a new segment has to be created. Committing forces the segments touched since the
+ * previous commit.
+ */
+@Slf4j
+public class EventJournalImpl implements EventJournal {
+    private static final int MAGIC = 0x4a534a4c; // "JSJL"
+    private static final byte VERSION = 1;
+    private static final int FINGERPRINT_BYTES = 32;
+    // magic, version, three bytes padding, records per segment, segment index, fingerprint; rounded up
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_BYTES = 24;
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    @Getter
+    private final Fingerprint fingerprint;
+    private final int recordsPerSegment;
+    private final AtomicLong skippedRecords = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments;
+    private final AtomicLong nextPosition;
+    // the segment most recently created (or opened); appended to by almost all records
+    private volatile Segment current;
+    private volatile boolean closed = false;
+    // 'null' if records are only committed explicitly
+    private final ScheduledExecutorService committer;
+
+    private final Object segmentLock = new Object();
+    private final Object commitLock = new Object();
+    // guarded by commitLock
+    private long committedPosition;
+
+    private EventJournalImpl(Path directory, Fingerprint fingerprint, int recordsPerSegment,
+                             ConcurrentSkipListMap<Long, MappedByteBuffer> segments, long position,
+                             long commitIntervalNanos) throws IOException {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.recordsPerSegment = recordsPerSegment;
+        this.segments = segments;
+        this.nextPosition = new AtomicLong(position);
+        this.committedPosition = position;
+
+        final long index = position / recordsPerSegment;
+        if (!segments.containsKey(index)) {
+            segments.put(index, createSegment(index));
+        }
+        this.current = new Segment(index, segments.get(index));
+
+        if (commitIntervalNanos > 0) {
+            committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "jsonfsm-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            committer.scheduleWithFixedDelay(this::commit, commitIntervalNanos, commitIntervalNanos,
+                    TimeUnit.NANOSECONDS);
+        } else {
+            committer = null;
+        }
+    }
+
+    public static EventJournalImpl open(Path directory, Fingerprint fingerprint, JournalOptions options)
+            throws IOException {
+        final int recordsPerSegment = options.getRecordsPerSegment();
+        if (recordsPerSegment <= 0 || recordsPerSegment > (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES) {
+            throw new IllegalArgumentException("Invalid number of records per segment: " + recordsPerSegment);
+        }
+        Files.createDirectories(directory);
+
+        final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                final long index;
+                try {
+                    index = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()), 16);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                segments.put(index, mapExisting(file, index, fingerprint, recordsPerSegment));
+            }
+        }
+
+        long position = 0;
+        if (!segments.isEmpty()) {
+            final long lastIndex = segments.lastKey();
+            final MappedByteBuffer last = segments.get(lastIndex);
+            // holes before the last intact record are skipped when reading
+            int records = recordsPerSegment;
+            while (records > 0 && !isValid(last, offsetOf(records - 1))) {
+                --records;
+            }
+            clearRecords(last, records, recordsPerSegment);
+            position = lastIndex * recordsPerSegment + records;
+        }
+
+        return new EventJournalImpl(directory, fingerprint, recordsPerSegment, segments, position,
+                options.getCommitInterval().toNanos());
+    }
+
+    @Override
+    public long getPosition() {
+        return nextPosition.get();
+    }
+
+    @Override
+    public long getSkippedRecordCount() {
+        return skippedRecords.get();
+    }
+
+    /**
+     * Appends a record for an event which made the given instance traverse a transition.
+     *
+     * @param instanceId ID of the instance
+     * @param trigger    ordinal of the trigger
+     * @throws IllegalStateException if the journal is already closed
+     * @throws UncheckedIOException  if a new segment can't be created
+     */
+    void append(long instanceId, int trigger) {
+        if (closed) {
+            throw new IllegalStateException("Event journal is already closed");
+        }
+        final long position = nextPosition.getAndIncrement();
+        final long index = position / recordsPerSegment;
+        final Segment latest = current;
+        final MappedByteBuffer segment = index == latest.index ? latest.buffer : segmentOf(index);
+
+        // records of different positions never overlap so absolute puts don't interfere
+        final int offset = offsetOf((int) (position % recordsPerSegment));
+        final long timestamp = System.currentTimeMillis();
+        segment.putLong(offset, instanceId);
+        segment.putLong(offset + 8, timestamp);
+        segment.putInt(offset + 16, trigger);
+        segment.putInt(offset + 20, checksumOf(instanceId, timestamp, trigger));
+    }
+
+    @Override
+    public void commit() {
+        synchronized (commitLock) {
+            final long position = nextPosition.get();
+            if (position == committedPosition) {
+                return;
+            }
+            // a record reserved right before reading the position might not be written yet; it's
+            // forced by the next commit touching the segment (or at the latest when closing)
+            final long firstIndex = committedPosition / recordsPerSegment;
+            final long lastIndex = (position - 1) / recordsPerSegment;
+            for (MappedByteBuffer segment : segments.subMap(firstIndex, true, lastIndex, true).values()) {
+                segment.force();
+            }
+            committedPosition = position;
+        }
+    }
+
+    @Override
+    public long read(long fromPosition, RecordConsumer consumer) {
+        final Cursor cursor = new Cursor(fromPosition);
+        while (cursor.next()) {
+            consumer.accept(cursor.position, cursor.instanceId, cursor.trigger, cursor.timestamp);
+        }
+        return cursor.count;
+    }
+
+    @Override
+    public long replay(Map<Long, ? extends StateMachine> machines, long fromPosition) {
+        for (StateMachine machine : machines.values()) {
+            final Fingerprint fingerprint = machine instanceof AbstractStateMachine
+                    ? ((AbstractStateMachine) machine).getReplayFingerprint() : null;
+            if (fingerprint == null) {
+                throw new IllegalArgumentException("Only instances of a TABLE definition can be replayed");
+            }
+            checkFingerprint(fingerprint);
+        }
+
+        final Cursor cursor = new Cursor(fromPosition);
+        long applied = 0;
+        while (cursor.next()) {
+            final StateMachine machine = machines.get(cursor.instanceId);
+            if (machine != null) {
+                ((AbstractStateMachine) machine).replay(cursor.trigger);
+                ++applied;
+            }
+        }
+        return applied;
+    }
+
+    @Override
+    public long replay(StateMachineRuntime runtime, long fromPosition) {
+        if (!(runtime instanceof PartitionedRuntime)
+                || ((PartitionedRuntime) runtime).getReplayFingerprint() == null) {
+            throw new IllegalArgumentException("Only runtimes of a TABLE definition can be replayed");
+        }
+        final PartitionedRuntime partitioned = (PartitionedRuntime) runtime;
+        checkFingerprint(partitioned.getReplayFingerprint());
+
+        final Cursor cursor = new Cursor(fromPosition);
+        long posted = 0;
+        while (cursor.next()) {
+            partitioned.replay(cursor.instanceId, cursor.trigger);
+            ++posted;
+        }
+        return posted;
+    }
+
+    @Override
+    public long replay(InstanceStore store, long fromPosition) {
+        if (!(store instanceof TableInstanceStore)) {
+            throw new IllegalArgumentException("Only instance stores created by this library can be replayed");
+        }
+        final TableInstanceStore tableStore = (TableInstanceStore) store;
+        checkFingerprint(tableStore.getFingerprint());
+
+        final Cursor cursor = new Cursor(fromPosition);
+        long applied = 0;
+        while (cursor.next()) {
+            if (cursor.instanceId >= 0 && cursor.instanceId < tableStore.getCapacity()) {
+                tableStore.replay((int) cursor.instanceId, cursor.trigger);
+                ++applied;
+            }
+        }
+        return applied;
+    }
+
+    @Override
+    public void deleteBefore(long position) throws IOException {
+        synchronized (segmentLock) {
+            final Iterator<Map.Entry<Long, MappedByteBuffer>> iterator = segments.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final long index = iterator.next().getKey();
+                // the current segment is always kept; it tells where to continue after a restart
+                if (index >= current.index || (index + 1) * recordsPerSegment > position) {
+                    return;
+                }
+                iterator.remove();
+                Files.delete(fileOf(index));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (committer != null) {
+            committer.shutdown();
+        }
+        synchronized (commitLock) {
+            for (MappedByteBuffer segment : segments.values()) {
+                segment.force();
+            }
+            committedPosition = nextPosition.get();
+        }
+    }
+
+    private void checkFingerprint(Fingerprint other) {
+        if (!fingerprint.equals(other)) {
+            throw new IllegalArgumentException("Event journal belongs to a different state machine");
+        }
+    }
+
+    private MappedByteBuffer segmentOf(long index) {
+        synchronized (segmentLock) {
+            MappedByteBuffer segment = segments.get(index);
+            if (segment == null) {
+                try {
+                    segment = createSegment(index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                segments.put(index, segment);
+            }
+            if (index > current.index) {
+                current = new Segment(index, segment);
+            }
+            return segment;
+        }
+    }
+
+    private MappedByteBuffer createSegment(long index) throws IOException {
+        final MappedByteBuffer segment = map(fileOf(index), recordsPerSegment);
+        segment.putInt(0, MAGIC);
+        segment.put(4, VERSION);
+        segment.putInt(8, recordsPerSegment);
+        segment.putLong(12, index);
+        final byte[] hash = fingerprint.getBytes();
+        for (int i = 0; i < FINGERPRINT_BYTES; ++i) {
+            segment.put(20 + i, hash[i]);
+        }
+        return segment;
+    }
+
+    private static MappedByteBuffer mapExisting(Path file, long index, Fingerprint fingerprint,
+                                                int recordsPerSegment) throws IOException {
+        if (Files.size(file) != HEADER_BYTES + (long) recordsPerSegment * RECORD_BYTES) {
+            throw new IllegalArgumentException("Journal segment '" + file + "' doesn't have the expected size");
+        }
+        final MappedByteBuffer segment = map(file, recordsPerSegment);
+        final byte[] hash = new byte[FINGERPRINT_BYTES];
+        for (int i = 0; i < FINGERPRINT_BYTES; ++i) {
+            hash[i] = segment.get(20 + i);
+        }
+        if (segment.getInt(0) != MAGIC || segment.get(4) != VERSION || segment.getLong(12) != index) {
+            throw new IllegalArgumentException("File '" + file + "' is no journal segment");
+        }
+        if (segment.getInt(8) != recordsPerSegment) {
+            throw new IllegalArgumentException("Journal segment '" + file + "' has " + segment.getInt(8)
+                    + " records per segment instead of " + recordsPerSegment);
+        }
+        if (!Arrays.equals(hash, fingerprint.getBytes())) {
+            throw new IllegalArgumentException("Journal segment '" + file + "' belongs to a different state machine");
+        }
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path file, int recordsPerSegment) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel has been closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + recordsPerSegment * RECORD_BYTES);
+        }
+    }
+
+    private Path fileOf(long index) {
+        return directory.resolve(String.format("%016x", index) + SUFFIX);
+    }
+
+    private static int offsetOf(int record) {
+        return HEADER_BYTES + record * RECORD_BYTES;
+    }
+
+    // zeroes the given records (of a crashed run) so they can't be mistaken for valid ones later on
+    private static void clearRecords(MappedByteBuffer segment, int fromRecord, int toRecord) {
+        boolean cleared = false;
+        for (int offset = offsetOf(fromRecord); offset < offsetOf(toRecord); offset += 8) {
+            if (segment.getLong(offset) != 0) {
+                segment.putLong(offset, 0);
+                cleared = true;
+            }
+        }
+        if (cleared) {
+            segment.force();
+        }
+    }
+
+    private static boolean isValid(MappedByteBuffer segment, int offset) {
+        return segment.getInt(offset + 20) == checksumOf(segment.getLong(offset), segment.getLong(offset + 8),
+                segment.getInt(offset + 16));
+    }
+
+    private static int checksumOf(long instanceId, long timestamp, int trigger) {
+        long hash = instanceId * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ timestamp) * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ trigger) * 0x9E3779B97F4A7C15L;
+        // never zero so an unwritten record doesn't look valid
+        return (int) (hash ^ (hash >>> 32)) | 1;
+    }
+
+    private static class Segment {
+        final long index;
+        final MappedByteBuffer buffer;
+
+        Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Iterates over the records starting at a given position; skips (and counts) damaged records
+     * which are followed by intact ones and stops at the first damaged record which isn't.
+     */
+    private class Cursor {
+        private final long end = nextPosition.get();
+        long position;
+        long count = 0;
+        long instanceId;
+        long timestamp;
+        int trigger;
+        private long index = -1;
+        private MappedByteBuffer segment;
+
+        Cursor(long fromPosition) {
+            if (segments.isEmpty() || fromPosition < segments.firstKey() * recordsPerSegment) {
+                throw new IllegalArgumentException("Records at position " + fromPosition
+                        + " were already deleted");
+            }
+            this.position = fromPosition - 1;
+        }
+
+        boolean next() {
+            ++position;
+            if (position >= end) {
+                return false;
+            }
+            if (position / recordsPerSegment != index) {
+                index = position / recordsPerSegment;
+                segment = segments.get(index);
+                if (segment == null) {
+                    return false;
+                }
+            }
+            int offset = offsetOf((int) (position % recordsPerSegment));
+            if (!isValid(segment, offset)) {
+                final long hole = position;
+                if (!skipHole()) {
+                    return false;
+                }
+                log.warn("Skipped {} damaged record(s) of the event journal at position {}", position - hole, hole);
+                skippedRecords.addAndGet(position - hole);
+                offset = offsetOf((int) (position % recordsPerSegment));
+            }
+            instanceId = segment.getLong(offset);
+            timestamp = segment.getLong(offset + 8);
+            trigger = segment.getInt(offset + 16);
+            ++count;
+            return true;
+        }
+
+        // moves to the next intact record; 'false' if there is none (before the end)
+        private boolean skipHole() {
+            for (long candidate = position + 1; candidate < end; ++candidate) {
+                final MappedByteBuffer candidateSegment = segments.get(candidate / recordsPerSegment);
+                if (candidateSegment != null
+                        && isValid(candidateSegment, offsetOf((int) (candidate % recordsPerSegment)))) {
+                    position = candidate;
+                    index = candidate / recordsPerSegment;
+                    segment = candidateSegment;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.StateMachine;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from events to the state machines which have a matching trigger.
+ * <p>
+ * The index has two levels: an immutable open-addressing table keyed by the event source ID
+ * (replaced as a whole when a source is added or removed) and, per source, a concurrent map from
+ * the payload to the routing targets. A target is a machine together with the (already resolved)
+ * trigger, so delivering an event doesn't look up the payload again.
+ * <p>
+ * Payload ranges and patterns can't be indexed like this: a machine with ranges or patterns for a
+ * source receives all events of that source whose payload it translates into a trigger (exact
+ * payloads included).
+ * <p>
+ * Routing never takes a lock. Registering and unregistering are serialized among each other and
+ * only touch the entries of the given machine; routing continues meanwhile.
+ */
+public class EventRouterImpl {
+    private final Object writeLock = new Object();
+    private final Set<StateMachine> machines = ConcurrentHashMap.newKeySet();
+    private volatile SourceIndex sources = SourceIndex.EMPTY;
+
+    public boolean register(StateMachine machine) {
+        final AbstractStateMachine target = toRoutable(machine);
+        synchronized (writeLock) {
+            if (!machines.add(machine)) {
+                return false;
+            }
+            final EventTranslator mapping = target.getMapping();
+            mapping.forEachMatchedSource(eventSourceId -> routesOf(eventSourceId).addMatcher(target));
+            mapping.forEachEvent((eventSourceId, eventPayload, trigger) -> {
+                final PayloadRoutes routes = routesOf(eventSourceId);
+                if (!routes.hasMatcher(target)) {
+                    routes.add(eventPayload, new Target(target, trigger));
+                }
+            });
+            return true;
+        }
+    }
+
+    public boolean unregister(StateMachine machine) {
+        final AbstractStateMachine target = toRoutable(machine);
+        synchronized (writeLock) {
+            if (!machines.remove(machine)) {
+                return false;
+            }
+            final EventTranslator mapping = target.getMapping();
+            mapping.forEachEvent((eventSourceId, eventPayload, trigger) -> {
+                final PayloadRoutes routes = sources.get(eventSourceId);
+                if (routes != null && routes.remove(eventPayload, target)) {
+                    sources = sources.without(eventSourceId);
+                }
+            });
+            mapping.forEachMatchedSource(eventSourceId -> {
+                final PayloadRoutes routes = sources.get(eventSourceId);
+                if (routes != null && routes.removeMatcher(target)) {
+                    sources = sources.without(eventSourceId);
+                }
+            });
+            return true;
+        }
+    }
+
+    private PayloadRoutes routesOf(int eventSourceId) {
+        PayloadRoutes routes = sources.get(eventSourceId);
+        if (routes == null) {
+            routes = new PayloadRoutes();
+            sources = sources.with(eventSourceId, routes);
+        }
+        return routes;
+    }
+
+    public int route(int eventSourceId, String eventPayload) {
+        final PayloadRoutes routes = sources.get(eventSourceId);
+        if (routes == null) {
+            return 0;
+        }
+        int delivered = 0;
+        final Target[] targets = routes.byPayload.get(eventPayload);
+        if (targets != null) {
+            for (Target target : targets) {
+                target.machine.inject(target.trigger);
+            }
+            delivered = targets.length;
+        }
+        for (AbstractStateMachine machine : routes.matchers) {
+            final int trigger = machine.getMapping().getTrigger(eventSourceId, eventPayload);
+            if (trigger != EventTranslator.UNKNOWN_TRIGGER) {
+                machine.inject(trigger);
+                ++delivered;
+            }
+        }
+        return delivered;
+    }
+
+    public int getMachineCount() {
+        return machines.size();
+    }
+
+    private static AbstractStateMachine toRoutable(StateMachine machine) {
+        if (!(machine instanceof AbstractStateMachine)) {
+            throw new IllegalArgumentException("Only state machines created by this library can be routed");
+        }
+        return (AbstractStateMachine) machine;
+    }
+
+    private static class Target {
+        final AbstractStateMachine machine;
+        final int trigger;
+
+        Target(AbstractStateMachine machine, int trigger) {
+            this.machine = machine;
+            this.trigger = trigger;
+        }
+    }
+
+    /**
+     * The targets of one event source; the arrays are replaced (never modified) by the writer.
+     */
+    private static class PayloadRoutes {
+        final ConcurrentHashMap<String, Target[]> byPayload = new ConcurrentHashMap<>();
+        // machines with payload ranges or patterns for this source
+        volatile AbstractStateMachine[] matchers = new AbstractStateMachine[0];
+
+        void add(String eventPayload, Target target) {
+            final Target[] old = byPayload.get(eventPayload);
+            if (old == null) {
+                byPayload.put(eventPayload, new Target[]{target});
+            } else {
+                final Target[] targets = Arrays.copyOf(old, old.length + 1);
+                targets[old.length] = target;
+                byPayload.put(eventPayload, targets);
+            }
+        }
+
+        /**
+         * Removes the machine's target of the given payload.
+         *
+         * @return {@code true} if no targets are left for this event source
+         */
+        boolean remove(String eventPayload, AbstractStateMachine machine) {
+            final Target[] old = byPayload.get(eventPayload);
+            if (old != null) {
+                final Target[] targets = Arrays.stream(old)
+                        .filter(target -> target.machine != machine)
+                        .toArray(Target[]::new);
+                if (targets.length == 0) {
+                    byPayload.remove(eventPayload);
+                } else {
+                    byPayload.put(eventPayload, targets);
+                }
+            }
+            return byPayload.isEmpty() && matchers.length == 0;
+        }
+
+        void addMatcher(AbstractStateMachine machine) {
+            final AbstractStateMachine[] newMatchers = Arrays.copyOf(matchers, matchers.length + 1);
+            newMatchers[matchers.length] = machine;
+            matchers = newMatchers;
+        }
+
+        boolean hasMatcher(AbstractStateMachine machine) {
+            return Arrays.asList(matchers).contains(machine);
+        }
+
+        /**
+         * Removes the given machine from the machines with payload ranges or patterns.
+         *
+         * @return {@code true} if no targets are left for this event source
+         */
+        boolean removeMatcher(AbstractStateMachine machine) {
+            matchers = Arrays.stream(matchers)
+                    .filter(matcher -> matcher != machine)
+                    .toArray(AbstractStateMachine[]::new);
+            return byPayload.isEmpty() && matchers.length == 0;
+        }
+    }
+
+    /**
+     * Immutable open-addressing table from event source IDs to their routes.
+     */
+    private static class SourceIndex {
+        static final SourceIndex EMPTY = new SourceIndex(new int[0], new PayloadRoutes[0]);
+
+        private final int[] ids;
+        private final PayloadRoutes[] routes;
+        // slots with 'null' routes are empty
+        private final int[] slotIds;
+        private final PayloadRoutes[] slotRoutes;
+
+        private SourceIndex(int[] ids, PayloadRoutes[] routes) {
+            this.ids = ids;
+            this.routes = routes;
+            // keep the load factor below 0.5 so probe sequences stay short
+            int capacity = 2;
+            while (capacity < ids.length * 2 + 1) {
+                capacity *= 2;
+            }
+            this.slotIds = new int[capacity];
+            this.slotRoutes = new PayloadRoutes[capacity];
+            for (int i = 0; i < ids.length; ++i) {
+                int slot = slotOf(ids[i]);
+                while (slotRoutes[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slotIds[slot] = ids[i];
+                slotRoutes[slot] = routes[i];
+            }
+        }
+
+        PayloadRoutes get(int eventSourceId) {
+            int slot = slotOf(eventSourceId);
+            while (slotRoutes[slot] != null) {
+                if (slotIds[slot] == eventSourceId) {
+                    return slotRoutes[slot];
+                }
+                slot = (slot + 1) & (slotIds.length - 1);
+            }
+            return null;
+        }
+
+        SourceIndex with(int eventSourceId, PayloadRoutes sourceRoutes) {
+            final int[] newIds = Arrays.copyOf(ids, ids.length + 1);
+            final PayloadRoutes[] newRoutes = Arrays.copyOf(routes, routes.length + 1);
+            newIds[ids.length] = eventSourceId;
+            newRoutes[routes.length] = sourceRoutes;
+            return new SourceIndex(newIds, newRoutes);
+        }
+
+        SourceIndex without(int eventSourceId) {
+            final int[] newIds = new int[ids.length - 1];
+            final PayloadRoutes[] newRoutes = new PayloadRoutes[routes.length - 1];
+            int next = 0;
+            for (int i = 0; i < ids.length; ++i) {
+                if (ids[i] != eventSourceId) {
+                    newIds[next] = ids[i];
+                    newRoutes[next] = routes[i];
+                    ++next;
+                }
+            }
+            return new SourceIndex(newIds, newRoutes);
+        }
+
+        private int slotOf(int eventSourceId) {
+            // spread the bits; event source IDs tend to be small consecutive numbers
+            final int hash = eventSourceId * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (slotIds.length - 1);
+        }
+    }
+}
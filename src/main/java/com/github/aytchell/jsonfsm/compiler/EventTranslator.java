@@ -1,22 +1,580 @@
 package com.github.aytchell.jsonfsm.compiler;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.github.aytchell.jsonfsm.StateMachine;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Translates incoming events (event source ID plus payload) into trigger ordinals.
+ * <p>
+ * The lookup is done in two levels: the event source ID selects a payload table via an
+ * open-addressing table keyed by the primitive ID; the payload is then looked up within
+ * that table. Looking up an event neither allocates nor builds a combined key.
+ * <p>
+ * Events of unknown sources are rejected before any table is probed: as long as all known source
+ * IDs are small non-negative numbers they are tracked in a bitset.
+ * <p>
+ * Payloads can be given as characters ({@code String} or any {@code CharSequence}) or as
+ * UTF-8 encoded bytes. Bytes are compared with the pre-encoded trigger payloads so they
+ * never have to be decoded.
+ * <p>
+ * Triggers can also be given by a numeric range or a {@link PayloadPattern}. Exact payloads are
+ * looked up first; only if none matches, the payload is searched in the {@link RangeIndex} and
+ * then run through the {@link PatternMatcher} of its source. Ranges and patterns have to be
+ * compiled (see {@link #compileMatchers()}) after they all have been added.
+ */
 class EventTranslator {
-    private final Map<String, String> mapping = new HashMap<>();
+    static final int UNKNOWN_TRIGGER = StateMachine.UNKNOWN_TRIGGER;
+
+    private static final int INITIAL_CAPACITY = 8;
+    // source IDs beyond this limit disable the bitset (it would get too large)
+    private static final int MAX_BITSET_SOURCE_ID = 1 << 16;
+
+    // slots with a 'null' payload table are empty
+    private int[] sourceIds = new int[INITIAL_CAPACITY];
+    private PayloadTable[] payloadTables = new PayloadTable[INITIAL_CAPACITY];
+    private int size = 0;
+    private int triggerCount = 0;
+    // bit i is set if source ID i is known; 'null' if a known source ID doesn't fit
+    private long[] knownSources = new long[1];
+
+    public void addEvent(int eventSourceId, String eventPayload, int trigger) {
+        getOrCreatePayloadTable(eventSourceId).put(eventPayload, trigger);
+        triggerCount = Math.max(triggerCount, trigger + 1);
+    }
+
+    public void addPattern(int eventSourceId, String payloadPattern, int trigger) {
+        final PayloadTable table = getOrCreatePayloadTable(eventSourceId);
+        if (table.patterns == null) {
+            table.patterns = new ArrayList<>();
+            table.patternTriggers = new ArrayList<>();
+        }
+        table.patterns.add(new PayloadPattern(payloadPattern));
+        table.patternTriggers.add(trigger);
+        triggerCount = Math.max(triggerCount, trigger + 1);
+    }
+
+    /**
+     * Adds a numeric range of payloads; both bounds are optional.
+     *
+     * @param eventSourceId ID of the source where the events come from
+     * @param from          inclusive lower bound or 'null'
+     * @param below         exclusive upper bound or 'null'
+     * @param trigger       the trigger of all payloads within the range
+     */
+    public void addRange(int eventSourceId, Double from, Double below, int trigger) {
+        final PayloadTable table = getOrCreatePayloadTable(eventSourceId);
+        if (table.ranges == null) {
+            table.ranges = new ArrayList<>();
+        }
+        table.ranges.add(new RangeIndex.Range(from, below, trigger));
+        triggerCount = Math.max(triggerCount, trigger + 1);
+    }
+
+    /**
+     * Builds the indices of all ranges and the matchers of all patterns added so far; needs to be
+     * called before looking up any event.
+     *
+     * @throws IllegalArgumentException if the patterns of a source are too complex (see {@link PatternMatcher})
+     */
+    public void compileMatchers() {
+        for (int i = 0; i < sourceIds.length; ++i) {
+            final PayloadTable table = payloadTables[i];
+            if (table == null) {
+                continue;
+            }
+            if (table.ranges != null) {
+                table.rangeIndex = new RangeIndex(table.ranges);
+            }
+            if (table.patterns != null) {
+                table.matcher = new PatternMatcher(sourceIds[i], table.patterns, table.patternTriggers);
+            }
+        }
+    }
+
+    private PayloadTable getOrCreatePayloadTable(int eventSourceId) {
+        PayloadTable table = findPayloadTable(eventSourceId);
+        if (table == null) {
+            table = new PayloadTable();
+            insertPayloadTable(eventSourceId, table);
+            addKnownSource(eventSourceId);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the number of triggers; valid trigger ordinals are {@code 0 <= trigger < getTriggerCount()}.
+     *
+     * @return the number of triggers
+     */
+    public int getTriggerCount() {
+        return triggerCount;
+    }
+
+    /**
+     * Receives the events known to an {@link EventTranslator} (see {@link #forEachEvent}).
+     */
+    interface EventConsumer {
+        void accept(int eventSourceId, String eventPayload, int trigger);
+    }
+
+    /**
+     * Hands every known event with an exact payload (and the trigger it's translated into) to the given consumer.
+     *
+     * @param consumer the consumer to call
+     */
+    public void forEachEvent(EventConsumer consumer) {
+        for (int i = 0; i < sourceIds.length; ++i) {
+            final PayloadTable table = payloadTables[i];
+            if (table != null) {
+                for (int entry = 0; entry < table.size; ++entry) {
+                    consumer.accept(sourceIds[i], table.payloads[entry], table.triggers[entry]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the ID of every event source with at least one payload range or pattern to the given consumer.
+     *
+     * @param consumer the consumer to call
+     */
+    public void forEachMatchedSource(IntConsumer consumer) {
+        for (int i = 0; i < sourceIds.length; ++i) {
+            if (payloadTables[i] != null && payloadTables[i].isMatched()) {
+                consumer.accept(sourceIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Tells whether events of the given source might match a trigger.
+     *
+     * @param eventSourceId ID of the source where an event comes from
+     * @return {@code true} if at least one trigger has this event source ID
+     */
+    public boolean isKnownSource(int eventSourceId) {
+        final long[] bits = knownSources;
+        if (bits == null) {
+            return findPayloadTable(eventSourceId) != null;
+        }
+        final int word = eventSourceId >>> 6;
+        return word < bits.length && (bits[word] & (1L << eventSourceId)) != 0;
+    }
+
+    public int getTrigger(int eventSourceId, String eventPayload) {
+        return getTrigger(eventSourceId, PayloadKind.STRING, eventPayload, 0, eventPayload.length());
+    }
+
+    public int getTrigger(int eventSourceId, CharSequence eventPayload) {
+        return getTrigger(eventSourceId, PayloadKind.CHARS, eventPayload, 0, eventPayload.length());
+    }
+
+    public int getTrigger(int eventSourceId, byte[] eventPayload, int offset, int length) {
+        return getTrigger(eventSourceId, PayloadKind.BYTES, eventPayload, offset, length);
+    }
+
+    public int getTrigger(int eventSourceId, ByteBuffer eventPayload) {
+        return getTrigger(eventSourceId, PayloadKind.BUFFER, eventPayload, 0, eventPayload.remaining());
+    }
+
+    /**
+     * Looks up a payload of the given kind: exact payloads first, then ranges, then patterns.
+     *
+     * @param eventSourceId ID of the source where the event comes from
+     * @param kind          the type of {@code eventPayload}
+     * @param eventPayload  the payload
+     * @param offset        start of the payload within a byte array (0 for all other kinds)
+     * @param length        length of the payload
+     * @return the trigger of the event or {@link #UNKNOWN_TRIGGER}
+     */
+    int getTrigger(int eventSourceId, PayloadKind kind, Object eventPayload, int offset, int length) {
+        if (!isKnownSource(eventSourceId)) {
+            return UNKNOWN_TRIGGER;
+        }
+        final PayloadTable table = findPayloadTable(eventSourceId);
+        if (table == null) {
+            return UNKNOWN_TRIGGER;
+        }
+        int trigger = kind.exact(table, eventPayload, offset, length);
+        if (trigger == UNKNOWN_TRIGGER && table.rangeIndex != null) {
+            trigger = kind.inRange(table.rangeIndex, eventPayload, offset, length);
+        }
+        if (trigger == UNKNOWN_TRIGGER && table.matcher != null) {
+            trigger = kind.matching(table.matcher, eventPayload, offset, length);
+        }
+        return trigger;
+    }
+
+    private void addKnownSource(int eventSourceId) {
+        if (knownSources == null) {
+            return;
+        }
+        if (eventSourceId < 0 || eventSourceId >= MAX_BITSET_SOURCE_ID) {
+            knownSources = null;
+            return;
+        }
+        final int word = eventSourceId >>> 6;
+        if (word >= knownSources.length) {
+            knownSources = Arrays.copyOf(knownSources, word + 1);
+        }
+        knownSources[word] |= 1L << eventSourceId;
+    }
+
+    private PayloadTable findPayloadTable(int eventSourceId) {
+        final int mask = sourceIds.length - 1;
+        int index = slotOf(eventSourceId, mask);
+        while (payloadTables[index] != null) {
+            if (sourceIds[index] == eventSourceId) {
+                return payloadTables[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private void insertPayloadTable(int eventSourceId, PayloadTable table) {
+        // keep the load factor below 0.5 so probe sequences stay short
+        if ((size + 1) * 2 > sourceIds.length) {
+            resize(sourceIds.length * 2);
+        }
+        insertIntoSlots(sourceIds, payloadTables, eventSourceId, table);
+        ++size;
+    }
+
+    private void resize(int newCapacity) {
+        final int[] newIds = new int[newCapacity];
+        final PayloadTable[] newTables = new PayloadTable[newCapacity];
+        for (int i = 0; i < sourceIds.length; ++i) {
+            if (payloadTables[i] != null) {
+                insertIntoSlots(newIds, newTables, sourceIds[i], payloadTables[i]);
+            }
+        }
+        sourceIds = newIds;
+        payloadTables = newTables;
+    }
 
-    public void addEvent(int eventSourceId, String eventPayload, String eventName) {
-        final String key = computeKey(eventSourceId, eventPayload);
-        mapping.put(key, eventName);
+    private static void insertIntoSlots(int[] ids, PayloadTable[] tables, int eventSourceId, PayloadTable table) {
+        final int mask = ids.length - 1;
+        int index = slotOf(eventSourceId, mask);
+        while (tables[index] != null) {
+            index = (index + 1) & mask;
+        }
+        ids[index] = eventSourceId;
+        tables[index] = table;
     }
 
-    public String getEventName(int eventSourceId, String eventPayload) {
-        final String key = computeKey(eventSourceId, eventPayload);
-        return mapping.get(key);
+    private static int slotOf(int eventSourceId, int mask) {
+        // spread the bits; event source IDs tend to be small consecutive numbers
+        return spread(eventSourceId * 0x9E3779B9) & mask;
     }
 
-    private String computeKey(int eventSourceId, String eventPayload) {
-        return eventSourceId + "_" + eventPayload;
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The types a payload can be given as. Each kind knows how to hand its payload to the lookup
+     * structures; the payload is passed as {@code Object} (plus offset and length for byte arrays)
+     * so the kinds are stateless singletons and looking up an event still doesn't allocate.
+     */
+    enum PayloadKind {
+        STRING {
+            @Override
+            int exact(PayloadTable table, Object payload, int offset, int length) {
+                return table.get((String) payload);
+            }
+
+            @Override
+            int inRange(RangeIndex ranges, Object payload, int offset, int length) {
+                return ranges.get((String) payload);
+            }
+
+            @Override
+            int matching(PatternMatcher matcher, Object payload, int offset, int length) {
+                return matcher.get((String) payload);
+            }
+
+            @Override
+            String decode(Object payload, int offset, int length) {
+                return (String) payload;
+            }
+        },
+        CHARS {
+            @Override
+            int exact(PayloadTable table, Object payload, int offset, int length) {
+                return table.get((CharSequence) payload);
+            }
+
+            @Override
+            int inRange(RangeIndex ranges, Object payload, int offset, int length) {
+                return ranges.get((CharSequence) payload);
+            }
+
+            @Override
+            int matching(PatternMatcher matcher, Object payload, int offset, int length) {
+                return matcher.get((CharSequence) payload);
+            }
+
+            @Override
+            String decode(Object payload, int offset, int length) {
+                return payload.toString();
+            }
+        },
+        BYTES {
+            @Override
+            int exact(PayloadTable table, Object payload, int offset, int length) {
+                return table.get((byte[]) payload, offset, length);
+            }
+
+            @Override
+            int inRange(RangeIndex ranges, Object payload, int offset, int length) {
+                return ranges.get((byte[]) payload, offset, length);
+            }
+
+            @Override
+            int matching(PatternMatcher matcher, Object payload, int offset, int length) {
+                return matcher.get((byte[]) payload, offset, length);
+            }
+
+            @Override
+            String decode(Object payload, int offset, int length) {
+                return new String((byte[]) payload, offset, length, StandardCharsets.UTF_8);
+            }
+        },
+        // offset and length are ignored; the buffer's position and limit are used instead
+        BUFFER {
+            @Override
+            int exact(PayloadTable table, Object payload, int offset, int length) {
+                return table.get((ByteBuffer) payload);
+            }
+
+            @Override
+            int inRange(RangeIndex ranges, Object payload, int offset, int length) {
+                return ranges.get((ByteBuffer) payload);
+            }
+
+            @Override
+            int matching(PatternMatcher matcher, Object payload, int offset, int length) {
+                return matcher.get((ByteBuffer) payload);
+            }
+
+            @Override
+            String decode(Object payload, int offset, int length) {
+                return StandardCharsets.UTF_8.decode(((ByteBuffer) payload).duplicate()).toString();
+            }
+        };
+
+        abstract int exact(PayloadTable table, Object payload, int offset, int length);
+
+        abstract int inRange(RangeIndex ranges, Object payload, int offset, int length);
+
+        abstract int matching(PatternMatcher matcher, Object payload, int offset, int length);
+
+        /**
+         * Converts the payload into a string (e.g. for log messages); this does allocate.
+         */
+        abstract String decode(Object payload, int offset, int length);
+    }
+
+    /**
+     * All payloads of a single event source.
+     * <p>
+     * There are two open-addressing indices over the same entries: one hashed over the characters
+     * of the payload (compatible with {@link String#hashCode()}) and one hashed over its UTF-8 bytes.
+     * Index slots contain the entry's position plus one; zero marks an empty slot.
+     */
+    private static class PayloadTable {
+        private String[] payloads = new String[INITIAL_CAPACITY];
+        private byte[][] encodedPayloads = new byte[INITIAL_CAPACITY][];
+        private int[] byteHashes = new int[INITIAL_CAPACITY];
+        private int[] triggers = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private int[] charIndex = new int[INITIAL_CAPACITY * 2];
+        private int[] byteIndex = new int[INITIAL_CAPACITY * 2];
+
+        // only needed while patterns are added
+        private List<PayloadPattern> patterns;
+        private List<Integer> patternTriggers;
+        // 'null' if there are no patterns
+        private PatternMatcher matcher;
+        // only needed while ranges are added
+        private List<RangeIndex.Range> ranges;
+        // 'null' if there are no ranges
+        private RangeIndex rangeIndex;
+
+        boolean isMatched() {
+            return matcher != null || rangeIndex != null;
+        }
+
+        void put(String eventPayload, int trigger) {
+            final int existing = findCharEntry(eventPayload, eventPayload.hashCode());
+            if (existing >= 0) {
+                triggers[existing] = trigger;
+                return;
+            }
+
+            if (size == payloads.length) {
+                grow();
+            }
+            final byte[] encoded = eventPayload.getBytes(StandardCharsets.UTF_8);
+            payloads[size] = eventPayload;
+            encodedPayloads[size] = encoded;
+            byteHashes[size] = hashBytes(encoded, 0, encoded.length);
+            triggers[size] = trigger;
+            ++size;
+            insertIntoIndex(charIndex, eventPayload.hashCode(), size);
+            insertIntoIndex(byteIndex, byteHashes[size - 1], size);
+        }
+
+        int get(String eventPayload) {
+            final int entry = findCharEntry(eventPayload, eventPayload.hashCode());
+            return entry < 0 ? UNKNOWN_TRIGGER : triggers[entry];
+        }
+
+        int get(CharSequence eventPayload) {
+            final int hash = hashChars(eventPayload);
+            final int mask = charIndex.length - 1;
+            int slot = spread(hash) & mask;
+            while (charIndex[slot] != 0) {
+                final int entry = charIndex[slot] - 1;
+                if (contentEquals(payloads[entry], eventPayload)) {
+                    return triggers[entry];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return UNKNOWN_TRIGGER;
+        }
+
+        int get(byte[] eventPayload, int offset, int length) {
+            final int hash = hashBytes(eventPayload, offset, length);
+            final int mask = byteIndex.length - 1;
+            int slot = spread(hash) & mask;
+            while (byteIndex[slot] != 0) {
+                final int entry = byteIndex[slot] - 1;
+                if (byteHashes[entry] == hash && bytesEqual(encodedPayloads[entry], eventPayload, offset, length)) {
+                    return triggers[entry];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return UNKNOWN_TRIGGER;
+        }
+
+        int get(ByteBuffer eventPayload) {
+            if (eventPayload.hasArray()) {
+                return get(eventPayload.array(), eventPayload.arrayOffset() + eventPayload.position(),
+                        eventPayload.remaining());
+            }
+
+            final int hash = hashBytes(eventPayload);
+            final int mask = byteIndex.length - 1;
+            int slot = spread(hash) & mask;
+            while (byteIndex[slot] != 0) {
+                final int entry = byteIndex[slot] - 1;
+                if (byteHashes[entry] == hash && bytesEqual(encodedPayloads[entry], eventPayload)) {
+                    return triggers[entry];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return UNKNOWN_TRIGGER;
+        }
+
+        private int findCharEntry(String eventPayload, int hash) {
+            final int mask = charIndex.length - 1;
+            int slot = spread(hash) & mask;
+            while (charIndex[slot] != 0) {
+                final int entry = charIndex[slot] - 1;
+                if (payloads[entry].equals(eventPayload)) {
+                    return entry;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void grow() {
+            final int capacity = payloads.length * 2;
+            payloads = Arrays.copyOf(payloads, capacity);
+            encodedPayloads = Arrays.copyOf(encodedPayloads, capacity);
+            byteHashes = Arrays.copyOf(byteHashes, capacity);
+            triggers = Arrays.copyOf(triggers, capacity);
+
+            // indices always have twice the capacity of the entries to keep the load factor <= 0.5
+            charIndex = new int[capacity * 2];
+            byteIndex = new int[capacity * 2];
+            for (int entry = 0; entry < size; ++entry) {
+                insertIntoIndex(charIndex, payloads[entry].hashCode(), entry + 1);
+                insertIntoIndex(byteIndex, byteHashes[entry], entry + 1);
+            }
+        }
+
+        private static void insertIntoIndex(int[] index, int hash, int value) {
+            final int mask = index.length - 1;
+            int slot = spread(hash) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = value;
+        }
+
+        private static int hashChars(CharSequence chars) {
+            // same function as String.hashCode() so both can use the same index
+            int hash = 0;
+            for (int i = 0; i < chars.length(); ++i) {
+                hash = 31 * hash + chars.charAt(i);
+            }
+            return hash;
+        }
+
+        private static int hashBytes(byte[] bytes, int offset, int length) {
+            int hash = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                hash = 31 * hash + bytes[i];
+            }
+            return hash;
+        }
+
+        private static int hashBytes(ByteBuffer bytes) {
+            int hash = 0;
+            for (int i = bytes.position(); i < bytes.limit(); ++i) {
+                hash = 31 * hash + bytes.get(i);
+            }
+            return hash;
+        }
+
+        private static boolean contentEquals(String expected, CharSequence chars) {
+            if (expected.length() != chars.length()) {
+                return false;
+            }
+            for (int i = 0; i < expected.length(); ++i) {
+                if (expected.charAt(i) != chars.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean bytesEqual(byte[] expected, byte[] bytes, int offset, int length) {
+            return Arrays.equals(expected, 0, expected.length, bytes, offset, offset + length);
+        }
+
+        private static boolean bytesEqual(byte[] expected, ByteBuffer bytes) {
+            if (expected.length != bytes.remaining()) {
+                return false;
+            }
+            final int position = bytes.position();
+            for (int i = 0; i < expected.length; ++i) {
+                if (expected[i] != bytes.get(position + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
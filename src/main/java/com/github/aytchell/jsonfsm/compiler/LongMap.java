@@ -0,0 +1,111 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+/**
+ * Open-addressing hash map with primitive {@code long} keys (not thread-safe).
+ * <p>
+ * Used to look up millions of state machine instances by their key without boxing.
+ */
+class LongMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // slots with a 'null' value are empty
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        final int mask = keys.length - 1;
+        int index = slotOf(key, mask);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return (V) values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    void put(long key, V value) {
+        // keep the load factor below 0.5 so probe sequences stay short
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        if (insertIntoSlots(keys, values, key, value)) {
+            ++size;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        final int mask = keys.length - 1;
+        int index = slotOf(key, mask);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                final V removed = (V) values[index];
+                closeGap(index, mask);
+                --size;
+                return removed;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int newCapacity) {
+        final long[] newKeys = new long[newCapacity];
+        final Object[] newValues = new Object[newCapacity];
+        for (int i = 0; i < keys.length; ++i) {
+            if (values[i] != null) {
+                insertIntoSlots(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private void closeGap(int gap, int mask) {
+        values[gap] = null;
+        // move entries of the same probe sequence back so lookups don't stop at the gap
+        int index = (gap + 1) & mask;
+        while (values[index] != null) {
+            final int home = slotOf(keys[index], mask);
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                values[index] = null;
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static boolean insertIntoSlots(long[] keys, Object[] values, long key, Object value) {
+        final int mask = keys.length - 1;
+        int index = slotOf(key, mask);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        return true;
+    }
+
+    private static int slotOf(long key, int mask) {
+        return hash(key) & mask;
+    }
+
+    static int hash(long key) {
+        // spread the bits; keys tend to be consecutive numbers
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
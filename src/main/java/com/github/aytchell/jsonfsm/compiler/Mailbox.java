@@ -0,0 +1,119 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free multi-producer single-consumer queue of {@link Mail}s.
+ * <p>
+ * This is an intrusive linked queue (after Dmitry Vyukov): posting is a single atomic exchange
+ * of the tail followed by linking the previous tail. The consumer owns the head and never
+ * competes with the producers. A consumed mail becomes the new (empty) head node.
+ * <p>
+ * {@link #take()} must only be called by one thread at a time; {@link #post} may be called by
+ * any number of threads concurrently.
+ */
+class Mailbox {
+    private final AtomicReference<Mail> tail;
+    private volatile Mail head;
+
+    Mailbox() {
+        final Mail stub = new Mail(EventTranslator.UNKNOWN_TRIGGER);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+    }
+
+    void post(Mail mail) {
+        final Mail previous = tail.getAndSet(mail);
+        previous.next = mail;
+    }
+
+    /**
+     * Removes the oldest mail (consumer only).
+     *
+     * @return the oldest mail or {@code null} if the mailbox is empty
+     */
+    Mail take() {
+        final Mail current = head;
+        Mail next = current.next;
+        if (next == null) {
+            if (tail.get() == current) {
+                return null;
+            }
+            // a producer has already swapped the tail but not yet linked its mail
+            do {
+                Thread.onSpinWait();
+                next = current.next;
+            } while (next == null);
+        }
+        head = next;
+        return next;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /**
+     * A single event (already translated into a trigger) sent to the mailbox.
+     */
+    static class Mail {
+        final int trigger;
+        // unparked once the mail has been applied; 'null' if nobody waits for it
+        final Thread waiter;
+        // what applying the mail threw (handed over to the waiter); written before 'applied'
+        Throwable failure;
+        volatile boolean applied;
+        volatile Mail next;
+
+        Mail(int trigger) {
+            this(trigger, null);
+        }
+
+        Mail(int trigger, Thread waiter) {
+            this.trigger = trigger;
+            this.waiter = waiter;
+        }
+    }
+
+    /**
+     * Puts the state machine into the state of a snapshot (instead of firing a trigger).
+     */
+    static class RestoreMail extends Mail {
+        final StateSnapshot snapshot;
+
+        RestoreMail(StateSnapshot snapshot) {
+            super(EventTranslator.UNKNOWN_TRIGGER);
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Applies a trigger recorded by a journal (i.e. without executing behaviors).
+     */
+    static class ReplayMail extends Mail {
+        ReplayMail(int trigger) {
+            super(trigger);
+        }
+    }
+
+    /**
+     * A batch of events; its result is published before the mail is marked as applied.
+     */
+    static class BatchMail extends Mail {
+        final int[] triggers;
+        final int offset;
+        // whether the unknown events of the batch are to be described
+        final boolean describeUnknown;
+        BatchResult result;
+
+        BatchMail(int[] triggers, int offset, boolean describeUnknown, Thread waiter) {
+            super(EventTranslator.UNKNOWN_TRIGGER, waiter);
+            this.triggers = triggers;
+            this.offset = offset;
+            this.describeUnknown = describeUnknown;
+        }
+    }
+}
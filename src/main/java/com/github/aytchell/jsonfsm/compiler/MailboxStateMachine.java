@@ -0,0 +1,338 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread-safe state machine which applies the events of all threads via a single-writer mailbox.
+ * <p>
+ * Events are translated into triggers by the submitting thread and posted into a lock-free
+ * {@link Mailbox}. Afterwards the submitting thread tries to become the (only) drainer: the
+ * drainer applies all pending events in order to the wrapped (not thread-safe) state machine,
+ * each one running to completion before the next one starts. Threads which don't win the
+ * race return immediately; their events are applied by the current drainer. Only if more than
+ * {@link #MAX_PENDING} events are waiting, a thread waits until its own event has been applied
+ * so the mailbox can't grow without bound when events arrive faster than they're applied.
+ * <p>
+ * After each event the drainer publishes the current state so that {@link #getCurrentState()}
+ * and {@link #isCurrentStateFinal()} are plain (wait-free) reads.
+ * <p>
+ * Waiting threads are parked until the drainer has applied their mail. A behavior which
+ * injects events (or a batch) into its own machine runs on the drainer; the events are queued
+ * like any other and applied once the current transition has run to completion (the drainer
+ * can't wait for itself).
+ * <p>
+ * If applying a mail throws (e.g. a behavior or a callback), the exception is rethrown to the
+ * thread which waits for the mail or which posted it and is draining itself. Exceptions of
+ * events which were posted by other threads without waiting are logged. Either way, the drainer
+ * continues with the next mail.
+ */
+@Slf4j
+class MailboxStateMachine extends AbstractStateMachine {
+    static final int MAX_PENDING = 1024;
+
+    private final AbstractStateMachine machine;
+    private final Mailbox mailbox = new Mailbox();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicInteger pending = new AtomicInteger();
+    // the thread which currently applies events; 'null' if there is none
+    private volatile Thread drainer;
+
+    // only accessed by the drainer; the draining flag orders the accesses of subsequent drainers
+    private final Map<String, PublishedState> publishedStates = new HashMap<>();
+    private volatile PublishedState published;
+    private volatile CompletableFuture<Void> behaviorCompletion = AsyncDispatcher.COMPLETED;
+
+    MailboxStateMachine(AbstractStateMachine machine) {
+        this.machine = machine;
+        this.published = publishedStates.computeIfAbsent(machine.getCurrentState(), this::newPublishedState);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If another thread is currently applying events, this method returns before the event
+     * has been applied. The returned value then is the one published most recently. If the
+     * mailbox is crowded, it waits until the event has been applied (see class comment).
+     */
+    @Override
+    boolean inject(int trigger) {
+        // the drainer mustn't wait for itself (if a behavior injects an event)
+        final boolean crowded = pending.incrementAndGet() > MAX_PENDING && drainer != Thread.currentThread();
+        final Mailbox.Mail mail = new Mailbox.Mail(trigger, crowded ? Thread.currentThread() : null);
+        mailbox.post(mail);
+        drain(mail);
+        if (crowded) {
+            awaitApplied(mail);
+        }
+        return published.isFinal;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch is applied as a whole (no events of other threads in between). This method
+     * waits until the batch has been applied. If it's called by a behavior of this machine, the
+     * batch is only queued (see class comment); the returned result then just counts the unknown
+     * events.
+     */
+    @Override
+    public BatchResult injectEvents(int[] eventSourceIds, String[] eventPayloads, int offset, int length) {
+        final EventTranslator mapping = getMapping();
+        final int[] triggers = new int[length];
+        boolean describeUnknown = false;
+        for (int i = 0; i < length; ++i) {
+            triggers[i] = mapping.getTrigger(eventSourceIds[offset + i], eventPayloads[offset + i]);
+            if (triggers[i] == EventTranslator.UNKNOWN_TRIGGER) {
+                describeUnknown |= rejectUnknown(eventSourceIds[offset + i]) != PolicyAccess.SUPPRESSED;
+            }
+        }
+
+        if (drainer == Thread.currentThread()) {
+            // called by a behavior of this machine: the current transition has to complete first
+            pending.incrementAndGet();
+            mailbox.post(new Mailbox.BatchMail(triggers, offset, describeUnknown, null));
+            return queuedResult(triggers);
+        }
+
+        final Mailbox.BatchMail mail = new Mailbox.BatchMail(triggers, offset, describeUnknown, Thread.currentThread());
+        pending.incrementAndGet();
+        mailbox.post(mail);
+        drain(mail);
+        awaitApplied(mail);
+        return mail.result;
+    }
+
+    private static BatchResult queuedResult(int[] triggers) {
+        int unknown = 0;
+        for (int trigger : triggers) {
+            if (trigger == EventTranslator.UNKNOWN_TRIGGER) {
+                ++unknown;
+            }
+        }
+        return new BatchResult(-1, 0, 0, 0, unknown);
+    }
+
+    private void awaitApplied(Mailbox.Mail mail) {
+        // if another thread is draining, it's guaranteed to apply the mail and to unpark this thread
+        while (!mail.applied) {
+            LockSupport.park(this);
+        }
+        if (mail.failure != null) {
+            rethrow(mail.failure);
+        }
+    }
+
+    private static void rethrow(Throwable failure) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    @Override
+    EventTranslator getMapping() {
+        return machine.getMapping();
+    }
+
+    @Override
+    UnknownEventPolicy getUnknownEventPolicy() {
+        return machine.getUnknownEventPolicy();
+    }
+
+    @Override
+    StateSnapshotTable getSnapshots() {
+        return machine.getSnapshots();
+    }
+
+    @Override
+    void unknownEvent(int eventSourceId) {
+        // unknown events never reach the mailbox; the wrapped machine only reports them
+        machine.unknownEvent(eventSourceId);
+    }
+
+    @Override
+    int fire(int trigger) {
+        // only ever called by the drainer
+        final int outcome = machine.fire(trigger);
+        if (outcome == ACCEPTED) {
+            behaviorCompletion = machine.getBehaviorCompletion();
+        }
+        publishCurrentState();
+        return outcome;
+    }
+
+    private void publishCurrentState() {
+        final String state = machine.getCurrentState();
+        if (state != published.name) {
+            published = publishedStates.computeIfAbsent(state, this::newPublishedState);
+        }
+    }
+
+    /**
+     * Applies all pending mails unless another thread is doing so already.
+     *
+     * @param own the mail posted by the calling thread; if applying it throws (and nobody waits
+     *            for it), the exception is rethrown once the mailbox is empty
+     */
+    private void drain(Mailbox.Mail own) {
+        Throwable ownFailure = null;
+        while (draining.compareAndSet(false, true)) {
+            drainer = Thread.currentThread();
+            try {
+                Mailbox.Mail mail;
+                while ((mail = mailbox.take()) != null) {
+                    pending.decrementAndGet();
+                    try {
+                        apply(mail);
+                    } catch (RuntimeException | Error e) {
+                        if (mail.waiter != null) {
+                            mail.failure = e;
+                        } else if (mail == own) {
+                            ownFailure = e;
+                        } else {
+                            log.error("Applying an event posted by another thread failed", e);
+                        }
+                    } finally {
+                        if (mail.waiter != null) {
+                            mail.applied = true;
+                            LockSupport.unpark(mail.waiter);
+                        }
+                    }
+                }
+            } finally {
+                drainer = null;
+                draining.set(false);
+            }
+
+            // a producer might have posted after the last take() but failed to become the drainer
+            if (mailbox.isEmpty()) {
+                break;
+            }
+        }
+        if (ownFailure != null) {
+            rethrow(ownFailure);
+        }
+    }
+
+    private void apply(Mailbox.Mail mail) {
+        if (mail instanceof Mailbox.BatchMail) {
+            applyBatch((Mailbox.BatchMail) mail);
+        } else if (mail instanceof Mailbox.ReplayMail) {
+            machine.replay(mail.trigger);
+            publishCurrentState();
+        } else if (mail instanceof Mailbox.RestoreMail) {
+            machine.restore(((Mailbox.RestoreMail) mail).snapshot);
+            publishCurrentState();
+        } else {
+            fire(mail.trigger);
+        }
+    }
+
+    private void applyBatch(Mailbox.BatchMail batch) {
+        final BatchCounter counter = new BatchCounter();
+        for (int i = 0; i < batch.triggers.length; ++i) {
+            if (batch.triggers[i] == EventTranslator.UNKNOWN_TRIGGER) {
+                counter.countUnknown(batch.describeUnknown);
+            } else {
+                counter.count(batch.offset + i, fire(batch.triggers[i]), machine);
+            }
+        }
+        batch.result = counter.finish(batch.triggers.length);
+    }
+
+    // must only be called for the wrapped machine's current state
+    private PublishedState newPublishedState(String name) {
+        return new PublishedState(name, machine.isCurrentStateFinal(), machine.snapshot());
+    }
+
+    @Override
+    public Set<Integer> getControlledDeviceIds() {
+        return machine.getControlledDeviceIds();
+    }
+
+    @Override
+    public Set<Integer> getHandledEventSourceIds() {
+        return machine.getHandledEventSourceIds();
+    }
+
+    @Override
+    public String getCurrentState() {
+        return published.name;
+    }
+
+    @Override
+    public boolean isCurrentStateFinal() {
+        return published.isFinal;
+    }
+
+    @Override
+    public StateSnapshot snapshot() {
+        return published.snapshot;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The snapshot is checked immediately but restored via the mailbox (i.e. after all events
+     * which were queued before). If another thread is currently applying events, this method
+     * returns before the snapshot has been restored.
+     */
+    @Override
+    public void restore(StateSnapshot snapshot) {
+        getSnapshots().ordinalOf(snapshot);
+        final Mailbox.RestoreMail mail = new Mailbox.RestoreMail(snapshot);
+        pending.incrementAndGet();
+        mailbox.post(mail);
+        drain(mail);
+    }
+
+    @Override
+    Fingerprint getReplayFingerprint() {
+        return machine.getReplayFingerprint();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The trigger is applied via the mailbox like {@link #restore}.
+     */
+    @Override
+    void replay(int trigger) {
+        if (machine.getReplayFingerprint() == null) {
+            super.replay(trigger);
+        }
+        final Mailbox.ReplayMail mail = new Mailbox.ReplayMail(trigger);
+        pending.incrementAndGet();
+        mailbox.post(mail);
+        drain(mail);
+    }
+
+    @Override
+    public CompletableFuture<Void> getBehaviorCompletion() {
+        return behaviorCompletion;
+    }
+
+    private static class PublishedState {
+        final String name;
+        final boolean isFinal;
+        final StateSnapshot snapshot;
+
+        PublishedState(String name, boolean isFinal, StateSnapshot snapshot) {
+            this.name = name;
+            this.isFinal = isFinal;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.MetricsListener;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+
+/**
+ * Table state machine which reports to a {@link MetricsListener}.
+ * <p>
+ * Only created if a listener is given so that the plain {@link TableStateMachineImpl} never has
+ * to check for one (nor take timestamps).
+ */
+class MeteredTableStateMachineImpl extends TableStateMachineImpl {
+    private final MetricsListener metrics;
+    private final TransitionTable table;
+    private long enteredAt = System.nanoTime();
+
+    MeteredTableStateMachineImpl(TableDefinition definition, EventJournalImpl journal, long instanceId) {
+        super(definition, journal, instanceId);
+        this.metrics = definition.getMetricsListener();
+        this.table = definition.getTable();
+    }
+
+    @Override
+    int fire(int trigger) {
+        final String source = getCurrentState();
+        final long now = System.nanoTime();
+        final int outcome = super.fire(trigger);
+        if (outcome == ACCEPTED) {
+            metrics.onTransition(source, table.getTriggerName(trigger), getCurrentState(), now - enteredAt);
+            enteredAt = now;
+        } else if (outcome == IGNORED) {
+            metrics.onIgnored(source, table.getTriggerName(trigger));
+        } else {
+            metrics.onUnhandled(source, table.getTriggerName(trigger));
+        }
+        return outcome;
+    }
+
+    @Override
+    public void restore(StateSnapshot snapshot) {
+        super.restore(snapshot);
+        // the dwell time of a restored state starts now
+        enteredAt = System.nanoTime();
+    }
+
+    @Override
+    void unknownEvent(int eventSourceId) {
+        metrics.onUnknownEvent(eventSourceId);
+    }
+}
@@ -0,0 +1,311 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.MetricsListener;
+import com.github.aytchell.jsonfsm.RuntimeOptions;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+import com.github.aytchell.jsonfsm.compiler.EventTranslator.PayloadKind;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+/**
+ * Runtime which partitions instances by the hash of their key across a fixed set of workers.
+ * <p>
+ * Each worker owns a {@link Mailbox} and a map of its instances. Submitting threads only
+ * translate the event and post it to the owning worker's mailbox; the instance map is only
+ * touched by the worker itself (which is why removals are posted as well). Idle workers park
+ * and are woken up by the next submission.
+ * <p>
+ * If more than {@link #MAX_PENDING} mails are waiting for a worker, submitting threads wait
+ * until their own event has been applied (like {@link MailboxStateMachine} does), so a worker's
+ * mailbox can't grow without bound. Workers never wait (e.g. if a listener submits events) since
+ * two workers waiting for each other would deadlock.
+ */
+@Slf4j
+class PartitionedRuntime implements StateMachineRuntime {
+    static final int MAX_PENDING = 1024;
+
+    // creates the instance of the given key
+    private final LongFunction<AbstractStateMachine> instanceFactory;
+    // reported for keys without an instance
+    private final String initialState;
+    // 'null' if the instances can't replay journal records
+    private final Fingerprint replayFingerprint;
+    private final EventTranslator mapping;
+    private final FinalStateListener finalStateListener;
+    // 'null' if no metrics are collected
+    private final MetricsListener metrics;
+    private final UnknownEventPolicy unknownEvents;
+    private final Worker[] workers;
+    private volatile boolean closed = false;
+
+    PartitionedRuntime(LongFunction<AbstractStateMachine> instanceFactory, String initialState,
+                       Fingerprint replayFingerprint, EventTranslator mapping, MetricsListener metrics,
+                       UnknownEventPolicy unknownEvents, RuntimeOptions options) {
+        if (options.getWorkerCount() < 1) {
+            throw new IllegalArgumentException("Worker count must be positive but is " + options.getWorkerCount());
+        }
+        this.instanceFactory = instanceFactory;
+        this.initialState = initialState;
+        this.replayFingerprint = replayFingerprint;
+        this.mapping = mapping;
+        this.metrics = metrics;
+        this.unknownEvents = unknownEvents;
+        this.finalStateListener = options.getFinalStateListener();
+        this.workers = new Worker[options.getWorkerCount()];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Worker("jsonfsm-worker-" + i);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public boolean submit(long key, int eventSourceId, String eventPayload) {
+        final int trigger = mapping.getTrigger(eventSourceId, eventPayload);
+        if (trigger == EventTranslator.UNKNOWN_TRIGGER) {
+            if (metrics != null) {
+                metrics.onUnknownEvent(eventSourceId);
+            }
+            AbstractStateMachine.rejectUnknown(unknownEvents, mapping, eventSourceId,
+                    PayloadKind.STRING, eventPayload, 0, eventPayload.length());
+            return false;
+        }
+        post(key, trigger, false);
+        return true;
+    }
+
+    @Override
+    public void submitTrigger(long key, int triggerHandle) {
+        if (triggerHandle < 0 || triggerHandle >= mapping.getTriggerCount()) {
+            throw new IllegalArgumentException("Unknown trigger handle " + triggerHandle);
+        }
+        post(key, triggerHandle, false);
+    }
+
+    @Override
+    public CompletableFuture<String> queryState(long key) {
+        final QueryMail query = new QueryMail(key);
+        workerOf(key).post(query);
+        return query.answer;
+    }
+
+    @Override
+    public void remove(long key) {
+        workerOf(key).post(new RemoveMail(key));
+    }
+
+    /**
+     * Returns the fingerprint of the definition if the instances can replay journal records.
+     *
+     * @return the fingerprint or 'null' if {@link #replay} isn't supported
+     */
+    Fingerprint getReplayFingerprint() {
+        return replayFingerprint;
+    }
+
+    /**
+     * Posts a trigger recorded by an {@link EventJournalImpl} to the instance of the given key.
+     * <p>
+     * Like a submitted event, the trigger is applied asynchronously (creating the instance if
+     * needed) but only the state is changed; neither behaviors nor the final state listener are
+     * called.
+     *
+     * @param key     the key of the instance
+     * @param trigger the ordinal of a trigger known to this state machine
+     */
+    void replay(long key, int trigger) {
+        if (replayFingerprint == null) {
+            throw new IllegalStateException("The instances of this runtime can't replay journal records");
+        }
+        post(key, trigger, true);
+    }
+
+    private void post(long key, int trigger, boolean replay) {
+        final Worker worker = workerOf(key);
+        final Thread waiter = worker.pending.get() >= MAX_PENDING && !isWorker(Thread.currentThread())
+                ? Thread.currentThread() : null;
+        final KeyedMail mail = replay ? new ReplayMail(key, trigger, waiter) : new KeyedMail(key, trigger, waiter);
+        worker.post(mail);
+        // the worker is guaranteed to apply the mail (even if the runtime gets closed meanwhile)
+        while (waiter != null && !mail.applied) {
+            LockSupport.park(this);
+        }
+    }
+
+    private boolean isWorker(Thread thread) {
+        for (Worker worker : workers) {
+            if (worker.thread == thread) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If called by a worker (e.g. by a {@link FinalStateListener}), this method doesn't wait: the
+     * worker would wait for itself. The workers still apply all events submitted before.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (Worker worker : workers) {
+            worker.post(new Mailbox.Mail(EventTranslator.UNKNOWN_TRIGGER));
+        }
+        if (isWorker(Thread.currentThread())) {
+            return;
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Worker workerOf(long key) {
+        if (closed) {
+            throw new IllegalStateException("Runtime is already closed");
+        }
+        return workers[(LongMap.hash(key) & Integer.MAX_VALUE) % workers.length];
+    }
+
+    private class Worker implements Runnable {
+        private final Mailbox mailbox = new Mailbox();
+        // the number of mails posted but not yet taken
+        private final AtomicInteger pending = new AtomicInteger();
+        private final LongMap<AbstractStateMachine> instances = new LongMap<>();
+        private final Thread thread;
+        private volatile boolean parked = false;
+
+        Worker(String name) {
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void post(Mailbox.Mail mail) {
+            pending.incrementAndGet();
+            mailbox.post(mail);
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Mailbox.Mail mail = mailbox.take();
+                if (mail == null) {
+                    park();
+                } else if (mail instanceof KeyedMail) {
+                    pending.decrementAndGet();
+                    try {
+                        apply((KeyedMail) mail);
+                    } finally {
+                        if (mail.waiter != null) {
+                            mail.applied = true;
+                            LockSupport.unpark(mail.waiter);
+                        }
+                    }
+                } else {
+                    // the runtime is closed and everything posted before has been applied
+                    return;
+                }
+            }
+        }
+
+        private void park() {
+            parked = true;
+            // a submitter might have posted before it could see the flag
+            if (mailbox.isEmpty()) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+
+        private void apply(KeyedMail mail) {
+            if (mail instanceof RemoveMail) {
+                instances.remove(mail.key);
+                return;
+            }
+            AbstractStateMachine instance = instances.get(mail.key);
+            if (mail instanceof QueryMail) {
+                // queries don't create instances
+                ((QueryMail) mail).answer.complete(instance != null ? instance.getCurrentState() : initialState);
+                return;
+            }
+
+            if (instance == null) {
+                instance = instanceFactory.apply(mail.key);
+                instances.put(mail.key, instance);
+            }
+
+            try {
+                if (mail instanceof ReplayMail) {
+                    instance.replay(mail.trigger);
+                    return;
+                }
+                final int outcome = instance.fire(mail.trigger);
+                if (outcome == AbstractStateMachine.ACCEPTED && finalStateListener != null
+                        && instance.isCurrentStateFinal()) {
+                    finalStateListener.onFinalState(mail.key, instance.getCurrentState());
+                }
+            } catch (RuntimeException e) {
+                log.error("Applying an event for key {} failed", mail.key, e);
+            }
+        }
+    }
+
+    private static class KeyedMail extends Mailbox.Mail {
+        final long key;
+
+        KeyedMail(long key, int trigger) {
+            this(key, trigger, null);
+        }
+
+        KeyedMail(long key, int trigger, Thread waiter) {
+            super(trigger, waiter);
+            this.key = key;
+        }
+    }
+
+    private static class QueryMail extends KeyedMail {
+        final CompletableFuture<String> answer = new CompletableFuture<>();
+
+        QueryMail(long key) {
+            super(key, EventTranslator.UNKNOWN_TRIGGER);
+        }
+    }
+
+    private static class ReplayMail extends KeyedMail {
+        ReplayMail(long key, int trigger, Thread waiter) {
+            super(key, trigger, waiter);
+        }
+    }
+
+    private static class RemoveMail extends KeyedMail {
+        RemoveMail(long key) {
+            super(key, EventTranslator.UNKNOWN_TRIGGER);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Deterministic automaton which matches payloads against all {@link PayloadPattern}s of one event source.
+ * <p>
+ * The automaton is built by a subset construction over the positions within all patterns, so a
+ * payload is read once, byte by byte, without any backtracking. Every automaton state knows the
+ * trigger of the most specific pattern matching a payload which ends there. As soon as a state
+ * is reached which can't be left anymore (e.g. after the prefix of {@code "door/*"}) the rest of
+ * the payload isn't read at all.
+ * <p>
+ * Characters are encoded to UTF-8 on the fly so neither kind of payload has to be converted and
+ * looking up a payload never allocates.
+ * <p>
+ * The number of automaton states may grow exponentially with the number of overlapping patterns
+ * (the validator rejects most of them; binary state machines aren't validated though). So the
+ * construction gives up after {@link #MAX_STATES} states.
+ */
+class PatternMatcher {
+    static final int MAX_STATES = 1 << 16;
+
+    // state 0 is the empty set of positions: no pattern can match anymore
+    private static final int START = 1;
+
+    // the edges of a state are found at edgeStart[state] until (excluding) edgeStart[state + 1]
+    private final int[] edgeStart;
+    // sorted per state
+    private final int[] edgeBytes;
+    private final int[] edgeTargets;
+    // per state: the next state for all bytes without an edge
+    private final int[] otherTargets;
+    // per state: trigger of the most specific pattern which matches if the payload ends here
+    private final int[] triggers;
+    // per state: the state never changes anymore
+    private final boolean[] decided;
+
+    /**
+     * Builds the automaton for the patterns of one event source.
+     *
+     * @throws IllegalArgumentException if the automaton would need more than {@link #MAX_STATES} states
+     */
+    PatternMatcher(int eventSourceId, List<PayloadPattern> patterns, List<Integer> patternTriggers) {
+        // each position within a pattern (including the position behind its end) gets a global index
+        final int[] offsets = new int[patterns.size() + 1];
+        for (int p = 0; p < patterns.size(); ++p) {
+            offsets[p + 1] = offsets[p] + patterns.get(p).length() + 1;
+        }
+        final int[] patternOf = new int[offsets[patterns.size()]];
+        for (int p = 0; p < patterns.size(); ++p) {
+            Arrays.fill(patternOf, offsets[p], offsets[p + 1], p);
+        }
+
+        final List<BitSet> states = new ArrayList<>();
+        final Map<BitSet, Integer> stateIds = new HashMap<>();
+        idOf(new BitSet(), states, stateIds);
+        final BitSet start = new BitSet();
+        for (int p = 0; p < patterns.size(); ++p) {
+            start.set(offsets[p]);
+        }
+        idOf(closure(start, patterns, offsets, patternOf), states, stateIds);
+
+        final List<int[]> edges = new ArrayList<>();
+        final List<Integer> others = new ArrayList<>();
+        final List<Integer> accepted = new ArrayList<>();
+        // new states are appended while the list is processed
+        for (int state = 0; state < states.size(); ++state) {
+            if (states.size() > MAX_STATES) {
+                throw new IllegalArgumentException("The payload patterns of event source " + eventSourceId
+                        + " are too complex: matching them needs more than " + MAX_STATES + " automaton states");
+            }
+            final TreeMap<Integer, BitSet> byByte = new TreeMap<>();
+            final BitSet wildcards = new BitSet();
+            int best = -1;
+            for (int position = states.get(state).nextSetBit(0); position >= 0;
+                 position = states.get(state).nextSetBit(position + 1)) {
+                final int p = patternOf[position];
+                final PayloadPattern pattern = patterns.get(p);
+                final int index = position - offsets[p];
+                if (index == pattern.length()) {
+                    if (best < 0 || pattern.isMoreSpecificThan(patterns.get(best))) {
+                        best = p;
+                    }
+                } else if (pattern.symbolAt(index) == PayloadPattern.WILDCARD) {
+                    wildcards.set(position);
+                } else {
+                    byByte.computeIfAbsent(pattern.symbolAt(index), b -> new BitSet()).set(position + 1);
+                }
+            }
+
+            // a wildcard consumes every byte, including those other patterns expect
+            final int[] stateEdges = new int[byByte.size() * 2];
+            int edge = 0;
+            for (Map.Entry<Integer, BitSet> entry : byByte.entrySet()) {
+                entry.getValue().or(wildcards);
+                stateEdges[edge++] = entry.getKey();
+                stateEdges[edge++] = idOf(closure(entry.getValue(), patterns, offsets, patternOf), states, stateIds);
+            }
+            edges.add(stateEdges);
+            others.add(idOf(closure(wildcards, patterns, offsets, patternOf), states, stateIds));
+            accepted.add(best < 0 ? EventTranslator.UNKNOWN_TRIGGER : patternTriggers.get(best));
+        }
+
+        final int stateCount = states.size();
+        this.edgeStart = new int[stateCount + 1];
+        for (int state = 0; state < stateCount; ++state) {
+            edgeStart[state + 1] = edgeStart[state] + edges.get(state).length / 2;
+        }
+        this.edgeBytes = new int[edgeStart[stateCount]];
+        this.edgeTargets = new int[edgeStart[stateCount]];
+        this.otherTargets = new int[stateCount];
+        this.triggers = new int[stateCount];
+        this.decided = new boolean[stateCount];
+        for (int state = 0; state < stateCount; ++state) {
+            final int[] stateEdges = edges.get(state);
+            for (int edge = 0; edge < stateEdges.length / 2; ++edge) {
+                edgeBytes[edgeStart[state] + edge] = stateEdges[2 * edge];
+                edgeTargets[edgeStart[state] + edge] = stateEdges[2 * edge + 1];
+            }
+            otherTargets[state] = others.get(state);
+            triggers[state] = accepted.get(state);
+            decided[state] = stateEdges.length == 0 && otherTargets[state] == state;
+        }
+    }
+
+    private static BitSet closure(BitSet positions, List<PayloadPattern> patterns, int[] offsets, int[] patternOf) {
+        // a wildcard may match nothing; merged wildcards never follow each other
+        final BitSet result = (BitSet) positions.clone();
+        for (int position = positions.nextSetBit(0); position >= 0; position = positions.nextSetBit(position + 1)) {
+            final int p = patternOf[position];
+            final int index = position - offsets[p];
+            if (index < patterns.get(p).length() && patterns.get(p).symbolAt(index) == PayloadPattern.WILDCARD) {
+                result.set(position + 1);
+            }
+        }
+        return result;
+    }
+
+    private static int idOf(BitSet positions, List<BitSet> states, Map<BitSet, Integer> stateIds) {
+        return stateIds.computeIfAbsent(positions, key -> {
+            states.add(key);
+            return states.size() - 1;
+        });
+    }
+
+    int get(CharSequence eventPayload) {
+        int state = START;
+        final int length = eventPayload.length();
+        for (int i = 0; i < length && !decided[state]; ++i) {
+            final char c = eventPayload.charAt(i);
+            if (c < 0x80) {
+                state = step(state, c);
+            } else if (c < 0x800) {
+                state = step(step(state, 0xc0 | (c >> 6)), 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(eventPayload.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, eventPayload.charAt(++i));
+                state = step(step(state, 0xf0 | (codePoint >> 18)), 0x80 | ((codePoint >> 12) & 0x3f));
+                state = step(step(state, 0x80 | ((codePoint >> 6) & 0x3f)), 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // that's what String.getBytes() does with malformed input
+                state = step(state, '?');
+            } else {
+                state = step(step(state, 0xe0 | (c >> 12)), 0x80 | ((c >> 6) & 0x3f));
+                state = step(state, 0x80 | (c & 0x3f));
+            }
+        }
+        return triggers[state];
+    }
+
+    int get(byte[] eventPayload, int offset, int length) {
+        int state = START;
+        for (int i = offset; i < offset + length && !decided[state]; ++i) {
+            state = step(state, eventPayload[i] & 0xff);
+        }
+        return triggers[state];
+    }
+
+    int get(ByteBuffer eventPayload) {
+        int state = START;
+        for (int i = eventPayload.position(); i < eventPayload.limit() && !decided[state]; ++i) {
+            state = step(state, eventPayload.get(i) & 0xff);
+        }
+        return triggers[state];
+    }
+
+    private int step(int state, int b) {
+        final int edge = Arrays.binarySearch(edgeBytes, edgeStart[state], edgeStart[state + 1], b);
+        return edge >= 0 ? edgeTargets[edge] : otherTargets[state];
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A payload pattern where {@code *} matches any (possibly empty) sequence of characters.
+ * <p>
+ * Patterns are handled as sequences of UTF-8 bytes and wildcards so that the same automaton can
+ * match payloads given as characters and as bytes. Consecutive wildcards are merged since they
+ * match the same payloads as a single one.
+ * <p>
+ * A pattern is more specific than another one if every payload it matches is matched by the
+ * other one, too. Among patterns which are related like this, the more specific one has more
+ * literal bytes or (with the same number of literal bytes) fewer wildcards; so this order can be
+ * used to pick the most specific of several matching patterns.
+ */
+class PayloadPattern {
+    static final int WILDCARD = -1;
+
+    @Getter
+    private final String pattern;
+    // UTF-8 bytes (0..255) and WILDCARDs
+    private final int[] symbols;
+    @Getter
+    private final int literalCount;
+
+    PayloadPattern(String pattern) {
+        this.pattern = pattern;
+        final byte[] encoded = pattern.getBytes(StandardCharsets.UTF_8);
+        final int[] symbols = new int[encoded.length];
+        int length = 0;
+        int literals = 0;
+        for (byte b : encoded) {
+            if (b != '*') {
+                symbols[length++] = b & 0xff;
+                ++literals;
+            } else if (length == 0 || symbols[length - 1] != WILDCARD) {
+                symbols[length++] = WILDCARD;
+            }
+        }
+        this.symbols = Arrays.copyOf(symbols, length);
+        this.literalCount = literals;
+    }
+
+    int length() {
+        return symbols.length;
+    }
+
+    int symbolAt(int position) {
+        return symbols[position];
+    }
+
+    int getWildcardCount() {
+        return symbols.length - literalCount;
+    }
+
+    /**
+     * Tells whether this pattern should be preferred over the given one when both match a payload.
+     */
+    boolean isMoreSpecificThan(PayloadPattern other) {
+        if (literalCount != other.literalCount) {
+            return literalCount > other.literalCount;
+        }
+        return getWildcardCount() < other.getWildcardCount();
+    }
+
+    /**
+     * The literal bytes before the first wildcard, one character per byte.
+     */
+    String getLiteralPrefix() {
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < symbols.length && symbols[i] != WILDCARD; ++i) {
+            prefix.append((char) symbols[i]);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Tells whether at least one payload is matched by both patterns.
+     */
+    boolean overlaps(PayloadPattern other) {
+        if (!literalEndsMatch(other)) {
+            return false;
+        }
+        // search through the pairs of positions which can be reached by reading the same payload
+        final boolean[][] seen = new boolean[symbols.length + 1][other.symbols.length + 1];
+        final Deque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[]{0, 0});
+        while (!pending.isEmpty()) {
+            final int[] pair = pending.pop();
+            final int i = pair[0];
+            final int j = pair[1];
+            if (seen[i][j]) {
+                continue;
+            }
+            seen[i][j] = true;
+            if (i == symbols.length && j == other.symbols.length) {
+                return true;
+            }
+
+            final boolean thisWildcard = i < symbols.length && symbols[i] == WILDCARD;
+            final boolean otherWildcard = j < other.symbols.length && other.symbols[j] == WILDCARD;
+            // a wildcard may match nothing
+            if (thisWildcard) {
+                pending.push(new int[]{i + 1, j});
+            }
+            if (otherWildcard) {
+                pending.push(new int[]{i, j + 1});
+            }
+            // or consume the next byte
+            if (i < symbols.length && j < other.symbols.length) {
+                if (thisWildcard && !otherWildcard) {
+                    pending.push(new int[]{i, j + 1});
+                } else if (otherWildcard && !thisWildcard) {
+                    pending.push(new int[]{i + 1, j});
+                } else if (!thisWildcard && symbols[i] == other.symbols[j]) {
+                    pending.push(new int[]{i + 1, j + 1});
+                }
+            }
+        }
+        return false;
+    }
+
+    // A common payload starts with the literal bytes in front of the first wildcard of both patterns
+    // and ends with the ones behind their last wildcard. Checking this first is linear.
+    private boolean literalEndsMatch(PayloadPattern other) {
+        final int shorter = Math.min(symbols.length, other.symbols.length);
+        for (int i = 0; i < shorter && symbols[i] != WILDCARD && other.symbols[i] != WILDCARD; ++i) {
+            if (symbols[i] != other.symbols[i]) {
+                return false;
+            }
+        }
+        for (int i = 1; i <= shorter && symbols[symbols.length - i] != WILDCARD
+                && other.symbols[other.symbols.length - i] != WILDCARD; ++i) {
+            if (symbols[symbols.length - i] != other.symbols[other.symbols.length - i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether every payload matched by the given pattern is matched by this one, too.
+     */
+    boolean includes(PayloadPattern other) {
+        // This pattern has to match the other one read as a payload whose wildcards can only be
+        // consumed by wildcards of this pattern.
+        boolean[] positions = new boolean[symbols.length + 1];
+        positions[0] = true;
+        skipWildcards(positions);
+        for (int symbol : other.symbols) {
+            final boolean[] next = new boolean[symbols.length + 1];
+            for (int i = 0; i < symbols.length; ++i) {
+                if (!positions[i]) {
+                    continue;
+                }
+                if (symbols[i] == WILDCARD) {
+                    next[i] = true;
+                } else if (symbols[i] == symbol) {
+                    next[i + 1] = true;
+                }
+            }
+            skipWildcards(next);
+            positions = next;
+        }
+        return positions[symbols.length];
+    }
+
+    private void skipWildcards(boolean[] positions) {
+        for (int i = 0; i < symbols.length; ++i) {
+            if (positions[i] && symbols[i] == WILDCARD) {
+                positions[i + 1] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.input.pojos.BehaviorPojo;
+import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
+import com.github.aytchell.jsonfsm.input.pojos.StatePojo;
+import com.github.aytchell.jsonfsm.input.pojos.TransitionPojo;
+import com.github.aytchell.jsonfsm.input.pojos.TriggerPojo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the {@link Fingerprint} of a (not necessarily validated) {@link StateMachinePojo}.
+ * <p>
+ * The pojo is written in a canonical binary encoding which is then hashed: every value is
+ * prefixed by its length or a marker for 'null'; missing lists are written like empty ones;
+ * ignored transitions don't contain their (meaningless) target and effects; final states are
+ * sorted. Parents and initial substates are appended only if at least one state has any of
+ * them (payload patterns and ranges only if at least one trigger has one) so the fingerprints of state
+ * machines which don't use these features stay the same.
+ */
+class PojoFingerprint {
+    // bump whenever the encoding changes
+    private static final int ENCODING_VERSION = 1;
+    private static final int NULL = -1;
+
+    private final DataOutputStream out;
+
+    private PojoFingerprint(DataOutputStream out) {
+        this.out = out;
+    }
+
+    static Fingerprint of(StateMachinePojo pojo) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new PojoFingerprint(new DataOutputStream(bytes)).write(pojo);
+            return new Fingerprint(MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()));
+        } catch (IOException e) {
+            // can't happen when writing into a byte array
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(StateMachinePojo pojo) throws IOException {
+        out.writeInt(ENCODING_VERSION);
+        writeString(pojo.getInitialState());
+
+        final List<TriggerPojo> triggers = nonNull(pojo.getTriggers());
+        out.writeInt(triggers.size());
+        for (TriggerPojo trigger : triggers) {
+            if (isNull(trigger)) {
+                continue;
+            }
+            writeString(trigger.getName());
+            writeInteger(trigger.getEventSourceId());
+            writeString(trigger.getEventPayload());
+        }
+
+        final List<StatePojo> states = nonNull(pojo.getStates());
+        out.writeInt(states.size());
+        for (StatePojo state : states) {
+            if (isNull(state)) {
+                continue;
+            }
+            writeString(state.getName());
+            writeBehaviors(state.getOnEntry());
+            writeBehaviors(state.getOnExit());
+            writeTransitions(state.getTransitions());
+        }
+
+        final List<String> finalStates = new ArrayList<>(nonNull(pojo.getFinalStates()));
+        finalStates.sort(PojoFingerprint::compareNullable);
+        out.writeInt(finalStates.size());
+        for (String state : finalStates) {
+            writeString(state);
+        }
+
+        if (states.stream().anyMatch(PojoFingerprint::isNested)) {
+            for (StatePojo state : states) {
+                if (isNull(state)) {
+                    continue;
+                }
+                writeString(state.getParent());
+                writeString(state.getInitialSubstate());
+            }
+        }
+
+        if (triggers.stream().anyMatch(trigger -> trigger != null && trigger.getEventPayloadPattern() != null)) {
+            for (TriggerPojo trigger : triggers) {
+                if (isNull(trigger)) {
+                    continue;
+                }
+                writeString(trigger.getEventPayloadPattern());
+            }
+        }
+
+        if (triggers.stream().anyMatch(trigger -> trigger != null && trigger.getEventPayloadRange() != null)) {
+            for (TriggerPojo trigger : triggers) {
+                if (isNull(trigger) || isNull(trigger.getEventPayloadRange())) {
+                    continue;
+                }
+                writeDouble(trigger.getEventPayloadRange().getFrom());
+                writeDouble(trigger.getEventPayloadRange().getBelow());
+            }
+        }
+    }
+
+    private static boolean isNested(StatePojo state) {
+        return state != null && (state.getParent() != null || state.getInitialSubstate() != null);
+    }
+
+    private void writeTransitions(List<TransitionPojo> transitions) throws IOException {
+        out.writeInt(nonNull(transitions).size());
+        for (TransitionPojo transition : nonNull(transitions)) {
+            if (isNull(transition)) {
+                continue;
+            }
+            writeString(transition.getTriggerName());
+            final boolean ignore = Boolean.TRUE.equals(transition.getIgnore());
+            out.writeBoolean(ignore);
+            if (!ignore) {
+                writeString(transition.getTargetState());
+                writeBehaviors(transition.getEffects());
+            }
+        }
+    }
+
+    private void writeBehaviors(List<BehaviorPojo> behaviors) throws IOException {
+        out.writeInt(nonNull(behaviors).size());
+        for (BehaviorPojo behavior : nonNull(behaviors)) {
+            if (isNull(behavior)) {
+                continue;
+            }
+            writeInteger(behavior.getDeviceId());
+            writeString(behavior.getCommandString());
+        }
+    }
+
+    // the pojo isn't validated yet so even list elements might be missing
+    private boolean isNull(Object element) throws IOException {
+        out.writeBoolean(element == null);
+        return element == null;
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private void writeInteger(Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private void writeDouble(Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+
+    private static int compareNullable(String first, String second) {
+        if (first == null || second == null) {
+            return first == null ? (second == null ? 0 : -1) : 1;
+        }
+        return first.compareTo(second);
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.UnhandledTriggerPolicy;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+
+/**
+ * Gives the state machines access to the package-private parts of the policies.
+ * <p>
+ * The policies live in the API package but are only ever fed by this library. Each policy class
+ * registers its accessor when it's initialized, i.e. before the first policy exists.
+ */
+public final class PolicyAccess {
+    /**
+     * Access to {@link UnhandledTriggerPolicy}; only implemented by the policy itself.
+     */
+    public interface UnhandledTriggers {
+        void report(UnhandledTriggerPolicy policy, String state, String triggerName);
+    }
+
+    /**
+     * Access to {@link UnknownEventPolicy}; only implemented by the policy itself.
+     */
+    public interface UnknownEvents {
+        long report(UnknownEventPolicy policy, int eventSourceId, boolean knownSource);
+
+        void describe(UnknownEventPolicy policy, int eventSourceId, String eventPayload, long suppressed);
+    }
+
+    // returned by reportUnknown() if the event must not be described
+    static final long SUPPRESSED = -1;
+
+    private static volatile UnhandledTriggers unhandledTriggers;
+    private static volatile UnknownEvents unknownEvents;
+
+    private PolicyAccess() {
+    }
+
+    /**
+     * Registers the accessor of {@link UnhandledTriggerPolicy}; can only be called once.
+     *
+     * @param access the accessor
+     * @throws IllegalStateException if an accessor is already registered
+     */
+    public static synchronized void setUnhandledTriggers(UnhandledTriggers access) {
+        if (unhandledTriggers != null) {
+            throw new IllegalStateException("Access to unhandled trigger policies is already registered");
+        }
+        unhandledTriggers = access;
+    }
+
+    /**
+     * Registers the accessor of {@link UnknownEventPolicy}; can only be called once.
+     *
+     * @param access the accessor
+     * @throws IllegalStateException if an accessor is already registered
+     */
+    public static synchronized void setUnknownEvents(UnknownEvents access) {
+        if (unknownEvents != null) {
+            throw new IllegalStateException("Access to unknown event policies is already registered");
+        }
+        unknownEvents = access;
+    }
+
+    static void reportUnhandled(UnhandledTriggerPolicy policy, String state, String triggerName) {
+        unhandledTriggers.report(policy, state, triggerName);
+    }
+
+    /**
+     * Counts an unknown event.
+     *
+     * @return {@link #SUPPRESSED} if the event must not be described; otherwise the number of
+     * unknown events suppressed since the previously described one
+     */
+    static long reportUnknown(UnknownEventPolicy policy, int eventSourceId, boolean knownSource) {
+        return unknownEvents.report(policy, eventSourceId, knownSource);
+    }
+
+    /**
+     * Describes an unknown event for which {@link #reportUnknown} didn't return {@link #SUPPRESSED}.
+     */
+    static void describeUnknown(UnknownEventPolicy policy, int eventSourceId, String eventPayload, long suppressed) {
+        unknownEvents.describe(policy, eventSourceId, eventPayload, suppressed);
+    }
+}
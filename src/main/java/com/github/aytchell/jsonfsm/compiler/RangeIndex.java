@@ -0,0 +1,183 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted index of the numeric payload ranges of one event source.
+ * <p>
+ * Ranges are half-open ({@code from <= value < below}) and don't overlap, so sorted by their
+ * lower bound they can be searched with a single binary search: the only candidate for a value
+ * is the last range starting at or below it.
+ * <p>
+ * Payloads are parsed as decimal numbers (optional sign, digits with an optional fraction and an
+ * optional exponent like {@code "-1.5e3"}). Numbers with up to 15 significant digits and a small
+ * exponent are converted exactly without any allocation; only longer ones fall back to
+ * {@link Double#parseDouble}. Anything else (including surrounding whitespace) isn't a number
+ * and matches no range.
+ */
+class RangeIndex {
+    // mantissas with this many digits are exact as a double (they're below 2^53)
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // larger exponents don't make any difference but might overflow
+    private static final int MAX_EXPONENT = 100_000;
+
+    // sorted; -infinity if there is no lower bound
+    private final double[] lowerBounds;
+    // exclusive; +infinity if there is no upper bound
+    private final double[] upperBounds;
+    private final int[] triggers;
+
+    RangeIndex(List<Range> ranges) {
+        final List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingDouble(range -> range.lowerBound));
+        this.lowerBounds = new double[sorted.size()];
+        this.upperBounds = new double[sorted.size()];
+        this.triggers = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); ++i) {
+            lowerBounds[i] = sorted.get(i).lowerBound;
+            upperBounds[i] = sorted.get(i).upperBound;
+            triggers[i] = sorted.get(i).trigger;
+        }
+    }
+
+    int get(CharSequence eventPayload) {
+        return get(parse(eventPayload, 0, eventPayload.length()));
+    }
+
+    int get(byte[] eventPayload, int offset, int length) {
+        return get(parse(eventPayload, offset, offset + length));
+    }
+
+    int get(ByteBuffer eventPayload) {
+        return get(parse(eventPayload, eventPayload.position(), eventPayload.limit()));
+    }
+
+    int get(double value) {
+        // binarySearch orders -0.0 before 0.0 and NaN behind everything else
+        final int found = Arrays.binarySearch(lowerBounds, value + 0.0);
+        final int candidate = found >= 0 ? found : -found - 2;
+        return candidate >= 0 && value < upperBounds[candidate] ? triggers[candidate] : EventTranslator.UNKNOWN_TRIGGER;
+    }
+
+    /**
+     * Parses the given characters or bytes ({@code byte[]} or {@link ByteBuffer}) from {@code start}
+     * until (excluding) {@code end}; returns {@link Double#NaN} if they aren't a number.
+     */
+    static double parse(Object payload, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (charAt(payload, i) == '-' || charAt(payload, i) == '+')) {
+            negative = charAt(payload, i) == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean exact = true;
+        boolean anyDigit = false;
+        boolean fraction = false;
+        for (; i < end; ++i) {
+            final int c = charAt(payload, i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits == MAX_EXACT_DIGITS) {
+                    exact = false;
+                    continue;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                // leading zeros aren't significant
+                if (mantissa != 0) {
+                    ++digits;
+                }
+                if (fraction) {
+                    --exponent;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+
+        if (i < end && (charAt(payload, i) == 'e' || charAt(payload, i) == 'E')) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < end && (charAt(payload, i) == '-' || charAt(payload, i) == '+')) {
+                negativeExponent = charAt(payload, i) == '-';
+                ++i;
+            }
+            if (i == end) {
+                return Double.NaN;
+            }
+            int value = 0;
+            for (; i < end && charAt(payload, i) >= '0' && charAt(payload, i) <= '9'; ++i) {
+                value = Math.min(value * 10 + (charAt(payload, i) - '0'), MAX_EXPONENT);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+
+        if (!exact || exponent < -22 || exponent > 22) {
+            // all characters are known to be ASCII by now and parseDouble accepts this syntax
+            return Double.parseDouble(toString(payload, start, end));
+        }
+        // both operands are exact so there is only a single (correct) rounding
+        final double value = exponent >= 0 ?
+                mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private static int charAt(Object payload, int index) {
+        if (payload instanceof CharSequence) {
+            return ((CharSequence) payload).charAt(index);
+        }
+        if (payload instanceof byte[]) {
+            return ((byte[]) payload)[index];
+        }
+        return ((ByteBuffer) payload).get(index);
+    }
+
+    private static String toString(Object payload, int start, int end) {
+        if (payload instanceof CharSequence) {
+            return ((CharSequence) payload).subSequence(start, end).toString();
+        }
+        final byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; ++i) {
+            bytes[i - start] = (byte) charAt(payload, i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    static class Range {
+        private final double lowerBound;
+        private final double upperBound;
+        private final int trigger;
+
+        /**
+         * @param from    inclusive lower bound; 'null' if there is none
+         * @param below   exclusive upper bound; 'null' if there is none
+         * @param trigger the trigger of all values within the range
+         */
+        Range(Double from, Double below, int trigger) {
+            // the same zero for binarySearch
+            this.lowerBound = from == null ? Double.NEGATIVE_INFINITY : from + 0.0;
+            this.upperBound = below == null ? Double.POSITIVE_INFINITY : below;
+            this.trigger = trigger;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.DeviceCommand;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executes groups of commands on an {@link Executor} strictly one after the other.
+ * <p>
+ * Submitted groups are queued in a lock-free {@link Mailbox}. At most one task of the lane is
+ * scheduled on the executor at any time; it runs all queued groups in submission order. If a
+ * command of a group throws, the group's future completes exceptionally; the remaining commands
+ * and groups are executed nevertheless.
+ */
+@Slf4j
+class SerialLane {
+    private final Executor executor;
+    private final Mailbox mailbox = new Mailbox();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    SerialLane(Executor executor) {
+        this.executor = executor;
+    }
+
+    CompletableFuture<Void> submit(DeviceCommand[] commands) {
+        final CommandMail mail = new CommandMail(commands);
+        mailbox.post(mail);
+        schedule();
+        return mail.done;
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // the queued commands stay in the mailbox until the next submission
+            scheduled.set(false);
+            log.error("Executor rejected the execution of behaviors", e);
+        }
+    }
+
+    private void drain() {
+        try {
+            Mailbox.Mail mail;
+            while ((mail = mailbox.take()) != null) {
+                run((CommandMail) mail);
+            }
+        } finally {
+            scheduled.set(false);
+        }
+
+        // a submitter might have posted after the last take() but failed to schedule the lane
+        if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private static void run(CommandMail mail) {
+        // the wrappers already catch the exceptions of the behaviors; this is about errors and listeners
+        Throwable failure = null;
+        for (DeviceCommand command : mail.commands) {
+            try {
+                command.execute();
+            } catch (RuntimeException | Error e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure == null) {
+            mail.done.complete(null);
+        } else {
+            mail.done.completeExceptionally(failure);
+        }
+    }
+
+    private static class CommandMail extends Mailbox.Mail {
+        final DeviceCommand[] commands;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        CommandMail(DeviceCommand[] commands) {
+            super(EventTranslator.UNKNOWN_TRIGGER);
+            this.commands = commands;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
+import com.github.aytchell.jsonfsm.input.pojos.StatePojo;
+import com.github.aytchell.jsonfsm.input.pojos.TransitionPojo;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parent/child relations of the states of a validated {@link StateMachinePojo}.
+ * <p>
+ * The hierarchy is flattened at compile time: a state inherits every transition of its
+ * ancestors unless it handles the same trigger itself. Taking a transition exits all states
+ * from the active one up to (but excluding) the innermost state which contains both the owner
+ * and the target of the transition; then the states below it are entered down to the target
+ * and further along the chain of initial substates. These sequences are precomputed per
+ * state and trigger so the runtime cost of an event doesn't depend on the nesting depth.
+ * <p>
+ * Without any parent a state machine is flat: every transition just exits its source and
+ * enters its target.
+ */
+class StateHierarchy {
+    static final int NO_STATE = -1;
+
+    private final List<StatePojo> states;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final int[] parents;
+    private final int[] initialSubstates;
+    @Getter
+    private final boolean hierarchical;
+
+    StateHierarchy(List<StatePojo> states) {
+        this.states = states;
+        for (int ordinal = 0; ordinal < states.size(); ++ordinal) {
+            ordinals.put(states.get(ordinal).getName(), ordinal);
+        }
+
+        this.parents = new int[states.size()];
+        this.initialSubstates = new int[states.size()];
+        boolean hierarchical = false;
+        for (int ordinal = 0; ordinal < states.size(); ++ordinal) {
+            final StatePojo state = states.get(ordinal);
+            parents[ordinal] = ordinalOrNone(state.getParent());
+            initialSubstates[ordinal] = ordinalOrNone(state.getInitialSubstate());
+            hierarchical |= parents[ordinal] != NO_STATE || initialSubstates[ordinal] != NO_STATE;
+        }
+        this.hierarchical = hierarchical;
+    }
+
+    private int ordinalOrNone(String name) {
+        return name == null ? NO_STATE : ordinals.get(name);
+    }
+
+    int ordinalOf(String name) {
+        return ordinals.get(name);
+    }
+
+    /**
+     * Follows the initial substates of the given state down to the state which actually becomes active.
+     */
+    int leafOf(int state) {
+        while (initialSubstates[state] != NO_STATE) {
+            state = initialSubstates[state];
+        }
+        return state;
+    }
+
+    /**
+     * A state is final if it or one of its ancestors is listed as final state.
+     */
+    boolean isFinal(int state, Set<String> finalStates) {
+        for (int s = state; s != NO_STATE; s = parents[s]) {
+            if (finalStates.contains(states.get(s).getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the transitions in effect for the given state: its own ones (in json order)
+     * followed by those it inherits from its ancestors (innermost first).
+     */
+    List<Transition> transitionsOf(int state) {
+        final List<Transition> result = new ArrayList<>();
+        final Set<String> handledTriggers = new HashSet<>();
+        for (int owner = state; owner != NO_STATE; owner = parents[owner]) {
+            final List<TransitionPojo> transitions = states.get(owner).getTransitions();
+            if (transitions == null) {
+                continue;
+            }
+            for (TransitionPojo transition : transitions) {
+                if (handledTriggers.add(transition.getTriggerName())) {
+                    result.add(new Transition(owner, transition));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the states which are exited and entered when the given state is active and
+     * a transition of {@code owner} (the state itself or one of its ancestors) into {@code target} is taken.
+     */
+    Route route(int active, int owner, int target) {
+        final int ancestor = commonAncestor(owner, target);
+
+        final List<Integer> exited = new ArrayList<>();
+        for (int s = active; s != ancestor; s = parents[s]) {
+            exited.add(s);
+        }
+
+        final List<Integer> entered = new ArrayList<>();
+        for (int s = target; s != ancestor; s = parents[s]) {
+            entered.add(0, s);
+        }
+        for (int s = initialSubstates[target]; s != NO_STATE; s = initialSubstates[s]) {
+            entered.add(s);
+        }
+        return new Route(toArray(exited), toArray(entered));
+    }
+
+    // innermost state which properly contains both given states (so a self-transition leaves its state)
+    private int commonAncestor(int owner, int target) {
+        for (int candidate = parents[owner]; candidate != NO_STATE; candidate = parents[candidate]) {
+            for (int s = parents[target]; s != NO_STATE; s = parents[s]) {
+                if (s == candidate) {
+                    return candidate;
+                }
+            }
+        }
+        return NO_STATE;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Getter
+    static class Transition {
+        // the state which declares the transition
+        private final int owner;
+        private final TransitionPojo pojo;
+
+        Transition(int owner, TransitionPojo pojo) {
+            this.owner = owner;
+            this.pojo = pojo;
+        }
+    }
+
+    @Getter
+    static class Route {
+        // innermost state first
+        private final int[] exited;
+        // outermost state first; the last one is the new active state
+        private final int[] entered;
+
+        Route(int[] exited, int[] entered) {
+            this.exited = exited;
+            this.entered = entered;
+        }
+
+        int getTarget() {
+            return entered[entered.length - 1];
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.github.aytchell.jsonfsm.input.pojos.BehaviorPojo;
 import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
 import com.github.aytchell.jsonfsm.input.pojos.StatePojo;
 import com.github.aytchell.jsonfsm.input.pojos.TransitionPojo;
+import com.github.aytchell.jsonfsm.input.pojos.TriggerPojo;
 import com.github.oxo42.stateless4j.StateConfiguration;
 import com.github.oxo42.stateless4j.StateMachineConfig;
 import com.github.oxo42.stateless4j.delegates.Action;
@@ -18,32 +19,134 @@ class StateMachineCompilerImpl implements StateMachineCompiler {
     @Getter
     private final Set<Integer> acceptedEventSources;
 
-    private final EventTranslator mapping;
+    // The compiler is never modified after construction. Every compilation builds its own
+    // tables so compiling from several threads concurrently is safe. The trigger table is
+    // built once and then shared (read-only) by all definitions.
     private final StateMachinePojo stateMachinePojo;
-    private final StateMachineConfig<String, String> config;
+    private final EventTranslator mapping;
+    private final String[] triggerNames;
+    private final StateHierarchy hierarchy;
+    // computed on demand; racing threads compute the same value
+    private volatile Fingerprint fingerprint;
 
     StateMachineCompilerImpl(Set<Integer> requiredDevices, Set<Integer> acceptedEventSources,
                              StateMachinePojo stateMachinePojo) {
-        this.requiredDevices = requiredDevices;
-        this.acceptedEventSources = acceptedEventSources;
-        mapping = new EventTranslator();
+        this.requiredDevices = Collections.unmodifiableSet(requiredDevices);
+        this.acceptedEventSources = Collections.unmodifiableSet(acceptedEventSources);
         this.stateMachinePojo = stateMachinePojo;
-        this.config = new StateMachineConfig<>();
+        this.mapping = new EventTranslator();
+        this.triggerNames = buildTriggers(stateMachinePojo, mapping);
+        this.hierarchy = new StateHierarchy(stateMachinePojo.getStates());
     }
 
     @Override
-    public StateMachine compileStateMachine(Map<Integer, DeviceCommandCompiler> commandCompilers)
+    public Fingerprint getFingerprint() {
+        Fingerprint result = fingerprint;
+        if (result == null) {
+            result = PojoFingerprint.of(stateMachinePojo);
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] toBinary() {
+        return BinaryDefinitionFormat.write(stateMachinePojo, getFingerprint());
+    }
+
+    @Override
+    public int resolveTrigger(int eventSourceId, String eventPayload) {
+        return mapping.getTrigger(eventSourceId, eventPayload);
+    }
+
+    @Override
+    public StateMachineDefinition compileDefinition(Map<Integer, DeviceCommandCompiler> commandCompilers)
             throws CompilationException {
+        return compileDefinition(commandCompilers, CompileOptions.defaults());
+    }
+
+    @Override
+    public StateMachineDefinition compileDefinition(Map<Integer, DeviceCommandCompiler> commandCompilers,
+                                                    CompileOptions options) throws CompilationException {
         checkGivenCompilers(commandCompilers);
+
+        if (options.getEngine() == ExecutionEngine.STATELESS4J) {
+            if (options.isAsyncBehaviors()) {
+                throw new IllegalArgumentException("Asynchronous behaviors require the TABLE engine");
+            }
+            if (options.getMetricsListener() != null) {
+                throw new IllegalArgumentException("Metrics require the TABLE engine");
+            }
+            if (options.getEventJournal() != null) {
+                throw new IllegalArgumentException("Event journals require the TABLE engine");
+            }
+            if (hierarchy.isHierarchical()) {
+                throw new IllegalArgumentException("Hierarchical states require the TABLE engine");
+            }
+            return compileStateless4jDefinition(commandCompilers, options);
+        }
+        return compileTableDefinition(commandCompilers, options);
+    }
+
+    @Override
+    public StateMachine compileStateMachine(Map<Integer, DeviceCommandCompiler> commandCompilers)
+            throws CompilationException {
+        return compileDefinition(commandCompilers).newInstance();
+    }
+
+    @Override
+    public StateMachine compileStateMachine(Map<Integer, DeviceCommandCompiler> commandCompilers,
+                                            CompileOptions options) throws CompilationException {
+        return compileDefinition(commandCompilers, options).newInstance();
+    }
+
+    private StateMachineDefinition compileStateless4jDefinition(
+            Map<Integer, DeviceCommandCompiler> commandCompilers, CompileOptions options)
+            throws CompilationException {
         final String initialState = findInitialState(stateMachinePojo);
         final Set<String> finalStates = findFinalStates(stateMachinePojo);
-        buildTriggers();
-        buildStates(commandCompilers);
+        final StateMachineConfig<String, String> config = new StateMachineConfig<>();
+        buildStates(config, commandCompilers);
 
-        final com.github.oxo42.stateless4j.StateMachine<String, String> stateMachine =
-                new com.github.oxo42.stateless4j.StateMachine<>(initialState, config);
+        return new Stateless4jDefinition(config, initialState, findStateNames(), finalStates, mapping,
+                triggerNames, findTriggerOutcomes(), unhandledTriggerPolicyOf(options),
+                unknownEventPolicyOf(options), getFingerprint(), requiredDevices, acceptedEventSources);
+    }
 
-        return new StateMachineImpl(stateMachine, finalStates, requiredDevices, acceptedEventSources, mapping);
+    private StateMachineDefinition compileTableDefinition(
+            Map<Integer, DeviceCommandCompiler> commandCompilers, CompileOptions options)
+            throws CompilationException {
+        final MetricsListener metrics = options.getMetricsListener();
+        final TransitionTable table = buildTransitionTable(commandCompilers, metrics);
+        final AsyncDispatcher dispatcher = options.isAsyncBehaviors() ?
+                AsyncDispatcher.build(table, options.getBehaviorExecutor()) : null;
+        return new TableDefinition(table, mapping, dispatcher, metrics, unhandledTriggerPolicyOf(options),
+                unknownEventPolicyOf(options), getFingerprint(), eventJournalOf(options), requiredDevices,
+                acceptedEventSources);
+    }
+
+    private EventJournalImpl eventJournalOf(CompileOptions options) {
+        final EventJournal journal = options.getEventJournal();
+        if (journal == null) {
+            return null;
+        }
+        if (!(journal instanceof EventJournalImpl)) {
+            throw new IllegalArgumentException("Only event journals created by this library are supported");
+        }
+        if (!journal.getFingerprint().equals(getFingerprint())) {
+            throw new IllegalArgumentException("Event journal belongs to a different state machine");
+        }
+        return (EventJournalImpl) journal;
+    }
+
+    private static UnhandledTriggerPolicy unhandledTriggerPolicyOf(CompileOptions options) {
+        final UnhandledTriggerPolicy policy = options.getUnhandledTriggerPolicy();
+        return policy == null ? UnhandledTriggerPolicy.logEveryTime() : policy;
+    }
+
+    private static UnknownEventPolicy unknownEventPolicyOf(CompileOptions options) {
+        final UnknownEventPolicy policy = options.getUnknownEventPolicy();
+        return policy == null ? UnknownEventPolicy.logEveryTime() : policy;
     }
 
     private void checkGivenCompilers(Map<Integer, DeviceCommandCompiler> commandCompilers) throws CompilationException {
@@ -68,19 +171,241 @@ class StateMachineCompilerImpl implements StateMachineCompiler {
         return new HashSet<>(finalState);
     }
 
-    private void buildTriggers() {
-        stateMachinePojo.getTriggers().forEach(
-                t -> mapping.addEvent(t.getEventSourceId(), t.getEventPayload(), t.getName())
-        );
+    private String[] findStateNames() {
+        final List<StatePojo> states = stateMachinePojo.getStates();
+        final String[] stateNames = new String[states.size()];
+        for (int ordinal = 0; ordinal < stateNames.length; ++ordinal) {
+            stateNames[ordinal] = states.get(ordinal).getName();
+        }
+        return stateNames;
+    }
+
+    private Map<String, int[]> findTriggerOutcomes() {
+        final Map<String, Integer> triggerOrdinals = new HashMap<>();
+        for (int ordinal = 0; ordinal < triggerNames.length; ++ordinal) {
+            triggerOrdinals.put(triggerNames[ordinal], ordinal);
+        }
+
+        final Map<String, int[]> triggerOutcomes = new HashMap<>();
+        for (StatePojo state : stateMachinePojo.getStates()) {
+            final List<TransitionPojo> transitions = state.getTransitions();
+            if (transitions == null || transitions.isEmpty()) {
+                continue;
+            }
+            final int[] outcomes = new int[triggerNames.length];
+            Arrays.fill(outcomes, AbstractStateMachine.UNHANDLED);
+            for (TransitionPojo t : transitions) {
+                outcomes[triggerOrdinals.get(t.getTriggerName())] = Boolean.TRUE.equals(t.getIgnore()) ?
+                        AbstractStateMachine.IGNORED : AbstractStateMachine.ACCEPTED;
+            }
+            triggerOutcomes.put(state.getName(), outcomes);
+        }
+        return triggerOutcomes;
+    }
+
+    private static String[] buildTriggers(StateMachinePojo stateMachinePojo, EventTranslator mapping) {
+        final List<TriggerPojo> triggers = stateMachinePojo.getTriggers();
+        final String[] triggerNames = new String[triggers.size()];
+        for (int ordinal = 0; ordinal < triggerNames.length; ++ordinal) {
+            final TriggerPojo t = triggers.get(ordinal);
+            if (t.getEventPayloadPattern() != null) {
+                mapping.addPattern(t.getEventSourceId(), t.getEventPayloadPattern(), ordinal);
+            } else if (t.getEventPayloadRange() != null) {
+                mapping.addRange(t.getEventSourceId(), t.getEventPayloadRange().getFrom(),
+                        t.getEventPayloadRange().getBelow(), ordinal);
+            } else {
+                mapping.addEvent(t.getEventSourceId(), t.getEventPayload(), ordinal);
+            }
+            triggerNames[ordinal] = t.getName();
+        }
+        mapping.compileMatchers();
+        return triggerNames;
+    }
+
+    private TransitionTable buildTransitionTable(Map<Integer, DeviceCommandCompiler> commandCompilers,
+                                                 MetricsListener metrics) throws CompilationException {
+        final List<StatePojo> states = stateMachinePojo.getStates();
+        final int stateCount = states.size();
+        final int triggerCount = triggerNames.length;
+        final int cellCount = TransitionTable.cellCount(stateCount, triggerCount);
+
+        final String[] stateNames = findStateNames();
+        final Map<String, Integer> triggerOrdinals = new HashMap<>();
+        for (int ordinal = 0; ordinal < triggerCount; ++ordinal) {
+            triggerOrdinals.put(triggerNames[ordinal], ordinal);
+        }
+
+        final Set<String> finalStateNames = findFinalStates(stateMachinePojo);
+        final boolean[] finalStates = new boolean[stateCount];
+        for (int ordinal = 0; ordinal < stateCount; ++ordinal) {
+            finalStates[ordinal] = hierarchy.isFinal(ordinal, finalStateNames);
+        }
+
+        // first pass: find the targets, the states exited and entered on the way and the transitions whose
+        // behaviors are batched
+        final int[] targets = new int[cellCount];
+        Arrays.fill(targets, TransitionTable.NO_TRANSITION);
+        final StateHierarchy.Route[] routes = new StateHierarchy.Route[cellCount];
+        final boolean[] batchedCells = new boolean[cellCount];
+        for (int ordinal = 0; ordinal < stateCount; ++ordinal) {
+            for (StateHierarchy.Transition transition : hierarchy.transitionsOf(ordinal)) {
+                final TransitionPojo t = transition.getPojo();
+                final int cell = ordinal * triggerCount + triggerOrdinals.get(t.getTriggerName());
+                final Boolean ignore = t.getIgnore();
+                if (ignore == null || !ignore) {
+                    routes[cell] = hierarchy.route(ordinal, transition.getOwner(),
+                            hierarchy.ordinalOf(t.getTargetState()));
+                    targets[cell] = routes[cell].getTarget();
+                    batchedCells[cell] = needsBatching(leavingBehaviors(routes[cell], t), commandCompilers)
+                            || needsBatching(enteringBehaviors(routes[cell]), commandCompilers);
+                } else {
+                    targets[cell] = TransitionTable.IGNORED;
+                }
+            }
+        }
+
+        // onEntry/onExit lists which are only used by batched transitions aren't compiled on their own
+        final boolean[] compileExit = new boolean[stateCount];
+        final boolean[] compileEntry = new boolean[stateCount];
+        Arrays.fill(compileExit, true);
+        Arrays.fill(compileEntry, true);
+        for (int cell = 0; cell < targets.length; ++cell) {
+            if (batchedCells[cell]) {
+                mark(compileExit, routes[cell].getExited(), false);
+                mark(compileEntry, routes[cell].getEntered(), false);
+            }
+        }
+        for (int cell = 0; cell < targets.length; ++cell) {
+            if (targets[cell] >= 0 && !batchedCells[cell]) {
+                mark(compileExit, routes[cell].getExited(), true);
+                mark(compileEntry, routes[cell].getEntered(), true);
+            }
+        }
+
+        // second pass: compile the behaviors
+        final DeviceCommand[][] leavingCommands = new DeviceCommand[cellCount][];
+        final DeviceCommand[][] enteringCommands = new DeviceCommand[cellCount][];
+        final DeviceCommand[][] stateEnteringCommands = new DeviceCommand[stateCount][];
+        final DeviceCommand[][] stateExitingCommands = new DeviceCommand[stateCount][];
+        // inherited transitions are compiled only once
+        final Map<TransitionPojo, DeviceCommand[]> effects = new IdentityHashMap<>();
+        for (int ordinal = 0; ordinal < stateCount; ++ordinal) {
+            if (compileEntry[ordinal]) {
+                stateEnteringCommands[ordinal] = compileBehaviors(
+                        "onEntry (" + stateNames[ordinal] + ")", states.get(ordinal).getOnEntry(),
+                        commandCompilers, metrics);
+            }
+            if (compileExit[ordinal]) {
+                compileOnExit(stateExitingCommands, ordinal, commandCompilers, metrics);
+            }
+
+            for (StateHierarchy.Transition transition : hierarchy.transitionsOf(ordinal)) {
+                final TransitionPojo t = transition.getPojo();
+                final int cell = ordinal * triggerCount + triggerOrdinals.get(t.getTriggerName());
+                if (targets[cell] < 0) {
+                    continue;
+                }
+                final String location = transitionLocation(stateNames[transition.getOwner()], t);
+                if (batchedCells[cell]) {
+                    // one batch per device before the state changes and one after it (so onEntry sees the target)
+                    leavingCommands[cell] = compileBehaviors(location, leavingBehaviors(routes[cell], t),
+                            commandCompilers, metrics);
+                    enteringCommands[cell] = compileBehaviors(location, enteringBehaviors(routes[cell]),
+                            commandCompilers, metrics);
+                } else {
+                    DeviceCommand[] leaving = TransitionTable.NO_COMMANDS;
+                    for (int exited : routes[cell].getExited()) {
+                        leaving = concat(leaving, compileOnExit(stateExitingCommands, exited, commandCompilers,
+                                metrics));
+                    }
+                    if (!effects.containsKey(t)) {
+                        effects.put(t, compileBehaviors(location, t.getEffects(), commandCompilers, metrics));
+                    }
+                    leavingCommands[cell] = concat(leaving, effects.get(t));
+                }
+            }
+        }
+
+        for (int cell = 0; cell < targets.length; ++cell) {
+            if (targets[cell] >= 0 && !batchedCells[cell]) {
+                DeviceCommand[] entering = TransitionTable.NO_COMMANDS;
+                for (int entered : routes[cell].getEntered()) {
+                    entering = concat(entering, stateEnteringCommands[entered]);
+                }
+                enteringCommands[cell] = entering;
+            }
+        }
+
+        return new TransitionTable(stateNames, triggerNames, finalStates,
+                hierarchy.leafOf(hierarchy.ordinalOf(findInitialState(stateMachinePojo))),
+                targets, leavingCommands, enteringCommands);
+    }
+
+    private static void mark(boolean[] flags, int[] states, boolean value) {
+        for (int state : states) {
+            flags[state] = value;
+        }
     }
 
-    private void buildStates(Map<Integer, DeviceCommandCompiler> commandCompilers) throws CompilationException {
+    // the onExit behaviors of a state are compiled when they are needed first (that's possibly before
+    // the state itself is processed since ancestors are exited, too)
+    private DeviceCommand[] compileOnExit(DeviceCommand[][] stateExitingCommands, int ordinal,
+                                          Map<Integer, DeviceCommandCompiler> commandCompilers,
+                                          MetricsListener metrics) throws CompilationException {
+        if (stateExitingCommands[ordinal] == null) {
+            final StatePojo state = stateMachinePojo.getStates().get(ordinal);
+            stateExitingCommands[ordinal] = compileBehaviors(
+                    "onExit (" + state.getName() + ")", state.getOnExit(), commandCompilers, metrics);
+        }
+        return stateExitingCommands[ordinal];
+    }
+
+    // the onExit behaviors of the exited states followed by the effects
+    private List<BehaviorPojo> leavingBehaviors(StateHierarchy.Route route, TransitionPojo transition) {
+        final List<StatePojo> states = stateMachinePojo.getStates();
+        final List<BehaviorPojo> behaviors = new ArrayList<>();
+        for (int state : route.getExited()) {
+            behaviors.addAll(nonNull(states.get(state).getOnExit()));
+        }
+        behaviors.addAll(nonNull(transition.getEffects()));
+        return behaviors;
+    }
+
+    // the onEntry behaviors of the entered states
+    private List<BehaviorPojo> enteringBehaviors(StateHierarchy.Route route) {
+        final List<StatePojo> states = stateMachinePojo.getStates();
+        final List<BehaviorPojo> behaviors = new ArrayList<>();
+        for (int state : route.getEntered()) {
+            behaviors.addAll(nonNull(states.get(state).getOnEntry()));
+        }
+        return behaviors;
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+
+    private static DeviceCommand[] concat(DeviceCommand[] first, DeviceCommand[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        if (first.length == 0) {
+            return second;
+        }
+        final DeviceCommand[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private void buildStates(StateMachineConfig<String, String> config,
+                             Map<Integer, DeviceCommandCompiler> commandCompilers) throws CompilationException {
         for (StatePojo state : stateMachinePojo.getStates()) {
-            buildSingleState(state, commandCompilers);
+            buildSingleState(config, state, commandCompilers);
         }
     }
 
-    private void buildSingleState(StatePojo statePojo, Map<Integer, DeviceCommandCompiler> commandCompilers)
+    private void buildSingleState(StateMachineConfig<String, String> config, StatePojo statePojo,
+                                  Map<Integer, DeviceCommandCompiler> commandCompilers)
             throws CompilationException {
         final String name = statePojo.getName();
         StateConfiguration<String, String> state = config.configure(name);
@@ -109,20 +434,8 @@ class StateMachineCompilerImpl implements StateMachineCompiler {
             String location, List<BehaviorPojo> commands,
             Map<Integer, DeviceCommandCompiler> commandCompilers, ActionAppender appender)
             throws CompilationException {
-        if (commands == null || commands.isEmpty()) {
-            return;
-        }
-
-        for (BehaviorPojo cmd : commands) {
-            try {
-                final DeviceCommand command = new DeviceCommandWrapper(
-                        commandCompilers.get(cmd.getDeviceId()).compile(cmd.getCommandString()),
-                        location, cmd.getDeviceId(), cmd.getCommandString());
-                appender.addBehavior(command::execute);
-            } catch (Exception e) {
-                throw new CompilationException(e.getMessage(), e,
-                        location, cmd.getDeviceId(), cmd.getCommandString());
-            }
+        for (DeviceCommand command : compileBehaviors(location, commands, commandCompilers, null)) {
+            appender.addBehavior(command::execute);
         }
     }
 
@@ -161,10 +474,8 @@ class StateMachineCompilerImpl implements StateMachineCompiler {
         if (effects == null || effects.isEmpty()) {
             state.permitReentry(transition.getTriggerName());
         } else {
-            final String location = "transition (" + stateName + " -> " + transition.getTargetState() +
-                    "; trigger: " + transition.getTriggerName() + ")";
             final DeviceCommand command = compileDeviceCommandChain(
-                    location, effects, commandCompilers);
+                    transitionLocation(stateName, transition), effects, commandCompilers);
             state.permitReentry(transition.getTriggerName(), command::execute);
         }
     }
@@ -176,30 +487,117 @@ class StateMachineCompilerImpl implements StateMachineCompiler {
         if (effects == null || effects.isEmpty()) {
             state.permit(transition.getTriggerName(), transition.getTargetState());
         } else {
-            final String location = "transition (" + stateName + " -> " + transition.getTargetState() +
-                    "; trigger: " + transition.getTriggerName() + ")";
             final DeviceCommand command = compileDeviceCommandChain(
-                    location, effects, commandCompilers);
+                    transitionLocation(stateName, transition), effects, commandCompilers);
             state.permit(transition.getTriggerName(), transition.getTargetState(), command::execute);
         }
     }
 
+    private static String transitionLocation(String stateName, TransitionPojo transition) {
+        return "transition (" + stateName + " -> " + transition.getTargetState() +
+                "; trigger: " + transition.getTriggerName() + ")";
+    }
+
     private DeviceCommand compileDeviceCommandChain(
             String location, List<BehaviorPojo> effects,
             Map<Integer, DeviceCommandCompiler> commandCompilers) throws CompilationException {
-        final List<DeviceCommand> commands = new LinkedList<>();
-        for (BehaviorPojo e : effects) {
-            try {
-                commands.add(new DeviceCommandWrapper(
-                        commandCompilers.get(e.getDeviceId()).compile(e.getCommandString()),
-                        location, e.getDeviceId(), e.getCommandString()));
-            } catch (Exception exception) {
-                // enrich exception with the information we used to compile the command
-                throw new CompilationException(exception.getMessage(), exception,
-                        location, e.getDeviceId(), e.getCommandString());
-            }
-        }
-        return () -> commands.forEach(DeviceCommand::execute);
+        final DeviceCommand[] commands = compileBehaviors(location, effects, commandCompilers, null);
+        return () -> {
+            for (DeviceCommand command : commands) {
+                command.execute();
+            }
+        };
+    }
+
+    private DeviceCommand[] compileBehaviors(
+            String location, List<BehaviorPojo> behaviors,
+            Map<Integer, DeviceCommandCompiler> commandCompilers, MetricsListener metrics)
+            throws CompilationException {
+        if (behaviors == null || behaviors.isEmpty()) {
+            return TransitionTable.NO_COMMANDS;
+        }
+
+        if (needsBatching(behaviors, commandCompilers)) {
+            return compileBatched(location, behaviors, commandCompilers, metrics);
+        }
+
+        final DeviceCommand[] commands = new DeviceCommand[behaviors.size()];
+        for (int i = 0; i < commands.length; ++i) {
+            commands[i] = compileSingleBehavior(location, behaviors.get(i), commandCompilers, metrics);
+        }
+        return commands;
+    }
+
+    private static boolean needsBatching(List<BehaviorPojo> behaviors,
+                                         Map<Integer, DeviceCommandCompiler> commandCompilers) {
+        final Set<Integer> batchingDevices = new HashSet<>();
+        for (BehaviorPojo b : behaviors) {
+            if (commandCompilers.get(b.getDeviceId()) instanceof BatchingDeviceCommandCompiler
+                    && !batchingDevices.add(b.getDeviceId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the given behaviors while coalescing the commands of each batching device.
+     * <p>
+     * The batch of a device is executed at the position of the device's first command. So the later
+     * commands of a batched device move ahead of the commands of other devices in between; apart from
+     * that, all commands keep their order.
+     */
+    private DeviceCommand[] compileBatched(
+            String location, List<BehaviorPojo> behaviors,
+            Map<Integer, DeviceCommandCompiler> commandCompilers, MetricsListener metrics)
+            throws CompilationException {
+        final Map<Integer, List<String>> batches = new HashMap<>();
+        for (BehaviorPojo b : behaviors) {
+            if (commandCompilers.get(b.getDeviceId()) instanceof BatchingDeviceCommandCompiler) {
+                batches.computeIfAbsent(b.getDeviceId(), id -> new ArrayList<>()).add(b.getCommandString());
+            }
+        }
+
+        final List<DeviceCommand> commands = new ArrayList<>();
+        final Set<Integer> compiledBatches = new HashSet<>();
+        for (BehaviorPojo b : behaviors) {
+            final List<String> batch = batches.get(b.getDeviceId());
+            if (batch == null || batch.size() == 1) {
+                commands.add(compileSingleBehavior(location, b, commandCompilers, metrics));
+            } else if (compiledBatches.add(b.getDeviceId())) {
+                commands.add(compileBatch(location, b.getDeviceId(), batch,
+                        (BatchingDeviceCommandCompiler) commandCompilers.get(b.getDeviceId()), metrics));
+            }
+        }
+        return commands.toArray(TransitionTable.NO_COMMANDS);
+    }
+
+    private static DeviceCommand compileSingleBehavior(
+            String location, BehaviorPojo behavior,
+            Map<Integer, DeviceCommandCompiler> commandCompilers, MetricsListener metrics)
+            throws CompilationException {
+        try {
+            return DeviceCommandWrapper.wrap(
+                    commandCompilers.get(behavior.getDeviceId()).compile(behavior.getCommandString()),
+                    location, behavior.getDeviceId(), behavior.getCommandString(), metrics);
+        } catch (Exception exception) {
+            // enrich exception with the information we used to compile the command
+            throw new CompilationException(exception.getMessage(), exception,
+                    location, behavior.getDeviceId(), behavior.getCommandString());
+        }
+    }
+
+    private static DeviceCommand compileBatch(
+            String location, int deviceId, List<String> commandStrings,
+            BatchingDeviceCommandCompiler compiler, MetricsListener metrics) throws CompilationException {
+        final String joinedCommands = String.join("; ", commandStrings);
+        try {
+            return DeviceCommandWrapper.wrap(compiler.compileBatch(commandStrings), location, deviceId,
+                    joinedCommands, metrics);
+        } catch (Exception exception) {
+            // enrich exception with the information we used to compile the commands
+            throw new CompilationException(exception.getMessage(), exception, location, deviceId, joinedCommands);
+        }
     }
 
     private interface ActionAppender {
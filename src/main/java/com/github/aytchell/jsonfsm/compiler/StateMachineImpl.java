@@ -1,51 +1,63 @@
 package com.github.aytchell.jsonfsm.compiler;
 
-import com.github.aytchell.jsonfsm.StateMachine;
-import lombok.Getter;
-import lombok.extern.slf4j.Slf4j;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-@Slf4j
-class StateMachineImpl implements StateMachine {
+class StateMachineImpl extends AbstractStateMachine {
     private final com.github.oxo42.stateless4j.StateMachine<String, String> stateMachine;
 
-    private final Set<String> finalStates;
-
-    private final EventTranslator mapping;
-    @Getter
-    private final Set<Integer> controlledDeviceIds;
-    @Getter
-    private final Set<Integer> handledEventSourceIds;
-
-    public StateMachineImpl(
-            com.github.oxo42.stateless4j.StateMachine<String, String> stateMachine,
-            Set<String> finalStates,
-            Set<Integer> controlledDeviceIds,
-            Set<Integer> handledEventSourceIds,
-            EventTranslator mapping) {
-        this.stateMachine = stateMachine;
-        this.finalStates = finalStates;
-        this.mapping = mapping;
-        this.controlledDeviceIds = controlledDeviceIds;
-        this.handledEventSourceIds = handledEventSourceIds;
+    private final Stateless4jDefinition definition;
+
+    // kept outside of stateless4j so it can be restored without firing any trigger
+    private String state;
+
+    StateMachineImpl(Stateless4jDefinition definition) {
+        this.definition = definition;
+        this.state = definition.getInitialState();
+        this.stateMachine = new com.github.oxo42.stateless4j.StateMachine<>(definition.getInitialState(),
+                () -> state, newState -> state = newState, definition.getConfig());
     }
 
     @Override
-    public boolean injectEvent(int eventSourceId, String eventPayload) {
-        final String eventName = mapping.getEventName(eventSourceId, eventPayload);
-        if (eventName != null) {
-            try {
-                stateMachine.fire(eventName);
-            } catch (IllegalStateException e) {
-                log.error("Event '{}' arrived in state '{}' but there's no " +
-                        "matching transition and it's not marked to be ignored", eventName, stateMachine.getState());
-            }
-        } else {
-            log.info("Ignoring unknown event '{}:{}'", eventSourceId, eventPayload);
+    EventTranslator getMapping() {
+        return definition.getMapping();
+    }
+
+    @Override
+    UnknownEventPolicy getUnknownEventPolicy() {
+        return definition.getUnknownEventPolicy();
+    }
+
+    @Override
+    StateSnapshotTable getSnapshots() {
+        return definition.getSnapshots();
+    }
+
+    @Override
+    int fire(int trigger) {
+        final String eventName = definition.getTriggerName(trigger);
+        // stateless4j throws for unhandled triggers and doesn't tell whether a trigger was ignored;
+        // so the outcome is looked up beforehand and unhandled triggers never reach stateless4j
+        final int outcome = definition.getOutcome(stateMachine.getState(), trigger);
+        if (outcome == UNHANDLED) {
+            PolicyAccess.reportUnhandled(definition.getUnhandledTriggerPolicy(), stateMachine.getState(), eventName);
+            return UNHANDLED;
         }
+        stateMachine.fire(eventName);
+        return outcome;
+    }
 
-        return isCurrentStateFinal();
+    @Override
+    public Set<Integer> getControlledDeviceIds() {
+        return definition.getControlledDeviceIds();
+    }
+
+    @Override
+    public Set<Integer> getHandledEventSourceIds() {
+        return definition.getHandledEventSourceIds();
     }
 
     @Override
@@ -55,6 +67,7 @@ class StateMachineImpl implements StateMachine {
 
     @Override
     public boolean isCurrentStateFinal() {
+        final Set<String> finalStates = definition.getFinalStates();
         if (finalStates.isEmpty()) {
             return false;
         }
@@ -62,4 +75,20 @@ class StateMachineImpl implements StateMachine {
         final String currentState = stateMachine.getState();
         return finalStates.contains(currentState);
     }
+
+    @Override
+    public StateSnapshot snapshot() {
+        return definition.getSnapshots().get(definition.getStateOrdinal(state));
+    }
+
+    @Override
+    public void restore(StateSnapshot snapshot) {
+        state = definition.getStateName(definition.getSnapshots().ordinalOf(snapshot));
+    }
+
+    @Override
+    public CompletableFuture<Void> getBehaviorCompletion() {
+        // stateless4j always executes the behaviors synchronously
+        return AsyncDispatcher.COMPLETED;
+    }
 }
@@ -1,8 +1,11 @@
 package com.github.aytchell.jsonfsm.compiler;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.github.aytchell.jsonfsm.Fingerprint;
 import com.github.aytchell.jsonfsm.StateMachineCompiler;
 import com.github.aytchell.jsonfsm.input.pojos.BehaviorPojo;
 import com.github.aytchell.jsonfsm.input.pojos.StateMachinePojo;
@@ -11,6 +14,14 @@ import com.github.aytchell.jsonfsm.input.pojos.TransitionPojo;
 import com.github.aytchell.validator.Validator;
 import com.github.aytchell.validator.exceptions.ValidationException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -19,28 +30,131 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class StateMachineParserImpl {
-    private final ObjectMapper mapper = new ObjectMapper();
+    // readers are immutable and thread-safe; building one is expensive so it's shared by all parsers.
+    // Streams and readers belong to the caller so they're not closed after parsing.
+    private static final ObjectReader READER = new ObjectMapper().readerFor(StateMachinePojo.class)
+            .without(JsonParser.Feature.AUTO_CLOSE_SOURCE);
 
     public StateMachineCompiler parse(String jsonDescription) throws ValidationException {
+        return compile(read(jsonDescription));
+    }
+
+    public StateMachineCompiler parse(InputStream jsonDescription) throws ValidationException, IOException {
+        expectNotNull(jsonDescription);
+        try {
+            return compile(READER.readValue(jsonDescription));
+        } catch (JsonProcessingException e) {
+            throw parsingFailed(e);
+        }
+    }
+
+    public StateMachineCompiler parse(Reader jsonDescription) throws ValidationException, IOException {
+        expectNotNull(jsonDescription);
+        try {
+            return compile(READER.readValue(jsonDescription));
+        } catch (JsonProcessingException e) {
+            throw parsingFailed(e);
+        }
+    }
+
+    public StateMachineCompiler parse(Path jsonFile) throws ValidationException, IOException {
+        expectNotNull(jsonFile);
+        try (InputStream input = Files.newInputStream(jsonFile)) {
+            return parse(input);
+        }
+    }
+
+    public StateMachineCompiler parse(ByteBuffer jsonDescription) throws ValidationException, IOException {
+        expectNotNull(jsonDescription);
+        try {
+            if (jsonDescription.hasArray()) {
+                return compile(READER.readValue(jsonDescription.array(),
+                        jsonDescription.arrayOffset() + jsonDescription.position(), jsonDescription.remaining()));
+            }
+            // reads from a copy of the buffer so its position isn't changed
+            return compile(READER.readValue(new ByteBufferBackedInputStream(jsonDescription.duplicate())));
+        } catch (JsonProcessingException e) {
+            throw parsingFailed(e);
+        }
+    }
+
+    public StateMachineCompiler loadBinary(ByteBuffer binaryDescription) throws ValidationException {
+        expectNotNull(binaryDescription);
+        // the binary form is only ever written from validated state machines
+        final StateMachinePojo stateMachinePojo = BinaryDefinitionFormat.read(binaryDescription);
+        return newCompiler(stateMachinePojo);
+    }
+
+    public StateMachineCompiler loadBinary(Path binaryFile) throws ValidationException, IOException {
+        expectNotNull(binaryFile);
+        try (FileChannel channel = FileChannel.open(binaryFile, StandardOpenOption.READ)) {
+            return loadBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Parses a json-encoded state machine without validating it.
+     *
+     * @param jsonDescription a json-encoded string describing a state machine
+     * @return the (not yet validated) state machine
+     * @throws ValidationException thrown if the string isn't valid json or doesn't match the pojos
+     */
+    public StateMachinePojo read(String jsonDescription) throws ValidationException {
         Validator.expect(jsonDescription, "jsonStateMachine").notNull().notBlank();
+        return parseJsonToPojo(jsonDescription);
+    }
 
-        final StateMachinePojo stateMachinePojo = parseJsonToPojo(jsonDescription);
+    /**
+     * Validates a parsed state machine and creates the compiler for it.
+     *
+     * @param stateMachinePojo the state machine as returned by {@link #read}
+     * @return a compiler for the state machine
+     * @throws ValidationException thrown if something with the given state machine is wrong
+     */
+    public StateMachineCompiler compile(StateMachinePojo stateMachinePojo) throws ValidationException {
         StateMachinePojoValidator.validate(stateMachinePojo);
-        final Set<Integer> devices = extractRequiredDeviceIds(stateMachinePojo);
-        final Set<Integer> eventSources = extractAcceptedEventSources(stateMachinePojo);
+        return newCompiler(stateMachinePojo);
+    }
 
-        return new StateMachineCompilerImpl(devices, eventSources, stateMachinePojo);
+    /**
+     * Computes the structural fingerprint of a (not necessarily validated) state machine.
+     *
+     * @param stateMachinePojo the state machine as returned by {@link #read}
+     * @return the fingerprint of the state machine
+     */
+    public Fingerprint fingerprint(StateMachinePojo stateMachinePojo) {
+        return PojoFingerprint.of(stateMachinePojo);
     }
 
     private StateMachinePojo parseJsonToPojo(String jsonDescription) throws ValidationException {
         try {
-            return mapper.readValue(jsonDescription, new TypeReference<>() {
-            });
+            return READER.readValue(jsonDescription);
         } catch (JsonProcessingException e) {
-            throw new ValidationException("Error while parsing given json: " + e.getMessage());
+            throw parsingFailed(e);
+        }
+    }
+
+    private StateMachineCompiler newCompiler(StateMachinePojo stateMachinePojo) throws ValidationException {
+        final Set<Integer> devices = extractRequiredDeviceIds(stateMachinePojo);
+        final Set<Integer> eventSources = extractAcceptedEventSources(stateMachinePojo);
+        try {
+            return new StateMachineCompilerImpl(devices, eventSources, stateMachinePojo);
+        } catch (IllegalArgumentException e) {
+            // the payload patterns can't be matched within the limits of the PatternMatcher
+            throw new ValidationException(e.getMessage());
         }
     }
 
+    private static void expectNotNull(Object jsonDescription) throws ValidationException {
+        if (jsonDescription == null) {
+            throw new ValidationException("Expected 'jsonStateMachine' to be given but it is null");
+        }
+    }
+
+    private static ValidationException parsingFailed(JsonProcessingException e) {
+        return new ValidationException("Error while parsing given json: " + e.getMessage());
+    }
+
     private Set<Integer> extractRequiredDeviceIds(StateMachinePojo stateMachine) {
         Set<Integer> ids = new HashSet<>();
         stateMachine.getStates().stream()
@@ -4,14 +4,28 @@ import com.github.aytchell.jsonfsm.input.pojos.*;
 import com.github.aytchell.validator.Validator;
 import com.github.aytchell.validator.exceptions.ValidationException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
 
 class StateMachinePojoValidator {
     private final StateMachinePojo stateMachinePojo;
     private final Set<String> knownStateNames = new HashSet<>();
     private final Set<String> knownTriggerNames = new HashSet<>();
+    // state name -> name of its parent (only for states which have one)
+    private final Map<String, String> parentNames = new HashMap<>();
+    private final Set<String> compositeStateNames = new HashSet<>();
+    private final Set<String> statesWithInitialSubstate = new HashSet<>();
+    // states which are (indirectly) nested into themselves
+    private final Set<String> nestedIntoThemselves = new HashSet<>();
 
     private StateMachinePojoValidator(StateMachinePojo stateMachinePojo) {
         this.stateMachinePojo = stateMachinePojo;
@@ -41,27 +55,157 @@ class StateMachinePojoValidator {
                         trigger -> {
                             Validator.expect(trigger.getName(), "name").notNull().notBlank();
                             Validator.expect(trigger.getEventSourceId(), "eventSourceId").notNull().greaterThan(0);
-                            Validator.expect(trigger.getEventPayload(), "eventPayload").notNull().notBlank();
+                            final PayloadRangePojo range = trigger.getEventPayloadRange();
+                            Validator.expect(trigger.getEventPayload(), "eventPayload")
+                                    .ifTrue(trigger.getEventPayloadPattern() == null && range == null)
+                                    .notNull().notBlank();
+                            Validator.expect(trigger.getEventPayloadPattern(), "eventPayloadPattern").ifNotNull()
+                                    .passes(pattern -> trigger.getEventPayload() == null,
+                                            "is not given together with an eventPayload")
+                                    .passes(pattern -> range == null, "is not given together with an eventPayloadRange")
+                                    .notBlank();
+                            Validator.expect(rangeToString(range), "eventPayloadRange").ifTrue(range != null)
+                                    .passes(r -> trigger.getEventPayload() == null,
+                                            "is not given together with an eventPayload")
+                                    .passes(r -> range.getFrom() != null || range.getBelow() != null,
+                                            "has a lower or an upper bound ('from' or 'below')")
+                                    .passes(r -> isFinite(range.getFrom()) && isFinite(range.getBelow()),
+                                            "has finite bounds")
+                                    .passes(r -> lowerBoundOf(range) < upperBoundOf(range),
+                                            "has a lower bound ('from') smaller than its upper bound ('below')");
                             knownTriggerNames.add(trigger.getName());
                         }
-                )
-                // trigger names shall be unique
-                .allEntriesAreUnique(
-                        StateMachinePojoValidator::triggerNamesAreEqual, "name", TriggerPojo::getName)
-                // trigger contents shall be unique
-                .allEntriesAreUnique(
-                        StateMachinePojoValidator::triggerContentsAreEqual,
-                        "(eventSourceId/eventPayload)",
-                        t-> "(" + t.getEventSourceId() + "/" + t.getEventPayload() + ")");
+                );
+        // trigger names shall be unique
+        expectUniqueEntries(allTriggers, "triggers", "name", TriggerPojo::getName, TriggerPojo::getName);
+        // trigger contents shall be unique
+        expectUniqueEntries(allTriggers, "triggers", "(eventSourceId/eventPayload)",
+                StateMachinePojoValidator::triggerContentOf,
+                t -> "(" + t.getEventSourceId() + "/" + payloadOf(t) + ")");
+
+        // For each payload matching several patterns of a source there has to be a single most specific one.
+        // A payload matched by two patterns starts with the literal prefixes of both; so only patterns
+        // whose prefixes start with one another are compared. They're indexed by their prefixes.
+        final Map<Integer, TreeMap<String, List<PayloadPattern>>> patternsBySource = new HashMap<>();
+        final Map<PayloadPattern, String> patternTriggerNames = new HashMap<>();
+        final Map<PayloadPattern, Integer> patternIndices = new HashMap<>();
+        Validator.expect(allTriggers, "triggers").eachCustomEntry(
+                trigger -> {
+                    if (trigger.getEventPayloadPattern() == null) {
+                        return;
+                    }
+                    final PayloadPattern pattern = new PayloadPattern(trigger.getEventPayloadPattern());
+                    final TreeMap<String, List<PayloadPattern>> others = patternsBySource.computeIfAbsent(
+                            trigger.getEventSourceId(), id -> new TreeMap<>());
+                    final String prefix = pattern.getLiteralPrefix();
+                    final List<PayloadPattern> candidates = new ArrayList<>();
+                    for (int length = 0; length < prefix.length(); ++length) {
+                        candidates.addAll(others.getOrDefault(prefix.substring(0, length), Collections.emptyList()));
+                    }
+                    // the characters of a prefix are bytes so this bound is behind all prefixes starting with it
+                    others.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()
+                            .forEach(candidates::addAll);
+                    // report the first of several ambiguous patterns
+                    candidates.sort(Comparator.comparing(patternIndices::get));
+                    for (PayloadPattern other : candidates) {
+                        Validator.expect(trigger.getEventPayloadPattern(), "eventPayloadPattern")
+                                .passes(p -> !areAmbiguous(pattern, other),
+                                        "is strictly more or less specific than the overlapping pattern of trigger '"
+                                                + patternTriggerNames.get(other) + "'");
+                    }
+                    others.computeIfAbsent(prefix, p -> new ArrayList<>()).add(pattern);
+                    patternTriggerNames.put(pattern, trigger.getName());
+                    patternIndices.put(pattern, patternIndices.size());
+                });
+
+        // Ranges of a source mustn't overlap. All ranges seen so far are disjoint, so a new one can
+        // only overlap with the ranges right below and above its lower bound.
+        final Map<Integer, TreeMap<Double, TriggerPojo>> rangesBySource = new HashMap<>();
+        Validator.expect(allTriggers, "triggers").eachCustomEntry(
+                trigger -> {
+                    final PayloadRangePojo range = trigger.getEventPayloadRange();
+                    if (range == null) {
+                        return;
+                    }
+                    final TreeMap<Double, TriggerPojo> others = rangesBySource.computeIfAbsent(
+                            trigger.getEventSourceId(), id -> new TreeMap<>());
+                    final Map.Entry<Double, TriggerPojo> below = others.floorEntry(lowerBoundOf(range));
+                    final Map.Entry<Double, TriggerPojo> above = others.ceilingEntry(lowerBoundOf(range));
+                    for (Map.Entry<Double, TriggerPojo> other : Arrays.asList(below, above)) {
+                        if (other == null) {
+                            continue;
+                        }
+                        final PayloadRangePojo otherRange = other.getValue().getEventPayloadRange();
+                        Validator.expect(rangeToString(range), "eventPayloadRange")
+                                .passes(r -> lowerBoundOf(range) >= upperBoundOf(otherRange)
+                                                || lowerBoundOf(otherRange) >= upperBoundOf(range),
+                                        "doesn't overlap the range of trigger '" + other.getValue().getName() + "'");
+                    }
+                    others.put(lowerBoundOf(range), trigger);
+                });
+    }
+
+    private static boolean isFinite(Double bound) {
+        return bound == null || !(bound.isNaN() || bound.isInfinite());
+    }
+
+    private static double lowerBoundOf(PayloadRangePojo range) {
+        // the same zero for the TreeMap
+        return range.getFrom() == null ? Double.NEGATIVE_INFINITY : range.getFrom() + 0.0;
+    }
+
+    private static double upperBoundOf(PayloadRangePojo range) {
+        return range.getBelow() == null ? Double.POSITIVE_INFINITY : range.getBelow();
     }
 
-    private static boolean triggerNamesAreEqual(TriggerPojo lhs, TriggerPojo rhs) {
-        return lhs.getName().equals(rhs.getName());
+    private static String rangeToString(PayloadRangePojo range) {
+        if (range == null) {
+            return null;
+        }
+        return "[" + (range.getFrom() == null ? "" : range.getFrom()) + ", "
+                + (range.getBelow() == null ? "" : range.getBelow()) + ")";
     }
 
-    private static boolean triggerContentsAreEqual(TriggerPojo lhs, TriggerPojo rhs) {
-        return lhs.getEventSourceId().equals(rhs.getEventSourceId()) &&
-                lhs.getEventPayload().equals(rhs.getEventPayload());
+    private static String payloadOf(TriggerPojo trigger) {
+        if (trigger.getEventPayload() != null) {
+            return trigger.getEventPayload();
+        }
+        return trigger.getEventPayloadPattern() != null ?
+                trigger.getEventPayloadPattern() : rangeToString(trigger.getEventPayloadRange());
+    }
+
+    // patterns matching exactly the same payloads are ambiguous, too
+    private static boolean areAmbiguous(PayloadPattern first, PayloadPattern second) {
+        return first.overlaps(second) && first.includes(second) == second.includes(first);
+    }
+
+    private static Object triggerContentOf(TriggerPojo trigger) {
+        return Arrays.asList(trigger.getEventSourceId(), trigger.getEventPayload(),
+                trigger.getEventPayloadPattern(), trigger.getEventPayloadRange());
+    }
+
+    /**
+     * Same check (and message) as {@code allEntriesAreUnique} of the validator library; but instead
+     * of comparing all pairs of entries the keys are collected in a hash map. Like the library this
+     * reports the first entry which has a duplicate together with the first of its duplicates.
+     */
+    private static <E> void expectUniqueEntries(List<E> entries, String listName, String entryName,
+                                                Function<E, Object> keyOf, Function<E, String> stringer)
+            throws ValidationException {
+        final Map<Object, Integer> firstIndices = new HashMap<>();
+        int first = -1;
+        int duplicate = -1;
+        for (int index = 0; index < entries.size(); ++index) {
+            final Integer previous = firstIndices.putIfAbsent(keyOf.apply(entries.get(index)), index);
+            if (previous != null && (first < 0 || previous < first)) {
+                first = previous;
+                duplicate = index;
+            }
+        }
+        if (first >= 0) {
+            throw new ValidationException("Expected '" + listName + "[" + first + "]." + entryName + "' (value: '"
+                    + stringer.apply(entries.get(first)) + "') is unique (same as " + listName + "[" + duplicate + "])");
+        }
     }
 
     private void validateStates() throws ValidationException {
@@ -74,34 +218,78 @@ class StateMachinePojoValidator {
 
                     // For validating the transitions we need to have a list of all known state names
                     knownStateNames.add(state.getName());
-                })
-                .allEntriesAreUnique(StateMachinePojoValidator::stateNamesAreEqual,
-                        "name", StatePojo::getName);
+                    if (state.getParent() != null) {
+                        parentNames.put(state.getName(), state.getParent());
+                        compositeStateNames.add(state.getParent());
+                    }
+                    if (state.getInitialSubstate() != null) {
+                        statesWithInitialSubstate.add(state.getName());
+                    }
+                });
+        expectUniqueEntries(allStates, "states", "name", StatePojo::getName, StatePojo::getName);
+        findParentCycles();
 
         // the validation step above compiles a list of known states. When validating the transitions we need to have
         // a complete list of known states that's why we need a separate loop over all the states
-        Validator.expect(allStates, "states").notNull().notEmpty().eachCustomEntry(
+        final int[] stateIndex = {0};
+        Validator.expect(allStates, "states").eachCustomEntry(
                 state -> {
+                    validateHierarchy(state);
                     Validator.expect(state.getTransitions(), "transitions")
                             .ifNotNull()
-                            .eachCustomEntry(this::validateTransition)
-                            .allEntriesAreUnique(StateMachinePojoValidator::transitionTriggerNamesAreEqual,
-                                    "triggerName", TransitionPojo::getTriggerName);
+                            .eachCustomEntry(this::validateTransition);
+                    if (state.getTransitions() != null) {
+                        expectUniqueEntries(state.getTransitions(), "states[" + stateIndex[0] + "].transitions",
+                                "triggerName", TransitionPojo::getTriggerName, TransitionPojo::getTriggerName);
+                    }
+                    ++stateIndex[0];
                 });
     }
 
-    private static boolean stateNamesAreEqual(StatePojo lhs, StatePojo rhs) {
-        return lhs.getName().equals(rhs.getName());
+    private void validateHierarchy(StatePojo state) throws ValidationException {
+        Validator.expect(state.getParent(), "parent").ifNotNull()
+                .notBlank().passes(knownStateNames::contains, "is contained in states")
+                .passes(parent -> !nestedIntoThemselves.contains(state.getName()),
+                        "is not nested into the state itself");
+        Validator.expect(state.getInitialSubstate(), "initialSubstate").ifNotNull()
+                .notBlank().passes(knownStateNames::contains, "is contained in states")
+                .passes(substate -> state.getName().equals(parentNames.get(substate)), "is a child of the state")
+                .passes(this::canBeEntered, "is a leaf state or has an initialSubstate");
+    }
+
+    private void findParentCycles() {
+        // Every state has a single parent; so a walk up the hierarchy ends at a root, at a state seen by
+        // an earlier walk or at a state seen by the same walk. Only the latter closes a cycle. Each
+        // state is visited by a single walk which makes this linear.
+        final Map<String, Integer> walkOfState = new HashMap<>();
+        int walk = 0;
+        for (String start : parentNames.keySet()) {
+            ++walk;
+            String current = start;
+            while (current != null && !walkOfState.containsKey(current)) {
+                walkOfState.put(current, walk);
+                current = parentNames.get(current);
+            }
+            if (current != null && walkOfState.get(current) == walk) {
+                String member = current;
+                do {
+                    nestedIntoThemselves.add(member);
+                    member = parentNames.get(member);
+                } while (!member.equals(current));
+            }
+        }
     }
 
-    private static boolean transitionTriggerNamesAreEqual(TransitionPojo lhs, TransitionPojo rhs) {
-        return lhs.getTriggerName().equals(rhs.getTriggerName());
+    // entering a composite state means entering its initial substate as well
+    private boolean canBeEntered(String stateName) {
+        return !compositeStateNames.contains(stateName) || statesWithInitialSubstate.contains(stateName);
     }
 
     private void validateInitialState() throws ValidationException {
         Validator.expect(stateMachinePojo.getInitialState(), "initialState")
                 .notNull().notBlank()
-                .passes(knownStateNames::contains, "is contained in states");
+                .passes(knownStateNames::contains, "is contained in states")
+                .passes(this::canBeEntered, "is a leaf state or has an initialSubstate");
     }
 
     private void validateFinalStates() throws ValidationException {
@@ -122,7 +310,8 @@ class StateMachinePojoValidator {
                 .notNull();
         Validator.expect(transition.getTargetState(), "targetState").ifNotGivenOrFalse(transition.getIgnore())
                 // no extraInfo if the name is malformed
-                .notNull().notBlank().passes(knownStateNames::contains, "is contained in states");
+                .notNull().notBlank().passes(knownStateNames::contains, "is contained in states")
+                .passes(this::canBeEntered, "is a leaf state or has an initialSubstate");
         Validator.expect(transition.getEffects(), "effects").ifNotGivenOrFalse(transition.getIgnore())
                 .ifNotNull().eachCustomEntry(this::expectBehaviorIsComplete);
         Validator.expect(transition.getIgnore(), "ignore")
@@ -0,0 +1,47 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import lombok.Getter;
+
+/**
+ * The {@link StateSnapshot}s of all states of a definition.
+ * <p>
+ * Snapshots are immutable so they are created once per state and shared by all instances; taking
+ * a snapshot never allocates.
+ */
+class StateSnapshotTable {
+    @Getter
+    private final Fingerprint fingerprint;
+    private final StateSnapshot[] snapshots;
+
+    StateSnapshotTable(Fingerprint fingerprint, int stateCount) {
+        this.fingerprint = fingerprint;
+        this.snapshots = new StateSnapshot[stateCount];
+        for (int ordinal = 0; ordinal < stateCount; ++ordinal) {
+            snapshots[ordinal] = new StateSnapshot(fingerprint, ordinal);
+        }
+    }
+
+    StateSnapshot get(int stateOrdinal) {
+        return snapshots[stateOrdinal];
+    }
+
+    /**
+     * Checks whether the snapshot belongs to this definition.
+     *
+     * @param snapshot the snapshot to restore
+     * @return the ordinal of the snapshot's state
+     * @throws IllegalArgumentException if the snapshot was taken from a different state machine
+     */
+    int ordinalOf(StateSnapshot snapshot) {
+        if (!fingerprint.equals(snapshot.getFingerprint())) {
+            throw new IllegalArgumentException("Snapshot was taken from a different state machine");
+        }
+        final int ordinal = snapshot.getStateOrdinal();
+        if (ordinal < 0 || ordinal >= snapshots.length) {
+            throw new IllegalArgumentException("Snapshot contains unknown state " + ordinal);
+        }
+        return ordinal;
+    }
+}
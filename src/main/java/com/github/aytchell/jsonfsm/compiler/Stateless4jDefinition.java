@@ -0,0 +1,140 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.InstanceStore;
+import com.github.aytchell.jsonfsm.RuntimeOptions;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import com.github.aytchell.jsonfsm.UnhandledTriggerPolicy;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+import com.github.oxo42.stateless4j.StateMachineConfig;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Definition executed by the {@link com.github.aytchell.jsonfsm.ExecutionEngine#STATELESS4J} engine.
+ * <p>
+ * The stateless4j configuration is only read after compilation so it can be shared by all instances.
+ */
+class Stateless4jDefinition implements StateMachineDefinition {
+    @Getter
+    private final StateMachineConfig<String, String> config;
+    @Getter
+    private final String initialState;
+    private final String[] stateNames;
+    private final Map<String, Integer> stateOrdinals;
+    @Getter
+    private final Set<String> finalStates;
+    @Getter
+    private final EventTranslator mapping;
+    private final String[] triggerNames;
+    // per state and trigger ordinal: the outcome of fire() (states without transitions are missing)
+    private final Map<String, int[]> triggerOutcomes;
+    @Getter
+    private final UnhandledTriggerPolicy unhandledTriggerPolicy;
+    @Getter
+    private final UnknownEventPolicy unknownEventPolicy;
+    @Getter
+    private final StateSnapshotTable snapshots;
+    @Getter
+    private final Set<Integer> controlledDeviceIds;
+    @Getter
+    private final Set<Integer> handledEventSourceIds;
+
+    Stateless4jDefinition(StateMachineConfig<String, String> config, String initialState, String[] stateNames,
+                          Set<String> finalStates, EventTranslator mapping, String[] triggerNames,
+                          Map<String, int[]> triggerOutcomes, UnhandledTriggerPolicy unhandledTriggerPolicy,
+                          UnknownEventPolicy unknownEventPolicy, Fingerprint fingerprint,
+                          Set<Integer> controlledDeviceIds, Set<Integer> handledEventSourceIds) {
+        this.config = config;
+        this.initialState = initialState;
+        this.stateNames = stateNames;
+        this.stateOrdinals = new HashMap<>();
+        for (int ordinal = 0; ordinal < stateNames.length; ++ordinal) {
+            stateOrdinals.put(stateNames[ordinal], ordinal);
+        }
+        this.finalStates = finalStates;
+        this.mapping = mapping;
+        this.triggerNames = triggerNames;
+        this.triggerOutcomes = triggerOutcomes;
+        this.unhandledTriggerPolicy = unhandledTriggerPolicy;
+        this.unknownEventPolicy = unknownEventPolicy;
+        this.snapshots = new StateSnapshotTable(fingerprint, stateNames.length);
+        this.controlledDeviceIds = controlledDeviceIds;
+        this.handledEventSourceIds = handledEventSourceIds;
+    }
+
+    @Override
+    public int resolveTrigger(int eventSourceId, String eventPayload) {
+        return mapping.getTrigger(eventSourceId, eventPayload);
+    }
+
+    @Override
+    public StateMachineImpl newInstance() {
+        return new StateMachineImpl(this);
+    }
+
+    @Override
+    public StateMachine newInstance(long instanceId) {
+        throw new IllegalStateException("Event journals require the TABLE engine");
+    }
+
+    @Override
+    public StateMachine newConcurrentInstance() {
+        return new MailboxStateMachine(newInstance());
+    }
+
+    @Override
+    public StateMachine newConcurrentInstance(long instanceId) {
+        return newInstance(instanceId);
+    }
+
+    @Override
+    public StateMachineRuntime newRuntime(RuntimeOptions options) {
+        return new PartitionedRuntime(key -> newInstance(), initialState, null, mapping, null, unknownEventPolicy,
+                options);
+    }
+
+    @Override
+    public InstanceStore newInstanceStore(int capacity) {
+        throw new IllegalStateException("Instance stores require the TABLE engine");
+    }
+
+    @Override
+    public InstanceStore openInstanceStore(Path file, int capacity) {
+        throw new IllegalStateException("Instance stores require the TABLE engine");
+    }
+
+    @Override
+    public Fingerprint getFingerprint() {
+        return snapshots.getFingerprint();
+    }
+
+    String getStateName(int ordinal) {
+        return stateNames[ordinal];
+    }
+
+    int getStateOrdinal(String state) {
+        return stateOrdinals.get(state);
+    }
+
+    String getTriggerName(int trigger) {
+        return triggerNames[trigger];
+    }
+
+    /**
+     * Returns what happens if the given trigger arrives in the given state.
+     *
+     * @return one of {@link AbstractStateMachine#ACCEPTED}, {@link AbstractStateMachine#IGNORED} or
+     * {@link AbstractStateMachine#UNHANDLED}
+     */
+    int getOutcome(String state, int trigger) {
+        final int[] outcomes = triggerOutcomes.get(state);
+        return outcomes == null ? AbstractStateMachine.UNHANDLED : outcomes[trigger];
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.InstanceStore;
+import com.github.aytchell.jsonfsm.MetricsListener;
+import com.github.aytchell.jsonfsm.RuntimeOptions;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import com.github.aytchell.jsonfsm.UnhandledTriggerPolicy;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Definition executed by the {@link com.github.aytchell.jsonfsm.ExecutionEngine#TABLE} engine.
+ * <p>
+ * All fields are set during compilation and never changed afterwards. The instances only
+ * store the ordinal of their current state.
+ */
+class TableDefinition implements StateMachineDefinition {
+    @Getter
+    private final TransitionTable table;
+    @Getter
+    private final EventTranslator mapping;
+    @Getter
+    private final Set<Integer> controlledDeviceIds;
+    @Getter
+    private final Set<Integer> handledEventSourceIds;
+    // 'null' if the behaviors are executed synchronously
+    @Getter
+    private final AsyncDispatcher asyncDispatcher;
+    // 'null' if no metrics are collected; then the instances don't even take timestamps
+    @Getter
+    private final MetricsListener metricsListener;
+    @Getter
+    private final UnhandledTriggerPolicy unhandledTriggerPolicy;
+    @Getter
+    private final UnknownEventPolicy unknownEventPolicy;
+    @Getter
+    private final StateSnapshotTable snapshots;
+    // 'null' if no events are recorded
+    @Getter
+    private final EventJournalImpl journal;
+
+    TableDefinition(TransitionTable table, EventTranslator mapping, AsyncDispatcher asyncDispatcher,
+                    MetricsListener metricsListener, UnhandledTriggerPolicy unhandledTriggerPolicy,
+                    UnknownEventPolicy unknownEventPolicy, Fingerprint fingerprint, EventJournalImpl journal,
+                    Set<Integer> controlledDeviceIds, Set<Integer> handledEventSourceIds) {
+        this.table = table;
+        this.mapping = mapping;
+        this.asyncDispatcher = asyncDispatcher;
+        this.metricsListener = metricsListener;
+        this.unhandledTriggerPolicy = unhandledTriggerPolicy;
+        this.unknownEventPolicy = unknownEventPolicy;
+        this.snapshots = new StateSnapshotTable(fingerprint, table.getStateCount());
+        this.journal = journal;
+        this.controlledDeviceIds = controlledDeviceIds;
+        this.handledEventSourceIds = handledEventSourceIds;
+    }
+
+    @Override
+    public InstanceStore newInstanceStore(int capacity) {
+        return TableInstanceStore.allocate(this, capacity);
+    }
+
+    @Override
+    public InstanceStore openInstanceStore(Path file, int capacity) throws IOException {
+        return TableInstanceStore.open(this, file, capacity);
+    }
+
+    @Override
+    public Fingerprint getFingerprint() {
+        return snapshots.getFingerprint();
+    }
+
+    @Override
+    public int resolveTrigger(int eventSourceId, String eventPayload) {
+        return mapping.getTrigger(eventSourceId, eventPayload);
+    }
+
+    @Override
+    public TableStateMachineImpl newInstance() {
+        if (journal != null) {
+            // its events would silently be missing in the journal
+            throw new IllegalStateException("Instances of a definition with an event journal need an ID");
+        }
+        if (metricsListener == null) {
+            return new TableStateMachineImpl(this, null, 0);
+        }
+        return new MeteredTableStateMachineImpl(this, null, 0);
+    }
+
+    @Override
+    public TableStateMachineImpl newInstance(long instanceId) {
+        if (journal == null) {
+            throw new IllegalStateException("No event journal was given when compiling the definition");
+        }
+        if (metricsListener == null) {
+            return new TableStateMachineImpl(this, journal, instanceId);
+        }
+        return new MeteredTableStateMachineImpl(this, journal, instanceId);
+    }
+
+    @Override
+    public StateMachine newConcurrentInstance() {
+        return new MailboxStateMachine(newInstance());
+    }
+
+    @Override
+    public StateMachine newConcurrentInstance(long instanceId) {
+        return new MailboxStateMachine(newInstance(instanceId));
+    }
+
+    @Override
+    public StateMachineRuntime newRuntime(RuntimeOptions options) {
+        // the keys of the instances are their IDs within the journal
+        return new PartitionedRuntime(key -> journal == null ? newInstance() : newInstance(key),
+                table.getStateName(table.getInitialState()), getFingerprint(), mapping, metricsListener,
+                unknownEventPolicy, options);
+    }
+}
@@ -0,0 +1,266 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.InstanceStore;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import com.github.aytchell.jsonfsm.compiler.EventTranslator.PayloadKind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * {@link InstanceStore} of the {@link com.github.aytchell.jsonfsm.ExecutionEngine#TABLE} engine.
+ * <p>
+ * The buffer starts with a header (magic, version, width of the ordinals, capacity and the
+ * fingerprint of the state machine) followed by the ordinals of all slots. The header makes sure
+ * that a file is only opened again by a definition of the same state machine: the transition
+ * table was built from the validated states and triggers so each stored ordinal denotes the
+ * same state.
+ * <p>
+ * Transitions are not reported to a {@link com.github.aytchell.jsonfsm.MetricsListener} since
+ * the store doesn't track how long an instance dwelt in a state.
+ */
+class TableInstanceStore implements InstanceStore {
+    private static final int MAGIC = 0x4a53544f; // "JSTO"
+    private static final byte VERSION = 1;
+    private static final int FINGERPRINT_BYTES = 32;
+    // magic, version, width, two bytes padding, capacity, fingerprint; rounded up to 64 bytes
+    private static final int HEADER_BYTES = 64;
+
+    private final TableDefinition definition;
+    private final TransitionTable table;
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int width;
+
+    private TableInstanceStore(TableDefinition definition, ByteBuffer buffer, int capacity, int width) {
+        this.definition = definition;
+        this.table = definition.getTable();
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.width = width;
+    }
+
+    static TableInstanceStore allocate(TableDefinition definition, int capacity) {
+        final int width = widthOf(definition);
+        final TableInstanceStore store = new TableInstanceStore(definition,
+                ByteBuffer.allocateDirect(sizeOf(capacity, width)), capacity, width);
+        store.initialize();
+        return store;
+    }
+
+    static TableInstanceStore open(TableDefinition definition, Path file, int capacity) throws IOException {
+        final int width = widthOf(definition);
+        final int size = sizeOf(capacity, width);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final long existing = channel.size();
+            if (existing != 0 && existing != size) {
+                throw new IllegalArgumentException("Instance store '" + file + "' has " + existing
+                        + " bytes but a capacity of " + capacity + " requires " + size + " bytes");
+            }
+
+            // the mapping stays valid after the channel has been closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            final TableInstanceStore store = new TableInstanceStore(definition, buffer, capacity, width);
+            if (existing == 0) {
+                store.initialize();
+            } else {
+                store.checkHeader(file);
+            }
+            return store;
+        }
+    }
+
+    private static int widthOf(TableDefinition definition) {
+        final int stateCount = definition.getTable().getStateCount();
+        if (stateCount <= 0x100) {
+            return Byte.BYTES;
+        }
+        return stateCount <= 0x10000 ? Short.BYTES : Integer.BYTES;
+    }
+
+    private static int sizeOf(int capacity, int width) {
+        if (capacity < 0 || capacity > (Integer.MAX_VALUE - HEADER_BYTES) / width) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        return HEADER_BYTES + capacity * width;
+    }
+
+    private void initialize() {
+        buffer.putInt(0, MAGIC);
+        buffer.put(4, VERSION);
+        buffer.put(5, (byte) width);
+        buffer.putInt(8, capacity);
+        final byte[] fingerprint = definition.getFingerprint().getBytes();
+        for (int i = 0; i < FINGERPRINT_BYTES; ++i) {
+            buffer.put(12 + i, fingerprint[i]);
+        }
+
+        final int initialState = table.getInitialState();
+        for (int slot = 0; slot < capacity; ++slot) {
+            write(slot, initialState);
+        }
+        flush();
+    }
+
+    private void checkHeader(Path file) {
+        final byte[] fingerprint = new byte[FINGERPRINT_BYTES];
+        for (int i = 0; i < FINGERPRINT_BYTES; ++i) {
+            fingerprint[i] = buffer.get(12 + i);
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION || buffer.get(5) != width) {
+            throw new IllegalArgumentException("File '" + file + "' is no instance store of this state machine");
+        }
+        if (buffer.getInt(8) != capacity) {
+            throw new IllegalArgumentException("Instance store '" + file + "' has a capacity of "
+                    + buffer.getInt(8) + " instead of " + capacity);
+        }
+        if (!Arrays.equals(fingerprint, definition.getFingerprint().getBytes())) {
+            throw new IllegalArgumentException("Instance store '" + file + "' belongs to a different state machine");
+        }
+        for (int slot = 0; slot < capacity; ++slot) {
+            final int state = read(slot);
+            if (state < 0 || state >= table.getStateCount()) {
+                throw new IllegalArgumentException("Instance store '" + file + "' contains unknown state "
+                        + state + " in slot " + slot);
+            }
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean injectEvent(int slot, int eventSourceId, String eventPayload) {
+        checkSlot(slot);
+        final int trigger = definition.getMapping().getTrigger(eventSourceId, eventPayload);
+        if (trigger != EventTranslator.UNKNOWN_TRIGGER) {
+            fire(slot, trigger);
+        } else {
+            AbstractStateMachine.rejectUnknown(definition.getUnknownEventPolicy(), definition.getMapping(),
+                    eventSourceId, PayloadKind.STRING, eventPayload, 0, eventPayload.length());
+        }
+        return table.isFinal(read(slot));
+    }
+
+    @Override
+    public boolean injectTrigger(int slot, int triggerHandle) {
+        checkSlot(slot);
+        if (triggerHandle < 0 || triggerHandle >= table.getTriggerCount()) {
+            throw new IllegalArgumentException("Unknown trigger handle " + triggerHandle);
+        }
+        fire(slot, triggerHandle);
+        return table.isFinal(read(slot));
+    }
+
+    private void fire(int slot, int trigger) {
+        final int state = read(slot);
+        final int cell = table.cellOf(state, trigger);
+        final int target = table.getTarget(cell);
+        if (target >= 0) {
+            final EventJournalImpl journal = definition.getJournal();
+            if (journal != null) {
+                journal.append(slot, trigger);
+            }
+            final AsyncDispatcher dispatcher = definition.getAsyncDispatcher();
+            if (dispatcher != null) {
+                write(slot, target);
+                dispatcher.dispatch(cell);
+                return;
+            }
+
+            TableStateMachineImpl.execute(table.getLeavingCommands(cell));
+            write(slot, target);
+            TableStateMachineImpl.execute(table.getEnteringCommands(cell));
+        } else if (target == TransitionTable.NO_TRANSITION) {
+            PolicyAccess.reportUnhandled(definition.getUnhandledTriggerPolicy(), table.getStateName(state),
+                    table.getTriggerName(trigger));
+        }
+    }
+
+    /**
+     * Applies a trigger recorded by an {@link EventJournalImpl}: only the state is changed.
+     */
+    void replay(int slot, int trigger) {
+        final int target = table.getTarget(table.cellOf(read(slot), trigger));
+        if (target >= 0) {
+            write(slot, target);
+        }
+    }
+
+    Fingerprint getFingerprint() {
+        return definition.getFingerprint();
+    }
+
+    @Override
+    public String getCurrentState(int slot) {
+        checkSlot(slot);
+        return table.getStateName(read(slot));
+    }
+
+    @Override
+    public boolean isCurrentStateFinal(int slot) {
+        checkSlot(slot);
+        return table.isFinal(read(slot));
+    }
+
+    @Override
+    public StateSnapshot snapshot(int slot) {
+        checkSlot(slot);
+        return definition.getSnapshots().get(read(slot));
+    }
+
+    @Override
+    public void restore(int slot, StateSnapshot snapshot) {
+        checkSlot(slot);
+        write(slot, definition.getSnapshots().ordinalOf(snapshot));
+    }
+
+    @Override
+    public void reset(int slot) {
+        checkSlot(slot);
+        write(slot, table.getInitialState());
+    }
+
+    @Override
+    public void flush() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= capacity) {
+            throw new IndexOutOfBoundsException("Invalid slot " + slot + " (capacity is " + capacity + ")");
+        }
+    }
+
+    private int read(int slot) {
+        final int index = HEADER_BYTES + slot * width;
+        if (width == Byte.BYTES) {
+            return buffer.get(index) & 0xff;
+        } else if (width == Short.BYTES) {
+            return buffer.getShort(index) & 0xffff;
+        }
+        return buffer.getInt(index);
+    }
+
+    private void write(int slot, int state) {
+        final int index = HEADER_BYTES + slot * width;
+        if (width == Byte.BYTES) {
+            buffer.put(index, (byte) state);
+        } else if (width == Short.BYTES) {
+            buffer.putShort(index, (short) state);
+        } else {
+            buffer.putInt(index, state);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.DeviceCommand;
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+class TableStateMachineImpl extends AbstractStateMachine {
+    // everything except the current state is shared with the other instances of the definition
+    private final TableDefinition definition;
+    // 'null' if the accepted events aren't recorded
+    private final EventJournalImpl journal;
+    private final long instanceId;
+
+    private int state;
+    private CompletableFuture<Void> behaviorCompletion = AsyncDispatcher.COMPLETED;
+
+    TableStateMachineImpl(TableDefinition definition, EventJournalImpl journal, long instanceId) {
+        this.definition = definition;
+        this.journal = journal;
+        this.instanceId = instanceId;
+        this.state = definition.getTable().getInitialState();
+    }
+
+    @Override
+    EventTranslator getMapping() {
+        return definition.getMapping();
+    }
+
+    @Override
+    UnknownEventPolicy getUnknownEventPolicy() {
+        return definition.getUnknownEventPolicy();
+    }
+
+    @Override
+    StateSnapshotTable getSnapshots() {
+        return definition.getSnapshots();
+    }
+
+    @Override
+    int fire(int trigger) {
+        final TransitionTable table = definition.getTable();
+        final int cell = table.cellOf(state, trigger);
+        final int target = table.getTarget(cell);
+        if (target >= 0) {
+            if (journal != null) {
+                journal.append(instanceId, trigger);
+            }
+            final AsyncDispatcher dispatcher = definition.getAsyncDispatcher();
+            if (dispatcher != null) {
+                state = target;
+                behaviorCompletion = dispatcher.dispatch(cell);
+                return ACCEPTED;
+            }
+
+            execute(table.getLeavingCommands(cell));
+            state = target;
+            execute(table.getEnteringCommands(cell));
+            return ACCEPTED;
+        } else if (target == TransitionTable.IGNORED) {
+            return IGNORED;
+        }
+
+        PolicyAccess.reportUnhandled(definition.getUnhandledTriggerPolicy(), table.getStateName(state),
+                table.getTriggerName(trigger));
+        return UNHANDLED;
+    }
+
+    @Override
+    void replay(int trigger) {
+        final TransitionTable table = definition.getTable();
+        final int target = table.getTarget(table.cellOf(state, trigger));
+        if (target >= 0) {
+            state = target;
+        }
+    }
+
+    @Override
+    Fingerprint getReplayFingerprint() {
+        return definition.getFingerprint();
+    }
+
+    static void execute(DeviceCommand[] commands) {
+        for (DeviceCommand command : commands) {
+            command.execute();
+        }
+    }
+
+    @Override
+    public Set<Integer> getControlledDeviceIds() {
+        return definition.getControlledDeviceIds();
+    }
+
+    @Override
+    public Set<Integer> getHandledEventSourceIds() {
+        return definition.getHandledEventSourceIds();
+    }
+
+    @Override
+    public String getCurrentState() {
+        return definition.getTable().getStateName(state);
+    }
+
+    @Override
+    public boolean isCurrentStateFinal() {
+        return definition.getTable().isFinal(state);
+    }
+
+    @Override
+    public StateSnapshot snapshot() {
+        return definition.getSnapshots().get(state);
+    }
+
+    @Override
+    public void restore(StateSnapshot snapshot) {
+        state = definition.getSnapshots().ordinalOf(snapshot);
+    }
+
+    @Override
+    public CompletableFuture<Void> getBehaviorCompletion() {
+        return behaviorCompletion;
+    }
+}
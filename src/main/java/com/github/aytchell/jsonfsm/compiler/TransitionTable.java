@@ -0,0 +1,106 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.DeviceCommand;
+
+/**
+ * Dense transition table used by the {@link com.github.aytchell.jsonfsm.ExecutionEngine#TABLE} engine.
+ * <p>
+ * States and triggers are identified by their ordinals (their position within the json lists).
+ * The transition for a given state and trigger is found at index
+ * {@code state * triggerCount + trigger} ("cell").
+ */
+class TransitionTable {
+    static final int NO_TRANSITION = -1;
+    static final int IGNORED = -2;
+
+    static final DeviceCommand[] NO_COMMANDS = new DeviceCommand[0];
+
+    /**
+     * The maximum number of cells (states times triggers) of a table.
+     * <p>
+     * Each cell costs about 12 bytes (more with behaviors); so this keeps a table below a few hundred MB.
+     */
+    static final int MAX_CELLS = 1 << 24;
+
+    private final String[] stateNames;
+    private final String[] triggerNames;
+    private final boolean[] finalStates;
+    private final int initialState;
+
+    // per cell: the target state or NO_TRANSITION or IGNORED
+    private final int[] targets;
+    // per cell: onExit behaviors of all exited states (innermost first) followed by the transition's effects
+    private final DeviceCommand[][] leavingCommands;
+    // per cell: onEntry behaviors of all entered states (outermost first)
+    private final DeviceCommand[][] enteringCommands;
+
+    TransitionTable(String[] stateNames, String[] triggerNames, boolean[] finalStates, int initialState,
+                    int[] targets, DeviceCommand[][] leavingCommands, DeviceCommand[][] enteringCommands) {
+        this.stateNames = stateNames;
+        this.triggerNames = triggerNames;
+        this.finalStates = finalStates;
+        this.initialState = initialState;
+        this.targets = targets;
+        this.leavingCommands = leavingCommands;
+        this.enteringCommands = enteringCommands;
+    }
+
+    /**
+     * Computes the number of cells of a table with the given dimensions.
+     *
+     * @throws IllegalArgumentException if the table would have more than {@link #MAX_CELLS} cells
+     */
+    static int cellCount(int stateCount, int triggerCount) {
+        try {
+            final int cells = Math.multiplyExact(stateCount, triggerCount);
+            if (cells <= MAX_CELLS) {
+                return cells;
+            }
+        } catch (ArithmeticException e) {
+            // even further beyond the limit
+        }
+        throw new IllegalArgumentException("The TABLE engine supports at most " + MAX_CELLS
+                + " combinations of states and triggers but the state machine has " + stateCount + " states and "
+                + triggerCount + " triggers; use the STATELESS4J engine instead");
+    }
+
+    int getInitialState() {
+        return initialState;
+    }
+
+    int getStateCount() {
+        return stateNames.length;
+    }
+
+    int getTriggerCount() {
+        return triggerNames.length;
+    }
+
+    String getStateName(int state) {
+        return stateNames[state];
+    }
+
+    String getTriggerName(int trigger) {
+        return triggerNames[trigger];
+    }
+
+    boolean isFinal(int state) {
+        return finalStates[state];
+    }
+
+    int cellOf(int state, int trigger) {
+        return state * triggerNames.length + trigger;
+    }
+
+    int getTarget(int cell) {
+        return targets[cell];
+    }
+
+    DeviceCommand[] getLeavingCommands(int cell) {
+        return leavingCommands[cell];
+    }
+
+    DeviceCommand[] getEnteringCommands(int cell) {
+        return enteringCommands[cell];
+    }
+}
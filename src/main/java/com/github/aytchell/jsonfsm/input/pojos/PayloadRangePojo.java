@@ -0,0 +1,11 @@
+package com.github.aytchell.jsonfsm.input.pojos;
+
+import lombok.Data;
+
+@Data
+public class PayloadRangePojo {
+    // inclusive; 'null' if there is no lower bound
+    private Double from;
+    // exclusive; 'null' if there is no upper bound
+    private Double below;
+}
@@ -10,4 +10,6 @@ public class StatePojo {
     private List<BehaviorPojo> onEntry;
     private List<BehaviorPojo> onExit;
     private List<TransitionPojo> transitions;
+    private String parent;
+    private String initialSubstate;
 }
@@ -7,4 +7,6 @@ public class TriggerPojo {
     private String name;
     private Integer eventSourceId;
     private String eventPayload;
+    private String eventPayloadPattern;
+    private PayloadRangePojo eventPayloadRange;
 }
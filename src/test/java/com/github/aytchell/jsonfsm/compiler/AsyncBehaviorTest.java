@@ -0,0 +1,130 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncBehaviorTest {
+    @Test
+    void transitionCompletesBeforeItsBehaviors() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(
+                readResourceTextFile("multiple_devices_and_cmds.json"));
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        final Map<Integer, DeviceCommandCompiler> compilers = new HashMap<>();
+        compiler.getRequiredDevices().forEach(id -> compilers.put(id, cmd -> () -> {
+            if (id == 1) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            executed.add(cmd);
+        }));
+
+        final StateMachine machine = compiler.compileStateMachine(compilers,
+                CompileOptions.builder().asyncBehaviors(true).build());
+        assertTrue(machine.getBehaviorCompletion().isDone());
+
+        assertFalse(machine.injectEvent(1, "move ya"));
+        assertEquals("Stop", machine.getCurrentState());
+        final CompletableFuture<Void> completion = machine.getBehaviorCompletion();
+        assertFalse(completion.isDone());
+
+        release.countDown();
+        completion.get(10, TimeUnit.SECONDS);
+        assertEquals(4, executed.size());
+        assertTrue(executed.containsAll(List.of("Cmd1 ", "Cmd2 ", "Cmd3 ", "Cmd4 ")));
+    }
+
+    @Test
+    void behaviorsOfTheSameDeviceKeepTheirOrder() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(
+                readResourceTextFile("self_transition_effect.json"));
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger counter = new AtomicInteger();
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        final Map<Integer, DeviceCommandCompiler> compilers = Map.of(10, cmd -> () -> {
+            if (active.incrementAndGet() != 1) {
+                overlaps.incrementAndGet();
+            }
+            executed.add(counter.getAndIncrement());
+            active.decrementAndGet();
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final StateMachine machine = compiler.compileStateMachine(compilers,
+                    CompileOptions.builder().asyncBehaviors(true).behaviorExecutor(executor).build());
+            for (int i = 0; i < 1_000; ++i) {
+                machine.injectEvent(1, "move ya");
+            }
+            machine.getBehaviorCompletion().get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(1_000, executed.size());
+        for (int i = 0; i < executed.size(); ++i) {
+            assertEquals(i, executed.get(i));
+        }
+    }
+
+    @Test
+    void failingBehaviorsCompleteExceptionallyAndDontStopTheLane() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(
+                readResourceTextFile("self_transition_effect.json"));
+        final AtomicInteger counter = new AtomicInteger();
+        final Map<Integer, DeviceCommandCompiler> compilers = Map.of(10, cmd -> () -> {
+            if (counter.getAndIncrement() == 0) {
+                throw new AssertionError("failing on purpose");
+            }
+        });
+
+        final StateMachine machine = compiler.compileStateMachine(compilers,
+                CompileOptions.builder().asyncBehaviors(true).build());
+        machine.injectEvent(1, "move ya");
+        final CompletableFuture<Void> failed = machine.getBehaviorCompletion();
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertEquals("failing on purpose", e.getCause().getMessage());
+
+        machine.injectEvent(1, "move ya");
+        machine.getBehaviorCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(2, counter.get());
+    }
+
+    @Test
+    void asyncBehaviorsRequireTheTableEngine() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("final_states.json"));
+        assertThrows(IllegalArgumentException.class, () -> compiler.compileDefinition(Map.of(),
+                CompileOptions.builder().engine(ExecutionEngine.STATELESS4J).asyncBehaviors(true).build()));
+
+        final StateMachine machine = compiler.compileStateMachine(Map.of(),
+                CompileOptions.builder().engine(ExecutionEngine.STATELESS4J).build());
+        machine.injectEvent(1, "move ya");
+        assertTrue(machine.getBehaviorCompletion().isDone());
+    }
+}
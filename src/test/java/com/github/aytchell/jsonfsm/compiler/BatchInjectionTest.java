@@ -0,0 +1,86 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.EventBatch;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchInjectionTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void batchReportsFirstFinalIndexAndCounts(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StateMachine machine = compile("final_states.json", Map.of(), engine).newInstance();
+
+        final int[] sourceIds = {1, 1, 2, 1, 1};
+        final String[] payloads = {"move ya", "unknown", "move ya", "move ya", "move ya"};
+        final BatchResult result = machine.injectEvents(sourceIds, payloads, 0, sourceIds.length);
+
+        // One -> Two -> Three (final) -> One
+        assertEquals(3, result.getFirstFinalIndex());
+        assertTrue(result.isFinalStateReached());
+        assertEquals(3, result.getAcceptedCount());
+        assertEquals(0, result.getIgnoredCount());
+        assertEquals(0, result.getUnhandledCount());
+        assertEquals(2, result.getUnknownCount());
+        assertEquals("One", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void batchHonorsOffsetAndLength(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StateMachine machine = compile("final_states.json", Map.of(), engine).newInstance();
+
+        final int[] sourceIds = {1, 1, 1};
+        final String[] payloads = {"move ya", "move ya", "move ya"};
+        final BatchResult result = machine.injectEvents(sourceIds, payloads, 1, 1);
+
+        assertEquals(-1, result.getFirstFinalIndex());
+        assertFalse(result.isFinalStateReached());
+        assertEquals(1, result.getAcceptedCount());
+        assertEquals("Two", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void ignoredAndUnhandledEventsAreCounted(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StringBuffer buffer = new StringBuffer();
+        final Map<Integer, DeviceCommandCompiler> compilers = Map.of(10, cmd -> () -> buffer.append(cmd));
+
+        final StateMachine ignoring = compile("ignore_true.json", compilers, engine).newInstance();
+        final EventBatch batch = new EventBatch(1).add(1, "move ya").add(1, "move ya");
+        final BatchResult ignored = ignoring.injectEvents(batch);
+        assertEquals(0, ignored.getAcceptedCount());
+        assertEquals(2, ignored.getIgnoredCount());
+        assertEquals(0, ignored.getUnhandledCount());
+        assertEquals("Start", ignoring.getCurrentState());
+        assertEquals("", buffer.toString());
+
+        // the batch is reusable; 'Stop' has no transitions at all
+        final StateMachine unhandling = compile("simple_exit_enter.json", compilers, engine).newInstance();
+        batch.add(1, "move ya");
+        assertEquals(3, batch.size());
+        final BatchResult unhandled = unhandling.injectEvents(batch);
+        assertEquals(1, unhandled.getAcceptedCount());
+        assertEquals(0, unhandled.getIgnoredCount());
+        assertEquals(2, unhandled.getUnhandledCount());
+        assertEquals("Stop", unhandling.getCurrentState());
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(0, unhandling.injectEvents(batch).getUnhandledCount());
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchingDeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.DeviceCommand;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchingCompilerTest {
+    private final StringBuilder buffer = new StringBuilder();
+    private final List<List<String>> compiledBatches = new ArrayList<>();
+
+    @Test
+    void tableEngineBatchesBeforeAndAfterTheStateChange() throws Exception {
+        final List<String> statesSeen = new ArrayList<>();
+        final AtomicReference<StateMachine> machine = new AtomicReference<>();
+        machine.set(compile("effects_everywhere.json", Map.of(5, new RecordingBatchCompiler() {
+            @Override
+            public DeviceCommand compileBatch(List<String> commandStrings) {
+                final DeviceCommand batch = super.compileBatch(commandStrings);
+                return () -> {
+                    statesSeen.add(machine.get().getCurrentState());
+                    batch.execute();
+                };
+            }
+        }), ExecutionEngine.TABLE).newInstance());
+
+        machine.get().injectEvent(3, "move ya");
+        assertEquals(List.of(List.of("Exiting1", "Exiting2", "Moving1", "Moving2"), List.of("Entering1", "Entering2")),
+                compiledBatches);
+        assertEquals("[Exiting1Exiting2Moving1Moving2][Entering1Entering2]", buffer.toString());
+        // onEntry is executed in the target state
+        assertEquals(List.of("Start", "Stop"), statesSeen);
+        assertEquals("Stop", machine.get().getCurrentState());
+    }
+
+    @Test
+    void stateless4jEngineBatchesEachList() throws Exception {
+        final StateMachine machine = compile("effects_everywhere.json", Map.of(5, new RecordingBatchCompiler()),
+                ExecutionEngine.STATELESS4J).newInstance();
+
+        machine.injectEvent(3, "move ya");
+        assertEquals(3, compiledBatches.size());
+        assertEquals("[Exiting1Exiting2][Moving1Moving2][Entering1Entering2]", buffer.toString());
+    }
+
+    @Test
+    void batchesRunAtTheFirstCommandOfTheirDevice() throws Exception {
+        final DeviceCommandCompiler plain = cmd -> () -> buffer.append(cmd);
+        final StateMachine machine = compile("batching_mixed_devices.json",
+                Map.of(1, new RecordingBatchCompiler(), 2, plain, 3, plain), ExecutionEngine.TABLE).newInstance();
+
+        machine.injectEvent(1, "move ya");
+        assertEquals(List.of(List.of("a1 ", "a2 "), List.of("a3 ", "a4 ")), compiledBatches);
+        // a2 and a4 move ahead of the commands of other devices; b and c keep their order
+        assertEquals("[a1 a2 ]b1 b2 [a3 a4 ]c1 ", buffer.toString());
+    }
+
+    @Test
+    void failingBatchIsReported() throws Exception {
+        final BatchingDeviceCommandCompiler failing = new RecordingBatchCompiler() {
+            @Override
+            public DeviceCommand compileBatch(List<String> commandStrings) {
+                throw new IllegalArgumentException("batch too large");
+            }
+        };
+
+        final CompilationException e = assertThrows(CompilationException.class,
+                () -> compile("effects_everywhere.json", Map.of(5, failing), ExecutionEngine.TABLE));
+        assertEquals("batch too large", e.getMessage());
+        assertEquals(5, e.getDeviceId());
+        assertEquals("Exiting1; Exiting2; Moving1; Moving2", e.getCommandString());
+        assertEquals("transition (Start -> Stop; trigger: move)", e.getLocation());
+    }
+
+    private class RecordingBatchCompiler implements BatchingDeviceCommandCompiler {
+        @Override
+        public DeviceCommand compile(String commandString) {
+            return () -> buffer.append(commandString);
+        }
+
+        @Override
+        public DeviceCommand compileBatch(List<String> commandStrings) {
+            compiledBatches.add(commandStrings);
+            return () -> buffer.append('[').append(String.join("", commandStrings)).append(']');
+        }
+    }
+}
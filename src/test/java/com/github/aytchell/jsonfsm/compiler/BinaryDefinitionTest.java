@@ -0,0 +1,140 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.assertThrowsAndMessageReadsLike;
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryDefinitionTest {
+    private final StringBuilder buffer = new StringBuilder();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"effects_everywhere.json", "final_states.json", "ignore_true.json",
+            "multiple_devices_and_cmds.json", "self_transition_effect.json"})
+    void roundTripKeepsTheStateMachine(String resource) throws ValidationException, IOException {
+        final StateMachineCompiler expected = StateMachineParser.parse(readResourceTextFile(resource));
+        final StateMachineCompiler loaded = StateMachineParser.loadBinary(ByteBuffer.wrap(expected.toBinary()));
+
+        assertEquals(expected.getFingerprint(), loaded.getFingerprint());
+        assertEquals(expected.getRequiredDevices(), loaded.getRequiredDevices());
+        assertEquals(expected.getAcceptedEventSources(), loaded.getAcceptedEventSources());
+        assertArrayEquals(expected.toBinary(), loaded.toBinary());
+    }
+
+    @Test
+    void loadedStateMachineExecutesCommands(@TempDir Path directory) throws Exception {
+        final StateMachineCompiler parsed = StateMachineParser.parse(readResourceTextFile("effects_everywhere.json"));
+        final Path file = directory.resolve("machine.jsonfsm");
+        Files.write(file, parsed.toBinary());
+
+        final DeviceCommandCompiler recorder = cmd -> () -> buffer.append(cmd).append(' ');
+        final StateMachine machine = StateMachineParser.loadBinaryFile(file).compileStateMachine(Map.of(5, recorder));
+
+        assertEquals("Start", machine.getCurrentState());
+        machine.injectEvent(3, "move ya");
+        assertEquals("Stop", machine.getCurrentState());
+        assertEquals("Exiting1 Exiting2 Moving1 Moving2 Entering1 Entering2 ", buffer.toString());
+    }
+
+    @Test
+    void directBufferIsLeftUntouched() throws ValidationException, IOException {
+        final byte[] binary = StateMachineParser.parse(readResourceTextFile("final_states.json")).toBinary();
+        final ByteBuffer direct = ByteBuffer.allocateDirect(binary.length + 3);
+        direct.put(new byte[3]).put(binary).flip().position(3);
+
+        final StateMachineCompiler loaded = StateMachineParser.loadBinary(direct);
+        assertEquals(3, direct.position());
+        assertEquals(binary.length + 3, direct.limit());
+        assertTrue(loaded.getAcceptedEventSources().contains(1));
+    }
+
+    @Test
+    void damagedDataIsRejected() throws ValidationException, IOException {
+        final byte[] binary = StateMachineParser.parse(readResourceTextFile("final_states.json")).toBinary();
+
+        final byte[] truncated = Arrays.copyOf(binary, binary.length - 5);
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.loadBinary(ByteBuffer.wrap(truncated)),
+                "truncated or damaged");
+
+        final byte[] modified = binary.clone();
+        // first character of the first interned string (behind magic, version, fingerprint and lengths)
+        modified[48] ^= 1;
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.loadBinary(ByteBuffer.wrap(modified)),
+                "fingerprint doesn't match");
+
+        final byte[] wrongVersion = binary.clone();
+        wrongVersion[7] = 99;
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.loadBinary(ByteBuffer.wrap(wrongVersion)),
+                "unsupported version 99");
+
+        assertThrowsAndMessageReadsLike(
+                () -> StateMachineParser.loadBinary(ByteBuffer.wrap("{ \"states\" : [] }".getBytes())),
+                "unknown format");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {Integer.MAX_VALUE, 100_000, -1})
+    void damagedCountsAreRejectedBeforeAllocating(int count) throws ValidationException, IOException {
+        final byte[] binary = StateMachineParser.parse(readResourceTextFile("final_states.json")).toBinary();
+
+        // number of interned strings (behind magic, version and fingerprint)
+        final byte[] damagedStringCount = binary.clone();
+        ByteBuffer.wrap(damagedStringCount).putInt(40, count);
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.loadBinary(ByteBuffer.wrap(damagedStringCount)),
+                "count " + count + " exceeds the remaining");
+
+        // length of the first interned string
+        final byte[] damagedLength = binary.clone();
+        ByteBuffer.wrap(damagedLength).putInt(44, count);
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.loadBinary(ByteBuffer.wrap(damagedLength)),
+                "count " + count + " exceeds the remaining");
+    }
+
+    @Test
+    void damagedHierarchiesAreRejected() throws ValidationException, IOException {
+        final byte[] binary = StateMachineParser.parse(readResourceTextFile("hierarchical_states.json")).toBinary();
+        // the hierarchy is stored last: (parent, initial substate) for each of the 7 states
+        final int hierarchy = binary.length - 7 * 8;
+        final int off = 0;
+        final int heating = 1;
+        final int running = 3;
+        final int on = 5;
+
+        assertThrowsAndMessageReadsLike(() -> loadWithInt(binary, hierarchy + off * 8, 7),
+                "parent state 7 is out of range");
+        assertThrowsAndMessageReadsLike(() -> loadWithInt(binary, hierarchy + off * 8, off),
+                "parents of state " + off + " form a cycle");
+        assertThrowsAndMessageReadsLike(() -> loadWithInt(binary, hierarchy + on * 8, running),
+                "form a cycle");
+        assertThrowsAndMessageReadsLike(() -> loadWithInt(binary, hierarchy + on * 8 + 4, heating),
+                "initial substate " + heating + " isn't a child of state " + on);
+    }
+
+    private static StateMachineCompiler loadWithInt(byte[] binary, int offset, int value) throws ValidationException {
+        final byte[] damaged = binary.clone();
+        ByteBuffer.wrap(damaged).putInt(offset, value);
+        return StateMachineParser.loadBinary(ByteBuffer.wrap(damaged));
+    }
+
+    @Test
+    void missingFileFails() {
+        assertThrows(IOException.class,
+                () -> StateMachineParser.loadBinaryFile(Path.of("does", "not", "exist.jsonfsm")));
+    }
+}
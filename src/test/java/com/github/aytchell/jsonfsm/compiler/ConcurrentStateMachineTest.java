@@ -0,0 +1,200 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.EventBatch;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.UnhandledTriggerPolicy;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.idleCompilers;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentStateMachineTest {
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 10_000;
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void eventsOfAllThreadsAreAppliedOneAfterTheOther(ExecutionEngine engine) throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final int[] executions = {0};
+        final Map<Integer, DeviceCommandCompiler> compilers = Map.of(10, cmd -> () -> {
+            if (active.incrementAndGet() != 1) {
+                overlaps.incrementAndGet();
+            }
+            // deliberately not thread-safe; the mailbox has to serialize all executions
+            ++executions[0];
+            active.decrementAndGet();
+        });
+        final StateMachine machine = compile("self_transition_effect.json", compilers, engine)
+                .newConcurrentInstance();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < EVENTS_PER_THREAD; ++i) {
+                        machine.injectEvent(1, "move ya");
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // every submitter either drained itself or posted before the last drainer finished
+        assertEquals(0, overlaps.get());
+        assertEquals(THREADS * EVENTS_PER_THREAD, executions[0]);
+        assertEquals("Start", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void publishedStateFollowsTheMachine(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StateMachine machine = compile("final_states.json", Map.of(), engine).newConcurrentInstance();
+        assertEquals("One", machine.getCurrentState());
+        assertTrue(machine.isCurrentStateFinal());
+
+        assertFalse(machine.injectEvent(1, "move ya"));
+        assertEquals("Two", machine.getCurrentState());
+        assertFalse(machine.injectEvent(1, "unknown"));
+        assertTrue(machine.injectTrigger(machine.resolveTrigger(1, "move ya")));
+        assertEquals("Three", machine.getCurrentState());
+
+        final BatchResult result = machine.injectEvents(new EventBatch().add(1, "move ya").add(3, "nope"));
+        assertEquals(0, result.getFirstFinalIndex());
+        assertEquals(1, result.getAcceptedCount());
+        assertEquals(1, result.getUnknownCount());
+        assertEquals("One", machine.getCurrentState());
+        assertTrue(machine.isCurrentStateFinal());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void batchesInjectedByBehaviorsRunAfterTheCurrentTransition(ExecutionEngine engine) throws Exception {
+        final StateMachine[] machine = new StateMachine[1];
+        final List<String> executed = new ArrayList<>();
+        final List<BatchResult> results = new ArrayList<>();
+        final Map<Integer, DeviceCommandCompiler> compilers = Map.of(10, cmd -> () -> {
+            executed.add(cmd + " in " + machine[0].getCurrentState());
+            // only the very first behavior injects a batch
+            if (results.isEmpty()) {
+                results.add(machine[0].injectEvents(new EventBatch().add(1, "toggle").add(1, "toggle").add(2, "?")));
+            }
+        });
+        machine[0] = compile("ping_pong.json", compilers, engine).newConcurrentInstance();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> machine[0].injectEvent(1, "toggle"));
+        // the states are published once a transition has completed
+        assertEquals(List.of(
+                "exit Ping in Ping", "Ping to Pong in Ping", "enter Pong in Ping",
+                "exit Pong in Pong", "Pong to Ping in Pong", "enter Ping in Pong",
+                "exit Ping in Ping", "Ping to Pong in Ping", "enter Pong in Ping"), executed);
+        assertEquals("Pong", machine[0].getCurrentState());
+
+        // the batch was only queued
+        assertEquals(0, results.get(0).getAcceptedCount());
+        assertEquals(1, results.get(0).getUnknownCount());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void failuresReachTheirCallersAndDontStopTheMachine(ExecutionEngine engine) throws Exception {
+        final StateMachine machine = compile("effects_everywhere.json", idleCompilers(5), CompileOptions.builder()
+                .engine(engine)
+                .unhandledTriggerPolicy(UnhandledTriggerPolicy.callback((state, trigger) -> {
+                    throw new IllegalStateException(trigger + " in " + state);
+                }))
+                .build()).newConcurrentInstance();
+
+        final IllegalStateException single = assertThrows(IllegalStateException.class,
+                () -> machine.injectEvent(3, "fly away"));
+        assertEquals("fly in Start", single.getMessage());
+        assertThrows(IllegalStateException.class, () -> machine.injectEvents(new EventBatch().add(3, "fly away")));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                futures.add(executor.submit(() -> {
+                    int failures = 0;
+                    for (int i = 0; i < EVENTS_PER_THREAD / 10; ++i) {
+                        try {
+                            machine.injectEvents(new EventBatch().add(3, "fly away"));
+                        } catch (IllegalStateException e) {
+                            ++failures;
+                        }
+                    }
+                    return failures;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                // every waiting thread gets its own exception; nobody hangs
+                assertEquals(EVENTS_PER_THREAD / 10, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        machine.injectEvent(3, "move ya");
+        assertEquals("Stop", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void batchesOfAllThreadsAreApplied(ExecutionEngine engine) throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final StateMachine machine = compile("self_transition_effect.json",
+                Map.of(10, cmd -> executions::incrementAndGet), engine).newConcurrentInstance();
+        final EventBatch batch = new EventBatch().add(1, "move ya").add(1, "move ya").add(2, "nope");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                futures.add(executor.submit(() -> {
+                    int accepted = 0;
+                    for (int i = 0; i < EVENTS_PER_THREAD / 10; ++i) {
+                        accepted += machine.injectEvents(batch).getAcceptedCount();
+                    }
+                    return accepted;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(EVENTS_PER_THREAD / 10 * 2, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(THREADS * EVENTS_PER_THREAD / 10 * 2, executions.get());
+    }
+}
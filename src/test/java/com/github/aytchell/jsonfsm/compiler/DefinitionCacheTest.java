@@ -0,0 +1,114 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DefinitionCache;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefinitionCacheTest {
+    private static final String COMPACT = "{\"initialState\":\"A\",\"triggers\":[{\"name\":\"go\",\"eventSourceId\":1," +
+            "\"eventPayload\":\"go\"}],\"states\":[{\"name\":\"A\",\"transitions\":[{\"triggerName\":\"go\"," +
+            "\"targetState\":\"B\"}]},{\"name\":\"B\",\"onEntry\":[]}],\"finalStates\":[\"B\",\"A\"]}";
+    private static final String REFORMATTED = "{\n  \"finalStates\" : [ \"A\", \"B\" ],\n" +
+            "  \"states\" : [ { \"transitions\" : [ { \"targetState\" : \"B\", \"triggerName\" : \"go\" } ]," +
+            " \"name\" : \"A\" }, { \"name\" : \"B\" } ],\n" +
+            "  \"triggers\" : [ { \"eventPayload\" : \"go\", \"eventSourceId\" : 1, \"name\" : \"go\" } ],\n" +
+            "  \"initialState\" : \"A\"\n}";
+
+    @Test
+    void fingerprintIgnoresFormatting() throws ValidationException {
+        final Fingerprint compact = StateMachineParser.parse(COMPACT).getFingerprint();
+        final Fingerprint reformatted = StateMachineParser.parse(REFORMATTED).getFingerprint();
+        assertEquals(compact, reformatted);
+        assertEquals(compact.hashCode(), reformatted.hashCode());
+        assertEquals(compact.asLong(), reformatted.asLong());
+        assertEquals(64, compact.toString().length());
+
+        final Fingerprint otherPayload = StateMachineParser.parse(COMPACT.replace("\"eventPayload\":\"go\"",
+                "\"eventPayload\":\"went\"")).getFingerprint();
+        assertNotEquals(compact, otherPayload);
+    }
+
+    @Test
+    void fingerprintIgnoresMeaninglessContentOfIgnoredTransitions() throws ValidationException, IOException {
+        final String json = readResourceTextFile("ignore_true.json");
+        final String withTarget = json.replace("\"ignore\" : \"true\"",
+                "\"ignore\" : \"true\", \"targetState\" : \"Stop\"");
+        assertNotEquals(json, withTarget);
+        assertEquals(StateMachineParser.parse(json).getFingerprint(),
+                StateMachineParser.parse(withTarget).getFingerprint());
+    }
+
+    @Test
+    void identicalStateMachinesAreParsedOnce() throws ValidationException {
+        final DefinitionCache cache = new DefinitionCache(10, Duration.ofHours(1));
+        final StateMachineCompiler first = cache.parse(COMPACT);
+        assertSame(first, cache.parse(REFORMATTED));
+
+        final DefinitionCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getCompilerHits());
+        assertEquals(1, stats.getCompilerMisses());
+        assertEquals(1, stats.getSize());
+
+        assertThrows(ValidationException.class, () -> cache.parse(COMPACT.replace("\"targetState\":\"B\"",
+                "\"targetState\":\"C\"")));
+        assertEquals(1, cache.getStats().getSize());
+    }
+
+    @Test
+    void definitionsAreKeyedByCompilersAndOptions() throws Exception {
+        final DefinitionCache cache = new DefinitionCache(10, Duration.ofHours(1));
+        final String json = readResourceTextFile("simple_exit_enter.json");
+        final Map<Integer, DeviceCommandCompiler> compilers = Map.of(10, cmd -> () -> {
+        });
+        final Map<Integer, DeviceCommandCompiler> otherCompilers = Map.of(10, cmd -> () -> {
+        });
+
+        final StateMachineDefinition definition = cache.compileDefinition(json, compilers, CompileOptions.defaults());
+        assertSame(definition, cache.compileDefinition(json, compilers, CompileOptions.defaults()));
+        assertNotSame(definition, cache.compileDefinition(json, otherCompilers, CompileOptions.defaults()));
+        assertNotSame(definition, cache.compileDefinition(json, compilers,
+                CompileOptions.builder().engine(ExecutionEngine.STATELESS4J).build()));
+
+        final DefinitionCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getDefinitionHits());
+        assertEquals(3, stats.getDefinitionMisses());
+        assertEquals(3, stats.getCompilerHits());
+        assertEquals(1, stats.getCompilerMisses());
+        assertEquals(4, stats.getSize());
+    }
+
+    @Test
+    void leastRecentlyUsedAndIdleEntriesAreEvicted() throws Exception {
+        final DefinitionCache bounded = new DefinitionCache(2, Duration.ofHours(1));
+        final StateMachineCompiler first = bounded.parse(readResourceTextFile("final_states.json"));
+        bounded.parse(readResourceTextFile("ignore_true.json"));
+        assertSame(first, bounded.parse(readResourceTextFile("final_states.json")));
+        bounded.parse(readResourceTextFile("simple_exit_enter.json"));
+
+        // 'ignore_true' was the least recently used one
+        assertEquals(1, bounded.getStats().getEvictions());
+        assertSame(first, bounded.parse(readResourceTextFile("final_states.json")));
+        assertEquals(2, bounded.getStats().getSize());
+
+        final DefinitionCache idle = new DefinitionCache(10, Duration.ofMillis(20));
+        idle.parse(COMPACT);
+        Thread.sleep(50);
+        final DefinitionCache.Stats stats = idle.getStats();
+        assertEquals(0, stats.getSize());
+        assertEquals(1, stats.getEvictions());
+    }
+}
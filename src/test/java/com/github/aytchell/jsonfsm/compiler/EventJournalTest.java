@@ -0,0 +1,322 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.EventJournal;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.InstanceStore;
+import com.github.aytchell.jsonfsm.JournalOptions;
+import com.github.aytchell.jsonfsm.RuntimeOptions;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventJournalTest {
+    private static final JournalOptions EXPLICIT_COMMITS = JournalOptions.builder()
+            .commitInterval(Duration.ZERO)
+            .build();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void acceptedEventsAreReplayedWithoutBehaviors() throws Exception {
+        final List<String> executed = new ArrayList<>();
+        final StateMachineCompiler compiler = parse("effects_everywhere.json");
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            final StateMachineDefinition definition = compile(compiler, executed, journaling(journal));
+            final Map<Long, StateMachine> machines = new HashMap<>();
+            for (long id = 0; id < 10; ++id) {
+                final StateMachine machine = definition.newInstance(id);
+                machines.put(id, machine);
+                if (id % 2 == 0) {
+                    machine.injectEvent(3, "move ya");
+                }
+                // unhandled in both states; so never recorded
+                machine.injectEvent(3, "fly away");
+            }
+            journal.commit();
+            assertEquals(5, journal.getPosition());
+
+            executed.clear();
+            final Map<Long, StateMachine> rebuilt = new HashMap<>();
+            for (long id = 0; id < 10; ++id) {
+                rebuilt.put(id, definition.newInstance(id));
+            }
+            assertEquals(5, journal.replay(rebuilt, 0));
+
+            for (long id = 0; id < 10; ++id) {
+                assertEquals(machines.get(id).getCurrentState(), rebuilt.get(id).getCurrentState());
+            }
+            assertEquals(List.of(), executed);
+            assertEquals(5, journal.getPosition());
+        }
+    }
+
+    @Test
+    void snapshotsBoundTheReplayAfterARestart() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        final ByteBuffer checkpoint = ByteBuffer.allocate(1024);
+        final long checkpointPosition;
+        final List<String> expected = new ArrayList<>();
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            final StateMachineDefinition definition = compile(compiler, null, journaling(journal));
+            final List<StateMachine> machines = List.of(definition.newInstance(7), definition.newInstance(8));
+            machines.get(0).injectEvent(1, "move ya");
+            StateSnapshot.writeAll(machines, checkpoint);
+            checkpointPosition = journal.getPosition();
+
+            machines.get(0).injectEvent(1, "move ya");
+            machines.get(1).injectEvent(1, "move ya");
+            machines.forEach(machine -> expected.add(machine.getCurrentState()));
+        }
+
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            assertEquals(3, journal.getPosition());
+            final StateMachineDefinition definition = compile(compiler, null, journaling(journal));
+            final Map<Long, StateMachine> machines = Map.of(7L, definition.newInstance(7),
+                    8L, definition.newInstance(8));
+            StateSnapshot.restoreAll(checkpoint.flip(), List.of(machines.get(7L), machines.get(8L)));
+
+            assertEquals(2, journal.replay(machines, checkpointPosition));
+            assertEquals(expected, List.of(machines.get(7L).getCurrentState(), machines.get(8L).getCurrentState()));
+
+            // appending continues after the existing records
+            machines.get(7L).injectEvent(1, "move ya");
+            assertEquals(4, journal.getPosition());
+        }
+    }
+
+    @Test
+    void segmentsRollOverAndCanBeDeleted() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        final JournalOptions options = JournalOptions.builder().recordsPerSegment(10).commitInterval(Duration.ZERO)
+                .build();
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), options)) {
+            final StateMachine machine = compile(compiler, null, journaling(journal)).newInstance(42);
+            for (int i = 0; i < 35; ++i) {
+                machine.injectEvent(1, "move ya");
+            }
+            assertEquals(4, countSegments());
+
+            final List<Long> positions = new ArrayList<>();
+            assertEquals(35, journal.read(0, (position, instanceId, trigger, timestamp) -> {
+                assertEquals(42, instanceId);
+                assertEquals(0, trigger);
+                assertTrue(timestamp > 0);
+                positions.add(position);
+            }));
+            assertEquals(0, positions.get(0));
+            assertEquals(34, positions.get(34));
+
+            journal.deleteBefore(25);
+            assertEquals(2, countSegments());
+            assertThrows(IllegalArgumentException.class, () -> journal.read(19, (p, i, t, ts) -> {
+            }));
+            assertEquals(15, journal.read(20, (p, i, t, ts) -> {
+            }));
+        }
+    }
+
+    @Test
+    void instanceStoresAreJournaledToo() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            final StateMachineDefinition definition = compile(compiler, null, journaling(journal));
+            final InstanceStore store = definition.newInstanceStore(100);
+            for (int slot = 0; slot < 100; ++slot) {
+                for (int i = 0; i < slot % 3; ++i) {
+                    store.injectEvent(slot, 1, "move ya");
+                }
+            }
+
+            final InstanceStore rebuilt = definition.newInstanceStore(50);
+            assertEquals(49, journal.replay(rebuilt, 0));
+            for (int slot = 0; slot < 50; ++slot) {
+                assertEquals(store.getCurrentState(slot), rebuilt.getCurrentState(slot));
+            }
+        }
+    }
+
+    @Test
+    void concurrentAppendsAreAllRecorded() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        final JournalOptions options = JournalOptions.builder().recordsPerSegment(1000)
+                .commitInterval(Duration.ofMillis(1)).build();
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), options)) {
+            final StateMachineDefinition definition = compile(compiler, null, journaling(journal));
+            final List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                final StateMachine machine = definition.newInstance(t);
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 10_000; ++i) {
+                        machine.injectEvent(1, "move ya");
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            final AtomicInteger[] perInstance = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger(),
+                    new AtomicInteger()};
+            assertEquals(40_000, journal.read(0, (p, id, t, ts) -> perInstance[(int) id].incrementAndGet()));
+            for (AtomicInteger count : perInstance) {
+                assertEquals(10_000, count.get());
+            }
+        }
+    }
+
+    @Test
+    void concurrentInstancesAndRuntimesAreRecordedAndReplayed() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            final StateMachineDefinition definition = compile(compiler, null, journaling(journal));
+            definition.newConcurrentInstance(3).injectEvent(1, "move ya");
+            try (StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder().workerCount(2).build())) {
+                runtime.submit(4, 1, "move ya");
+                runtime.submit(5, 1, "move ya");
+                runtime.submit(4, 1, "move ya");
+            }
+            journal.commit();
+
+            final List<Long> instanceIds = new ArrayList<>();
+            assertEquals(4, journal.read(0, (position, instanceId, trigger, timestamp) -> instanceIds.add(instanceId)));
+            instanceIds.sort(null);
+            assertEquals(List.of(3L, 4L, 4L, 5L), instanceIds);
+
+            final StateMachine concurrent = definition.newConcurrentInstance(3);
+            assertEquals(1, journal.replay(Map.of(3L, concurrent), 0));
+            assertEquals("Two", concurrent.getCurrentState());
+            try (StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder().workerCount(2).build())) {
+                assertEquals(4, journal.replay(runtime, 0));
+                assertEquals("Three", runtime.queryState(4).get());
+                assertEquals("Two", runtime.queryState(5).get());
+                assertEquals("One", runtime.queryState(6).get());
+            }
+            assertEquals(4, journal.getPosition());
+        }
+    }
+
+    @Test
+    void damagedRecordsAreSkippedAcrossRestarts() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        final Path segment = tempDir.resolve(String.format("%016x.journal", 0));
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            final StateMachine machine = compile(compiler, null, journaling(journal)).newInstance(1);
+            for (int i = 0; i < 10; ++i) {
+                machine.injectEvent(1, "move ya");
+            }
+        }
+        // a torn record in the middle (as left by a crash while several threads append)
+        damageRecord(segment, 5);
+
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            // the intact records behind the hole are kept
+            assertEquals(10, journal.getPosition());
+            assertEquals(9, journal.read(0,
+                    (position, instanceId, trigger, timestamp) -> assertNotEquals(5, position)));
+            assertEquals(1, journal.getSkippedRecordCount());
+
+            final StateMachine machine = compile(compiler, null, journaling(journal)).newInstance(1);
+            for (int i = 0; i < 3; ++i) {
+                machine.injectEvent(1, "move ya");
+            }
+        }
+        // a torn record at the end
+        damageRecord(segment, 12);
+
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            assertEquals(12, journal.getPosition());
+            final StateMachine machine = compile(compiler, null, journaling(journal)).newInstance(1);
+            machine.injectEvent(1, "move ya");
+        }
+
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            // the record appended after the second restart replaced the torn one
+            assertEquals(13, journal.getPosition());
+            final List<Long> positions = new ArrayList<>();
+            assertEquals(12, journal.read(0, (position, instanceId, trigger, timestamp) -> positions.add(position)));
+            assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 6L, 7L, 8L, 9L, 10L, 11L, 12L), positions);
+            final StateMachine replayed = compile(compiler, null, journaling(journal)).newInstance(1);
+            assertEquals(12, journal.replay(Map.of(1L, replayed), 0));
+            assertEquals(2, journal.getSkippedRecordCount());
+        }
+    }
+
+    @Test
+    void misconfiguredJournalsAreRejected() throws Exception {
+        final StateMachineCompiler compiler = parse("final_states.json");
+        final StateMachineCompiler other = parse("effects_everywhere.json");
+        try (EventJournal journal = EventJournal.open(tempDir, compiler.getFingerprint(), EXPLICIT_COMMITS)) {
+            assertThrows(IllegalArgumentException.class, () -> compile(other, new ArrayList<>(), journaling(journal)));
+            assertThrows(IllegalArgumentException.class, () -> compiler.compileDefinition(Map.of(),
+                    CompileOptions.builder().engine(ExecutionEngine.STATELESS4J).eventJournal(journal).build()));
+            assertThrows(IllegalStateException.class, () -> compiler.compileDefinition(Map.of()).newInstance(1));
+            final StateMachineDefinition stateless = compiler.compileDefinition(Map.of(),
+                    CompileOptions.builder().engine(ExecutionEngine.STATELESS4J).build());
+            assertThrows(IllegalArgumentException.class,
+                    () -> journal.replay(Map.of(1L, stateless.newConcurrentInstance()), 0));
+            try (StateMachineRuntime runtime = stateless.newRuntime(RuntimeOptions.builder().build())) {
+                assertThrows(IllegalArgumentException.class, () -> journal.replay(runtime, 0));
+            }
+            assertThrows(IllegalStateException.class,
+                    () -> compiler.compileDefinition(Map.of()).newConcurrentInstance(1));
+            // instances without an ID would be missing in the journal
+            assertThrows(IllegalStateException.class, () -> compile(compiler, null, journaling(journal)).newInstance());
+            assertThrows(IllegalStateException.class,
+                    () -> compile(compiler, null, journaling(journal)).newConcurrentInstance());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> EventJournal.open(tempDir, other.getFingerprint(), EXPLICIT_COMMITS));
+
+        final EventJournal closed = EventJournal.open(tempDir.resolve("closed"), compiler.getFingerprint(),
+                EXPLICIT_COMMITS);
+        final StateMachine machine = compile(compiler, null, journaling(closed)).newInstance(1);
+        closed.close();
+        // closing is idempotent
+        closed.close();
+        assertThrows(IllegalStateException.class, () -> machine.injectEvent(1, "move ya"));
+    }
+
+    private static void damageRecord(Path segment, int record) throws Exception {
+        final byte[] bytes = Files.readAllBytes(segment);
+        // the checksum behind header, instance ID, timestamp and trigger
+        bytes[64 + record * 24 + 20] ^= 0x10;
+        Files.write(segment, bytes);
+    }
+
+    private long countSegments() throws Exception {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    private static StateMachineCompiler parse(String file) throws Exception {
+        return StateMachineParser.parse(readResourceTextFile(file));
+    }
+
+    private static CompileOptions journaling(EventJournal journal) {
+        return CompileOptions.builder().eventJournal(journal).build();
+    }
+}
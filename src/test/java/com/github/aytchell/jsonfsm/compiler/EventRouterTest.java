@@ -0,0 +1,86 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.EventRouter;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.idleCompilers;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventRouterTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void eventsOnlyReachMachinesWithMatchingTriggers(ExecutionEngine engine) throws Exception {
+        final StateMachine first = compile("simple_exit_enter.json", idleCompilers(10), engine).newInstance();
+        final StateMachine second = compile("effects_everywhere.json", idleCompilers(5), engine).newInstance();
+        final EventRouter router = new EventRouter();
+        assertTrue(router.register(first));
+        assertTrue(router.register(second));
+
+        assertEquals(0, router.route(3, "stay"));
+        assertEquals(0, router.route(42, "move ya"));
+        assertEquals(1, router.route(1, "move ya"));
+        assertEquals("Stop", first.getCurrentState());
+        assertEquals("Start", second.getCurrentState());
+
+        assertEquals(1, router.route(3, "move ya"));
+        assertEquals("Stop", second.getCurrentState());
+    }
+
+    @Test
+    void machinesOfTheSameDefinitionShareRoutes() throws Exception {
+        final StateMachineDefinition definition = compile("simple_exit_enter.json", idleCompilers(10),
+                ExecutionEngine.TABLE);
+        final EventRouter router = new EventRouter();
+        final List<StateMachine> machines = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            final StateMachine machine = i % 2 == 0 ? definition.newInstance() : definition.newConcurrentInstance();
+            machines.add(machine);
+            router.register(machine);
+        }
+
+        assertFalse(router.unregister(compile("simple_exit_enter.json", idleCompilers(10),
+                ExecutionEngine.TABLE).newInstance()));
+        assertTrue(router.unregister(machines.get(0)));
+        assertEquals(4, router.getMachineCount());
+        assertEquals(4, router.route(1, "move ya"));
+        assertEquals("Start", machines.get(0).getCurrentState());
+        for (StateMachine machine : machines.subList(1, 5)) {
+            assertEquals("Stop", machine.getCurrentState());
+        }
+    }
+
+    @Test
+    void machinesCanBeAddedAndRemovedAgain() throws Exception {
+        final StateMachine machine = compile("simple_exit_enter.json", idleCompilers(10),
+                ExecutionEngine.TABLE).newInstance();
+        final EventRouter router = new EventRouter();
+
+        assertTrue(router.register(machine));
+        assertFalse(router.register(machine));
+        assertTrue(router.unregister(machine));
+        assertFalse(router.unregister(machine));
+        assertEquals(0, router.route(1, "move ya"));
+        assertEquals(0, router.getMachineCount());
+
+        assertTrue(router.register(machine));
+        assertEquals(1, router.route(1, "move ya"));
+    }
+
+    @Test
+    void foreignMachinesAreRejected() {
+        final StateMachine foreign = (StateMachine) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{StateMachine.class}, (proxy, method, args) -> null);
+
+        assertThrows(IllegalArgumentException.class, () -> new EventRouter().register(foreign));
+    }
+}
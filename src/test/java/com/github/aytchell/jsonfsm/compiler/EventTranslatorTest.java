@@ -0,0 +1,90 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventTranslatorTest {
+    @Test
+    void eventsAreFoundBySourceAndPayload() {
+        final EventTranslator translator = new EventTranslator();
+        translator.addEvent(1, "move ya", 0);
+        translator.addEvent(2, "move ya", 1);
+        translator.addEvent(1, "stop", 2);
+
+        assertEquals(0, translator.getTrigger(1, "move ya"));
+        assertEquals(1, translator.getTrigger(2, "move ya"));
+        assertEquals(2, translator.getTrigger(1, "stop"));
+        assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(2, "stop"));
+        assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(3, "move ya"));
+    }
+
+    @Test
+    void manyEventSourcesAreFound() {
+        final EventTranslator translator = new EventTranslator();
+        for (int id = 1; id <= 1000; ++id) {
+            translator.addEvent(id * 16, "payload", id);
+        }
+
+        for (int id = 1; id <= 1000; ++id) {
+            assertEquals(id, translator.getTrigger(id * 16, "payload"));
+            assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(id * 16 + 1, "payload"));
+        }
+    }
+
+    @Test
+    void payloadsAreFoundAsCharsAndBytes() {
+        final EventTranslator translator = new EventTranslator();
+        for (int trigger = 0; trigger < 100; ++trigger) {
+            translator.addEvent(7, "Grüße " + trigger, trigger);
+        }
+
+        for (int trigger = 0; trigger < 100; ++trigger) {
+            final String payload = "Grüße " + trigger;
+            final byte[] bytes = ("xx" + payload + "yy").getBytes(StandardCharsets.UTF_8);
+            final int length = bytes.length - 4;
+            final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).position(2).limit(2 + length);
+
+            assertEquals(trigger, translator.getTrigger(7, new StringBuilder(payload)));
+            assertEquals(trigger, translator.getTrigger(7, bytes, 2, length));
+            assertEquals(trigger, translator.getTrigger(7, ByteBuffer.wrap(bytes, 2, length)));
+            assertEquals(trigger, translator.getTrigger(7, direct));
+            assertEquals(2, direct.position());
+        }
+
+        final byte[] unknown = "Grüße".getBytes(StandardCharsets.UTF_8);
+        assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(7, unknown, 0, unknown.length));
+        assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(7, ByteBuffer.allocateDirect(0)));
+        assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(8, new StringBuilder("Grüße 1")));
+    }
+
+    @Test
+    void unknownSourcesAreRejectedUpFront() {
+        final EventTranslator translator = new EventTranslator();
+        translator.addEvent(3, "move ya", 0);
+        translator.addEvent(200, "move ya", 1);
+
+        assertTrue(translator.isKnownSource(3));
+        assertTrue(translator.isKnownSource(200));
+        assertFalse(translator.isKnownSource(4));
+        assertFalse(translator.isKnownSource(3 + 64));
+        assertFalse(translator.isKnownSource(100000));
+        assertFalse(translator.isKnownSource(-3));
+        assertEquals(EventTranslator.UNKNOWN_TRIGGER, translator.getTrigger(3 + 64, "move ya"));
+
+        // source IDs which don't fit into the bitset are still found
+        translator.addEvent(-5, "move ya", 2);
+        translator.addEvent(Integer.MAX_VALUE, "move ya", 3);
+        assertTrue(translator.isKnownSource(3));
+        assertTrue(translator.isKnownSource(-5));
+        assertTrue(translator.isKnownSource(Integer.MAX_VALUE));
+        assertFalse(translator.isKnownSource(4));
+        assertEquals(1, translator.getTrigger(200, "move ya"));
+        assertEquals(2, translator.getTrigger(-5, "move ya"));
+        assertEquals(3, translator.getTrigger(Integer.MAX_VALUE, "move ya"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Both execution engines have to show exactly the same behavior
+public class ExecutionEngineTest {
+    private static final List<Map.Entry<Integer, String>> EVENTS = List.of(
+            Map.entry(1, "move ya"),
+            Map.entry(3, "move ya"),
+            Map.entry(2, "stop it"),
+            Map.entry(3, "fly away"),
+            Map.entry(1, "move me"),
+            Map.entry(1, "move ya"),
+            Map.entry(1, "move ya"),
+            Map.entry(3, "move ya"));
+
+    @ParameterizedTest
+    @ValueSource(strings = {"effects_everywhere.json", "final_states.json", "ignore_false.json",
+            "ignore_true.json", "multiple_devices_and_cmds.json", "multiple_effects.json",
+            "self_transition.json", "self_transition_effect.json", "simple_exit_enter.json"})
+    void enginesBehaveIdentically(String filename) throws IOException, ValidationException, CompilationException {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile(filename));
+
+        assertEquals(
+                runEvents(compiler, ExecutionEngine.STATELESS4J),
+                runEvents(compiler, ExecutionEngine.TABLE));
+    }
+
+    @Test
+    void oversizedTablesAreRejected() {
+        assertEquals(TransitionTable.MAX_CELLS, TransitionTable.cellCount(4096, 4096));
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> TransitionTable.cellCount(4097, 4096));
+        assertTrue(e.getMessage().contains("4097 states and 4096 triggers"));
+        // the product doesn't even fit into an int
+        assertThrows(IllegalArgumentException.class, () -> TransitionTable.cellCount(100_000, 100_000));
+    }
+
+    private static String runEvents(StateMachineCompiler compiler, ExecutionEngine engine)
+            throws CompilationException {
+        final StringBuffer buffer = new StringBuffer();
+        final Map<Integer, DeviceCommandCompiler> compilers = new HashMap<>();
+        compiler.getRequiredDevices().forEach(
+                id -> compilers.put(id, cmd -> () -> buffer.append(id).append(':').append(cmd).append('|')));
+
+        final StateMachine machine = compiler.compileStateMachine(
+                compilers, CompileOptions.builder().engine(engine).build());
+        buffer.append(machine.getCurrentState()).append(machine.isCurrentStateFinal()).append('\n');
+        for (Map.Entry<Integer, String> event : EVENTS) {
+            final boolean isFinal = machine.injectEvent(event.getKey(), event.getValue());
+            buffer.append(machine.getCurrentState()).append(isFinal).append('\n');
+        }
+        return buffer.toString();
+    }
+}
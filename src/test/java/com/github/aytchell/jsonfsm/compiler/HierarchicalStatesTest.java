@@ -0,0 +1,146 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchingDeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.DeviceCommand;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.assertThrowsAndMessageReadsLike;
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.idleCompilers;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.recordingCompilers;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HierarchicalStatesTest {
+    private final List<String> executed = new ArrayList<>();
+
+    @Test
+    void entryAndExitFollowTheNesting() throws Exception {
+        final StateMachine machine = compile("hierarchical_states.json", ExecutionEngine.TABLE, executed).newInstance();
+
+        assertEquals("Off", machine.getCurrentState());
+        fire(machine, "power", List.of("exit Off", "enter On", "enter Idle"));
+        assertEquals("Idle", machine.getCurrentState());
+        fire(machine, "start", List.of("exit Idle", "enter Running", "enter Heating"));
+        fire(machine, "hot", List.of("exit Heating", "enter Cooling"));
+        // declared by 'On'; so all states up to 'On' are exited
+        executed.clear();
+        assertTrue(machine.injectEvent(1, "fail"));
+        assertEquals(List.of("exit Cooling", "exit Running", "exit On", "alarm", "enter Error"), executed);
+        assertEquals("Error", machine.getCurrentState());
+    }
+
+    @Test
+    void innerStatesOverrideInheritedTransitions() throws Exception {
+        final StateMachine machine = compile("hierarchical_states.json", ExecutionEngine.TABLE, executed).newInstance();
+        machine.injectEvent(1, "power");
+        machine.injectEvent(1, "start");
+
+        // 'Running' ignores what 'On' would handle
+        fire(machine, "power", List.of());
+        assertEquals("Heating", machine.getCurrentState());
+        // declared by 'Running' and leading to a sibling of it
+        fire(machine, "stop", List.of("exit Heating", "exit Running", "enter Idle"));
+        fire(machine, "power", List.of("exit Idle", "exit On", "enter Off"));
+        assertEquals("Off", machine.getCurrentState());
+    }
+
+    @Test
+    void selfTransitionsOfCompositeStatesReenterThem() throws Exception {
+        final StateMachine machine = compile("hierarchical_states.json", ExecutionEngine.TABLE, executed).newInstance();
+        machine.injectEvent(1, "power");
+        machine.injectEvent(1, "start");
+        machine.injectEvent(1, "hot");
+
+        fire(machine, "reset", List.of("exit Cooling", "exit Running", "enter Running", "enter Heating"));
+        assertEquals("Heating", machine.getCurrentState());
+    }
+
+    @Test
+    void initialAndFinalStatesMayBeComposite() throws Exception {
+        final StateMachine machine = StateMachineParser.parse(readResourceTextFile("hierarchical_states.json")
+                .replace("\"initialState\": \"Off\"", "\"initialState\": \"Running\"")
+                .replace("[\n    \"Error\"\n  ]", "[\n    \"Running\"\n  ]"))
+                .compileStateMachine(recordingCompilers(executed));
+
+        assertEquals("Heating", machine.getCurrentState());
+        assertTrue(machine.isCurrentStateFinal());
+        assertFalse(machine.injectEvent(1, "stop"));
+        assertFalse(machine.injectEvent(1, "fail"));
+    }
+
+    @Test
+    void batchedTransitionsAreSplitAtTheStateChange() throws Exception {
+        final List<List<String>> batches = new ArrayList<>();
+        final StateMachine machine = StateMachineParser.parse(readResourceTextFile("hierarchical_states.json"))
+                .compileStateMachine(Map.of(5, new BatchingDeviceCommandCompiler() {
+                    @Override
+                    public DeviceCommand compile(String commandString) {
+                        return () -> executed.add(commandString);
+                    }
+
+                    @Override
+                    public DeviceCommand compileBatch(List<String> commandStrings) {
+                        batches.add(commandStrings);
+                        return () -> executed.addAll(commandStrings);
+                    }
+                }));
+
+        // one batch before and one after the state change; single commands aren't batched
+        assertTrue(batches.contains(List.of("exit Cooling", "exit Running", "exit On", "alarm")));
+        assertTrue(batches.contains(List.of("enter On", "enter Idle")));
+        assertFalse(batches.stream().anyMatch(batch -> batch.contains("enter Error")));
+        machine.injectEvent(1, "power");
+        assertEquals(List.of("exit Off", "enter On", "enter Idle"), executed);
+    }
+
+    @Test
+    void binaryFormatKeepsTheHierarchy() throws Exception {
+        final StateMachineCompiler parsed = StateMachineParser.parse(readResourceTextFile("hierarchical_states.json"));
+        final StateMachineCompiler loaded = StateMachineParser.loadBinary(ByteBuffer.wrap(parsed.toBinary()));
+        final StateMachine machine = loaded.compileStateMachine(recordingCompilers(executed));
+
+        assertEquals(parsed.getFingerprint(), loaded.getFingerprint());
+        fire(machine, "power", List.of("exit Off", "enter On", "enter Idle"));
+    }
+
+    @Test
+    void onlyTheTableEngineSupportsHierarchies() throws Exception {
+        assertThrows(IllegalArgumentException.class,
+                () -> compile("hierarchical_states.json", idleCompilers(5), ExecutionEngine.STATELESS4J));
+    }
+
+    @Test
+    void invalidHierarchiesAreRejected() throws Exception {
+        final String json = readResourceTextFile("hierarchical_states.json");
+
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(
+                        json.replace("\"parent\": \"Running\"", "\"parent\": \"Walking\"")),
+                List.of("'states[1].parent'", "value: 'Walking'", "contained in states"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(
+                        json.replace("\"name\": \"On\",", "\"name\": \"On\", \"parent\": \"Heating\",")),
+                List.of("'states[1].parent'", "is not nested into the state itself"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(
+                        json.replace("\"initialSubstate\": \"Idle\"", "\"initialSubstate\": \"Heating\"")),
+                List.of("'states[5].initialSubstate'", "value: 'Heating'", "is a child of the state"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(
+                        json.replace("\"initialSubstate\": \"Heating\",", "")),
+                List.of("'states[3].transitions[2].targetState'", "value: 'Running'",
+                        "is a leaf state or has an initialSubstate"));
+    }
+
+    private void fire(StateMachine machine, String event, List<String> expected) {
+        executed.clear();
+        machine.injectEvent(1, event);
+        assertEquals(expected, executed);
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Events given as bytes or char sequences have to behave like events given as String
+public class InjectEventOverloadsTest {
+    private static final byte[] MOVE_YA = "__move ya__".getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void payloadAsBytes(ExecutionEngine engine) throws IOException, ValidationException, CompilationException {
+        final StateMachine machine = compile("final_states.json", engine, null).newInstance();
+
+        assertFalse(machine.injectEvent(1, MOVE_YA, 2, 7));
+        assertEquals("Two", machine.getCurrentState());
+        // unknown payloads are ignored
+        assertFalse(machine.injectEvent(1, MOVE_YA, 0, 7));
+        assertFalse(machine.injectEvent(2, MOVE_YA, 2, 7));
+        assertEquals("Two", machine.getCurrentState());
+        assertTrue(machine.injectEvent(1, MOVE_YA, 2, 7));
+        assertEquals("Three", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void payloadAsByteBuffer(ExecutionEngine engine) throws IOException, ValidationException, CompilationException {
+        final StateMachine machine = compile("final_states.json", engine, null).newInstance();
+        final ByteBuffer direct = ByteBuffer.allocateDirect(MOVE_YA.length);
+        direct.put(MOVE_YA).position(2).limit(9);
+
+        assertFalse(machine.injectEvent(1, direct));
+        assertEquals("Two", machine.getCurrentState());
+        assertTrue(machine.injectEvent(1, ByteBuffer.wrap(MOVE_YA, 2, 7)));
+        assertEquals("Three", machine.getCurrentState());
+        assertTrue(machine.injectEvent(1, ByteBuffer.wrap(MOVE_YA)));
+        assertEquals("Three", machine.getCurrentState());
+        assertTrue(machine.injectEvent(1, direct));
+        assertEquals("One", machine.getCurrentState());
+        assertEquals(2, direct.position());
+        assertEquals(9, direct.limit());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void payloadAsCharSequence(ExecutionEngine engine) throws IOException, ValidationException, CompilationException {
+        final StateMachine machine = compile("final_states.json", engine, null).newInstance();
+        final StringBuilder payload = new StringBuilder("move ya");
+
+        assertFalse(machine.injectEvent(1, payload));
+        assertEquals("Two", machine.getCurrentState());
+        payload.append('!');
+        assertFalse(machine.injectEvent(1, payload));
+        assertEquals("Two", machine.getCurrentState());
+        payload.setLength(7);
+        assertTrue(machine.injectEvent(1, payload));
+        assertEquals("Three", machine.getCurrentState());
+    }
+}
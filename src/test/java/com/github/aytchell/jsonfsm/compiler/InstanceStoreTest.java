@@ -0,0 +1,113 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.InstanceStore;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.UnhandledTriggerPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstanceStoreTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void slotsBehaveLikeInstances() throws Exception {
+        final List<String> executed = new ArrayList<>();
+        final StateMachineDefinition definition = compile("effects_everywhere.json", ExecutionEngine.TABLE, executed);
+        final InstanceStore store = definition.newInstanceStore(3);
+        final StateMachine machine = definition.newInstance();
+
+        assertEquals(3, store.getCapacity());
+        assertFalse(store.injectEvent(1, 3, "move ya"));
+        assertEquals(List.of("Exiting1", "Exiting2", "Moving1", "Moving2", "Entering1", "Entering2"), executed);
+        machine.injectEvent(3, "move ya");
+        assertEquals("Start", store.getCurrentState(0));
+        assertEquals("Stop", store.getCurrentState(1));
+        assertEquals(machine.snapshot(), store.snapshot(1));
+
+        store.reset(1);
+        assertEquals("Start", store.getCurrentState(1));
+        store.restore(2, machine.snapshot());
+        assertEquals("Stop", store.getCurrentState(2));
+        assertEquals(12, executed.size());
+    }
+
+    @Test
+    void triggersAndFinalStatesAreSupported() throws Exception {
+        final UnhandledTriggerPolicy unhandled = UnhandledTriggerPolicy.countOnly();
+        final StateMachineDefinition definition = compile("final_states.json", Map.of(),
+                CompileOptions.builder().unhandledTriggerPolicy(unhandled).build());
+        final InstanceStore store = definition.newInstanceStore(2);
+        final int move = definition.resolveTrigger(1, "move ya");
+
+        assertTrue(store.isCurrentStateFinal(0));
+        assertFalse(store.injectTrigger(0, move));
+        assertTrue(store.injectTrigger(0, move));
+        assertEquals("Three", store.getCurrentState(0));
+        assertTrue(store.injectEvent(0, 1, "unknown"));
+        assertEquals("One", store.getCurrentState(1));
+        assertThrows(IllegalArgumentException.class, () -> store.injectTrigger(0, 7));
+        assertThrows(IndexOutOfBoundsException.class, () -> store.getCurrentState(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> store.injectEvent(-1, 1, "move ya"));
+        assertEquals(0, unhandled.getUnhandledCount());
+    }
+
+    @Test
+    void mappedStoresSurviveReopening() throws Exception {
+        final Path file = tempDir.resolve("instances.store");
+        final InstanceStore store = compile("final_states.json", ExecutionEngine.TABLE, null)
+                .openInstanceStore(file, 1000);
+        for (int slot = 0; slot < 1000; ++slot) {
+            for (int i = 0; i < slot % 3; ++i) {
+                store.injectEvent(slot, 1, "move ya");
+            }
+        }
+        store.flush();
+
+        final InstanceStore reopened = compile("final_states.json", ExecutionEngine.TABLE, null)
+                .openInstanceStore(file, 1000);
+        assertEquals("One", reopened.getCurrentState(0));
+        assertEquals("Two", reopened.getCurrentState(1));
+        assertEquals("Three", reopened.getCurrentState(998));
+        assertEquals("One", reopened.getCurrentState(999));
+    }
+
+    @Test
+    void mismatchingFilesAreRejected() throws Exception {
+        final Path file = tempDir.resolve("instances.store");
+        compile("final_states.json", ExecutionEngine.TABLE, null).openInstanceStore(file, 10).flush();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> compile("final_states.json", ExecutionEngine.TABLE, null).openInstanceStore(file, 11));
+        assertThrows(IllegalArgumentException.class,
+                () -> compile("effects_everywhere.json", ExecutionEngine.TABLE, new ArrayList<>())
+                        .openInstanceStore(file, 10));
+
+        final Path garbage = tempDir.resolve("garbage.store");
+        Files.write(garbage, new byte[64 + 10]);
+        assertThrows(IllegalArgumentException.class,
+                () -> compile("final_states.json", ExecutionEngine.TABLE, null).openInstanceStore(garbage, 10));
+    }
+
+    @Test
+    void onlyTheTableEngineSupportsStores() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.STATELESS4J, null);
+
+        assertThrows(IllegalStateException.class, () -> definition.newInstanceStore(1));
+        assertThrows(IllegalStateException.class, () -> definition.openInstanceStore(Path.of("unused.store"), 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> compile("final_states.json", ExecutionEngine.TABLE, null).newInstanceStore(-1));
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongMapTest {
+    @Test
+    void behavesLikeAHashMap() {
+        final LongMap<Long> map = new LongMap<>();
+        final Map<Long, Long> expected = new HashMap<>();
+        final Random random = new Random(4711);
+
+        // few distinct keys so there are many collisions, removals and re-insertions
+        for (int i = 0; i < 200_000; ++i) {
+            final long key = random.nextInt(2_000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                map.put(key, (long) i);
+                expected.put(key, (long) i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 2_000 * 1024L; key += 1024) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.EventBatch;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StripedMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.idleCompilers;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+    private final StripedMetrics metrics = new StripedMetrics();
+    private final CompileOptions metered = CompileOptions.builder().metricsListener(metrics).build();
+
+    @Test
+    void transitionsAndBehaviorsAreRecorded() throws Exception {
+        final DeviceCommandCompiler compiler = cmd -> () -> {
+            if (cmd.equals("Moving2")) {
+                throw new IllegalStateException("failing on purpose");
+            }
+        };
+        final StateMachine machine = compile("effects_everywhere.json", Map.of(5, compiler), metered).newInstance();
+
+        machine.injectEvent(3, "move ya");
+        machine.injectEvent(3, "move ya");
+        machine.injectEvent(3, "fly away");
+        machine.injectEvent(4, "unknown");
+        machine.injectEvents(new EventBatch().add(3, "nope").add(9, "nope"));
+
+        assertEquals(1, metrics.getTransitionCount("Start", "move"));
+        assertEquals(0, metrics.getTransitionCount("Stop", "move"));
+        assertEquals(1, metrics.getDwellTime("Start").getCount());
+        assertEquals(0, metrics.getDwellTime("Stop").getCount());
+        assertEquals(2, metrics.getUnhandledCount());
+        assertEquals(0, metrics.getIgnoredCount());
+        assertEquals(3, metrics.getUnknownCount());
+
+        for (String command : new String[]{"Exiting1", "Exiting2", "Moving1", "Moving2", "Entering1", "Entering2"}) {
+            assertEquals(1, metrics.getBehaviorLatency(5, command).getCount(), command);
+        }
+        assertEquals(1, metrics.getFailedBehaviorCount());
+    }
+
+    @Test
+    void ignoredTriggersAreCounted() throws Exception {
+        final StateMachine machine = compile("ignore_true.json", idleCompilers(10), metered).newConcurrentInstance();
+
+        machine.injectEvent(1, "move ya");
+        machine.injectEvent(2, "move ya");
+        assertEquals(1, metrics.getIgnoredCount());
+        assertEquals(1, metrics.getUnknownCount());
+        assertEquals(0, metrics.getBehaviorLatency(10, "Exit 'Start' ").getCount());
+    }
+
+    @Test
+    void machinesWithoutListenerAreNotMetered() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.TABLE, null);
+        assertEquals(TableStateMachineImpl.class, definition.newInstance().getClass());
+        assertEquals(MeteredTableStateMachineImpl.class,
+                compile("final_states.json", Map.of(), metered).newInstance().getClass());
+    }
+
+    @Test
+    void stateless4jDoesNotSupportMetrics() throws Exception {
+        final CompileOptions options = CompileOptions.builder()
+                .engine(ExecutionEngine.STATELESS4J).metricsListener(metrics).build();
+        assertThrows(IllegalArgumentException.class, () -> compile("final_states.json", Map.of(), options));
+    }
+
+    @Test
+    void histogramBucketsArePowersOfTwo() {
+        metrics.onBehavior(1, "cmd", 0, false);
+        metrics.onBehavior(1, "cmd", 1, false);
+        metrics.onBehavior(1, "cmd", 1000, false);
+        metrics.onBehavior(1, "cmd", 1023, false);
+        metrics.onBehavior(1, "cmd", Long.MAX_VALUE, false);
+
+        final StripedMetrics.Histogram histogram = metrics.getBehaviorLatency(1, "cmd");
+        assertEquals(5, histogram.getCount());
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(2, histogram.getBucketCount(10));
+        assertEquals(1, histogram.getBucketCount(StripedMetrics.Histogram.BUCKET_COUNT - 1));
+        assertEquals(1024, histogram.getPercentileUpperBound(80));
+        assertEquals(1, histogram.getPercentileUpperBound(20));
+        assertEquals(0, metrics.getBehaviorLatency(2, "cmd").getPercentileUpperBound(50));
+    }
+}
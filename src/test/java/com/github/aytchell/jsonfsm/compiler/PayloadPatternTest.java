@@ -0,0 +1,139 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.EventRouter;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.assertThrowsAndMessageReadsLike;
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadPatternTest {
+    @Test
+    void mostSpecificTriggerWins() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("payload_patterns.json"));
+
+        assertEquals(0, compiler.resolveTrigger(7, "door/1/open"));
+        assertEquals(1, compiler.resolveTrigger(7, "door/12/open"));
+        assertEquals(1, compiler.resolveTrigger(7, "door//open"));
+        assertEquals(2, compiler.resolveTrigger(7, "door/3/locked"));
+        assertEquals(3, compiler.resolveTrigger(7, "door/3/opened"));
+        assertEquals(3, compiler.resolveTrigger(7, "door/"));
+        assertEquals(4, compiler.resolveTrigger(7, "window/1/open"));
+        assertEquals(4, compiler.resolveTrigger(7, ""));
+        assertEquals(5, compiler.resolveTrigger(8, "tür/3/zu"));
+        assertEquals(StateMachine.UNKNOWN_TRIGGER, compiler.resolveTrigger(8, "tür/3/auf"));
+        assertEquals(StateMachine.UNKNOWN_TRIGGER, compiler.resolveTrigger(9, "door/1/open"));
+    }
+
+    @Test
+    void bytesAreMatchedLikeCharacters() {
+        final EventTranslator translator = new EventTranslator();
+        translator.addPattern(1, "tür/*/zu", 0);
+        translator.addPattern(1, "tür/🚪*", 1);
+        translator.addPattern(1, "*", 2);
+        translator.compileMatchers();
+
+        for (String payload : List.of("tür/3/zu", "tür/🚪/zu", "tür/ä/auf", "tur/3/zu")) {
+            final int expected = translator.getTrigger(1, payload);
+            final byte[] bytes = ("xx" + payload).getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length - 2).put(bytes, 2, bytes.length - 2);
+
+            assertEquals(expected, translator.getTrigger(1, new StringBuilder(payload)));
+            assertEquals(expected, translator.getTrigger(1, bytes, 2, bytes.length - 2));
+            assertEquals(expected, translator.getTrigger(1, direct.flip()));
+        }
+        assertEquals(0, translator.getTrigger(1, "tür/3/zu"));
+        assertEquals(1, translator.getTrigger(1, "tür/🚪/zu"));
+        assertEquals(2, translator.getTrigger(1, "tür/ä/auf"));
+    }
+
+    @Test
+    void automatonSizeIsLimited() {
+        // after reading some of the letters, the automaton has to know which of them it has seen: 2^20 states
+        final EventTranslator translator = new EventTranslator();
+        for (int i = 0; i < 20; ++i) {
+            translator.addPattern(4, "*" + (char) ('a' + i) + "*z", i);
+        }
+
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class, translator::compileMatchers);
+        assertEquals("The payload patterns of event source 4 are too complex: matching them needs more than "
+                + PatternMatcher.MAX_STATES + " automaton states", e.getMessage());
+    }
+
+    @Test
+    void patternsAreCompared() {
+        final PayloadPattern prefix = new PayloadPattern("door/*");
+        final PayloadPattern suffix = new PayloadPattern("*/open");
+        final PayloadPattern both = new PayloadPattern("door/**/open");
+
+        assertTrue(prefix.overlaps(suffix));
+        assertFalse(prefix.includes(suffix));
+        assertFalse(suffix.includes(prefix));
+        assertTrue(prefix.includes(both));
+        assertTrue(suffix.includes(both));
+        assertTrue(both.isMoreSpecificThan(prefix));
+        assertEquals(1, both.getWildcardCount());
+        assertFalse(new PayloadPattern("a*b").overlaps(new PayloadPattern("a*c")));
+        assertTrue(new PayloadPattern("*a*").overlaps(new PayloadPattern("b*")));
+    }
+
+    @Test
+    void ambiguousPatternsAreRejected() throws Exception {
+        final String json = readResourceTextFile("payload_patterns.json");
+
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("door/*/locked", "*/open/*")),
+                List.of("'triggers[2].eventPayloadPattern'", "value: '*/open/*'", "overlapping pattern of trigger",
+                        "'doorOpened'"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("door/*/locked", "door/**")),
+                List.of("'triggers[3].eventPayloadPattern'", "value: 'door/*'", "'doorLocked'"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"eventPayload\": \"door/1/open\"",
+                        "\"eventPayload\": \"door/1/open\", \"eventPayloadPattern\": \"door/1/*\"")),
+                List.of("'triggers[0].eventPayloadPattern'", "not given together with an eventPayload"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("door/*/locked", "door/*/open")),
+                List.of("(eventSourceId/eventPayload)", "(7/door/*/open)", "is unique"));
+    }
+
+    @Test
+    void machinesAreDrivenByPatterns() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("payload_patterns.json"));
+        final StateMachine machine = compiler.compileStateMachine(Map.of());
+
+        machine.injectEvent(7, "door/5/locked");
+        assertEquals("DoorLocked", machine.getCurrentState());
+        machine.injectEvent(7, "whatever");
+        assertEquals("Idle", machine.getCurrentState());
+
+        final StateMachineCompiler loaded = StateMachineParser.loadBinary(ByteBuffer.wrap(compiler.toBinary()));
+        assertEquals(compiler.getFingerprint(), loaded.getFingerprint());
+        assertEquals(2, loaded.resolveTrigger(7, "door/5/locked"));
+    }
+
+    @Test
+    void routersDeliverMatchingPayloads() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("payload_patterns.json"));
+        final StateMachine patterns = compiler.compileStateMachine(Map.of());
+        final StateMachine exact = StateMachineParser.parse(readResourceTextFile("final_states.json"))
+                .compileStateMachine(Map.of());
+        final EventRouter router = new EventRouter();
+        router.register(patterns);
+        router.register(exact);
+
+        assertEquals(1, router.route(8, "tür/1/zu"));
+        assertEquals("Gate", patterns.getCurrentState());
+        assertEquals(0, router.route(8, "tür/1/auf"));
+        assertEquals(1, router.route(7, "window"));
+        assertEquals("Idle", patterns.getCurrentState());
+
+        assertTrue(router.unregister(patterns));
+        assertEquals(0, router.route(7, "door/1/open"));
+        assertEquals(1, router.route(1, "move ya"));
+    }
+}
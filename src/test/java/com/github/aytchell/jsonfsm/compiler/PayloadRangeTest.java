@@ -0,0 +1,130 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.EventRouter;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.assertThrowsAndMessageReadsLike;
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadRangeTest {
+    @Test
+    void rangesAreHalfOpen() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("payload_ranges.json"));
+
+        assertEquals(0, compiler.resolveTrigger(3, "-5"));
+        assertEquals(0, compiler.resolveTrigger(3, "-0.000001"));
+        assertEquals(1, compiler.resolveTrigger(3, "0.0"));
+        assertEquals(1, compiler.resolveTrigger(3, "-0"));
+        assertEquals(1, compiler.resolveTrigger(3, "17.999"));
+        assertEquals(2, compiler.resolveTrigger(3, "18"));
+        assertEquals(2, compiler.resolveTrigger(3, "1.8e1"));
+        assertEquals(2, compiler.resolveTrigger(3, "29.99999999999999"));
+        assertEquals(3, compiler.resolveTrigger(3, "30"));
+        assertEquals(3, compiler.resolveTrigger(3, "12345678901234567890"));
+        // exact payloads come first; patterns last
+        assertEquals(4, compiler.resolveTrigger(3, "0"));
+        assertEquals(5, compiler.resolveTrigger(3, "warm"));
+        assertEquals(5, compiler.resolveTrigger(3, " 20"));
+        assertEquals(StateMachine.UNKNOWN_TRIGGER, compiler.resolveTrigger(4, "20"));
+    }
+
+    @Test
+    void payloadsAreParsedLikeDoubles() {
+        for (String number : List.of("0", "-0", "+7", "23.5", ".5", "5.", "007", "0.001", "1e3", "1E-3", "-2.5e+2",
+                "3.14159265358979323846", "123456789012345678901", "9007199254740993", "1e-30", "1e400",
+                "0.30000000000000004", "1.7976931348623157e308", "4.9e-324")) {
+            assertEquals(Double.parseDouble(number), RangeIndex.parse(number, 0, number.length()), number);
+            final byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(Double.parseDouble(number), RangeIndex.parse(bytes, 0, bytes.length), number);
+            assertEquals(Double.parseDouble(number), RangeIndex.parse(ByteBuffer.wrap(bytes), 0, bytes.length), number);
+        }
+        for (String garbage : List.of("", "-", ".", "+.", "e5", "1e", "1e+", "1.2.3", "0x10", "1d", "NaN", "Infinity",
+                " 1", "1 ", "1,5", "²")) {
+            assertTrue(Double.isNaN(RangeIndex.parse(garbage, 0, garbage.length())), garbage);
+        }
+    }
+
+    @Test
+    void bytesAreMatchedLikeCharacters() {
+        final EventTranslator translator = new EventTranslator();
+        translator.addRange(1, null, -10.0, 0);
+        translator.addRange(1, 2.5, 3.0, 1);
+        translator.addRange(1, 100.0, null, 2);
+        translator.compileMatchers();
+
+        for (String payload : List.of("-11", "-10", "2.5", "2.75", "3", "99.9", "100", "1e9", "x")) {
+            final int expected = translator.getTrigger(1, payload);
+            final byte[] bytes = ("xx" + payload).getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length - 2).put(bytes, 2, bytes.length - 2);
+
+            assertEquals(expected, translator.getTrigger(1, new StringBuilder(payload)));
+            assertEquals(expected, translator.getTrigger(1, bytes, 2, bytes.length - 2));
+            assertEquals(expected, translator.getTrigger(1, direct.flip()));
+        }
+        assertEquals(0, translator.getTrigger(1, "-11"));
+        assertEquals(StateMachine.UNKNOWN_TRIGGER, translator.getTrigger(1, "-10"));
+        assertEquals(1, translator.getTrigger(1, "2.75"));
+        assertEquals(StateMachine.UNKNOWN_TRIGGER, translator.getTrigger(1, "3"));
+        assertEquals(2, translator.getTrigger(1, "1e9"));
+    }
+
+    @Test
+    void invalidRangesAreRejected() throws Exception {
+        final String json = readResourceTextFile("payload_ranges.json");
+
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"from\": 18", "\"from\": 17")),
+                List.of("'triggers[2].eventPayloadRange'", "value: '[17.0, 30.0)'",
+                        "doesn't overlap the range of trigger 'cold'"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"below\": 0", "\"below\": 40")),
+                List.of("'triggers[1].eventPayloadRange'", "doesn't overlap the range of trigger 'freezing'"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"from\": 30", "\"from\": 20")),
+                List.of("'triggers[3].eventPayloadRange'", "value: '[20.0, )'",
+                        "doesn't overlap the range of trigger 'comfortable'"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"below\": 30", "\"below\": 18")),
+                List.of("'triggers[2].eventPayloadRange'", "lower bound ('from') smaller than its upper bound"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"below\": 0", "")),
+                List.of("'triggers[0].eventPayloadRange'", "has a lower or an upper bound"));
+        assertThrowsAndMessageReadsLike(() -> StateMachineParser.parse(json.replace("\"name\": \"hot\",",
+                        "\"name\": \"hot\", \"eventPayload\": \"30\",")),
+                List.of("'triggers[3].eventPayloadRange'", "not given together with an eventPayload"));
+    }
+
+    @Test
+    void machinesAreDrivenByRanges() throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("payload_ranges.json"));
+        final StateMachine machine = compiler.compileStateMachine(Map.of());
+
+        machine.injectEvent(3, "31.5");
+        assertEquals("Hot", machine.getCurrentState());
+        machine.injectEvent(3, "n/a");
+        assertEquals("Idle", machine.getCurrentState());
+
+        final StateMachineCompiler loaded = StateMachineParser.loadBinary(ByteBuffer.wrap(compiler.toBinary()));
+        assertEquals(compiler.getFingerprint(), loaded.getFingerprint());
+        assertEquals(0, loaded.resolveTrigger(3, "-40"));
+        assertEquals(3, loaded.resolveTrigger(3, "40"));
+    }
+
+    @Test
+    void routersDeliverNumbersInRange() throws Exception {
+        final StateMachine ranges = StateMachineParser.parse(readResourceTextFile("payload_ranges.json"))
+                .compileStateMachine(Map.of());
+        final EventRouter router = new EventRouter();
+        router.register(ranges);
+
+        assertEquals(1, router.route(3, "21"));
+        assertEquals("Comfortable", ranges.getCurrentState());
+        assertEquals(0, router.route(2, "21"));
+        assertTrue(router.unregister(ranges));
+        assertEquals(0, router.route(3, "21"));
+    }
+}
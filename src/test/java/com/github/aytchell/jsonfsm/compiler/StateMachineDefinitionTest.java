@@ -0,0 +1,85 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateMachineDefinitionTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void instancesHaveIndependentStates(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("final_states.json"));
+        final StateMachineDefinition definition = compiler.compileDefinition(
+                Map.of(), CompileOptions.builder().engine(engine).build());
+        assertEquals(Set.of(1), definition.getHandledEventSourceIds());
+        assertTrue(definition.getControlledDeviceIds().isEmpty());
+
+        final StateMachine first = definition.newInstance();
+        final StateMachine second = definition.newInstance();
+        first.injectEvent(1, "move ya");
+        assertEquals("Two", first.getCurrentState());
+        assertEquals("One", second.getCurrentState());
+
+        second.injectEvent(1, "move ya");
+        second.injectEvent(1, "move ya");
+        assertEquals("Two", first.getCurrentState());
+        assertEquals("Three", second.getCurrentState());
+        assertEquals("One", definition.newInstance().getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void compileAndInstantiateConcurrently(ExecutionEngine engine) throws Exception {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("final_states.json"));
+        final CompileOptions options = CompileOptions.builder().engine(engine).build();
+        final StateMachineDefinition shared = compiler.compileDefinition(Map.of(), options);
+
+        final Callable<String> task = () -> {
+            final StateMachineDefinition own = compiler.compileDefinition(Map.of(), options);
+            final StringBuilder states = new StringBuilder();
+            for (int i = 0; i < 1000; ++i) {
+                final StateMachine machine = (i % 2 == 0) ? own.newInstance() : shared.newInstance();
+                for (int events = 0; events <= i % 3; ++events) {
+                    machine.injectEvent(1, "move ya");
+                }
+                states.append(machine.getCurrentState());
+            }
+            return states.toString();
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; ++i) {
+                results.add(executor.submit(task));
+            }
+            final String expected = task.call();
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -103,6 +103,12 @@ public class StateMachinePojoValidatorTest {
                 List.of("states", "name", "Start", "is unique"));
     }
 
+    @Test
+    void firstStateWithADuplicateIsReported() {
+        parseFileAssertThrowsAndMessageReadsLike("several_duplicate_state_names.json",
+                List.of("'states[0].name'", "Start", "is unique (same as states[3])"));
+    }
+
     @Test
     void triggersWithSameName() {
         parseFileAssertThrowsAndMessageReadsLike("duplicate_trigger_names.json",
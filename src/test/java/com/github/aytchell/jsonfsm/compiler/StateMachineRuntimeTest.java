@@ -0,0 +1,186 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.RuntimeOptions;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateMachineRuntimeTest {
+    private static final int SUBMITTERS = 4;
+    private static final int KEYS_PER_SUBMITTER = 5_000;
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void instancesAreKeptApart(ExecutionEngine engine) throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", engine, null);
+        final Map<Long, String> finals = new ConcurrentHashMap<>();
+        final int move = definition.resolveTrigger(1, "move ya");
+
+        try (StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder()
+                .workerCount(3)
+                .finalStateListener(finals::put)
+                .build())) {
+            assertEquals(3, runtime.getWorkerCount());
+
+            final List<Thread> submitters = new ArrayList<>();
+            for (int s = 0; s < SUBMITTERS; ++s) {
+                final long firstKey = (long) s * KEYS_PER_SUBMITTER;
+                submitters.add(new Thread(() -> {
+                    for (long key = firstKey; key < firstKey + KEYS_PER_SUBMITTER; ++key) {
+                        // key 'n' is moved (n % 3) times: One, Two or Three
+                        for (int i = 0; i < key % 3; ++i) {
+                            if (i == 0) {
+                                assertTrue(runtime.submit(key, 1, "move ya"));
+                            } else {
+                                runtime.submitTrigger(key, move);
+                            }
+                        }
+                    }
+                }));
+            }
+            submitters.forEach(Thread::start);
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+
+            for (long key = 0; key < SUBMITTERS * KEYS_PER_SUBMITTER; key += 97) {
+                final String expected = key % 3 == 0 ? "One" : key % 3 == 1 ? "Two" : "Three";
+                assertEquals(expected, runtime.queryState(key).get(10, TimeUnit.SECONDS));
+            }
+        }
+
+        // only the transitions into 'Three' reached a final state ('One' is only the initial state)
+        assertEquals(SUBMITTERS * KEYS_PER_SUBMITTER / 3, finals.size());
+        finals.forEach((key, state) -> {
+            assertEquals(2, key % 3);
+            assertEquals("Three", state);
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void removedInstancesStartOver(ExecutionEngine engine) throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", engine, null);
+        final int move = definition.resolveTrigger(1, "move ya");
+        final AtomicReference<StateMachineRuntime> holder = new AtomicReference<>();
+
+        try (StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder()
+                .workerCount(2)
+                .finalStateListener((key, state) -> holder.get().remove(key))
+                .build())) {
+            holder.set(runtime);
+            for (long key = 0; key < 1000; ++key) {
+                runtime.submitTrigger(key, move);
+            }
+            for (long key = 0; key < 1000; key += 2) {
+                runtime.remove(key);
+            }
+            for (long key = 0; key < 1000; ++key) {
+                final String expected = key % 2 == 0 ? "One" : "Two";
+                assertEquals(expected, runtime.queryState(key).get(10, TimeUnit.SECONDS));
+            }
+
+            // reaching the final state removes the instance (via the listener); the removal might
+            // be posted behind the first query but it's applied before the answer arrives
+            runtime.submitTrigger(1, move);
+            assertTrue(List.of("Three", "One").contains(runtime.queryState(1).get(10, TimeUnit.SECONDS)));
+            assertEquals("One", runtime.queryState(1).get(10, TimeUnit.SECONDS));
+            runtime.submitTrigger(1, move);
+            assertEquals("Two", runtime.queryState(1).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void listenersMayCloseTheRuntime() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.TABLE, null);
+        final AtomicReference<StateMachineRuntime> holder = new AtomicReference<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder()
+                .workerCount(2)
+                .finalStateListener((key, state) -> {
+                    holder.get().close();
+                    closed.countDown();
+                })
+                .build());
+        holder.set(runtime);
+
+        runtime.submit(1, 1, "move ya");
+        runtime.submit(1, 1, "move ya");
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertThrows(IllegalStateException.class, () -> runtime.submit(1, 1, "move ya"));
+        // closing again (and from another thread) doesn't wait for anything either
+        runtime.close();
+    }
+
+    @Test
+    void crowdedWorkersMakeSubmittersWait() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executed = new AtomicInteger();
+        final StateMachineDefinition definition = compile("self_transition_effect.json", Map.of(10, cmd -> () -> {
+            if (executed.getAndIncrement() == 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }), ExecutionEngine.TABLE);
+        final int events = PartitionedRuntime.MAX_PENDING + 10;
+
+        try (StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder().workerCount(1).build())) {
+            final AtomicInteger submitted = new AtomicInteger();
+            final Thread submitter = new Thread(() -> {
+                for (int i = 0; i < events; ++i) {
+                    runtime.submit(1, 1, "move ya");
+                    submitted.incrementAndGet();
+                }
+            });
+            submitter.start();
+
+            // the worker is stuck in the first behavior; so the submitter has to wait at some point
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (submitter.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(Thread.State.WAITING, submitter.getState());
+            assertTrue(submitted.get() < events);
+
+            release.countDown();
+            submitter.join(10_000);
+            assertEquals(events, submitted.get());
+            assertEquals("Start", runtime.queryState(1).get(10, TimeUnit.SECONDS));
+            assertEquals(events, executed.get());
+        }
+    }
+
+    @Test
+    void unknownEventsAndClosedRuntimesAreRejected() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.TABLE, null);
+        final StateMachineRuntime runtime = definition.newRuntime(RuntimeOptions.builder().workerCount(1).build());
+
+        assertFalse(runtime.submit(1, 2, "move ya"));
+        assertThrows(IllegalArgumentException.class, () -> runtime.submitTrigger(1, StateMachine.UNKNOWN_TRIGGER));
+        assertEquals("One", runtime.queryState(1).get(10, TimeUnit.SECONDS));
+
+        runtime.close();
+        assertThrows(IllegalStateException.class, () -> runtime.submit(1, 1, "move ya"));
+        assertThrows(IllegalArgumentException.class,
+                () -> definition.newRuntime(RuntimeOptions.builder().workerCount(0).build()));
+    }
+}
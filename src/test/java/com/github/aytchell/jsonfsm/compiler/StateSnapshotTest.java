@@ -0,0 +1,176 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.Fingerprint;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.jsonfsm.StateSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateSnapshotTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void restoringDoesNotExecuteBehaviors(ExecutionEngine engine) throws Exception {
+        final List<String> executed = new ArrayList<>();
+        final StateMachine source = compile("effects_everywhere.json", engine, executed).newInstance();
+        source.injectEvent(3, "move ya");
+        executed.clear();
+
+        final StateSnapshot snapshot = source.snapshot();
+        final StateMachine target = compile("effects_everywhere.json", engine, executed).newInstance();
+        target.restore(snapshot);
+
+        assertEquals(1, snapshot.getStateOrdinal());
+        assertEquals("Stop", target.getCurrentState());
+        assertEquals(List.of(), executed);
+        assertSame(snapshot, source.snapshot());
+    }
+
+    @Test
+    void snapshotsCanBeRestoredByOtherEngines() throws Exception {
+        final StateMachine table = compile("final_states.json", ExecutionEngine.TABLE, null).newInstance();
+        final StateMachine stateless4j = compile("final_states.json", ExecutionEngine.STATELESS4J, null).newInstance();
+        table.injectEvent(1, "move ya");
+
+        stateless4j.restore(table.snapshot());
+        assertEquals("Two", stateless4j.getCurrentState());
+        assertFalse(stateless4j.isCurrentStateFinal());
+        stateless4j.injectEvent(1, "move ya");
+        assertEquals("Three", stateless4j.getCurrentState());
+
+        table.restore(stateless4j.snapshot());
+        assertEquals("Three", table.getCurrentState());
+        assertTrue(table.isCurrentStateFinal());
+        assertEquals(table.snapshot(), stateless4j.snapshot());
+    }
+
+    @Test
+    void concurrentInstancesRestoreViaTheirMailbox() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.TABLE, null);
+        final StateMachine machine = definition.newConcurrentInstance();
+
+        machine.restore(new StateSnapshot(definition.getFingerprint(), 2));
+
+        assertEquals("Three", machine.getCurrentState());
+        assertEquals(2, machine.snapshot().getStateOrdinal());
+        machine.injectEvent(1, "move ya");
+        assertEquals("One", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void foreignSnapshotsAreRejected(ExecutionEngine engine) throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", engine, null);
+        final StateMachine machine = definition.newInstance();
+        final StateMachine other = compile("effects_everywhere.json", engine, new ArrayList<>()).newInstance();
+
+        assertThrows(IllegalArgumentException.class, () -> machine.restore(other.snapshot()));
+        assertThrows(IllegalArgumentException.class,
+                () -> machine.restore(new StateSnapshot(definition.getFingerprint(), 3)));
+        assertThrows(IllegalArgumentException.class,
+                () -> definition.newConcurrentInstance().restore(new StateSnapshot(definition.getFingerprint(), -1)));
+        assertEquals("One", machine.getCurrentState());
+    }
+
+    @Test
+    void manyInstancesAreWrittenAndRestoredInBulk() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.TABLE, null);
+        final List<StateMachine> machines = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            final StateMachine machine = definition.newInstance();
+            for (int j = 0; j < i % 3; ++j) {
+                machine.injectEvent(1, "move ya");
+            }
+            machines.add(machine);
+        }
+
+        final int size = StateSnapshot.sizeOf(machines);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(size + 5);
+        buffer.put((byte) 42);
+        StateSnapshot.writeAll(machines, buffer);
+        assertEquals(1 + size, buffer.position());
+        // one byte per instance plus a small header
+        assertTrue(size < 1100);
+
+        final List<StateMachine> restored = new ArrayList<>();
+        for (int i = 0; i < machines.size(); ++i) {
+            restored.add(compile("final_states.json", ExecutionEngine.STATELESS4J, null).newInstance());
+        }
+        buffer.flip().position(1);
+        StateSnapshot.restoreAll(buffer, restored);
+
+        assertEquals(1 + size, buffer.position());
+        for (int i = 0; i < machines.size(); ++i) {
+            assertEquals(machines.get(i).getCurrentState(), restored.get(i).getCurrentState());
+        }
+    }
+
+    @Test
+    void largeDefinitionsUseWiderOrdinals() throws Exception {
+        final StringBuilder json = new StringBuilder("{\"initialState\":\"S0\",\"triggers\":[{\"name\":\"next\","
+                + "\"eventSourceId\":1,\"eventPayload\":\"next\"}],\"states\":[");
+        for (int i = 0; i < 300; ++i) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"S").append(i).append("\",\"transitions\":[{")
+                    .append("\"triggerName\":\"next\",\"targetState\":\"S").append((i + 1) % 300).append("\"}]}");
+        }
+        final StateMachineDefinition definition = StateMachineParser.parse(json.append("]}").toString())
+                .compileDefinition(Map.of());
+        final StateMachine machine = definition.newInstance();
+        machine.restore(new StateSnapshot(definition.getFingerprint(), 299));
+        final List<StateMachine> machines = List.of(definition.newInstance(), machine);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(StateSnapshot.sizeOf(machines));
+        StateSnapshot.writeAll(machines, buffer);
+        final List<StateMachine> restored = List.of(definition.newInstance(), definition.newInstance());
+        StateSnapshot.restoreAll(buffer.flip(), restored);
+
+        assertEquals("S0", restored.get(0).getCurrentState());
+        assertEquals("S299", restored.get(1).getCurrentState());
+        restored.get(1).injectEvent(1, "next");
+        assertEquals("S0", restored.get(1).getCurrentState());
+    }
+
+    @Test
+    void invalidBulkInputIsRejected() throws Exception {
+        final StateMachineDefinition definition = compile("final_states.json", ExecutionEngine.TABLE, null);
+        final List<StateMachine> machines = List.of(definition.newInstance(), definition.newInstance());
+        final StateMachine other = compile("effects_everywhere.json", ExecutionEngine.TABLE, new ArrayList<>())
+                .newInstance();
+
+        assertThrows(BufferOverflowException.class,
+                () -> StateSnapshot.writeAll(machines, ByteBuffer.allocate(StateSnapshot.sizeOf(machines) - 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> StateSnapshot.writeAll(List.of(machines.get(0), other), ByteBuffer.allocate(100)));
+        assertThrows(IllegalArgumentException.class,
+                () -> StateSnapshot.restoreAll(ByteBuffer.allocate(100), machines));
+
+        final ByteBuffer buffer = ByteBuffer.allocate(StateSnapshot.sizeOf(machines));
+        StateSnapshot.writeAll(machines, buffer);
+        buffer.flip();
+        assertThrows(IllegalArgumentException.class, () -> StateSnapshot.restoreAll(buffer, List.of(other)));
+        assertThrows(IllegalArgumentException.class, () -> StateSnapshot.restoreAll(buffer, List.of(other, other)));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void definitionsKnowTheirFingerprint() throws Exception {
+        final Fingerprint expected = StateMachineParser.parse(readResourceTextFile("final_states.json"))
+                .getFingerprint();
+
+        assertEquals(expected, compile("final_states.json", ExecutionEngine.TABLE, null).getFingerprint());
+        assertEquals(expected, compile("final_states.json", ExecutionEngine.STATELESS4J, null).getFingerprint());
+    }
+}
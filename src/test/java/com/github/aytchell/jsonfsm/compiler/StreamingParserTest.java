@@ -0,0 +1,91 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.assertThrowsAndMessageReadsLike;
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingParserTest {
+    @Test
+    void allSourcesYieldTheSameStateMachine(@TempDir Path directory) throws IOException, ValidationException {
+        final String json = readResourceTextFile("multiple_devices_and_cmds.json");
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final StateMachineCompiler expected = StateMachineParser.parse(json);
+
+        final Path file = directory.resolve("machine.json");
+        Files.write(file, bytes);
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2);
+        direct.put((byte) ' ').put(bytes).flip().position(1);
+        final ByteBuffer heap = ByteBuffer.wrap(bytes);
+
+        final List<StateMachineCompiler> compilers = List.of(
+                StateMachineParser.parseStream(new ByteArrayInputStream(bytes)),
+                StateMachineParser.parseReader(new StringReader(json)),
+                StateMachineParser.parseFile(file),
+                StateMachineParser.parseBuffer(heap),
+                StateMachineParser.parseBuffer(direct));
+        for (StateMachineCompiler compiler : compilers) {
+            assertEquals(expected.getFingerprint(), compiler.getFingerprint());
+            assertEquals(expected.getRequiredDevices(), compiler.getRequiredDevices());
+            assertEquals(expected.getAcceptedEventSources(), compiler.getAcceptedEventSources());
+        }
+
+        // the buffers are left untouched
+        assertEquals(0, heap.position());
+        assertEquals(1, direct.position());
+    }
+
+    @Test
+    void streamsAndReadersAreNotClosed() throws IOException, ValidationException {
+        final String json = readResourceTextFile("multiple_devices_and_cmds.json");
+        final AtomicBoolean streamClosed = new AtomicBoolean(false);
+        final AtomicBoolean readerClosed = new AtomicBoolean(false);
+
+        StateMachineParser.parseStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                streamClosed.set(true);
+            }
+        });
+        StateMachineParser.parseReader(new StringReader(json) {
+            @Override
+            public void close() {
+                readerClosed.set(true);
+            }
+        });
+
+        assertFalse(streamClosed.get());
+        assertFalse(readerClosed.get());
+    }
+
+    @Test
+    void brokenOrMissingInputFailsProperly() {
+        assertThrowsAndMessageReadsLike(
+                () -> StateMachineParser.parseReader(new StringReader("{ \"initialState\" }")),
+                List.of("Error while parsing", "Unexpected character"));
+        assertThrowsAndMessageReadsLike(
+                () -> StateMachineParser.parseBuffer(ByteBuffer.wrap("{ \"states\" : [ }".getBytes())),
+                "Error while parsing");
+        assertThrowsAndMessageReadsLike(
+                () -> StateMachineParser.parseStream(null),
+                "'jsonStateMachine'");
+        assertThrows(IOException.class,
+                () -> StateMachineParser.parseFile(Path.of("does", "not", "exist.json")));
+    }
+}
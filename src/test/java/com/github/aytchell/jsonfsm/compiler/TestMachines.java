@@ -0,0 +1,58 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+
+public class TestMachines {
+    // the device used by most of the test resources
+    public static final int DEVICE_ID = 5;
+
+    /**
+     * Compiles the given resource with a compiler for {@link #DEVICE_ID} whose commands add their
+     * command strings to {@code executed}. Without a list (i.e. {@code null}) there are no command
+     * compilers at all.
+     */
+    public static StateMachineDefinition compile(String file, ExecutionEngine engine, List<String> executed)
+            throws IOException, ValidationException, CompilationException {
+        return compile(file, recordingCompilers(executed), engine);
+    }
+
+    public static StateMachineDefinition compile(String file, Map<Integer, DeviceCommandCompiler> compilers,
+                                                 ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        return compile(file, compilers, CompileOptions.builder().engine(engine).build());
+    }
+
+    public static StateMachineDefinition compile(String file, Map<Integer, DeviceCommandCompiler> compilers,
+                                                 CompileOptions options)
+            throws IOException, ValidationException, CompilationException {
+        return StateMachineParser.parse(readResourceTextFile(file)).compileDefinition(compilers, options);
+    }
+
+    public static StateMachineDefinition compile(StateMachineCompiler compiler, List<String> executed,
+                                                 CompileOptions options) throws CompilationException {
+        return compiler.compileDefinition(recordingCompilers(executed), options);
+    }
+
+    public static Map<Integer, DeviceCommandCompiler> recordingCompilers(List<String> executed) {
+        return executed == null ? Map.of() : Map.of(DEVICE_ID, cmd -> () -> executed.add(cmd));
+    }
+
+    // commands of the given device do nothing
+    public static Map<Integer, DeviceCommandCompiler> idleCompilers(int deviceId) {
+        return Map.of(deviceId, cmd -> () -> {
+        });
+    }
+}
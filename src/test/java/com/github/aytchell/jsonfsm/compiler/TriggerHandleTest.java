@@ -0,0 +1,62 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.CompilationException;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.DeviceCommandCompiler;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineCompiler;
+import com.github.aytchell.jsonfsm.StateMachineDefinition;
+import com.github.aytchell.jsonfsm.StateMachineParser;
+import com.github.aytchell.validator.exceptions.ValidationException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.github.aytchell.jsonfsm.compiler.ExceptionMessageChecks.readResourceTextFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TriggerHandleTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void resolvedTriggersCanBeInjected(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StateMachineCompiler compiler = StateMachineParser.parse(
+                readResourceTextFile("multiple_devices_and_cmds.json"));
+        final int move = compiler.resolveTrigger(1, "move ya");
+        final int stop = compiler.resolveTrigger(2, "stop it");
+        assertNotEquals(StateMachine.UNKNOWN_TRIGGER, move);
+        assertNotEquals(StateMachine.UNKNOWN_TRIGGER, stop);
+        assertNotEquals(move, stop);
+        assertEquals(StateMachine.UNKNOWN_TRIGGER, compiler.resolveTrigger(1, "stop it"));
+
+        final StringBuffer buffer = new StringBuffer();
+        final Map<Integer, DeviceCommandCompiler> compilers = new HashMap<>();
+        compiler.getRequiredDevices().forEach(id -> compilers.put(id, cmd -> () -> buffer.append(cmd)));
+        final StateMachineDefinition definition = compiler.compileDefinition(
+                compilers, CompileOptions.builder().engine(engine).build());
+        final StateMachine machine = definition.newInstance();
+        assertEquals(move, definition.resolveTrigger(1, "move ya"));
+        assertEquals(stop, machine.resolveTrigger(2, "stop it"));
+
+        assertFalse(machine.injectTrigger(stop));
+        assertEquals("Stop", machine.getCurrentState());
+        assertEquals("Cmd1 Cmd2 Cmd3 Cmd4 ", buffer.toString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void invalidHandlesAreRejected(ExecutionEngine engine)
+            throws IOException, ValidationException, CompilationException {
+        final StateMachineCompiler compiler = StateMachineParser.parse(readResourceTextFile("final_states.json"));
+        final StateMachine machine = compiler.compileStateMachine(
+                Map.of(), CompileOptions.builder().engine(engine).build());
+
+        assertThrows(IllegalArgumentException.class, () -> machine.injectTrigger(StateMachine.UNKNOWN_TRIGGER));
+        assertThrows(IllegalArgumentException.class, () -> machine.injectTrigger(1));
+        assertEquals("One", machine.getCurrentState());
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.EventBatch;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.UnhandledTriggerPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.idleCompilers;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnhandledTriggerPolicyTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void callbackReceivesUnhandledTriggers(ExecutionEngine engine) throws Exception {
+        final List<String> unhandled = new ArrayList<>();
+        final UnhandledTriggerPolicy policy = UnhandledTriggerPolicy.callback(
+                (state, trigger) -> unhandled.add(state + ":" + trigger));
+        final StateMachine machine = compile("effects_everywhere.json", idleCompilers(5),
+                CompileOptions.builder().engine(engine).unhandledTriggerPolicy(policy).build()).newInstance();
+
+        machine.injectEvent(3, "fly away");
+        machine.injectEvent(3, "move ya");
+        machine.injectEvent(3, "move ya");
+
+        assertEquals(List.of("Start:fly", "Stop:move"), unhandled);
+        assertEquals(2, policy.getUnhandledCount());
+        assertEquals("Stop", machine.getCurrentState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void countOnlyPolicyCountsBatches(ExecutionEngine engine) throws Exception {
+        final UnhandledTriggerPolicy policy = UnhandledTriggerPolicy.countOnly();
+        final StateMachine machine = compile("effects_everywhere.json", idleCompilers(5),
+                CompileOptions.builder().engine(engine).unhandledTriggerPolicy(policy).build()).newInstance();
+
+        final BatchResult result = machine.injectEvents(new EventBatch()
+                .add(3, "fly away").add(3, "move ya").add(3, "fly away").add(3, "move ya"));
+        assertEquals(3, result.getUnhandledCount());
+        assertEquals(1, result.getAcceptedCount());
+        assertEquals(3, policy.getUnhandledCount());
+    }
+
+    @Test
+    void policiesAreSharedByAllInstances() throws Exception {
+        final UnhandledTriggerPolicy policy = UnhandledTriggerPolicy.rateLimitedLog(Duration.ofHours(1));
+        final CompileOptions options = CompileOptions.builder().unhandledTriggerPolicy(policy).build();
+        final StateMachine first = compile("effects_everywhere.json", idleCompilers(5), options).newInstance();
+        final StateMachine second = compile("effects_everywhere.json", idleCompilers(5), options).newInstance();
+
+        for (int i = 0; i < 100; ++i) {
+            first.injectEvent(3, "fly away");
+            second.injectEvent(3, "fly away");
+        }
+        assertEquals(200, policy.getUnhandledCount());
+    }
+
+    @Test
+    void invalidPoliciesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> UnhandledTriggerPolicy.rateLimitedLog(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> UnhandledTriggerPolicy.callback(null));
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.aytchell.jsonfsm.compiler;
+
+import com.github.aytchell.jsonfsm.BatchResult;
+import com.github.aytchell.jsonfsm.CompileOptions;
+import com.github.aytchell.jsonfsm.EventBatch;
+import com.github.aytchell.jsonfsm.ExecutionEngine;
+import com.github.aytchell.jsonfsm.RuntimeOptions;
+import com.github.aytchell.jsonfsm.StateMachine;
+import com.github.aytchell.jsonfsm.StateMachineRuntime;
+import com.github.aytchell.jsonfsm.UnknownEventPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.compile;
+import static com.github.aytchell.jsonfsm.compiler.TestMachines.idleCompilers;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnknownEventPolicyTest {
+    @ParameterizedTest
+    @EnumSource(ExecutionEngine.class)
+    void unknownSourcesAndPayloadsAreCountedSeparately(ExecutionEngine engine) throws Exception {
+        final UnknownEventPolicy policy = UnknownEventPolicy.countOnly();
+        final StateMachine machine = compile("effects_everywhere.json", idleCompilers(5),
+                CompileOptions.builder().engine(engine).unknownEventPolicy(policy).build()).newInstance();
+        final byte[] bytes = "move it".getBytes(StandardCharsets.UTF_8);
+
+        machine.injectEvent(4, "move ya");
+        machine.injectEvent(3, "move it");
+        machine.injectEvent(3, new StringBuilder("move it"));
+        machine.injectEvent(3, bytes, 0, bytes.length);
+        machine.injectEvent(300, ByteBuffer.wrap(bytes));
+        final BatchResult result = machine.injectEvents(new EventBatch().add(5, "x").add(3, "y").add(3, "move ya"));
+
+        assertEquals(3, policy.getUnknownSourceCount());
+        assertEquals(4, policy.getUnknownPayloadCount());
+        assertEquals(2, result.getUnknownCount());
+        assertEquals("Stop", machine.getCurrentState());
+    }
+
+    @Test
+    void callbackReceivesDecodedPayloads() throws Exception {
+        final List<String> unknown = new ArrayList<>();
+        final UnknownEventPolicy policy = UnknownEventPolicy.callback((id, payload) -> unknown.add(id + ":" + payload));
+        final StateMachine machine = compile("effects_everywhere.json", idleCompilers(5),
+                CompileOptions.builder().unknownEventPolicy(policy).build()).newConcurrentInstance();
+
+        machine.injectEvent(3, "Grüße".getBytes(StandardCharsets.UTF_8), 0, 7);
+        machine.injectEvent(9, ByteBuffer.wrap("x".getBytes(StandardCharsets.UTF_8)));
+        machine.injectEvents(new EventBatch().add(7, "y"));
+
+        assertEquals(List.of("3:Grüße", "9:x"), unknown);
+        assertEquals(2, policy.getUnknownSourceCount());
+        assertEquals(1, policy.getUnknownPayloadCount());
+    }
+
+    @Test
+    void runtimeRejectsUnknownEvents() throws Exception {
+        final UnknownEventPolicy policy = UnknownEventPolicy.sampledLog(10);
+        final CompileOptions options = CompileOptions.builder().unknownEventPolicy(policy).build();
+        try (StateMachineRuntime runtime = compile("effects_everywhere.json", idleCompilers(5), options)
+                .newRuntime(RuntimeOptions.builder().workerCount(1).build())) {
+            for (int i = 0; i < 25; ++i) {
+                assertFalse(runtime.submit(i, 4, "move ya"));
+            }
+            assertTrue(runtime.submit(1, 3, "move ya"));
+        }
+        assertEquals(25, policy.getUnknownSourceCount());
+    }
+
+    @Test
+    void limitedPoliciesOnlyDescribeSomeEvents() {
+        final UnknownEventPolicy sampled = UnknownEventPolicy.sampledLog(3);
+        final List<Long> results = new ArrayList<>();
+        for (int i = 0; i < 7; ++i) {
+            results.add(PolicyAccess.reportUnknown(sampled, 1, false));
+        }
+        assertEquals(List.of(0L, -1L, -1L, 2L, -1L, -1L, 2L), results);
+
+        final UnknownEventPolicy rateLimited = UnknownEventPolicy.rateLimitedLog(Duration.ofHours(1));
+        assertEquals(0, PolicyAccess.reportUnknown(rateLimited, 1, true));
+        assertEquals(PolicyAccess.SUPPRESSED, PolicyAccess.reportUnknown(rateLimited, 1, true));
+        assertEquals(PolicyAccess.SUPPRESSED, PolicyAccess.reportUnknown(UnknownEventPolicy.countOnly(), 1, true));
+        assertEquals(0, PolicyAccess.reportUnknown(UnknownEventPolicy.logEveryTime(), 1, true));
+
+        assertThrows(IllegalArgumentException.class, () -> UnknownEventPolicy.sampledLog(0));
+        assertThrows(IllegalArgumentException.class, () -> UnknownEventPolicy.rateLimitedLog(Duration.ofSeconds(-1)));
+    }
+}